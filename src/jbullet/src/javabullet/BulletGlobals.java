@@ -61,6 +61,12 @@ public class BulletGlobals {
 	public static float gDeactivationTime = 2f;
 	public static boolean gDisableDeactivation = false;
 	
+	/**
+	 * When true, trigonometric functions in {@link javabullet.linearmath.ScalarUtil}
+	 * use StrictMath, so their results are the same on every JVM and platform.
+	 */
+	public static boolean gStrictMath = false;
+	
 	public static int gTotalContactPoints;
 	
 	// GjkPairDetector
@@ -44,17 +44,30 @@ public class BulletPool {
 	
 	/**
 	 * Returns per-thread object pool for given type, or create one if it doesn't exist.
+	 * New instances are created using reflection, prefer {@link #get(Class, ObjectFactory)}.
 	 * 
 	 * @param cls type
 	 * @return object pool
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> ObjectPool<T> get(Class<T> cls) {
+		return get(cls, null);
+	}
+	
+	/**
+	 * Returns per-thread object pool for given type, or create one if it doesn't exist.
+	 * 
+	 * @param cls type
+	 * @param factory factory used for creating new instances, used only when the pool
+	 *        is created, if null reflection is used instead
+	 * @return object pool
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ObjectPool<T> get(Class<T> cls, ObjectFactory<T> factory) {
 		Map map = threadLocal.get();
 		
 		ObjectPool<T> pool = (ObjectPool<T>)map.get(cls);
 		if (pool == null) {
-			pool = new ObjectPool<T>(cls);
+			pool = new ObjectPool<T>(factory != null? factory : ObjectPool.reflectiveFactory(cls));
 			map.put(cls, pool);
 		}
 		
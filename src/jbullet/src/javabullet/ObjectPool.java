@@ -32,23 +32,43 @@ import java.util.ArrayList;
  */
 public class ObjectPool<T> {
 	
-	private Class<T> cls;
+	private ObjectFactory<T> factory;
 	private ArrayList<T> list = new ArrayList<T>();
 	
+	public ObjectPool(ObjectFactory<T> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Creates object pool that uses reflection to create new instances. Prefer
+	 * the {@link ObjectFactory} variant.
+	 * 
+	 * @param cls type with public no-arg constructor
+	 */
 	public ObjectPool(Class<T> cls) {
-		this.cls = cls;
+		this(reflectiveFactory(cls));
 	}
 
-	private T create() {
-		try {
-			return cls.newInstance();
-		}
-		catch (InstantiationException e) {
-			throw new IllegalStateException(e);
-		}
-		catch (IllegalAccessException e) {
-			throw new IllegalStateException(e);
-		}
+	/**
+	 * Returns factory that creates instances of given type using reflection.
+	 * 
+	 * @param cls type with public no-arg constructor
+	 * @return factory
+	 */
+	public static <T> ObjectFactory<T> reflectiveFactory(final Class<T> cls) {
+		return new ObjectFactory<T>() {
+			public T create() {
+				try {
+					return cls.newInstance();
+				}
+				catch (InstantiationException e) {
+					throw new IllegalStateException(e);
+				}
+				catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
 	}
 	
 	/**
@@ -61,7 +81,7 @@ public class ObjectPool<T> {
 			return list.remove(list.size() - 1);
 		}
 		else {
-			return create();
+			return factory.create();
 		}
 	}
 	
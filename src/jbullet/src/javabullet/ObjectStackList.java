@@ -30,24 +30,20 @@ package javabullet;
  */
 public class ObjectStackList<T> extends StackList<T> {
 
-	private Class<T> cls;
+	private ObjectFactory<T> factory;
 	
-	public ObjectStackList(Class<T> cls) {
+	public ObjectStackList(ObjectFactory<T> factory) {
 		super(false);
-		this.cls = cls;
+		this.factory = factory;
+	}
+
+	public ObjectStackList(Class<T> cls) {
+		this(ObjectPool.reflectiveFactory(cls));
 	}
 
 	@Override
 	protected T create() {
-		try {
-			return cls.newInstance();
-		}
-		catch (InstantiationException e) {
-			throw new IllegalStateException(e);
-		}
-		catch (IllegalAccessException e) {
-			throw new IllegalStateException(e);
-		}
+		return factory.create();
 	}
 
 	@Override
@@ -0,0 +1,727 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * AxisSweep3
+ * Copyright (c) 2006 Simon Hobbs
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.broadphase;
+
+import java.nio.ByteBuffer;
+import javabullet.BulletStack;
+import javabullet.linearmath.AabbUtil2;
+import javabullet.linearmath.VectorUtil;
+import javax.vecmath.Vector3f;
+
+/**
+ * AxisSweep3Internal is an internal base class that implements sweep and prune.
+ * Use concrete implementation {@link AxisSweep3} or {@link AxisSweep3_32}.
+ *
+ * @author jezek2
+ */
+public abstract class AxisSweep3Internal implements BroadphaseInterface {
+
+	protected int bpHandleMask;
+	protected int handleSentinel;
+
+	protected final Vector3f worldAabbMin = new Vector3f(); // overall system bounds
+	protected final Vector3f worldAabbMax = new Vector3f(); // overall system bounds
+
+	protected final Vector3f quantize = new Vector3f();     // scaling factor for quantization
+
+	protected int numHandles;                               // number of active handles
+	protected int maxHandles;                               // max number of handles
+	protected Handle[] pHandles;                            // handles pool
+	protected int firstFreeHandle;                          // free handles list
+
+	protected EdgeArray[] pEdges = new EdgeArray[3];        // edge arrays for the 3 axes (each array has m_maxHandles * 2 + 2 sentinel entries)
+
+	protected OverlappingPairCache pairCache;
+	protected boolean ownsPairCache;
+
+	// JAVA NOTE: added temporary arrays for quantization
+	private final int[] min = new int[3];
+	private final int[] max = new int[3];
+
+	AxisSweep3Internal(Vector3f worldAabbMin, Vector3f worldAabbMax, int handleMask, int handleSentinel, int userMaxHandles, OverlappingPairCache pairCache) {
+		this.bpHandleMask = handleMask;
+		this.handleSentinel = handleSentinel;
+		this.pairCache = pairCache;
+
+		int maxHandles = userMaxHandles + 1; // need to add one sentinel handle
+
+		if (this.pairCache == null) {
+			this.pairCache = new OverlappingPairCache();
+			ownsPairCache = true;
+		}
+
+		//assert(bounds.HasVolume());
+
+		// init bounds
+		this.worldAabbMin.set(worldAabbMin);
+		this.worldAabbMax.set(worldAabbMax);
+
+		Vector3f aabbSize = new Vector3f();
+		aabbSize.sub(this.worldAabbMax, this.worldAabbMin);
+
+		int maxInt = this.handleSentinel;
+
+		quantize.set(maxInt / aabbSize.x, maxInt / aabbSize.y, maxInt / aabbSize.z);
+
+		// allocate handles buffer and put all handles on free list
+		pHandles = new Handle[maxHandles];
+		for (int i=0; i<maxHandles; i++) {
+			pHandles[i] = createHandle();
+		}
+		this.maxHandles = maxHandles;
+		this.numHandles = 0;
+
+		// handle 0 is reserved as the null index, and is also used as the sentinel
+		firstFreeHandle = 1;
+		{
+			for (int i=firstFreeHandle; i<maxHandles; i++) {
+				pHandles[i].setNextFree(i + 1);
+			}
+			pHandles[maxHandles - 1].setNextFree(0);
+		}
+
+		{
+			// allocate edge buffers
+			for (int i=0; i<3; i++) {
+				pEdges[i] = createEdgeArray(maxHandles*2);
+			}
+		}
+		//removed overlap management
+
+		// make boundary sentinels
+
+		pHandles[0].clientObject = null;
+
+		for (int axis = 0; axis < 3; axis++) {
+			pHandles[0].setMinEdges(axis, 0);
+			pHandles[0].setMaxEdges(axis, 1);
+
+			pEdges[axis].setPos(0, 0);
+			pEdges[axis].setHandle(0, 0);
+			pEdges[axis].setPos(1, handleSentinel);
+			pEdges[axis].setHandle(1, 0);
+			//#ifdef DEBUG_BROADPHASE
+			//debugPrintAxis(axis);
+			//#endif //DEBUG_BROADPHASE
+		}
+	}
+
+	// allocation/deallocation
+	protected int allocHandle() {
+		assert (firstFreeHandle != 0);
+
+		int handle = firstFreeHandle;
+		firstFreeHandle = getHandle(handle).getNextFree();
+		numHandles++;
+
+		return handle;
+	}
+
+	protected void freeHandle(int handle) {
+		assert (handle > 0 && handle < maxHandles);
+
+		getHandle(handle).setNextFree(firstFreeHandle);
+		firstFreeHandle = handle;
+
+		numHandles--;
+	}
+
+	protected boolean testOverlap2D(Handle pHandleA, Handle pHandleB, int axis0, int axis1) {
+		if (pHandleA.getMaxEdges(axis0) < pHandleB.getMinEdges(axis0) ||
+				pHandleB.getMaxEdges(axis0) < pHandleA.getMinEdges(axis0) ||
+				pHandleA.getMaxEdges(axis1) < pHandleB.getMinEdges(axis1) ||
+				pHandleB.getMaxEdges(axis1) < pHandleA.getMinEdges(axis1)) {
+			return false;
+		}
+		return true;
+	}
+
+	protected void quantize(int[] out, Vector3f point, int isMax) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		try {
+			Vector3f clampedPoint = stack.vectors.get(point);
+
+			VectorUtil.setMax(clampedPoint, worldAabbMin);
+			VectorUtil.setMin(clampedPoint, worldAabbMax);
+
+			Vector3f v = stack.vectors.get();
+			v.sub(clampedPoint, worldAabbMin);
+			VectorUtil.mul(v, v, quantize);
+
+			out[0] = ((int)v.x & bpHandleMask) | isMax;
+			out[1] = ((int)v.y & bpHandleMask) | isMax;
+			out[2] = ((int)v.z & bpHandleMask) | isMax;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	// sorting a min edge downwards can only ever *add* overlaps
+	protected void sortMinDown(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		EdgeArray edgeArray = pEdges[axis];
+		int pEdge_idx = edge;
+		int pPrev_idx = pEdge_idx - 1;
+
+		Handle pHandleEdge = getHandle(edgeArray.getHandle(pEdge_idx));
+
+		while (edgeArray.getPos(pEdge_idx) < edgeArray.getPos(pPrev_idx)) {
+			Handle pHandlePrev = getHandle(edgeArray.getHandle(pPrev_idx));
+
+			if (edgeArray.isMax(pPrev_idx) != 0) {
+				// if previous edge is a maximum check the bounds and add an overlap if necessary
+				int axis1 = (1 << axis) & 3;
+				int axis2 = (1 << axis1) & 3;
+				if (updateOverlaps && testOverlap2D(pHandleEdge, pHandlePrev, axis1, axis2)) {
+					pairCache.addOverlappingPair(pHandleEdge, pHandlePrev);
+				}
+
+				// update edge reference in other handle
+				pHandlePrev.incMaxEdges(axis);
+			}
+			else {
+				pHandlePrev.incMinEdges(axis);
+			}
+			pHandleEdge.decMinEdges(axis);
+
+			// swap the edges
+			edgeArray.swap(pEdge_idx, pPrev_idx);
+
+			// decrement
+			pEdge_idx--;
+			pPrev_idx--;
+		}
+
+		//#ifdef DEBUG_BROADPHASE
+		//debugPrintAxis(axis);
+		//#endif //DEBUG_BROADPHASE
+	}
+
+	// sorting a min edge upwards can only ever *remove* overlaps
+	protected void sortMinUp(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		EdgeArray edgeArray = pEdges[axis];
+		int pEdge_idx = edge;
+		int pNext_idx = pEdge_idx + 1;
+		Handle pHandleEdge = getHandle(edgeArray.getHandle(pEdge_idx));
+
+		while (edgeArray.getHandle(pNext_idx) != 0 && (edgeArray.getPos(pEdge_idx) >= edgeArray.getPos(pNext_idx))) {
+			Handle pHandleNext = getHandle(edgeArray.getHandle(pNext_idx));
+
+			if (edgeArray.isMax(pNext_idx) != 0) {
+				// if next edge is maximum remove any overlap between the two handles
+				int axis1 = (1 << axis) & 3;
+				int axis2 = (1 << axis1) & 3;
+				if (updateOverlaps && testOverlap2D(pHandleEdge, pHandleNext, axis1, axis2)) {
+					pairCache.removeOverlappingPairDeferred(pHandleEdge, pHandleNext);
+				}
+
+				// update edge reference in other handle
+				pHandleNext.decMaxEdges(axis);
+			}
+			else {
+				pHandleNext.decMinEdges(axis);
+			}
+			pHandleEdge.incMinEdges(axis);
+
+			// swap the edges
+			edgeArray.swap(pEdge_idx, pNext_idx);
+
+			// increment
+			pEdge_idx++;
+			pNext_idx++;
+		}
+	}
+
+	// sorting a max edge downwards can only ever *remove* overlaps
+	protected void sortMaxDown(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		EdgeArray edgeArray = pEdges[axis];
+		int pEdge_idx = edge;
+		int pPrev_idx = pEdge_idx - 1;
+		Handle pHandleEdge = getHandle(edgeArray.getHandle(pEdge_idx));
+
+		while (edgeArray.getPos(pEdge_idx) < edgeArray.getPos(pPrev_idx)) {
+			Handle pHandlePrev = getHandle(edgeArray.getHandle(pPrev_idx));
+
+			if (edgeArray.isMax(pPrev_idx) == 0) {
+				// if previous edge was a minimum remove any overlap between the two handles
+				int axis1 = (1 << axis) & 3;
+				int axis2 = (1 << axis1) & 3;
+				if (updateOverlaps && testOverlap2D(pHandleEdge, pHandlePrev, axis1, axis2)) {
+					pairCache.removeOverlappingPairDeferred(pHandleEdge, pHandlePrev);
+				}
+
+				// update edge reference in other handle
+				pHandlePrev.incMinEdges(axis);
+			}
+			else {
+				pHandlePrev.incMaxEdges(axis);
+			}
+			pHandleEdge.decMaxEdges(axis);
+
+			// swap the edges
+			edgeArray.swap(pEdge_idx, pPrev_idx);
+
+			// decrement
+			pEdge_idx--;
+			pPrev_idx--;
+		}
+
+		//#ifdef DEBUG_BROADPHASE
+		//debugPrintAxis(axis);
+		//#endif //DEBUG_BROADPHASE
+	}
+
+	// sorting a max edge upwards can only ever *add* overlaps
+	protected void sortMaxUp(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		EdgeArray edgeArray = pEdges[axis];
+		int pEdge_idx = edge;
+		int pNext_idx = pEdge_idx + 1;
+		Handle pHandleEdge = getHandle(edgeArray.getHandle(pEdge_idx));
+
+		while (edgeArray.getHandle(pNext_idx) != 0 && (edgeArray.getPos(pEdge_idx) >= edgeArray.getPos(pNext_idx))) {
+			Handle pHandleNext = getHandle(edgeArray.getHandle(pNext_idx));
+
+			if (edgeArray.isMax(pNext_idx) == 0) {
+				// if next edge is a minimum check the bounds and add an overlap if necessary
+				int axis1 = (1 << axis) & 3;
+				int axis2 = (1 << axis1) & 3;
+				if (updateOverlaps && testOverlap2D(pHandleEdge, pHandleNext, axis1, axis2)) {
+					pairCache.addOverlappingPair(pHandleEdge, pHandleNext);
+				}
+
+				// update edge reference in other handle
+				pHandleNext.decMinEdges(axis);
+			}
+			else {
+				pHandleNext.decMaxEdges(axis);
+			}
+			pHandleEdge.incMaxEdges(axis);
+
+			// swap the edges
+			edgeArray.swap(pEdge_idx, pNext_idx);
+
+			// increment
+			pEdge_idx++;
+			pNext_idx++;
+		}
+	}
+
+	public int getNumHandles() {
+		return numHandles;
+	}
+
+	public void calculateOverlappingPairs(Dispatcher dispatcher) {
+		// overlapping pairs are maintained incrementally in setAabb,
+		// removals are deferred to here to not destroy pairs that are added back during the same step
+		pairCache.flushDeferredRemovals(dispatcher);
+	}
+
+	public int addHandle(Vector3f aabbMin, Vector3f aabbMax, Object pOwner, short collisionFilterGroup, short collisionFilterMask, Dispatcher dispatcher) {
+		// quantize the bounds
+		int[] min = this.min, max = this.max;
+		quantize(min, aabbMin, 0);
+		quantize(max, aabbMax, 1);
+
+		// allocate a handle
+		int handle = allocHandle();
+
+		Handle pHandle = getHandle(handle);
+
+		pHandle.uniqueId = handle;
+		//pHandle->m_pOverlaps = 0;
+		pHandle.clientObject = pOwner;
+		pHandle.collisionFilterGroup = collisionFilterGroup;
+		pHandle.collisionFilterMask = collisionFilterMask;
+		pHandle.aabbMin.set(aabbMin);
+		pHandle.aabbMax.set(aabbMax);
+
+		// compute current limit of edge arrays
+		int limit = numHandles * 2;
+
+		// insert new edges just inside the max boundary edge
+		for (int axis = 0; axis < 3; axis++) {
+			pHandles[0].setMaxEdges(axis, pHandles[0].getMaxEdges(axis) + 2);
+
+			pEdges[axis].set(limit + 1, limit - 1);
+
+			pEdges[axis].setPos(limit - 1, min[axis]);
+			pEdges[axis].setHandle(limit - 1, handle);
+
+			pEdges[axis].setPos(limit, max[axis]);
+			pEdges[axis].setHandle(limit, handle);
+
+			pHandle.setMinEdges(axis, limit - 1);
+			pHandle.setMaxEdges(axis, limit);
+		}
+
+		// now sort the new edges to their correct position
+		sortMinDown(0, pHandle.getMinEdges(0), dispatcher, false);
+		sortMaxDown(0, pHandle.getMaxEdges(0), dispatcher, false);
+		sortMinDown(1, pHandle.getMinEdges(1), dispatcher, false);
+		sortMaxDown(1, pHandle.getMaxEdges(1), dispatcher, false);
+		sortMinDown(2, pHandle.getMinEdges(2), dispatcher, true);
+		sortMaxDown(2, pHandle.getMaxEdges(2), dispatcher, true);
+
+		return handle;
+	}
+
+	public void removeHandle(int handle, Dispatcher dispatcher) {
+		Handle pHandle = getHandle(handle);
+
+		// explicitly remove the pairs containing the proxy
+		// we could do it also in the sortMinUp (passing true)
+		// todo: compare performance
+		pairCache.removeOverlappingPairsContainingProxy(pHandle, dispatcher);
+
+		// compute current limit of edge arrays
+		int limit = numHandles * 2;
+
+		int axis;
+
+		for (axis = 0; axis < 3; axis++) {
+			pHandles[0].setMaxEdges(axis, pHandles[0].getMaxEdges(axis) - 2);
+		}
+
+		// remove the edges by sorting them up to the end of the list
+		for (axis = 0; axis < 3; axis++) {
+			EdgeArray pEdges = this.pEdges[axis];
+			int max = pHandle.getMaxEdges(axis);
+			pEdges.setPos(max, handleSentinel);
+
+			sortMaxUp(axis, max, dispatcher, false);
+
+			int i = pHandle.getMinEdges(axis);
+			pEdges.setPos(i, handleSentinel);
+
+			sortMinUp(axis, i, dispatcher, false);
+
+			pEdges.setHandle(limit - 1, 0);
+			pEdges.setPos(limit - 1, handleSentinel);
+
+			//#ifdef DEBUG_BROADPHASE
+			//debugPrintAxis(axis,false);
+			//#endif //DEBUG_BROADPHASE
+		}
+
+		// free the handle
+		freeHandle(handle);
+	}
+
+	public void updateHandle(int handle, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+		Handle pHandle = getHandle(handle);
+		pHandle.aabbMin.set(aabbMin);
+		pHandle.aabbMax.set(aabbMax);
+
+		// quantize the new bounds
+		int[] min = this.min, max = this.max;
+		quantize(min, aabbMin, 0);
+		quantize(max, aabbMax, 1);
+
+		// update changed edges
+		for (int axis = 0; axis < 3; axis++) {
+			int emin = pHandle.getMinEdges(axis);
+			int emax = pHandle.getMaxEdges(axis);
+
+			int dmin = min[axis] - pEdges[axis].getPos(emin);
+			int dmax = max[axis] - pEdges[axis].getPos(emax);
+
+			pEdges[axis].setPos(emin, min[axis]);
+			pEdges[axis].setPos(emax, max[axis]);
+
+			// expand (only adds overlaps)
+			if (dmin < 0) {
+				sortMinDown(axis, emin, dispatcher, true);
+			}
+			if (dmax > 0) {
+				sortMaxUp(axis, emax, dispatcher, true);
+			}
+
+			// shrink (only removes overlaps)
+			if (dmin > 0) {
+				sortMinUp(axis, emin, dispatcher, true);
+			}
+			if (dmax < 0) {
+				sortMaxDown(axis, emax, dispatcher, true);
+			}
+
+			//#ifdef DEBUG_BROADPHASE
+			//debugPrintAxis(axis);
+			//#endif //DEBUG_BROADPHASE
+		}
+	}
+
+	public Handle getHandle(int index) {
+		return pHandles[index];
+	}
+
+	//public void processAllOverlappingPairs(OverlapCallback callback) {
+	//}
+
+	public BroadphaseProxy createProxy(Vector3f aabbMin, Vector3f aabbMax, BroadphaseNativeType shapeType, Object userPtr, short collisionFilterGroup, short collisionFilterMask, Dispatcher dispatcher) {
+		int handleId = addHandle(aabbMin, aabbMax, userPtr, collisionFilterGroup, collisionFilterMask, dispatcher);
+
+		Handle handle = getHandle(handleId);
+
+		return handle;
+	}
+
+	public void destroyProxy(BroadphaseProxy proxy, Dispatcher dispatcher) {
+		Handle handle = (Handle)proxy;
+		removeHandle(handle.getUid(), dispatcher);
+	}
+
+	public void setAabb(BroadphaseProxy proxy, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+		Handle handle = (Handle) proxy;
+		updateHandle(handle.getUid(), aabbMin, aabbMax, dispatcher);
+	}
+
+	public boolean testAabbOverlap(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
+		Handle pHandleA = (Handle)proxy0;
+		Handle pHandleB = (Handle)proxy1;
+
+		// optimization 1: check the array index (memory address), instead of the m_pos
+
+		for (int axis = 0; axis < 3; axis++) {
+			if (pHandleA.getMaxEdges(axis) < pHandleB.getMinEdges(axis) ||
+					pHandleB.getMaxEdges(axis) < pHandleA.getMinEdges(axis)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public OverlappingPairCache getOverlappingPairCache() {
+		return pairCache;
+	}
+
+	/**
+	 * Linear scan of the first axis up to the query AABB, see {@link DbvtBroadphase}
+	 * for queries in logarithmic time.
+	 */
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback) {
+		// min edges of first axis are sorted, stop at first one past the query
+		EdgeArray edges = pEdges[0];
+		int limit = quantizeMaxX(aabbMax.x);
+
+		for (int i = 1; i < numHandles * 2 + 1; i++) {
+			if (edges.getPos(i) > limit) {
+				break;
+			}
+			if (edges.isMax(i) == 0) {
+				Handle pHandle = getHandle(edges.getHandle(i));
+				if (AabbUtil2.testAabbAgainstAabb2(aabbMin, aabbMax, pHandle.aabbMin, pHandle.aabbMax)) {
+					if (!callback.process(pHandle)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback) {
+		rayTest(rayFrom, rayTo, rayCallback, null, null);
+	}
+
+	/**
+	 * Linear scan of the first axis up to the end of the ray, see {@link DbvtBroadphase}
+	 * for queries in logarithmic time.
+	 */
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			Vector3f rayDirectionInverse = stack.vectors.get();
+			rayDirectionInverse.sub(rayTo, rayFrom);
+			rayDirectionInverse.x = 1f / rayDirectionInverse.x;
+			rayDirectionInverse.y = 1f / rayDirectionInverse.y;
+			rayDirectionInverse.z = 1f / rayDirectionInverse.z;
+
+			EdgeArray edges = pEdges[0];
+			int limit = quantizeMaxX(Math.max(rayFrom.x, rayTo.x) + (aabbMax != null? aabbMax.x : 0f));
+
+			for (int i = 1; i < numHandles * 2 + 1; i++) {
+				if (edges.getPos(i) > limit) {
+					break;
+				}
+				if (edges.isMax(i) == 0) {
+					Handle pHandle = getHandle(edges.getHandle(i));
+					if (AabbUtil2.rayAabb2(rayFrom, rayDirectionInverse, pHandle.aabbMin, pHandle.aabbMax, aabbMin, aabbMax, rayCallback.lambdaMax)) {
+						if (!rayCallback.process(pHandle)) {
+							break;
+						}
+					}
+				}
+			}
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	// JAVA NOTE: added, quantizes upper bound of first axis for queries
+	private int quantizeMaxX(float x) {
+		float v = Math.min(Math.max(x, worldAabbMin.x), worldAabbMax.x);
+		return ((int)((v - worldAabbMin.x) * quantize.x) & bpHandleMask) | 1;
+	}
+
+	// JAVA NOTE: added
+	public Vector3f getWorldAabbMin(Vector3f out) {
+		out.set(worldAabbMin);
+		return out;
+	}
+
+	// JAVA NOTE: added
+	public Vector3f getWorldAabbMax(Vector3f out) {
+		out.set(worldAabbMax);
+		return out;
+	}
+	
+	public int getSnapshotSize() {
+		return 4 + 3 * (numHandles*2 + 2) * 2*4;
+	}
+	
+	/**
+	 * Writes sorted edges of all axes into buffer. Order of edges with equal
+	 * quantized positions depends on history and affects when pairs are added
+	 * and removed, so it's stored as is.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(numHandles);
+		int numEdges = numHandles*2 + 2;
+		for (int axis = 0; axis < 3; axis++) {
+			EdgeArray edges = pEdges[axis];
+			for (int i=0; i<numEdges; i++) {
+				buf.putInt(edges.getPos(i));
+				buf.putInt(edges.getHandle(i));
+			}
+		}
+	}
+	
+	public void readSnapshot(ByteBuffer buf) {
+		if (buf.getInt() != numHandles) {
+			throw new IllegalArgumentException("snapshot doesn't match broadphase");
+		}
+		
+		int numEdges = numHandles*2 + 2;
+		for (int axis = 0; axis < 3; axis++) {
+			EdgeArray edges = pEdges[axis];
+			for (int i=0; i<numEdges; i++) {
+				edges.setPos(i, buf.getInt());
+				int handle = buf.getInt();
+				edges.setHandle(i, handle);
+				
+				// edge indices of handles (including sentinel) are derived from edges:
+				if (edges.isMax(i) != 0) {
+					pHandles[handle].setMaxEdges(axis, i);
+				}
+				else {
+					pHandles[handle].setMinEdges(axis, i);
+				}
+			}
+		}
+	}
+	
+	public int getProxySnapshotSize() {
+		return 2*12;
+	}
+	
+	/**
+	 * Writes unquantized AABB of proxy into buffer, quantized bounds are part
+	 * of edges (see {@link #writeSnapshot}).
+	 */
+	public void writeProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		Handle handle = (Handle)proxy;
+		VectorUtil.put(buf, handle.aabbMin);
+		VectorUtil.put(buf, handle.aabbMax);
+	}
+	
+	public void readProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		Handle handle = (Handle)proxy;
+		VectorUtil.get(buf, handle.aabbMin);
+		VectorUtil.get(buf, handle.aabbMax);
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	protected abstract EdgeArray createEdgeArray(int size);
+	protected abstract Handle createHandle();
+
+	protected static abstract class EdgeArray {
+		public abstract void swap(int idx1, int idx2);
+		public abstract void set(int dest, int src);
+
+		public abstract int getPos(int index);
+		public abstract void setPos(int index, int value);
+
+		public abstract int getHandle(int index);
+		public abstract void setHandle(int index, int value);
+
+		public int isMax(int offset) {
+			return (getPos(offset) & 1);
+		}
+	}
+
+	protected static abstract class Handle extends BroadphaseProxy {
+		// JAVA NOTE: added, unquantized bounds for ray and aabb queries
+		public final Vector3f aabbMin = new Vector3f();
+		public final Vector3f aabbMax = new Vector3f();
+
+		public abstract int getMinEdges(int edgeIndex);
+		public abstract void setMinEdges(int edgeIndex, int value);
+
+		public abstract int getMaxEdges(int edgeIndex);
+		public abstract void setMaxEdges(int edgeIndex, int value);
+
+		public void incMinEdges(int edgeIndex) {
+			setMinEdges(edgeIndex, getMinEdges(edgeIndex)+1);
+		}
+
+		public void incMaxEdges(int edgeIndex) {
+			setMaxEdges(edgeIndex, getMaxEdges(edgeIndex)+1);
+		}
+
+		public void decMinEdges(int edgeIndex) {
+			setMinEdges(edgeIndex, getMinEdges(edgeIndex)-1);
+		}
+
+		public void decMaxEdges(int edgeIndex) {
+			setMaxEdges(edgeIndex, getMaxEdges(edgeIndex)-1);
+		}
+
+		public void setNextFree(int next) {
+			setMinEdges(0, next);
+		}
+
+		public int getNextFree() {
+			return getMinEdges(0);
+		}
+	}
+
+}
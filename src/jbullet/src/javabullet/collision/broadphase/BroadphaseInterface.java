@@ -23,6 +23,7 @@
 
 package javabullet.collision.broadphase;
 
+import java.nio.ByteBuffer;
 import javax.vecmath.Vector3f;
 
 /**
@@ -42,5 +43,51 @@ public interface BroadphaseInterface {
 	public void calculateOverlappingPairs(Dispatcher dispatcher);
 
 	public OverlappingPairCache getOverlappingPairCache();
+
+	/**
+	 * Reports all proxies whose AABB overlaps the given AABB, until the callback
+	 * returns false.
+	 */
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback);
+	
+	/**
+	 * Reports all proxies whose AABB is hit by the ray. The callback can shorten
+	 * the ray during traversal by lowering its lambdaMax, or end it by returning false.
+	 */
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback);
+	
+	/**
+	 * Reports all proxies whose AABB is hit by box swept along the ray. The box
+	 * is given relative to ray point, ie. local AABB of the cast shape.
+	 */
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback, Vector3f aabbMin, Vector3f aabbMax);
+	
+	/**
+	 * Returns size in bytes written by {@link #writeSnapshot}.
+	 */
+	public int getSnapshotSize();
+	
+	/**
+	 * Writes internal state that is not tied to single proxy into buffer. Together
+	 * with state of proxies (see {@link #writeProxySnapshot}) and overlapping pairs
+	 * this allows to continue from restored state the same way. Set of proxies
+	 * must be the same when restoring.
+	 */
+	public void writeSnapshot(ByteBuffer buf);
+	
+	public void readSnapshot(ByteBuffer buf);
+	
+	/**
+	 * Returns size in bytes written by {@link #writeProxySnapshot}.
+	 */
+	public int getProxySnapshotSize();
+	
+	public void writeProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf);
+	
+	/**
+	 * Restores proxy state previously written by {@link #writeProxySnapshot}.
+	 * Overlapping pairs are not updated, they must be restored separately.
+	 */
+	public void readProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf);
 	
 }
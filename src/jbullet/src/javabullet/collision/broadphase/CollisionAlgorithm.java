@@ -23,9 +23,12 @@
 
 package javabullet.collision.broadphase;
 
-import javabullet.BulletStack;
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.collision.dispatch.CollisionAlgorithmCreateFunc;
 import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.dispatch.ManifoldResult;
+import javabullet.collision.narrowphase.PersistentManifold;
 
 /**
  *
@@ -33,7 +36,8 @@ import javabullet.collision.dispatch.ManifoldResult;
  */
 public abstract class CollisionAlgorithm {
 
-	protected final BulletStack stack = BulletStack.get();
+	// JAVA NOTE: used by dispatcher for returning pooled instances, see Dispatcher.freeCollisionAlgorithm
+	private CollisionAlgorithmCreateFunc createFunc;
 	
 	protected Dispatcher dispatcher;
 
@@ -41,6 +45,10 @@ public abstract class CollisionAlgorithm {
 	}
 
 	public CollisionAlgorithm(CollisionAlgorithmConstructionInfo ci) {
+		init(ci);
+	}
+	
+	public void init(CollisionAlgorithmConstructionInfo ci) {
 		dispatcher = ci.dispatcher1;
 	}
 	
@@ -50,4 +58,76 @@ public abstract class CollisionAlgorithm {
 
 	public abstract float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut);
 	
+	/**
+	 * Adds manifolds owned by this algorithm (and its child algorithms) to the list.
+	 */
+	public abstract void getAllContactManifolds(List<PersistentManifold> manifoldArray);
+	
+	/**
+	 * Returns size in bytes written by {@link #writeSnapshot}.
+	 */
+	public int getSnapshotSize() {
+		return 0;
+	}
+	
+	/**
+	 * Writes state kept between steps (owned manifolds and cached data) into buffer.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+	}
+	
+	/**
+	 * Restores state previously written by {@link #writeSnapshot}. Manifolds
+	 * and child algorithms are created or released to match the stored state.
+	 * Bodies are the same as passed to {@link #processCollision}.
+	 */
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+	}
+	
+	protected static int getManifoldSnapshotSize(PersistentManifold manifold) {
+		return manifold != null? manifold.getSnapshotSize() : 4;
+	}
+	
+	/**
+	 * Writes manifold using {@link PersistentManifold#writeSnapshot}, missing
+	 * manifold is stored as negative number of contacts.
+	 */
+	protected static void writeManifoldSnapshot(PersistentManifold manifold, ByteBuffer buf) {
+		if (manifold != null) {
+			manifold.writeSnapshot(buf);
+		}
+		else {
+			buf.putInt(-1);
+		}
+	}
+	
+	/**
+	 * Reads manifold written by {@link #writeManifoldSnapshot}. Returns given
+	 * manifold, newly created one when it was missing, or null when the stored
+	 * manifold was missing (given manifold is released).
+	 */
+	protected PersistentManifold readManifoldSnapshot(PersistentManifold manifold, ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		if (buf.getInt(buf.position()) < 0) {
+			buf.getInt();
+			if (manifold != null) {
+				dispatcher.releaseManifold(manifold);
+			}
+			return null;
+		}
+		
+		if (manifold == null) {
+			manifold = dispatcher.getNewManifold(body0, body1);
+		}
+		manifold.readSnapshot(buf);
+		return manifold;
+	}
+	
+	public CollisionAlgorithmCreateFunc internalGetCreateFunc() {
+		return createFunc;
+	}
+	
+	public void internalSetCreateFunc(CollisionAlgorithmCreateFunc func) {
+		createFunc = func;
+	}
+	
 }
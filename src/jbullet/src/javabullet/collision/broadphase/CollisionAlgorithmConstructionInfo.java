@@ -23,6 +23,7 @@
 
 package javabullet.collision.broadphase;
 
+import javabullet.ObjectFactory;
 import javabullet.collision.narrowphase.PersistentManifold;
 
 /**
@@ -31,6 +32,12 @@ import javabullet.collision.narrowphase.PersistentManifold;
  */
 public class CollisionAlgorithmConstructionInfo {
 
+	public static final ObjectFactory<CollisionAlgorithmConstructionInfo> FACTORY = new ObjectFactory<CollisionAlgorithmConstructionInfo>() {
+		public CollisionAlgorithmConstructionInfo create() {
+			return new CollisionAlgorithmConstructionInfo();
+		}
+	};
+	
 	public Dispatcher dispatcher1;
 	public PersistentManifold manifold;
 
@@ -0,0 +1,480 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Dbvt implementation by Nathanael Presson
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.collision.broadphase;
+
+import javabullet.BulletStack;
+import javax.vecmath.Vector3f;
+
+/**
+ * Dynamic bounding volume tree. Leaves can be inserted, removed and updated
+ * incrementally in O(log n), which makes it suitable for broadphase of highly
+ * dynamic scenes.
+ * 
+ * @author jezek2
+ */
+public class Dbvt {
+	
+	public static final int SIMPLE_STACKSIZE = 64;
+	public static final int DOUBLE_STACKSIZE = SIMPLE_STACKSIZE * 2;
+	
+	public Node root = null;
+	public Node free = null;
+	public int lkhd = -1;
+	public int leaves = 0;
+	public /*unsigned*/ int opath = 0;
+	
+	// JAVA NOTE: reusable traversal stack, single tree queries use the stack
+	// stored in the policy instead, so they can run concurrently
+	private Node[] stkNN = new Node[DOUBLE_STACKSIZE*2];
+	
+	public Dbvt() {
+	}
+
+	public void clear() {
+		if (root != null) {
+			recursedeletenode(this, root);
+		}
+		//btAlignedFree(m_free);
+		free = null;
+	}
+
+	public boolean empty() {
+		return (root == null);
+	}
+
+	public void optimizeIncremental(int passes) {
+		if (passes < 0) {
+			passes = leaves;
+		}
+		
+		if (root != null && (passes > 0)) {
+			do {
+				Node node = root;
+				int bit = 0;
+				while (node.isinternal()) {
+					// JAVA NOTE: node sorting by memory address is not applicable, leaves are just reinserted
+					node = node.childs[(opath >>> bit) & 1];
+					bit = (bit + 1) & (/*sizeof(unsigned)*/4 * 8 - 1);
+				}
+				update(node);
+				++opath;
+			}
+			while ((--passes) != 0);
+		}
+	}
+
+	public Node insert(DbvtAabbMm box, Object data) {
+		Node leaf = createnode(this, null, box, data);
+		insertleaf(this, root, leaf);
+		leaves++;
+		return leaf;
+	}
+
+	public void update(Node leaf) {
+		update(leaf, -1);
+	}
+
+	public void update(Node leaf, int lookahead) {
+		Node root = removeleaf(this, leaf);
+		if (root != null) {
+			if (lookahead >= 0) {
+				for (int i = 0; (i < lookahead) && root.parent != null; i++) {
+					root = root.parent;
+				}
+			}
+			else {
+				root = this.root;
+			}
+		}
+		insertleaf(this, root, leaf);
+	}
+
+	public void update(Node leaf, DbvtAabbMm volume) {
+		Node root = removeleaf(this, leaf);
+		if (root != null) {
+			if (lkhd >= 0) {
+				for (int i = 0; (i < lkhd) && root.parent != null; i++) {
+					root = root.parent;
+				}
+			}
+			else {
+				root = this.root;
+			}
+		}
+		leaf.volume.set(volume);
+		insertleaf(this, root, leaf);
+	}
+
+	public boolean update(Node leaf, DbvtAabbMm volume, Vector3f velocity, float margin) {
+		if (leaf.volume.Contain(volume)) {
+			return false;
+		}
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		try {
+			volume.Expand(stack.vectors.get(margin, margin, margin));
+			volume.SignedExpand(velocity);
+			update(leaf, volume);
+			return true;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	public boolean update(Node leaf, DbvtAabbMm volume, Vector3f velocity) {
+		if (leaf.volume.Contain(volume)) {
+			return false;
+		}
+		volume.SignedExpand(velocity);
+		update(leaf, volume);
+		return true;
+	}
+
+	public boolean update(Node leaf, DbvtAabbMm volume, float margin) {
+		if (leaf.volume.Contain(volume)) {
+			return false;
+		}
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		try {
+			volume.Expand(stack.vectors.get(margin, margin, margin));
+			update(leaf, volume);
+			return true;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	public void remove(Node leaf) {
+		removeleaf(this, leaf);
+		deletenode(this, leaf);
+		leaves--;
+	}
+
+	/**
+	 * Reports all pairs of overlapping leaves between the two subtrees. When both
+	 * roots are the same node, overlapping pairs within that subtree are reported.
+	 */
+	public void collideTT(Node root0, Node root1, ICollide policy) {
+		if (root0 != null && root1 != null) {
+			Node[] stk = stkNN;
+			int depth = 0;
+			stk[depth++] = root0;
+			stk[depth++] = root1;
+			do {
+				Node pb = stk[--depth];
+				Node pa = stk[--depth];
+				if (stk.length - depth < 8) {
+					stk = stkNN = expand(stk);
+				}
+				if (pa == pb) {
+					if (pa.isinternal()) {
+						stk[depth++] = pa.childs[0]; stk[depth++] = pa.childs[0];
+						stk[depth++] = pa.childs[1]; stk[depth++] = pa.childs[1];
+						stk[depth++] = pa.childs[0]; stk[depth++] = pa.childs[1];
+					}
+				}
+				else if (DbvtAabbMm.Intersect(pa.volume, pb.volume)) {
+					if (pa.isinternal()) {
+						if (pb.isinternal()) {
+							stk[depth++] = pa.childs[0]; stk[depth++] = pb.childs[0];
+							stk[depth++] = pa.childs[1]; stk[depth++] = pb.childs[0];
+							stk[depth++] = pa.childs[0]; stk[depth++] = pb.childs[1];
+							stk[depth++] = pa.childs[1]; stk[depth++] = pb.childs[1];
+						}
+						else {
+							stk[depth++] = pa.childs[0]; stk[depth++] = pb;
+							stk[depth++] = pa.childs[1]; stk[depth++] = pb;
+						}
+					}
+					else {
+						if (pb.isinternal()) {
+							stk[depth++] = pa; stk[depth++] = pb.childs[0];
+							stk[depth++] = pa; stk[depth++] = pb.childs[1];
+						}
+						else {
+							policy.Process(pa, pb);
+						}
+					}
+				}
+			}
+			while (depth > 0);
+			
+			clearStack(stk);
+		}
+	}
+
+	/**
+	 * Reports all leaves overlapping given volume. Ends early when the policy
+	 * sets its stop flag.
+	 */
+	public void collideTV(Node root, DbvtAabbMm volume, ICollide policy) {
+		collideTV(root, volume.Mins(), volume.Maxs(), policy);
+	}
+	
+	public void collideTV(Node root, Vector3f aabbMin, Vector3f aabbMax, ICollide policy) {
+		if (root != null && !policy.stop) {
+			Node[] stk = policy.stkN;
+			int depth = 0;
+			stk[depth++] = root;
+			do {
+				Node n = stk[--depth];
+				if (DbvtAabbMm.Intersect(n.volume, aabbMin, aabbMax)) {
+					if (n.isinternal()) {
+						if (stk.length - depth < 2) {
+							stk = policy.stkN = expand(stk);
+						}
+						stk[depth++] = n.childs[0];
+						stk[depth++] = n.childs[1];
+					}
+					else {
+						policy.Process(n);
+					}
+				}
+			}
+			while (depth > 0 && !policy.stop);
+			
+			clearStack(stk);
+		}
+	}
+
+	/**
+	 * Reports all leaves hit by the ray. The policy can shorten the ray during
+	 * traversal by lowering its lambdaMax, or end it by setting its stop flag.
+	 */
+	public void rayTest(Node root, Vector3f rayFrom, Vector3f rayDirectionInverse, RayCollide policy) {
+		rayTest(root, rayFrom, rayDirectionInverse, null, null, policy);
+	}
+
+	/**
+	 * Reports all leaves hit by the ray swept by box (given relative to ray
+	 * point), null box is the same as plain ray.
+	 */
+	public void rayTest(Node root, Vector3f rayFrom, Vector3f rayDirectionInverse, Vector3f aabbMin, Vector3f aabbMax, RayCollide policy) {
+		if (root != null && !policy.stop) {
+			Node[] stk = policy.stkN;
+			int depth = 0;
+			stk[depth++] = root;
+			do {
+				Node node = stk[--depth];
+				if (DbvtAabbMm.RayIntersect(node.volume, rayFrom, rayDirectionInverse, aabbMin, aabbMax, policy.lambdaMax)) {
+					if (node.isinternal()) {
+						if (stk.length - depth < 2) {
+							stk = policy.stkN = expand(stk);
+						}
+						stk[depth++] = node.childs[0];
+						stk[depth++] = node.childs[1];
+					}
+					else {
+						policy.Process(node);
+					}
+				}
+			}
+			while (depth > 0 && !policy.stop);
+			
+			clearStack(stk);
+		}
+	}
+	
+	private static Node[] expand(Node[] stk) {
+		Node[] newStk = new Node[stk.length << 1];
+		System.arraycopy(stk, 0, newStk, 0, stk.length);
+		return newStk;
+	}
+	
+	private static void clearStack(Node[] stk) {
+		// remove stale references so removed nodes can be collected
+		for (int i=0; i<stk.length && stk[i] != null; i++) {
+			stk[i] = null;
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+
+	private static int indexof(Node node) {
+		return (node.parent.childs[1] == node)? 1 : 0;
+	}
+
+	private static int select(DbvtAabbMm o, DbvtAabbMm a, DbvtAabbMm b) {
+		return DbvtAabbMm.Proximity(o, a) < DbvtAabbMm.Proximity(o, b)? 0 : 1;
+	}
+
+	private static void deletenode(Dbvt pdbvt, Node node) {
+		// JAVA NOTE: keeps only one node for reuse, like original
+		node.parent = null;
+		node.childs[0] = null;
+		node.childs[1] = null;
+		node.data = null;
+		pdbvt.free = node;
+	}
+
+	private static void recursedeletenode(Dbvt pdbvt, Node node) {
+		if (!node.isleaf()) {
+			recursedeletenode(pdbvt, node.childs[0]);
+			recursedeletenode(pdbvt, node.childs[1]);
+		}
+		if (node == pdbvt.root) {
+			pdbvt.root = null;
+		}
+		deletenode(pdbvt, node);
+	}
+
+	private static Node createnode(Dbvt pdbvt, Node parent, DbvtAabbMm volume, Object data) {
+		Node node;
+		if (pdbvt.free != null) {
+			node = pdbvt.free;
+			pdbvt.free = null;
+		}
+		else {
+			node = new Node();
+		}
+		node.parent = parent;
+		node.volume.set(volume);
+		node.data = data;
+		node.childs[1] = null;
+		return node;
+	}
+
+	private static void insertleaf(Dbvt pdbvt, Node root, Node leaf) {
+		if (pdbvt.root == null) {
+			pdbvt.root = leaf;
+			leaf.parent = null;
+		}
+		else {
+			if (!root.isleaf()) {
+				do {
+					root = root.childs[select(leaf.volume, root.childs[0].volume, root.childs[1].volume)];
+				}
+				while (!root.isleaf());
+			}
+			Node prev = root.parent;
+			Node node = createnode(pdbvt, prev, leaf.volume, null);
+			DbvtAabbMm.Merge(leaf.volume, root.volume, node.volume);
+			if (prev != null) {
+				prev.childs[indexof(root)] = node;
+				node.childs[0] = root;
+				root.parent = node;
+				node.childs[1] = leaf;
+				leaf.parent = node;
+				do {
+					if (!prev.volume.Contain(node.volume)) {
+						DbvtAabbMm.Merge(prev.childs[0].volume, prev.childs[1].volume, prev.volume);
+					}
+					else {
+						break;
+					}
+					node = prev;
+				}
+				while (null != (prev = node.parent));
+			}
+			else {
+				node.childs[0] = root;
+				root.parent = node;
+				node.childs[1] = leaf;
+				leaf.parent = node;
+				pdbvt.root = node;
+			}
+		}
+	}
+
+	private static Node removeleaf(Dbvt pdbvt, Node leaf) {
+		if (leaf == pdbvt.root) {
+			pdbvt.root = null;
+			return null;
+		}
+		else {
+			Node parent = leaf.parent;
+			Node prev = parent.parent;
+			Node sibling = parent.childs[1 - indexof(leaf)];
+			if (prev != null) {
+				prev.childs[indexof(parent)] = sibling;
+				sibling.parent = prev;
+				deletenode(pdbvt, parent);
+				DbvtAabbMm pb = pdbvt.tmpVolume;
+				while (prev != null) {
+					pb.set(prev.volume);
+					DbvtAabbMm.Merge(prev.childs[0].volume, prev.childs[1].volume, prev.volume);
+					if (DbvtAabbMm.NotEqual(pb, prev.volume)) {
+						prev = prev.parent;
+					}
+					else {
+						break;
+					}
+				}
+				return (prev != null? prev : pdbvt.root);
+			}
+			else {
+				pdbvt.root = sibling;
+				sibling.parent = null;
+				deletenode(pdbvt, parent);
+				return pdbvt.root;
+			}
+		}
+	}
+	
+	private final DbvtAabbMm tmpVolume = new DbvtAabbMm();
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static final class Node {
+		public final DbvtAabbMm volume = new DbvtAabbMm();
+		public Node parent;
+		public final Node[] childs = new Node[2];
+		public Object data;
+
+		public boolean isleaf() {
+			return childs[1] == null;
+		}
+
+		public boolean isinternal() {
+			return !isleaf();
+		}
+	}
+	
+	public static abstract class ICollide {
+		// JAVA NOTE: traversal stack for single tree queries
+		Node[] stkN = new Node[SIMPLE_STACKSIZE];
+		
+		// JAVA NOTE: added, single tree queries end once set, it's not cleared by the query
+		public boolean stop;
+		
+		public void Process(Node n1, Node n2) {
+		}
+
+		public void Process(Node n) {
+		}
+	}
+	
+	public static abstract class RayCollide extends ICollide {
+		public float lambdaMax = 1f;
+	}
+	
+}
@@ -0,0 +1,162 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Dbvt implementation by Nathanael Presson
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.collision.broadphase;
+
+import javabullet.linearmath.AabbUtil2;
+import javax.vecmath.Vector3f;
+
+/**
+ * Axis aligned bounding box volume used by {@link Dbvt} nodes.
+ * 
+ * @author jezek2
+ */
+public class DbvtAabbMm {
+
+	private final Vector3f mi = new Vector3f();
+	private final Vector3f mx = new Vector3f();
+
+	public DbvtAabbMm() {
+	}
+
+	public DbvtAabbMm(DbvtAabbMm o) {
+		set(o);
+	}
+	
+	public void set(DbvtAabbMm o) {
+		mi.set(o.mi);
+		mx.set(o.mx);
+	}
+	
+	public Vector3f Mins() {
+		return mi;
+	}
+
+	public Vector3f Maxs() {
+		return mx;
+	}
+	
+	public static DbvtAabbMm FromMM(Vector3f mi, Vector3f mx, DbvtAabbMm out) {
+		out.mi.set(mi);
+		out.mx.set(mx);
+		return out;
+	}
+	
+	public void Expand(Vector3f e) {
+		mi.sub(e);
+		mx.add(e);
+	}
+
+	public void SignedExpand(Vector3f e) {
+		if (e.x > 0) {
+			mx.x += e.x;
+		}
+		else {
+			mi.x += e.x;
+		}
+		
+		if (e.y > 0) {
+			mx.y += e.y;
+		}
+		else {
+			mi.y += e.y;
+		}
+		
+		if (e.z > 0) {
+			mx.z += e.z;
+		}
+		else {
+			mi.z += e.z;
+		}
+	}
+
+	public boolean Contain(DbvtAabbMm a) {
+		return ((mi.x <= a.mi.x) &&
+		        (mi.y <= a.mi.y) &&
+		        (mi.z <= a.mi.z) &&
+		        (mx.x >= a.mx.x) &&
+		        (mx.y >= a.mx.y) &&
+		        (mx.z >= a.mx.z));
+	}
+
+	public static boolean Intersect(DbvtAabbMm a, DbvtAabbMm b) {
+		return ((a.mi.x <= b.mx.x) &&
+		        (a.mx.x >= b.mi.x) &&
+		        (a.mi.y <= b.mx.y) &&
+		        (a.mx.y >= b.mi.y) &&
+		        (a.mi.z <= b.mx.z) &&
+		        (a.mx.z >= b.mi.z));
+	}
+
+	public static boolean Intersect(DbvtAabbMm a, Vector3f aabbMin, Vector3f aabbMax) {
+		return ((a.mi.x <= aabbMax.x) &&
+		        (a.mx.x >= aabbMin.x) &&
+		        (a.mi.y <= aabbMax.y) &&
+		        (a.mx.y >= aabbMin.y) &&
+		        (a.mi.z <= aabbMax.z) &&
+		        (a.mx.z >= aabbMin.z));
+	}
+
+	/**
+	 * Tests ray given by origin and inverse direction against the volume.
+	 * The ray is parametrized from 0 to 1 and is considered up to lambdaMax.
+	 */
+	public static boolean RayIntersect(DbvtAabbMm a, Vector3f rayFrom, Vector3f rayDirectionInverse, float lambdaMax) {
+		return AabbUtil2.rayAabb2(rayFrom, rayDirectionInverse, a.mi, a.mx, lambdaMax);
+	}
+
+	/**
+	 * Tests ray swept by box given relative to ray point against the volume.
+	 */
+	public static boolean RayIntersect(DbvtAabbMm a, Vector3f rayFrom, Vector3f rayDirectionInverse, Vector3f aabbMin, Vector3f aabbMax, float lambdaMax) {
+		return AabbUtil2.rayAabb2(rayFrom, rayDirectionInverse, a.mi, a.mx, aabbMin, aabbMax, lambdaMax);
+	}
+
+	public static float Proximity(DbvtAabbMm a, DbvtAabbMm b) {
+		return Math.abs((a.mi.x + a.mx.x) - (b.mi.x + b.mx.x)) +
+		       Math.abs((a.mi.y + a.mx.y) - (b.mi.y + b.mx.y)) +
+		       Math.abs((a.mi.z + a.mx.z) - (b.mi.z + b.mx.z));
+	}
+
+	public static void Merge(DbvtAabbMm a, DbvtAabbMm b, DbvtAabbMm r) {
+		r.mi.x = Math.min(a.mi.x, b.mi.x);
+		r.mi.y = Math.min(a.mi.y, b.mi.y);
+		r.mi.z = Math.min(a.mi.z, b.mi.z);
+		r.mx.x = Math.max(a.mx.x, b.mx.x);
+		r.mx.y = Math.max(a.mx.y, b.mx.y);
+		r.mx.z = Math.max(a.mx.z, b.mx.z);
+	}
+
+	public static boolean NotEqual(DbvtAabbMm a, DbvtAabbMm b) {
+		return ((a.mi.x != b.mi.x) ||
+		        (a.mi.y != b.mi.y) ||
+		        (a.mi.z != b.mi.z) ||
+		        (a.mx.x != b.mx.x) ||
+		        (a.mx.y != b.mx.y) ||
+		        (a.mx.z != b.mx.z));
+	}
+	
+}
@@ -0,0 +1,478 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Dbvt implementation by Nathanael Presson
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.collision.broadphase;
+
+import java.nio.ByteBuffer;
+import javabullet.BulletPool;
+import javabullet.BulletStack;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
+import javabullet.linearmath.VectorUtil;
+import javax.vecmath.Vector3f;
+
+/**
+ * DbvtBroadphase implementation by Nathanael Presson. It uses dynamic AABB trees
+ * ({@link Dbvt}) for fast adding/removing of proxies and AABB/ray queries.<p>
+ * 
+ * There are two trees, one for dynamic proxies and one for static (fixed)
+ * proxies. Proxies with {@link CollisionFilterGroups#STATIC_FILTER} group are
+ * inserted directly into the fixed tree, dynamic proxies that didn't move for
+ * a few steps (eg. sleeping objects) are migrated there too. Moved proxies are
+ * stored with fattened AABB (margin and predicted motion), so small movements
+ * doesn't need any tree update at all. The fixed tree is incrementally optimized
+ * only for a while after it's changed, unchanged static geometry costs nothing.
+ * 
+ * @author jezek2
+ */
+public class DbvtBroadphase implements BroadphaseInterface {
+
+	public static final float DBVT_BP_MARGIN = 0.05f;
+
+	public static final int DYNAMIC_SET = 0; // Dynamic set index
+	public static final int FIXED_SET   = 1; // Fixed set index
+	public static final int STAGECOUNT  = 2; // Number of stages
+
+	public final Dbvt[] sets = new Dbvt[2];                        // Dbvt sets
+	public DbvtProxy[] stageRoots = new DbvtProxy[STAGECOUNT + 1]; // Stages list
+	public OverlappingPairCache paircache;                         // Pair cache
+	public float predictedframes;                                  // Frames predicted
+	public int stageCurrent;                                       // Current stage
+	public int fupdates;                                           // % of fixed updates per frame
+	public int dupdates;                                           // % of dynamic updates per frame
+	public int pid;                                                // Parse id
+	public int gid;                                                // Gen id
+	public boolean releasepaircache;                               // Release pair cache on delete
+	public boolean needcleanup;                                    // Pairs may need a cleanup pass
+	public int fixedchanges;                                       // Fixed set changes not yet optimized
+	
+	private final TreeCollider treeCollider = new TreeCollider();
+	private final RemoveCollider removeCollider = new RemoveCollider();
+	private final CleanupCallback cleanupCallback = new CleanupCallback();
+	private final DbvtAabbMm tmpVolume = new DbvtAabbMm();
+	
+	public DbvtBroadphase() {
+		this(null);
+	}
+
+	public DbvtBroadphase(OverlappingPairCache paircache) {
+		sets[0] = new Dbvt();
+		sets[1] = new Dbvt();
+
+		//Dbvt.benchmark();
+		releasepaircache = (paircache != null? false : true);
+		predictedframes = 2;
+		stageCurrent = 0;
+		fupdates = 1;
+		dupdates = 1;
+		this.paircache = (paircache != null? paircache : new OverlappingPairCache());
+		gid = 0;
+		pid = 0;
+
+		for (int i=0; i<=STAGECOUNT; i++) {
+			stageRoots[i] = null;
+		}
+	}
+
+	public void collide(Dispatcher dispatcher) {
+		// optimize:
+		sets[0].optimizeIncremental(1 + (sets[0].leaves * dupdates) / 100);
+		// fixed set is optimized only after it was changed, so static geometry costs nothing per step:
+		if (fixedchanges > 0) {
+			int passes = Math.min(fixedchanges, 1 + (sets[1].leaves * fupdates) / 100);
+			sets[1].optimizeIncremental(passes);
+			fixedchanges -= passes;
+		}
+
+		// dynamic -> fixed set:
+		stageCurrent = (stageCurrent + 1) % STAGECOUNT;
+		DbvtProxy current = stageRoots[stageCurrent];
+		if (current != null) {
+			do {
+				DbvtProxy next = current.links[1];
+				stageRoots[current.stage] = listremove(current, stageRoots[current.stage]);
+				stageRoots[STAGECOUNT] = listappend(current, stageRoots[STAGECOUNT]);
+				sets[0].remove(current.leaf);
+				current.leaf = sets[1].insert(DbvtAabbMm.FromMM(current.aabbMin, current.aabbMax, tmpVolume), current);
+				fixedchanges++;
+				current.stage = STAGECOUNT;
+				current = next;
+			}
+			while (current != null);
+			needcleanup = true;
+		}
+
+		// clean up:
+		if (needcleanup) {
+			paircache.processAllOverlappingPairs(cleanupCallback, dispatcher);
+		}
+		pid++;
+		needcleanup = false;
+	}
+
+	public void optimize() {
+		sets[0].optimizeIncremental(-1);
+		sets[1].optimizeIncremental(-1);
+		fixedchanges = 0;
+	}
+
+	public BroadphaseProxy createProxy(Vector3f aabbMin, Vector3f aabbMax, BroadphaseNativeType shapeType, Object userPtr, short collisionFilterGroup, short collisionFilterMask, Dispatcher dispatcher) {
+		DbvtProxy proxy = new DbvtProxy(userPtr, collisionFilterGroup, collisionFilterMask);
+		proxy.aabbMin.set(aabbMin);
+		proxy.aabbMax.set(aabbMax);
+		proxy.uniqueId = ++gid;
+		
+		DbvtAabbMm volume = DbvtAabbMm.FromMM(aabbMin, aabbMax, tmpVolume);
+		if ((collisionFilterGroup & CollisionFilterGroups.STATIC_FILTER) != 0) {
+			// static geometry goes directly to the fixed set
+			proxy.stage = STAGECOUNT;
+			proxy.leaf = sets[1].insert(volume, proxy);
+			fixedchanges++;
+		}
+		else {
+			proxy.stage = stageCurrent;
+			proxy.leaf = sets[0].insert(volume, proxy);
+		}
+		stageRoots[proxy.stage] = listappend(proxy, stageRoots[proxy.stage]);
+		
+		collideProxy(proxy);
+		return proxy;
+	}
+
+	public void destroyProxy(BroadphaseProxy absproxy, Dispatcher dispatcher) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		if (needcleanup) {
+			// pairs of moved proxies may not overlap anymore until cleaned up
+			paircache.removeOverlappingPairsContainingProxy(proxy, dispatcher);
+		}
+		else {
+			// all pairs overlap, only pairs found in the trees need to be removed
+			removeCollider.proxy = proxy;
+			removeCollider.dispatcher = dispatcher;
+			sets[0].collideTV(sets[0].root, proxy.leaf.volume, removeCollider);
+			sets[1].collideTV(sets[1].root, proxy.leaf.volume, removeCollider);
+			removeCollider.proxy = null;
+			removeCollider.dispatcher = null;
+		}
+		
+		if (proxy.stage == STAGECOUNT) {
+			sets[1].remove(proxy.leaf);
+			fixedchanges++;
+		}
+		else {
+			sets[0].remove(proxy.leaf);
+		}
+		stageRoots[proxy.stage] = listremove(proxy, stageRoots[proxy.stage]);
+		proxy.leaf = null;
+	}
+
+	public void setAabb(BroadphaseProxy absproxy, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+		BulletStack stack = BulletStack.get();
+		
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		if (proxy.aabbMin.equals(aabbMin) && proxy.aabbMax.equals(aabbMax)) {
+			// not moved, keep the current stage so it can migrate to fixed set
+			return;
+		}
+		
+		DbvtAabbMm aabb = DbvtAabbMm.FromMM(aabbMin, aabbMax, tmpVolume);
+		
+		if (proxy.stage == STAGECOUNT) {
+			// fixed -> dynamic set
+			sets[1].remove(proxy.leaf);
+			fixedchanges++;
+			proxy.leaf = sets[0].insert(aabb, proxy);
+			needcleanup = true;
+			collideProxy(proxy);
+		}
+		else {
+			// dynamic set:
+			stack.vectors.push();
+			try {
+				if (DbvtAabbMm.Intersect(proxy.leaf.volume, aabb)) {
+					// moving:
+					Vector3f delta = stack.vectors.get();
+					delta.add(aabbMin, aabbMax);
+					delta.scale(0.5f);
+					Vector3f oldCenter = stack.vectors.get();
+					oldCenter.add(proxy.aabbMin, proxy.aabbMax);
+					oldCenter.scale(0.5f);
+					delta.sub(oldCenter);
+					delta.scale(predictedframes);
+					
+					if (sets[0].update(proxy.leaf, aabb, delta, DBVT_BP_MARGIN)) {
+						needcleanup = true;
+						collideProxy(proxy);
+					}
+				}
+				else {
+					// teleporting:
+					sets[0].update(proxy.leaf, aabb);
+					needcleanup = true;
+					collideProxy(proxy);
+				}
+			}
+			finally {
+				stack.vectors.pop();
+			}
+		}
+		
+		stageRoots[proxy.stage] = listremove(proxy, stageRoots[proxy.stage]);
+		proxy.aabbMin.set(aabbMin);
+		proxy.aabbMax.set(aabbMax);
+		proxy.stage = stageCurrent;
+		stageRoots[stageCurrent] = listappend(proxy, stageRoots[stageCurrent]);
+	}
+
+	private void collideProxy(DbvtProxy proxy) {
+		treeCollider.proxy = proxy;
+		sets[0].collideTV(sets[0].root, proxy.leaf.volume, treeCollider);
+		sets[1].collideTV(sets[1].root, proxy.leaf.volume, treeCollider);
+		treeCollider.proxy = null;
+	}
+
+	public void calculateOverlappingPairs(Dispatcher dispatcher) {
+		collide(dispatcher);
+	}
+
+	public OverlappingPairCache getOverlappingPairCache() {
+		return paircache;
+	}
+
+	/**
+	 * Reports all proxies whose (fattened) AABB overlaps the given AABB.
+	 * Can be called from multiple threads as long as the broadphase is not modified.
+	 */
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback aabbCallback) {
+		ObjectPool<AabbCollider> aabbColliders = BulletPool.get(AabbCollider.class, AabbCollider.FACTORY);
+		AabbCollider aabbCollider = aabbColliders.get();
+		
+		aabbCollider.callback = aabbCallback;
+		aabbCollider.stop = false;
+		sets[0].collideTV(sets[0].root, aabbMin, aabbMax, aabbCollider);
+		sets[1].collideTV(sets[1].root, aabbMin, aabbMax, aabbCollider);
+		aabbCollider.callback = null;
+		
+		aabbColliders.release(aabbCollider);
+	}
+
+	/**
+	 * Reports all proxies whose (fattened) AABB is hit by the ray.
+	 * Can be called from multiple threads as long as the broadphase is not modified.
+	 */
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback) {
+		rayTest(rayFrom, rayTo, rayCallback, null, null);
+	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
+		ObjectPool<RayCollider> rayColliders = BulletPool.get(RayCollider.class, RayCollider.FACTORY);
+		RayCollider rayCollider = rayColliders.get();
+		
+		stack.vectors.push();
+		try {
+			Vector3f rayDirectionInverse = stack.vectors.get();
+			rayDirectionInverse.sub(rayTo, rayFrom);
+			rayDirectionInverse.x = 1f / rayDirectionInverse.x;
+			rayDirectionInverse.y = 1f / rayDirectionInverse.y;
+			rayDirectionInverse.z = 1f / rayDirectionInverse.z;
+
+			rayCollider.callback = rayCallback;
+			rayCollider.lambdaMax = rayCallback.lambdaMax;
+			rayCollider.stop = false;
+			sets[0].rayTest(sets[0].root, rayFrom, rayDirectionInverse, aabbMin, aabbMax, rayCollider);
+			sets[1].rayTest(sets[1].root, rayFrom, rayDirectionInverse, aabbMin, aabbMax, rayCollider);
+			rayCollider.callback = null;
+		}
+		finally {
+			stack.vectors.pop();
+			rayColliders.release(rayCollider);
+		}
+	}
+	
+	public int getSnapshotSize() {
+		return 2*4;
+	}
+	
+	/**
+	 * Writes current stage and cleanup flag into buffer.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(stageCurrent);
+		buf.putInt(needcleanup? 1 : 0);
+	}
+	
+	public void readSnapshot(ByteBuffer buf) {
+		stageCurrent = buf.getInt();
+		needcleanup = (buf.getInt() != 0);
+	}
+	
+	public int getProxySnapshotSize() {
+		return 4*12 + 4;
+	}
+	
+	/**
+	 * Writes AABB, fattened volume and stage of proxy into buffer.
+	 */
+	public void writeProxySnapshot(BroadphaseProxy absproxy, ByteBuffer buf) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		VectorUtil.put(buf, proxy.aabbMin);
+		VectorUtil.put(buf, proxy.aabbMax);
+		VectorUtil.put(buf, proxy.leaf.volume.Mins());
+		VectorUtil.put(buf, proxy.leaf.volume.Maxs());
+		buf.putInt(proxy.stage);
+	}
+	
+	public void readProxySnapshot(BroadphaseProxy absproxy, ByteBuffer buf) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		VectorUtil.get(buf, proxy.aabbMin);
+		VectorUtil.get(buf, proxy.aabbMax);
+		DbvtAabbMm volume = tmpVolume;
+		VectorUtil.get(buf, volume.Mins());
+		VectorUtil.get(buf, volume.Maxs());
+		int stage = buf.getInt();
+		
+		boolean fixed = (stage == STAGECOUNT);
+		if (fixed != (proxy.stage == STAGECOUNT)) {
+			sets[fixed? DYNAMIC_SET : FIXED_SET].remove(proxy.leaf);
+			proxy.leaf = sets[fixed? FIXED_SET : DYNAMIC_SET].insert(volume, proxy);
+			fixedchanges++;
+		}
+		else if (DbvtAabbMm.NotEqual(proxy.leaf.volume, volume)) {
+			// unchanged volumes are skipped, most proxies don't need any tree update:
+			sets[fixed? FIXED_SET : DYNAMIC_SET].update(proxy.leaf, volume);
+			if (fixed) {
+				fixedchanges++;
+			}
+		}
+		
+		if (proxy.stage != stage) {
+			stageRoots[proxy.stage] = listremove(proxy, stageRoots[proxy.stage]);
+			proxy.stage = stage;
+			stageRoots[stage] = listappend(proxy, stageRoots[stage]);
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static DbvtProxy listappend(DbvtProxy item, DbvtProxy list) {
+		item.links[0] = null;
+		item.links[1] = list;
+		if (list != null) list.links[0] = item;
+		list = item;
+		return list;
+	}
+
+	private static DbvtProxy listremove(DbvtProxy item, DbvtProxy list) {
+		if (item.links[0] != null) {
+			item.links[0].links[1] = item.links[1];
+		}
+		else {
+			list = item.links[1];
+		}
+
+		if (item.links[1] != null) {
+			item.links[1].links[0] = item.links[0];
+		}
+		item.links[0] = null;
+		item.links[1] = null;
+		return list;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private class TreeCollider extends Dbvt.ICollide {
+		public DbvtProxy proxy;
+		
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			DbvtProxy pb = (DbvtProxy)leaf.data;
+			if (pb != proxy) {
+				paircache.addOverlappingPair(proxy, pb);
+			}
+		}
+	}
+	
+	private class RemoveCollider extends Dbvt.ICollide {
+		public DbvtProxy proxy;
+		public Dispatcher dispatcher;
+		
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			DbvtProxy pb = (DbvtProxy)leaf.data;
+			if (pb != proxy) {
+				paircache.removeOverlappingPair(proxy, pb, dispatcher);
+			}
+		}
+	}
+	
+	protected static class AabbCollider extends Dbvt.ICollide {
+		public static final ObjectFactory<AabbCollider> FACTORY = new ObjectFactory<AabbCollider>() {
+			public AabbCollider create() {
+				return new AabbCollider();
+			}
+		};
+
+		public BroadphaseAabbCallback callback;
+
+		public AabbCollider() {
+		}
+
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			stop = !callback.process((DbvtProxy)leaf.data);
+		}
+	}
+	
+	protected static class RayCollider extends Dbvt.RayCollide {
+		public static final ObjectFactory<RayCollider> FACTORY = new ObjectFactory<RayCollider>() {
+			public RayCollider create() {
+				return new RayCollider();
+			}
+		};
+
+		public BroadphaseRayCallback callback;
+
+		public RayCollider() {
+		}
+
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			stop = !callback.process((DbvtProxy)leaf.data);
+			lambdaMax = callback.lambdaMax;
+		}
+	}
+	
+	private static class CleanupCallback implements OverlapCallback {
+		public boolean processOverlap(BroadphasePair pair) {
+			DbvtProxy pa = (DbvtProxy)pair.pProxy0;
+			DbvtProxy pb = (DbvtProxy)pair.pProxy1;
+			return !DbvtAabbMm.Intersect(pa.leaf.volume, pb.leaf.volume);
+		}
+	}
+	
+}
@@ -61,6 +61,10 @@ public abstract class Dispatcher {
 
 	//public abstract Object allocateCollisionAlgorithm(int size);
 
-	//public abstract void freeCollisionAlgorithm(Object ptr);
+	/**
+	 * Returns algorithm obtained from {@link #findAlgorithm} back to dispatcher
+	 * after it was destroyed, the instance must not be used anymore.
+	 */
+	public abstract void freeCollisionAlgorithm(CollisionAlgorithm algo);
 	
 }
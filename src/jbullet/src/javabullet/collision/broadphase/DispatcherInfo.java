@@ -39,6 +39,7 @@ public class DispatcherInfo {
 	public IDebugDraw debugDraw;
 	public boolean enableSatConvex;
 	public boolean enableSPU;
+	public float allowedCcdPenetration = 0.04f;
 	//btStackAlloc*	m_stackAllocator;
 
 	public DispatcherInfo() {
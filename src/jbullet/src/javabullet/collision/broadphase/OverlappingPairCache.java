@@ -23,25 +23,47 @@
 
 package javabullet.collision.broadphase;
 
-import java.util.Collection;
-import java.util.Iterator;
 import javabullet.BulletGlobals;
-import javabullet.BulletPool;
-import javabullet.ObjectPool;
-import javabullet.util.HashUtil;
-import javabullet.util.HashUtil.IMap;
-import javabullet.util.HashUtil.IObjectProcedure;
 
 /**
- *
+ * OverlappingPairCache maintains the overlapping pairs of proxies.<p>
+ * 
+ * Pairs are stored densely in an array (removed pair objects are kept past the
+ * end of the array for reuse) and are found using open addressing hash table
+ * keyed on packed unique ids of both proxies, so the ids must be unique among
+ * all proxies of one cache.<p>
+ * 
+ * Pairs can be also removed lazily using {@link #removeOverlappingPairDeferred},
+ * such pairs stay in the cache until {@link #flushDeferredRemovals} is called
+ * (usually by broadphase at the end of calculating overlapping pairs). Pairs
+ * that are added back before that keep their collision algorithm.
+ * 
  * @author jezek2
  */
 public class OverlappingPairCache {
 
-	private final ObjectPool<BroadphasePair> pairsPool = BulletPool.get(BroadphasePair.class);
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// dense pair storage, parallel arrays:
+	private BroadphasePair[] pairs = new BroadphasePair[INITIAL_CAPACITY];
+	private long[] pairKeys = new long[INITIAL_CAPACITY];
+	private boolean[] pairRemoved = new boolean[INITIAL_CAPACITY];
+	private int count;
+	private int numDeferredRemovals;
+	
+	// hash table with linear probing, contains index of pair + 1 (0 = empty slot)
+	private int[] table = new int[INITIAL_CAPACITY * 2];
+	private int tableMask = table.length - 1;
+	
+	// temporary arrays used for sorting:
+	private BroadphasePair[] sortPairs = new BroadphasePair[0];
+	private long[] sortKeys = new long[0];
+	private final int[] radixCounts = new int[256];
 	
-	private final IMap<BroadphasePair,BroadphasePair> overlappingPairs = HashUtil.createMap();
 	private OverlapFilterCallback overlapFilterCallback;
+	
+	private final RemovePairCallback removePairCallback = new RemovePairCallback();
+	private final CleanPairCallback cleanPairCallback = new CleanPairCallback();
 
 	public OverlappingPairCache() {
 	}
@@ -57,34 +79,98 @@ public class OverlappingPairCache {
 			return null;
 		}
 
-		BroadphasePair pair = pairsPool.get();
-		pair.set(proxy0, proxy1);
-		
-		BroadphasePair old = overlappingPairs.get(pair);
-		if (old != null) {
-			pairsPool.release(pair);
-			return old;
+		long key = getKey(proxy0, proxy1);
+		int slot = findSlot(key);
+		if (slot != -1) {
+			int index = table[slot] - 1;
+			if (pairRemoved[index]) {
+				// pair was going to be removed, just keep it
+				pairRemoved[index] = false;
+				numDeferredRemovals--;
+			}
+			return pairs[index];
+		}
+
+		if (count == pairs.length) {
+			expandPairs();
+		}
+		if ((count + 1) * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+
+		BroadphasePair pair = pairs[count];
+		if (pair == null) {
+			pair = new BroadphasePair();
+			pairs[count] = pair;
 		}
-		overlappingPairs.put(pair, pair);
+		pair.set(proxy0, proxy1);
+		pairKeys[count] = key;
+		pairRemoved[count] = false;
+		count++;
+
+		insertSlot(key, count);
 		return pair;
 	}
 
 	public Object removeOverlappingPair(BroadphaseProxy proxy0, BroadphaseProxy proxy1, Dispatcher dispatcher) {
 		BulletGlobals.gRemovePairs++;
 
-		BroadphasePair key = pairsPool.get();
-		key.set(proxy0, proxy1);
-		BroadphasePair pair = overlappingPairs.remove(key);
-		pairsPool.release(key);
-		
-		if (pair == null) {
+		int slot = findSlot(getKey(proxy0, proxy1));
+		if (slot == -1) {
 			return null;
 		}
 
+		int index = table[slot] - 1;
+		BroadphasePair pair = pairs[index];
+		Object userInfo = pair.userInfo;
+
 		cleanOverlappingPair(pair, dispatcher);
-		pairsPool.release(pair);
+		removePair(slot, index);
+
+		return userInfo;
+	}
+
+	/**
+	 * Marks pair for removal. The pair is removed by next call of {@link #flushDeferredRemovals},
+	 * unless it's added again before that. Until then it's not returned by {@link #findPair}.
+	 */
+	public void removeOverlappingPairDeferred(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
+		int slot = findSlot(getKey(proxy0, proxy1));
+		if (slot != -1) {
+			int index = table[slot] - 1;
+			if (!pairRemoved[index]) {
+				pairRemoved[index] = true;
+				numDeferredRemovals++;
+			}
+		}
+	}
 
-		return pair.userInfo;
+	/**
+	 * Marks all pairs for removal, see {@link #removeOverlappingPairDeferred}.
+	 */
+	public void removeAllOverlappingPairsDeferred() {
+		for (int i=0; i<count; i++) {
+			pairRemoved[i] = true;
+		}
+		numDeferredRemovals = count;
+	}
+
+	/**
+	 * Removes all pairs marked by {@link #removeOverlappingPairDeferred}.
+	 */
+	public void flushDeferredRemovals(Dispatcher dispatcher) {
+		// going backwards, so pairs moved into place of removed ones were already checked
+		for (int i=count-1; i>=0 && numDeferredRemovals > 0; i--) {
+			if (pairRemoved[i]) {
+				BulletGlobals.gRemovePairs++;
+				cleanOverlappingPair(pairs[i], dispatcher);
+				removePair(findSlot(pairKeys[i]), i);
+			}
+		}
+	}
+
+	public boolean hasDeferredRemovals() {
+		return numDeferredRemovals > 0;
 	}
 
 	public boolean needsBroadphaseCollision(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
@@ -98,47 +184,127 @@ public class OverlappingPairCache {
 		return collides;
 	}
 
-	private class ProcessAllOverlappingPairsCallback implements IObjectProcedure<BroadphasePair> {
-		public OverlapCallback callback;
-		public Dispatcher dispatcher;
+	/**
+	 * Calls the callback for every pair, pairs for which the callback returns
+	 * true are removed. Pending deferred removals are flushed first.
+	 */
+	public void processAllOverlappingPairs(OverlapCallback callback, Dispatcher dispatcher) {
+		if (numDeferredRemovals > 0) {
+			flushDeferredRemovals(dispatcher);
+		}
 		
-		public boolean execute(BroadphasePair pair) {
+		for (int i=0; i<count; ) {
+			BroadphasePair pair = pairs[i];
 			if (callback.processOverlap(pair)) {
 				//removeOverlappingPair(pair.pProxy0, pair.pProxy1, dispatcher);
 				cleanOverlappingPair(pair, dispatcher);
 				BulletGlobals.gRemovePairs++;
 				BulletGlobals.gOverlappingPairs--;
-				pairsPool.release(pair);
-				return false;
+				// last pair is moved here, so process the same index again
+				removePair(findSlot(pairKeys[i]), i);
+			}
+			else {
+				i++;
 			}
-			return true;
 		}
 	}
-	
-	private ProcessAllOverlappingPairsCallback processAllOverlappingPairsCallback = new ProcessAllOverlappingPairsCallback();
-	
-	public void processAllOverlappingPairs(OverlapCallback callback, Dispatcher dispatcher) {
-		processAllOverlappingPairsCallback.callback = callback;
-		processAllOverlappingPairsCallback.dispatcher = dispatcher;
-		overlappingPairs.retainEntries(processAllOverlappingPairsCallback);
+
+	/**
+	 * Sorts pairs by unique ids of their proxies. Order of pairs then doesn't
+	 * depend on order in which they were added and removed, this is used for
+	 * deterministic simulation. Pending deferred removals are flushed first.
+	 */
+	public void sortOverlappingPairs(Dispatcher dispatcher) {
+		if (numDeferredRemovals > 0) {
+			flushDeferredRemovals(dispatcher);
+		}
+		
+		// pairs are usually already sorted from previous call, only new pairs
+		// and pairs moved by removals are out of order:
+		long diff = 0L;
+		boolean sorted = true;
+		for (int i=1; i<count; i++) {
+			if (pairKeys[i-1] > pairKeys[i]) {
+				sorted = false;
+			}
+			diff |= pairKeys[i] ^ pairKeys[0];
+		}
+		if (sorted) {
+			return;
+		}
+		
+		if (sortKeys.length < count) {
+			sortKeys = new long[pairKeys.length];
+			sortPairs = new BroadphasePair[pairKeys.length];
+		}
+		
+		// LSD radix sort by bytes of key (keys are non-negative), bytes that
+		// are the same in all keys are skipped:
+		long[] srcKeys = pairKeys, dstKeys = sortKeys;
+		BroadphasePair[] srcPairs = pairs, dstPairs = sortPairs;
+		int[] counts = radixCounts;
+		for (int shift=0; shift<64; shift+=8) {
+			if (((diff >>> shift) & 0xFF) == 0) {
+				continue;
+			}
+			for (int i=0; i<256; i++) {
+				counts[i] = 0;
+			}
+			for (int i=0; i<count; i++) {
+				counts[(int)(srcKeys[i] >>> shift) & 0xFF]++;
+			}
+			int offset = 0;
+			for (int i=0; i<256; i++) {
+				int c = counts[i];
+				counts[i] = offset;
+				offset += c;
+			}
+			for (int i=0; i<count; i++) {
+				int dest = counts[(int)(srcKeys[i] >>> shift) & 0xFF]++;
+				dstKeys[dest] = srcKeys[i];
+				dstPairs[dest] = srcPairs[i];
+			}
+			long[] tmpKeys = srcKeys; srcKeys = dstKeys; dstKeys = tmpKeys;
+			BroadphasePair[] tmpPairs = srcPairs; srcPairs = dstPairs; dstPairs = tmpPairs;
+		}
+		
+		// JAVA NOTE: pair objects past the end are kept for reuse, so the result
+		// is copied back instead of swapping the arrays
+		if (srcKeys != pairKeys) {
+			System.arraycopy(srcKeys, 0, pairKeys, 0, count);
+			System.arraycopy(srcPairs, 0, pairs, 0, count);
+		}
+		for (int i=0; i<count; i++) {
+			sortPairs[i] = null;
+		}
+		
+		// indices of pairs changed, rebuild hash table in place:
+		for (int i=0; i<table.length; i++) {
+			table[i] = 0;
+		}
+		for (int i=0; i<count; i++) {
+			insertSlot(pairKeys[i], i + 1);
+		}
 	}
 
 	public void removeOverlappingPairsContainingProxy(BroadphaseProxy proxy, Dispatcher dispatcher) {
-		processAllOverlappingPairs(new RemovePairCallback(proxy), dispatcher);
+		removePairCallback.obsoleteProxy = proxy;
+		processAllOverlappingPairs(removePairCallback, dispatcher);
+		removePairCallback.obsoleteProxy = null;
 	}
 
 	public void cleanProxyFromPairs(BroadphaseProxy proxy, Dispatcher dispatcher) {
-		processAllOverlappingPairs(new CleanPairCallback(proxy, this, dispatcher), dispatcher);
-	}
-
-	public IMap<BroadphasePair,BroadphasePair> getOverlappingPairArray() {
-		return overlappingPairs;
+		cleanPairCallback.init(proxy, this, dispatcher);
+		processAllOverlappingPairs(cleanPairCallback, dispatcher);
+		cleanPairCallback.init(null, null, null);
 	}
 
 	public void cleanOverlappingPair(BroadphasePair pair, Dispatcher dispatcher) {
 		if (pair.algorithm != null) {
 			pair.algorithm.destroy();
-			// TODO: dispatcher.freeCollisionAlgorithm(pair.m_algorithm);
+			if (dispatcher != null) {
+				dispatcher.freeCollisionAlgorithm(pair.algorithm);
+			}
 			pair.algorithm = null;
 		}
 	}
@@ -146,15 +312,25 @@ public class OverlappingPairCache {
 	public BroadphasePair findPair(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
 		BulletGlobals.gFindPairs++;
 
-		BroadphasePair key = pairsPool.get();
-		key.set(proxy0, proxy1);
-		BroadphasePair value = overlappingPairs.get(key);
-		pairsPool.release(key);
-		return value;
+		int slot = findSlot(getKey(proxy0, proxy1));
+		if (slot == -1) {
+			return null;
+		}
+		int index = table[slot] - 1;
+		return pairRemoved[index]? null : pairs[index];
 	}
 
 	public int getCount() {
-		return overlappingPairs.size();
+		return count - numDeferredRemovals;
+	}
+
+	/**
+	 * Returns pair at given index (0 to getCount()-1). Valid only when there
+	 * are no pending deferred removals, see {@link #flushDeferredRemovals}.
+	 */
+	public BroadphasePair getOverlappingPair(int index) {
+		assert (numDeferredRemovals == 0 && index < count);
+		return pairs[index];
 	}
 
 //	btBroadphasePair* GetPairs() { return m_pairs; }
@@ -167,17 +343,120 @@ public class OverlappingPairCache {
 	}
 
 	public int getNumOverlappingPairs() {
-		return overlappingPairs.size();
+		return count - numDeferredRemovals;
 	}
 	
 	////////////////////////////////////////////////////////////////////////////
 
-	private static class RemovePairCallback implements OverlapCallback {
-		private BroadphaseProxy obsoleteProxy;
+	private static long getKey(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
+		int uid0 = proxy0.getUid();
+		int uid1 = proxy1.getUid();
+		if (uid0 > uid1) {
+			int tmp = uid0; uid0 = uid1; uid1 = tmp;
+		}
+		return ((long)uid0 << 32) | (uid1 & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		// Fibonacci hashing, upper bits are the best mixed
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	/**
+	 * Returns slot in hash table containing pair with given key, or -1.
+	 */
+	private int findSlot(long key) {
+		int slot = hash(key) & tableMask;
+		while (true) {
+			int index = table[slot];
+			if (index == 0) {
+				return -1;
+			}
+			if (pairKeys[index - 1] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+	}
+
+	private void insertSlot(long key, int value) {
+		int slot = hash(key) & tableMask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & tableMask;
+		}
+		table[slot] = value;
+	}
+
+	/**
+	 * Removes the slot from hash table, subsequent entries of the probe
+	 * sequence are shifted back so no tombstones are needed.
+	 */
+	private void deleteSlot(int slot) {
+		int hole = slot;
+		int next = (hole + 1) & tableMask;
+		while (table[next] != 0) {
+			int home = hash(pairKeys[table[next] - 1]) & tableMask;
+			// entry can be moved to the hole when its home slot isn't between the hole and its slot
+			if (((next - home) & tableMask) >= ((next - hole) & tableMask)) {
+				table[hole] = table[next];
+				hole = next;
+			}
+			next = (next + 1) & tableMask;
+		}
+		table[hole] = 0;
+	}
+
+	/**
+	 * Removes pair at given index, last pair is moved into its place.
+	 */
+	private void removePair(int slot, int index) {
+		deleteSlot(slot);
+		if (pairRemoved[index]) {
+			numDeferredRemovals--;
+		}
 
-		public RemovePairCallback(BroadphaseProxy obsoleteProxy) {
-			this.obsoleteProxy = obsoleteProxy;
+		int last = count - 1;
+		BroadphasePair pair = pairs[index];
+		if (index != last) {
+			table[findSlot(pairKeys[last])] = index + 1;
+			pairs[index] = pairs[last];
+			pairKeys[index] = pairKeys[last];
+			pairRemoved[index] = pairRemoved[last];
+			pairs[last] = pair;
 		}
+		pair.set(null, null);
+		pairRemoved[last] = false;
+		count--;
+	}
+
+	private void expandPairs() {
+		int newCapacity = pairs.length * 2;
+
+		BroadphasePair[] newPairs = new BroadphasePair[newCapacity];
+		System.arraycopy(pairs, 0, newPairs, 0, count);
+		pairs = newPairs;
+
+		long[] newKeys = new long[newCapacity];
+		System.arraycopy(pairKeys, 0, newKeys, 0, count);
+		pairKeys = newKeys;
+
+		boolean[] newRemoved = new boolean[newCapacity];
+		System.arraycopy(pairRemoved, 0, newRemoved, 0, count);
+		pairRemoved = newRemoved;
+	}
+
+	private void rehash(int newSize) {
+		table = new int[newSize];
+		tableMask = newSize - 1;
+		for (int i=0; i<count; i++) {
+			insertSlot(pairKeys[i], i + 1);
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+
+	private static class RemovePairCallback implements OverlapCallback {
+		public BroadphaseProxy obsoleteProxy;
 
 		public boolean processOverlap(BroadphasePair pair) {
 			return ((pair.pProxy0 == obsoleteProxy) ||
@@ -190,7 +469,7 @@ public class OverlappingPairCache {
 		private OverlappingPairCache pairCache;
 		private Dispatcher dispatcher;
 
-		public CleanPairCallback(BroadphaseProxy cleanProxy, OverlappingPairCache pairCache, Dispatcher dispatcher) {
+		public void init(BroadphaseProxy cleanProxy, OverlappingPairCache pairCache, Dispatcher dispatcher) {
 			this.cleanProxy = cleanProxy;
 			this.pairCache = pairCache;
 			this.dispatcher = dispatcher;
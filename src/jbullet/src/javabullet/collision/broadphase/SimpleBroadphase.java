@@ -23,8 +23,12 @@
 
 package javabullet.collision.broadphase;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletStack;
+import javabullet.linearmath.AabbUtil2;
+import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
 
 /**
@@ -40,6 +44,7 @@ public class SimpleBroadphase implements BroadphaseInterface {
 	private int maxHandles;						// max number of handles
 	private OverlappingPairCache pairCache;
 	private boolean ownsPairCache;
+	private int uidCounter;						// ids must be unique for the pair cache
 
 	public SimpleBroadphase() {
 		this(16384, null);
@@ -62,7 +67,7 @@ public class SimpleBroadphase implements BroadphaseInterface {
 		assert (aabbMin.x <= aabbMax.x && aabbMin.y <= aabbMax.y && aabbMin.z <= aabbMax.z);
 
 		SimpleBroadphaseProxy proxy = new SimpleBroadphaseProxy(aabbMin, aabbMax, shapeType, userPtr, collisionFilterGroup, collisionFilterMask);
-		proxy.uniqueId = handles.size();
+		proxy.uniqueId = ++uidCounter;
 		handles.add(proxy);
 		return proxy;
 	}
@@ -109,4 +114,70 @@ public class SimpleBroadphase implements BroadphaseInterface {
 	public OverlappingPairCache getOverlappingPairCache() {
 		return pairCache;
 	}
+
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback) {
+		for (int i=0; i<handles.size(); i++) {
+			SimpleBroadphaseProxy proxy = handles.get(i);
+			if (AabbUtil2.testAabbAgainstAabb2(aabbMin, aabbMax, proxy.min, proxy.max)) {
+				if (!callback.process(proxy)) {
+					return;
+				}
+			}
+		}
+	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback) {
+		rayTest(rayFrom, rayTo, rayCallback, null, null);
+	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		try {
+			Vector3f rayDirectionInverse = stack.vectors.get();
+			rayDirectionInverse.sub(rayTo, rayFrom);
+			rayDirectionInverse.x = 1f / rayDirectionInverse.x;
+			rayDirectionInverse.y = 1f / rayDirectionInverse.y;
+			rayDirectionInverse.z = 1f / rayDirectionInverse.z;
+
+			for (int i=0; i<handles.size(); i++) {
+				SimpleBroadphaseProxy proxy = handles.get(i);
+				if (AabbUtil2.rayAabb2(rayFrom, rayDirectionInverse, proxy.min, proxy.max, aabbMin, aabbMax, rayCallback.lambdaMax)) {
+					if (!rayCallback.process(proxy)) {
+						break;
+					}
+				}
+			}
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	public int getSnapshotSize() {
+		return 0;
+	}
+	
+	public void writeSnapshot(ByteBuffer buf) {
+	}
+	
+	public void readSnapshot(ByteBuffer buf) {
+	}
+	
+	public int getProxySnapshotSize() {
+		return 2*12;
+	}
+	
+	public void writeProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		SimpleBroadphaseProxy sbp = (SimpleBroadphaseProxy)proxy;
+		VectorUtil.put(buf, sbp.min);
+		VectorUtil.put(buf, sbp.max);
+	}
+	
+	public void readProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		SimpleBroadphaseProxy sbp = (SimpleBroadphaseProxy)proxy;
+		VectorUtil.get(buf, sbp.min);
+		VectorUtil.get(buf, sbp.max);
+	}
 }
@@ -0,0 +1,145 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.dispatch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javabullet.linearmath.MiscUtil;
+
+/**
+ * Index of active collision objects in {@link CollisionWorld}. Objects enter and
+ * leave the index on activation state transitions, which are mostly done by
+ * {@link SimulationIslandManager} when whole islands fall asleep or wake up.
+ * Per-step loops iterate only this list, so their cost is proportional to
+ * number of awake objects instead of world size.<p>
+ * 
+ * Objects that fall asleep are removed lazily on next call to {@link #getObjects},
+ * so the activation state can change while the list is iterated. Users must
+ * therefore still check {@link CollisionObject#isActive}. Objects are kept
+ * in the same order as in the world, so iteration order doesn't depend on
+ * history of activation changes.
+ * 
+ * @author jezek2
+ */
+public class ActiveObjectList {
+
+	private final List<CollisionObject> objects = new ArrayList<CollisionObject>();
+	private int serialCounter;
+	private boolean needsCompaction;
+	private boolean needsSort;
+	
+	void add(CollisionObject colObj) {
+		assert (colObj.activeList == null);
+		colObj.activeList = this;
+		colObj.worldSerial = serialCounter++;
+		colObj.activeIndex = -1;
+		if (colObj.isActive()) {
+			append(colObj);
+		}
+	}
+	
+	void remove(CollisionObject colObj) {
+		if (colObj.activeList != this) {
+			return;
+		}
+		
+		int idx = colObj.activeIndex;
+		if (idx >= 0) {
+			// swapremove, order is restored on next request:
+			int last = objects.size() - 1;
+			if (idx != last) {
+				CollisionObject lastObj = objects.get(last);
+				objects.set(idx, lastObj);
+				lastObj.activeIndex = idx;
+				needsSort = true;
+			}
+			objects.remove(last);
+		}
+		colObj.activeList = null;
+		colObj.activeIndex = -1;
+	}
+	
+	void activationChanged(CollisionObject colObj) {
+		if (colObj.isActive()) {
+			if (colObj.activeIndex < 0) {
+				append(colObj);
+			}
+		}
+		else {
+			needsCompaction = true;
+		}
+	}
+	
+	private void append(CollisionObject colObj) {
+		int size = objects.size();
+		if (size > 0 && objects.get(size-1).worldSerial > colObj.worldSerial) {
+			needsSort = true;
+		}
+		colObj.activeIndex = size;
+		objects.add(colObj);
+	}
+	
+	/**
+	 * Returns active objects in world order. Can contain objects that fell
+	 * asleep after this call. The list must not be modified.
+	 */
+	public List<CollisionObject> getObjects() {
+		if (needsCompaction) {
+			int num = 0;
+			for (int i=0; i<objects.size(); i++) {
+				CollisionObject colObj = objects.get(i);
+				if (colObj.isActive()) {
+					colObj.activeIndex = num;
+					objects.set(num++, colObj);
+				}
+				else {
+					colObj.activeIndex = -1;
+				}
+			}
+			while (objects.size() > num) {
+				objects.remove(objects.size() - 1);
+			}
+			needsCompaction = false;
+		}
+		
+		if (needsSort) {
+			MiscUtil.heapSort(objects, worldOrderComparator);
+			for (int i=0; i<objects.size(); i++) {
+				objects.get(i).activeIndex = i;
+			}
+			needsSort = false;
+		}
+		return objects;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static final Comparator<CollisionObject> worldOrderComparator = new Comparator<CollisionObject>() {
+		public int compare(CollisionObject o1, CollisionObject o2) {
+			return o1.worldSerial < o2.worldSerial? -1 : (o1.worldSerial > o2.worldSerial? 1 : 0);
+		}
+	};
+	
+}
@@ -37,4 +37,15 @@ public abstract class CollisionAlgorithmCreateFunc {
 	
 	public abstract CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1);
 	
+	/**
+	 * Called by dispatcher for already destroyed algorithm previously created by
+	 * this function, so it can be reused. With parallel dispatch it can be called
+	 * from other thread than the one that created the algorithm, so the instances
+	 * must not be returned to thread local pools. Default implementation does nothing.
+	 * 
+	 * @param algo algorithm instance
+	 */
+	public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+	}
+	
 }
@@ -24,8 +24,11 @@
 package javabullet.collision.dispatch;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletPool;
 import javabullet.ObjectPool;
 import javabullet.collision.broadphase.BroadphaseNativeType;
@@ -38,6 +41,8 @@ import javabullet.collision.broadphase.DispatcherInfo;
 import javabullet.collision.broadphase.OverlapCallback;
 import javabullet.collision.broadphase.OverlappingPairCache;
 import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.util.IntArrayList;
+import javabullet.util.ParallelTasks;
 
 /**
  * CollisionDispatcher supports algorithms that handle ConvexConvex and ConvexConcave collision pairs.
@@ -47,9 +52,12 @@ import javabullet.collision.narrowphase.PersistentManifold;
  */
 public class CollisionDispatcher extends Dispatcher {
 	
-	protected final ObjectPool<PersistentManifold> manifoldsPool = BulletPool.get(PersistentManifold.class);
+	// JAVA NOTE: manifolds can be obtained from multiple threads during parallel dispatch,
+	// access to the pool is synchronized
+	protected final ObjectPool<PersistentManifold> manifoldsPool = new ObjectPool<PersistentManifold>(PersistentManifold.FACTORY);
 
 	private static final int MAX_BROADPHASE_COLLISION_TYPES = BroadphaseNativeType.MAX_BROADPHASE_COLLISION_TYPES.ordinal();
+	private static final int DISPATCH_CHUNK_SIZE = 16;
 	private int count = 0;
 	private final List<PersistentManifold> manifoldsPtr = new ArrayList<PersistentManifold>();
 	private boolean useIslands = true;
@@ -60,7 +68,15 @@ public class CollisionDispatcher extends Dispatcher {
 	//private PoolAllocator*	m_persistentManifoldPoolAllocator;
 	private final CollisionAlgorithmCreateFunc[][] doubleDispatch = new CollisionAlgorithmCreateFunc[MAX_BROADPHASE_COLLISION_TYPES][MAX_BROADPHASE_COLLISION_TYPES];
 	private CollisionConfiguration collisionConfiguration;
-	private static int gNumManifold = 0;
+	private static final AtomicInteger gNumManifold = new AtomicInteger();
+	
+	private Executor dispatchExecutor;
+	private int dispatchNumTasks = 1;
+	private boolean parallelDispatch = false;
+	private DispatchTask[] dispatchTasks = new DispatchTask[0];
+	private final ThreadLocal<DispatchTask> currentDispatchTask = new ThreadLocal<DispatchTask>();
+	private final PairDispatchTask pairDispatchTask = new PairDispatchTask();
+	private int[] deferredPairs = new int[16];
 
 	public CollisionDispatcher(CollisionConfiguration collisionConfiguration) {
 		this.collisionConfiguration = collisionConfiguration;
@@ -93,6 +109,28 @@ public class CollisionDispatcher extends Dispatcher {
 		this.nearCallback = nearCallback;
 	}
 
+	/**
+	 * Enables processing of collision pairs in parallel. Pairs are distributed to
+	 * numTasks tasks, one of them runs on the calling thread, the rest is submitted
+	 * to the executor. Pass null executor to disable it.<p>
+	 * 
+	 * The resulting contact manifolds and their order are the same as with serial
+	 * processing. Near callback and contact added/destroyed callbacks must be
+	 * thread-safe when this is enabled.
+	 */
+	public void setDispatchExecutor(Executor executor, int numTasks) {
+		dispatchExecutor = executor;
+		dispatchNumTasks = Math.max(1, numTasks);
+	}
+
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	public int getDispatchNumTasks() {
+		return dispatchNumTasks;
+	}
+
 	public CollisionConfiguration getCollisionConfiguration() {
 		return collisionConfiguration;
 	}
@@ -103,18 +141,33 @@ public class CollisionDispatcher extends Dispatcher {
 
 	@Override
 	public CollisionAlgorithm findAlgorithm(CollisionObject body0, CollisionObject body1, PersistentManifold sharedManifold) {
-		CollisionAlgorithmConstructionInfo ci = new CollisionAlgorithmConstructionInfo();
+		ObjectPool<CollisionAlgorithmConstructionInfo> ciPool = BulletPool.get(CollisionAlgorithmConstructionInfo.class, CollisionAlgorithmConstructionInfo.FACTORY);
+		CollisionAlgorithmConstructionInfo ci = ciPool.get();
 
 		ci.dispatcher1 = this;
 		ci.manifold = sharedManifold;
-		CollisionAlgorithm algo = doubleDispatch[body0.getCollisionShape().getShapeType().ordinal()][body1.getCollisionShape().getShapeType().ordinal()].createCollisionAlgorithm(ci, body0, body1);
+		CollisionAlgorithmCreateFunc createFunc = doubleDispatch[body0.getCollisionShape().getShapeType().ordinal()][body1.getCollisionShape().getShapeType().ordinal()];
+		CollisionAlgorithm algo = createFunc.createCollisionAlgorithm(ci, body0, body1);
+		algo.internalSetCreateFunc(createFunc);
 
+		ci.dispatcher1 = null;
+		ci.manifold = null;
+		ciPool.release(ci);
 		return algo;
 	}
 
+	@Override
+	public void freeCollisionAlgorithm(CollisionAlgorithm algo) {
+		CollisionAlgorithmCreateFunc createFunc = algo.internalGetCreateFunc();
+		algo.internalSetCreateFunc(null);
+		if (createFunc != null) {
+			createFunc.releaseCollisionAlgorithm(algo);
+		}
+	}
+
 	@Override
 	public PersistentManifold getNewManifold(Object b0, Object b1) {
-		gNumManifold++;
+		gNumManifold.incrementAndGet();
 
 		//btAssert(gNumManifold < 65535);
 
@@ -137,18 +190,37 @@ public class CollisionDispatcher extends Dispatcher {
 		m_manifoldsPtr.push_back(manifold);
 		*/
 		
-		PersistentManifold manifold = manifoldsPool.get();
+		PersistentManifold manifold;
+		synchronized (manifoldsPool) {
+			manifold = manifoldsPool.get();
+		}
 		manifold.init(body0,body1,0);
 		
-		manifold.index1a = manifoldsPtr.size();
-		manifoldsPtr.add(manifold);
+		DispatchTask task = parallelDispatch? currentDispatchTask.get() : null;
+		if (task != null) {
+			// added to manifoldsPtr after all pairs are processed
+			task.addManifold(manifold, false);
+		}
+		else {
+			manifold.index1a = manifoldsPtr.size();
+			manifoldsPtr.add(manifold);
+		}
 
 		return manifold;
 	}
 
 	@Override
 	public void releaseManifold(PersistentManifold manifold) {
-		gNumManifold--;
+		DispatchTask task = parallelDispatch? currentDispatchTask.get() : null;
+		if (task != null) {
+			// removed from manifoldsPtr in pair order after all pairs are processed,
+			// so that the swap with last manifold happens same as in serial dispatch
+			task.addManifold(manifold, true);
+			return;
+		}
+		
+		assert (!parallelDispatch);
+		gNumManifold.decrementAndGet();
 
 		//printf("releaseManifold: gNumManifold %d\n",gNumManifold);
 		clearManifold(manifold);
@@ -160,7 +232,9 @@ public class CollisionDispatcher extends Dispatcher {
 		manifoldsPtr.get(findIndex).index1a = findIndex;
 		manifoldsPtr.remove(manifoldsPtr.size()-1);
 
-		manifoldsPool.release(manifold);
+		synchronized (manifoldsPool) {
+			manifoldsPool.release(manifold);
+		}
 		/*
 		manifold->~btPersistentManifold();
 		if (m_persistentManifoldPoolAllocator->validPtr(manifold))
@@ -234,12 +308,110 @@ public class CollisionDispatcher extends Dispatcher {
 	
 	@Override
 	public void dispatchAllCollisionPairs(OverlappingPairCache pairCache, DispatcherInfo dispatchInfo, Dispatcher dispatcher) {
+		// time of impact is gathered in dispatchInfo, so continuous queries are always serial
+		if (dispatchExecutor != null && dispatchNumTasks > 1 && dispatchInfo.dispatchFunc == DispatchFunc.DISPATCH_DISCRETE) {
+			if (pairCache.hasDeferredRemovals()) {
+				pairCache.flushDeferredRemovals(dispatcher);
+			}
+
+			int numTasks = Math.min(dispatchNumTasks, (pairCache.getCount() + DISPATCH_CHUNK_SIZE - 1) / DISPATCH_CHUNK_SIZE);
+			if (numTasks > 1) {
+				dispatchAllCollisionPairsParallel(pairCache, dispatchInfo, numTasks);
+				return;
+			}
+		}
+
 		//m_blockedForChanges = true;
 		collisionPairCallback.init(dispatchInfo, this);
 		pairCache.processAllOverlappingPairs(collisionPairCallback, dispatcher);
 		//m_blockedForChanges = false;
 	}
 
+	/**
+	 * Pairs are processed in chunks by numTasks tasks. Manifolds created or released
+	 * meanwhile are collected per task together with index of the pair and are merged
+	 * in pair order afterwards, which gives the same manifold order as serial dispatch.<p>
+	 * 
+	 * Pairs with compound shapes are processed serially after the parallel part,
+	 * because compound algorithm temporarily modifies the compound object, which
+	 * may be part of other pairs.
+	 */
+	private void dispatchAllCollisionPairsParallel(OverlappingPairCache pairCache, DispatcherInfo dispatchInfo, int numTasks) {
+		if (dispatchTasks.length < numTasks + 1) {
+			DispatchTask[] tasks = new DispatchTask[numTasks + 1];
+			System.arraycopy(dispatchTasks, 0, tasks, 0, dispatchTasks.length);
+			for (int i=dispatchTasks.length; i<tasks.length; i++) {
+				tasks[i] = new DispatchTask();
+			}
+			dispatchTasks = tasks;
+		}
+
+		pairDispatchTask.init(pairCache, dispatchInfo, pairCache.getCount());
+		parallelDispatch = true;
+		try {
+			ParallelTasks.run(dispatchExecutor, numTasks, pairDispatchTask);
+
+			int numDeferredPairs = 0;
+			for (int i=0; i<numTasks; i++) {
+				IntArrayList taskPairs = dispatchTasks[i].deferredPairs;
+				for (int j=0; j<taskPairs.size(); j++) {
+					if (numDeferredPairs == deferredPairs.length) {
+						int[] newArray = new int[deferredPairs.length << 1];
+						System.arraycopy(deferredPairs, 0, newArray, 0, deferredPairs.length);
+						deferredPairs = newArray;
+					}
+					deferredPairs[numDeferredPairs++] = taskPairs.get(j);
+				}
+			}
+			Arrays.sort(deferredPairs, 0, numDeferredPairs);
+
+			DispatchTask serialTask = dispatchTasks[numTasks];
+			currentDispatchTask.set(serialTask);
+			for (int i=0; i<numDeferredPairs; i++) {
+				serialTask.currentPair = deferredPairs[i];
+				getNearCallback().invoke(pairCache.getOverlappingPair(deferredPairs[i]), this, dispatchInfo);
+			}
+		}
+		finally {
+			currentDispatchTask.remove();
+			parallelDispatch = false;
+			pairDispatchTask.init(null, null, 0);
+			mergeNewManifolds(numTasks + 1);
+		}
+	}
+
+	private void mergeNewManifolds(int numTasks) {
+		while (true) {
+			DispatchTask best = null;
+			for (int i=0; i<numTasks; i++) {
+				DispatchTask task = dispatchTasks[i];
+				if (task.mergeIndex < task.manifolds.size()) {
+					if (best == null || task.manifoldPairs.get(task.mergeIndex) < best.manifoldPairs.get(best.mergeIndex)) {
+						best = task;
+					}
+				}
+			}
+			if (best == null) {
+				break;
+			}
+
+			PersistentManifold manifold = best.manifolds.get(best.mergeIndex);
+			boolean released = best.releasedManifolds.get(best.mergeIndex) != 0;
+			best.mergeIndex++;
+			if (released) {
+				releaseManifold(manifold);
+			}
+			else {
+				manifold.index1a = manifoldsPtr.size();
+				manifoldsPtr.add(manifold);
+			}
+		}
+
+		for (int i=0; i<numTasks; i++) {
+			dispatchTasks[i].clear();
+		}
+	}
+
 	@Override
 	public int getNumManifolds() {
 		return manifoldsPtr.size();
@@ -257,9 +429,72 @@ public class CollisionDispatcher extends Dispatcher {
 
 	////////////////////////////////////////////////////////////////////////////
 	
+	private static class DispatchTask {
+		public final List<PersistentManifold> manifolds = new ArrayList<PersistentManifold>();
+		public final IntArrayList manifoldPairs = new IntArrayList();
+		public final IntArrayList releasedManifolds = new IntArrayList();
+		public final IntArrayList deferredPairs = new IntArrayList();
+		public int currentPair;
+		public int mergeIndex;
+
+		public void addManifold(PersistentManifold manifold, boolean released) {
+			manifolds.add(manifold);
+			manifoldPairs.add(currentPair);
+			releasedManifolds.add(released? 1 : 0);
+		}
+
+		public void clear() {
+			manifolds.clear();
+			manifoldPairs.clear();
+			releasedManifolds.clear();
+			deferredPairs.clear();
+			mergeIndex = 0;
+		}
+	}
+	
+	private class PairDispatchTask implements ParallelTasks.Task {
+		private final AtomicInteger nextPair = new AtomicInteger();
+		private OverlappingPairCache pairCache;
+		private DispatcherInfo dispatchInfo;
+		private int numPairs;
+
+		public void init(OverlappingPairCache pairCache, DispatcherInfo dispatchInfo, int numPairs) {
+			this.pairCache = pairCache;
+			this.dispatchInfo = dispatchInfo;
+			this.numPairs = numPairs;
+			nextPair.set(0);
+		}
+
+		public void run(int taskIndex) {
+			DispatchTask task = dispatchTasks[taskIndex];
+			NearCallback callback = getNearCallback();
+
+			currentDispatchTask.set(task);
+			try {
+				int start;
+				while ((start = nextPair.getAndAdd(DISPATCH_CHUNK_SIZE)) < numPairs) {
+					int end = Math.min(start + DISPATCH_CHUNK_SIZE, numPairs);
+					for (int i=start; i<end; i++) {
+						BroadphasePair pair = pairCache.getOverlappingPair(i);
+						CollisionObject colObj0 = (CollisionObject) pair.pProxy0.clientObject;
+						CollisionObject colObj1 = (CollisionObject) pair.pProxy1.clientObject;
+						if (colObj0.getCollisionShape().isCompound() || colObj1.getCollisionShape().isCompound()) {
+							task.deferredPairs.add(i);
+							continue;
+						}
+
+						task.currentPair = i;
+						callback.invoke(pair, CollisionDispatcher.this, dispatchInfo);
+					}
+				}
+			}
+			finally {
+				currentDispatchTask.remove();
+			}
+		}
+	}
+	
 	private static class DefaultNearCallback implements NearCallback {
-		private final ManifoldResult contactPointResult = new ManifoldResult();
-		
 		public void invoke(BroadphasePair collisionPair, CollisionDispatcher dispatcher, DispatcherInfo dispatchInfo) {
 			CollisionObject colObj0 = (CollisionObject) collisionPair.pProxy0.clientObject;
 			CollisionObject colObj1 = (CollisionObject) collisionPair.pProxy1.clientObject;
@@ -272,6 +507,8 @@ public class CollisionDispatcher extends Dispatcher {
 
 				if (collisionPair.algorithm != null) {
 					//ManifoldResult contactPointResult = new ManifoldResult(colObj0, colObj1);
+					ObjectPool<ManifoldResult> manifoldResultsPool = BulletPool.get(ManifoldResult.class, ManifoldResult.FACTORY);
+					ManifoldResult contactPointResult = manifoldResultsPool.get();
 					contactPointResult.init(colObj0, colObj1);
 
 					if (dispatchInfo.dispatchFunc == DispatchFunc.DISPATCH_DISCRETE) {
@@ -285,6 +522,8 @@ public class CollisionDispatcher extends Dispatcher {
 							dispatchInfo.timeOfImpact = toi;
 						}
 					}
+
+					manifoldResultsPool.release(contactPointResult);
 				}
 			}
 		}
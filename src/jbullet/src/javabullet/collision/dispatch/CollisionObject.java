@@ -23,10 +23,12 @@
 
 package javabullet.collision.dispatch;
 
-import javabullet.BulletStack;
+import java.nio.ByteBuffer;
 import javabullet.collision.broadphase.BroadphaseProxy;
 import javabullet.collision.shapes.CollisionShape;
 import javabullet.linearmath.Transform;
+import javabullet.linearmath.TransformUtil;
+import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
 
 /**
@@ -38,8 +40,6 @@ import javax.vecmath.Vector3f;
  */
 public class CollisionObject {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	// island management, m_activationState1
 	public static final int ACTIVE_TAG = 1;
 	public static final int ISLAND_SLEEPING = 2;
@@ -80,6 +80,11 @@ public class CollisionObject {
 	protected float ccdSquareMotionThreshold;
 	/// If some object should have elaborate collision filtering by sub-classes
 	protected boolean checkCollideWith;
+	
+	// JAVA NOTE: membership in active object index of the world, see ActiveObjectList
+	ActiveObjectList activeList;
+	int activeIndex = -1;
+	int worldSerial;
 
 	public CollisionObject() {
 		this.collisionFlags = CollisionFlags.STATIC_OBJECT;
@@ -129,7 +134,15 @@ public class CollisionObject {
 
 	public void setActivationState(int newState) {
 		if ((activationState1 != DISABLE_DEACTIVATION) && (activationState1 != DISABLE_SIMULATION)) {
-			this.activationState1 = newState;
+			changeActivationState(newState);
+		}
+	}
+	
+	private void changeActivationState(int newState) {
+		boolean wasActive = isActive();
+		this.activationState1 = newState;
+		if (activeList != null && wasActive != isActive()) {
+			activeList.activationChanged(this);
 		}
 	}
 
@@ -142,7 +155,7 @@ public class CollisionObject {
 	}
 
 	public void forceActivationState(int newState) {
-		this.activationState1 = newState;
+		changeActivationState(newState);
 	}
 
 	public void activate() {
@@ -279,4 +292,40 @@ public class CollisionObject {
 
 		return true;
 	}
+	
+	/**
+	 * Returns size in bytes of state written by {@link #writeSnapshot}.
+	 * Must not change during lifetime of object.
+	 */
+	public int getSnapshotSize() {
+		return 2*48 + 2*12 + 3*4;
+	}
+	
+	/**
+	 * Writes simulation state (transforms and activation) into buffer.
+	 * Configuration such as shape, flags or friction is not included.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		TransformUtil.put(buf, worldTransform);
+		TransformUtil.put(buf, interpolationWorldTransform);
+		VectorUtil.put(buf, interpolationLinearVelocity);
+		VectorUtil.put(buf, interpolationAngularVelocity);
+		buf.putInt(activationState1);
+		buf.putFloat(deactivationTime);
+		buf.putFloat(hitFraction);
+	}
+	
+	/**
+	 * Reads simulation state previously written by {@link #writeSnapshot}.
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		TransformUtil.get(buf, worldTransform);
+		TransformUtil.get(buf, interpolationWorldTransform);
+		VectorUtil.get(buf, interpolationLinearVelocity);
+		VectorUtil.get(buf, interpolationAngularVelocity);
+		changeActivationState(buf.getInt());
+		deactivationTime = buf.getFloat();
+		hitFraction = buf.getFloat();
+	}
+	
 }
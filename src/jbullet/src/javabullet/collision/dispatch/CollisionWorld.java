@@ -25,16 +25,24 @@ package javabullet.collision.dispatch;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletGlobals;
+import javabullet.BulletPool;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
 import javabullet.collision.broadphase.BroadphaseInterface;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.collision.broadphase.BroadphaseProxy;
+import javabullet.collision.broadphase.BroadphaseRayCallback;
+import javabullet.collision.broadphase.Dbvt;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.broadphase.DispatcherInfo;
 import javabullet.collision.broadphase.OverlappingPairCache;
 import javabullet.collision.narrowphase.ConvexCast.CastResult;
 import javabullet.collision.narrowphase.SubsimplexConvexCast;
+import javabullet.collision.narrowphase.TriangleConvexcastCallback;
 import javabullet.collision.narrowphase.TriangleRaycastCallback;
 import javabullet.collision.narrowphase.VoronoiSimplexSolver;
 import javabullet.collision.shapes.BvhTriangleMeshShape;
@@ -45,8 +53,12 @@ import javabullet.collision.shapes.ConvexShape;
 import javabullet.collision.shapes.SphereShape;
 import javabullet.linearmath.AabbUtil2;
 import javabullet.linearmath.IDebugDraw;
+import javabullet.linearmath.StepCounter;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepProfiler;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
+import javabullet.util.ParallelTasks;
 import javax.vecmath.Vector3f;
 
 /**
@@ -56,14 +68,23 @@ import javax.vecmath.Vector3f;
  */
 public class CollisionWorld {
 
+	// JAVA NOTE: number of rays processed at once by each task of batched raycast
+	private static final int RAY_BATCH_CHUNK_SIZE = 64;
+	
 	protected final BulletStack stack = BulletStack.get();
 	
 	protected List<CollisionObject> collisionObjects = new ArrayList<CollisionObject>();
+	protected final ActiveObjectList activeObjects = new ActiveObjectList();
 	protected Dispatcher dispatcher1;
 	protected DispatcherInfo dispatchInfo = new DispatcherInfo();
 	//protected btStackAlloc*	m_stackAlloc;
 	protected BroadphaseInterface broadphasePairCache;
 	protected IDebugDraw debugDrawer;
+	protected final StepProfiler profiler = new StepProfiler();
+	protected boolean deterministic;
+	
+	// JAVA NOTE: shared by all raycasts, it's never modified
+	private final SphereShape pointShape = new SphereShape(0f);
 	
 	/**
 	 * This constructor doesn't own the dispatcher and paircache/broadphase.
@@ -71,6 +92,8 @@ public class CollisionWorld {
 	public CollisionWorld(Dispatcher dispatcher,BroadphaseInterface broadphasePairCache, CollisionConfiguration collisionConfiguration) {
 		this.dispatcher1 = dispatcher;
 		this.broadphasePairCache = broadphasePairCache;
+		
+		pointShape.setMargin(0f);
 	}
 	
 	public void destroy() {
@@ -100,6 +123,7 @@ public class CollisionWorld {
 			assert (!collisionObjects.contains(collisionObject));
 
 			collisionObjects.add(collisionObject);
+			activeObjects.add(collisionObject);
 
 			// calculate new AABB
 			// TODO: check if it's overwritten or not
@@ -126,31 +150,89 @@ public class CollisionWorld {
 
 	public void performDiscreteCollisionDetection() {
 		BulletGlobals.pushProfile("performDiscreteCollisionDetection");
+		long t0 = profiler.startPhase();
 		try {
 			//DispatcherInfo dispatchInfo = getDispatchInfo();
 
+			long t = profiler.startPhase();
 			updateAabbs();
+			profiler.endPhase(StepPhase.UPDATE_AABBS, t);
 
+			t = profiler.startPhase();
 			broadphasePairCache.calculateOverlappingPairs(dispatcher1);
+			if (deterministic) {
+				broadphasePairCache.getOverlappingPairCache().sortOverlappingPairs(dispatcher1);
+			}
+			profiler.endPhase(StepPhase.BROADPHASE, t);
 
 			Dispatcher dispatcher = getDispatcher();
 			{
 				BulletGlobals.pushProfile("dispatchAllCollisionPairs");
+				t = profiler.startPhase();
 				try {
 					if (dispatcher != null) {
 						dispatcher.dispatchAllCollisionPairs(broadphasePairCache.getOverlappingPairCache(), dispatchInfo, dispatcher1);
 					}
 				}
 				finally {
+					profiler.endPhase(StepPhase.NARROWPHASE, t);
 					BulletGlobals.popProfile();
 				}
 			}
+			
+			if (profiler.isRecording()) {
+				recordCollisionCounters();
+			}
 		}
 		finally {
+			profiler.endPhase(StepPhase.COLLISION, t0);
 			BulletGlobals.popProfile();
 		}
 	}
 	
+	private void recordCollisionCounters() {
+		profiler.setCounter(StepCounter.OVERLAPPING_PAIRS, broadphasePairCache.getOverlappingPairCache().getNumOverlappingPairs());
+		
+		Dispatcher dispatcher = getDispatcher();
+		if (dispatcher != null) {
+			int numManifolds = dispatcher.getNumManifolds();
+			int numContacts = 0;
+			for (int i=0; i<numManifolds; i++) {
+				numContacts += dispatcher.getManifoldByIndexInternal(i).getNumContacts();
+			}
+			profiler.setCounter(StepCounter.MANIFOLDS, numManifolds);
+			profiler.setCounter(StepCounter.CONTACTS, numContacts);
+		}
+	}
+	
+	/**
+	 * Returns profiler of this world. It's disabled by default.
+	 */
+	public StepProfiler getProfiler() {
+		return profiler;
+	}
+	
+	/**
+	 * Enables deterministic mode. Overlapping pairs are sorted by proxy ids
+	 * before narrowphase, so their order doesn't depend on history of the
+	 * broadphase, and {@link BulletGlobals#gStrictMath} is enabled (it's global
+	 * and stays enabled when the mode is disabled). Dynamics worlds also make
+	 * the constraint solver ordering depend only on the island being solved.<p>
+	 * 
+	 * Worlds constructed and stepped the same way then produce bit-exact results
+	 * across JVMs and platforms, which allows lockstep simulation and replays.
+	 */
+	public void setDeterministic(boolean deterministic) {
+		this.deterministic = deterministic;
+		if (deterministic) {
+			BulletGlobals.gStrictMath = true;
+		}
+	}
+	
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+	
 	public void removeCollisionObject(CollisionObject collisionObject) {
 		//bool removeFromBroadphase = false;
 
@@ -168,6 +250,7 @@ public class CollisionWorld {
 
 		//swapremove
 		collisionObjects.remove(collisionObject);
+		activeObjects.remove(collisionObject);
 	}
 
 	public BroadphaseInterface getBroadphase() {
@@ -196,8 +279,10 @@ public class CollisionWorld {
 			Vector3f minAabb = stack.vectors.get(), maxAabb = stack.vectors.get();
 			Vector3f tmp = stack.vectors.get();
 
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			// JAVA NOTE: iterates only over awake objects
+			List<CollisionObject> objects = activeObjects.getObjects();
+			for (int i = 0; i < objects.size(); i++) {
+				CollisionObject colObj = objects.get(i);
 
 				// only update aabb of active objects
 				if (colObj.isActive()) {
@@ -249,51 +334,72 @@ public class CollisionWorld {
 			CollisionShape collisionShape,
 			Transform colObjWorldTransform,
 			RayResultCallback resultCallback, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
-			SphereShape pointShape = new SphereShape(0f);
-			pointShape.setMargin(0f);
 			ConvexShape castShape = pointShape;
 
 			if (collisionShape.isConvex()) {
-				CastResult castResult = new CastResult();
+				// JAVA NOTE: helper objects are taken from per-thread pools to avoid allocation for each ray
+				ObjectPool<CastResult> castResultsPool = BulletPool.get(CastResult.class, CastResult.FACTORY);
+				ObjectPool<VoronoiSimplexSolver> simplexSolversPool = BulletPool.get(VoronoiSimplexSolver.class, VoronoiSimplexSolver.FACTORY);
+				ObjectPool<SubsimplexConvexCast> convexCastersPool = BulletPool.get(SubsimplexConvexCast.class, SubsimplexConvexCast.FACTORY);
+
+				CastResult castResult = castResultsPool.get();
 				castResult.fraction = resultCallback.closestHitFraction;
+				castResult.normal.set(0f, 0f, 0f);
 
 				ConvexShape convexShape = (ConvexShape) collisionShape;
-				VoronoiSimplexSolver simplexSolver = new VoronoiSimplexSolver();
+				VoronoiSimplexSolver simplexSolver = simplexSolversPool.get();
 
 				//#define USE_SUBSIMPLEX_CONVEX_CAST 1
 				//#ifdef USE_SUBSIMPLEX_CONVEX_CAST
-				SubsimplexConvexCast convexCaster = new SubsimplexConvexCast(castShape, convexShape, simplexSolver);
+				SubsimplexConvexCast convexCaster = convexCastersPool.get();
+				convexCaster.init(castShape, convexShape, simplexSolver);
 				//#else
 				//btGjkConvexCast	convexCaster(castShape,convexShape,&simplexSolver);
 				//btContinuousConvexCollision convexCaster(castShape,convexShape,&simplexSolver,0);
 				//#endif //#USE_SUBSIMPLEX_CONVEX_CAST
 
-				if (convexCaster.calcTimeOfImpact(rayFromTrans, rayToTrans, colObjWorldTransform, colObjWorldTransform, castResult)) {
-					//add hit
-					if (castResult.normal.lengthSquared() > 0.0001f) {
-						if (castResult.fraction < resultCallback.closestHitFraction) {
-							//#ifdef USE_SUBSIMPLEX_CONVEX_CAST
-							//rotate normal into worldspace
-							rayFromTrans.basis.transform(castResult.normal);
-							//#endif //USE_SUBSIMPLEX_CONVEX_CAST
-
-							castResult.normal.normalize();
-							LocalRayResult localRayResult = new LocalRayResult(
-									collisionObject,
-									null,
-									castResult.normal,
-									castResult.fraction);
-
-							boolean normalInWorldSpace = true;
-							resultCallback.addSingleResult(localRayResult, normalInWorldSpace);
+				try {
+					if (convexCaster.calcTimeOfImpact(rayFromTrans, rayToTrans, colObjWorldTransform, colObjWorldTransform, castResult)) {
+						//add hit
+						if (castResult.normal.lengthSquared() > 0.0001f) {
+							if (castResult.fraction < resultCallback.closestHitFraction) {
+								//#ifdef USE_SUBSIMPLEX_CONVEX_CAST
+								//rotate normal into worldspace
+								rayFromTrans.basis.transform(castResult.normal);
+								//#endif //USE_SUBSIMPLEX_CONVEX_CAST
+
+								castResult.normal.normalize();
+								ObjectPool<LocalRayResult> rayResultsPool = BulletPool.get(LocalRayResult.class, LocalRayResult.FACTORY);
+								LocalRayResult localRayResult = rayResultsPool.get();
+								localRayResult.collisionObject = collisionObject;
+								localRayResult.localShapeInfo = null;
+								localRayResult.hitNormalLocal.set(castResult.normal);
+								localRayResult.hitFraction = castResult.fraction;
+
+								boolean normalInWorldSpace = true;
+								resultCallback.addSingleResult(localRayResult, normalInWorldSpace);
+								
+								localRayResult.collisionObject = null;
+								rayResultsPool.release(localRayResult);
+							}
 						}
 					}
 				}
+				finally {
+					convexCaster.init(null, null, null);
+					convexCastersPool.release(convexCaster);
+					simplexSolversPool.release(simplexSolver);
+					castResultsPool.release(castResult);
+				}
 			}
 			else {
 				if (collisionShape.isConcave()) {
+					ObjectPool<BridgeTriangleRaycastCallback> bridgeCallbacksPool = BulletPool.get(BridgeTriangleRaycastCallback.class, BridgeTriangleRaycastCallback.FACTORY);
+					
 					if (collisionShape.getShapeType() == BroadphaseNativeType.TRIANGLE_MESH_SHAPE_PROXYTYPE) {
 						// optimized version for BvhTriangleMeshShape
 						BvhTriangleMeshShape triangleMesh = (BvhTriangleMeshShape)collisionShape;
@@ -304,9 +410,13 @@ public class CollisionWorld {
 						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
 						worldTocollisionObject.transform(rayToLocal);
 
-						BridgeTriangleRaycastCallback rcb = new BridgeTriangleRaycastCallback(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
+						BridgeTriangleRaycastCallback rcb = bridgeCallbacksPool.get();
+						rcb.init(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
 						rcb.hitFraction = resultCallback.closestHitFraction;
 						triangleMesh.performRaycast(rcb, rayFromLocal, rayToLocal);
+						
+						rcb.init(rayFromLocal, rayToLocal, null, null, null);
+						bridgeCallbacksPool.release(rcb);
 					}
 					else {
 						ConcaveShape triangleMesh = (ConcaveShape)collisionShape;
@@ -319,7 +429,8 @@ public class CollisionWorld {
 						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
 						worldTocollisionObject.transform(rayToLocal);
 
-						BridgeTriangleRaycastCallback rcb = new BridgeTriangleRaycastCallback(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
+						BridgeTriangleRaycastCallback rcb = bridgeCallbacksPool.get();
+						rcb.init(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
 						rcb.hitFraction = resultCallback.closestHitFraction;
 
 						Vector3f rayAabbMinLocal = stack.vectors.get(rayFromLocal);
@@ -328,24 +439,36 @@ public class CollisionWorld {
 						VectorUtil.setMax(rayAabbMaxLocal, rayToLocal);
 
 						triangleMesh.processAllTriangles(rcb, rayAabbMinLocal, rayAabbMaxLocal);
+						
+						rcb.init(rayFromLocal, rayToLocal, null, null, null);
+						bridgeCallbacksPool.release(rcb);
 					}
 				}
 				else {
-					// todo: use AABB tree or other BVH acceleration structure!
 					if (collisionShape.isCompound()) {
+						// children hit by the ray are found using AABB tree of compound
 						CompoundShape compoundShape = (CompoundShape) collisionShape;
-						int i = 0;
-						for (i = 0; i < compoundShape.getNumChildShapes(); i++) {
-							Transform childTrans = stack.transforms.get(compoundShape.getChildTransform(i));
-							CollisionShape childCollisionShape = compoundShape.getChildShape(i);
-							Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
-							childWorldTrans.mul(childTrans);
-							rayTestSingle(rayFromTrans, rayToTrans,
-									collisionObject,
-									childCollisionShape,
-									childWorldTrans,
-									resultCallback, collisionFilterMask);
-						}
+						Dbvt tree = compoundShape.getDynamicAabbTree();
+						
+						Transform worldTocollisionObject = stack.transforms.get();
+						worldTocollisionObject.inverse(colObjWorldTransform);
+						Vector3f rayFromLocal = stack.vectors.get(rayFromTrans.origin);
+						worldTocollisionObject.transform(rayFromLocal);
+						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
+						worldTocollisionObject.transform(rayToLocal);
+						
+						Vector3f rayDirectionInverse = stack.vectors.get();
+						rayDirectionInverse.sub(rayToLocal, rayFromLocal);
+						rayDirectionInverse.x = 1f / rayDirectionInverse.x;
+						rayDirectionInverse.y = 1f / rayDirectionInverse.y;
+						rayDirectionInverse.z = 1f / rayDirectionInverse.z;
+						
+						ObjectPool<CompoundRayCallback> compoundCallbacksPool = BulletPool.get(CompoundRayCallback.class, CompoundRayCallback.FACTORY);
+						CompoundRayCallback ccb = compoundCallbacksPool.get();
+						ccb.init(this, rayFromTrans, rayToTrans, collisionObject, compoundShape, colObjWorldTransform, resultCallback, collisionFilterMask);
+						tree.rayTest(tree.root, rayFromLocal, rayDirectionInverse, ccb);
+						ccb.init(null, rayFromTrans, rayToTrans, null, null, colObjWorldTransform, null, (short)0);
+						compoundCallbacksPool.release(ccb);
 					}
 				}
 			}
@@ -361,46 +484,240 @@ public class CollisionWorld {
 	
 	/**
 	 * rayTest performs a raycast on all objects in the CollisionWorld, and calls the resultCallback.
-	 * This allows for several queries: first hit, all hits, any hit, dependent on the value returned by the callback.
+	 * This allows for several queries: first hit, all hits, any hit, dependent on the value returned by the callback.<p>
+	 * 
+	 * Candidate objects are found using ray traversal of the broadphase, only
+	 * objects whose broadphase AABB is hit by the ray are tested. Can be called
+	 * from multiple threads at once, as long as the world is not modified or
+	 * stepped at the same time.
 	 */
 	public void rayTest(Vector3f rayFromWorld, Vector3f rayToWorld, RayResultCallback resultCallback, short collisionFilterMask) {
+		ObjectPool<SingleRayCallback> rayCallbacksPool = BulletPool.get(SingleRayCallback.class, SingleRayCallback.FACTORY);
+		SingleRayCallback rayCallback = rayCallbacksPool.get();
+		
+		rayCallback.init(this, rayFromWorld, rayToWorld, resultCallback, collisionFilterMask);
+		broadphasePairCache.rayTest(rayFromWorld, rayToWorld, rayCallback);
+		rayCallback.init(null, rayFromWorld, rayToWorld, null, (short)0);
+		
+		rayCallbacksPool.release(rayCallback);
+	}
+	
+	/**
+	 * Performs closest hit raycasts for a batch of rays. Start and end points
+	 * are stored in arrays as consecutive x, y, z triples. Results are written
+	 * to the preallocated result buffer, no objects are allocated per ray.
+	 */
+	public void rayTestBatch(float[] rayFromWorld, float[] rayToWorld, int numRays, RayBatchResult result, short collisionFilterMask) {
+		assert (rayFromWorld.length >= numRays*3 && rayToWorld.length >= numRays*3);
+		assert (result.capacity() >= numRays);
+		
+		rayTestBatchRange(rayFromWorld, rayToWorld, 0, numRays, result, collisionFilterMask);
+	}
+	
+	/**
+	 * Performs closest hit raycasts for a batch of rays, spreading the work
+	 * to numTasks tasks. One task is run on the calling thread, the rest are
+	 * submitted to the executor. Returns after all rays are processed.<p>
+	 * 
+	 * The world must not be modified or stepped until this method returns.
+	 */
+	public void rayTestBatch(final float[] rayFromWorld, final float[] rayToWorld, final int numRays, final RayBatchResult result, final short collisionFilterMask, Executor executor, int numTasks) {
+		if (executor == null || numTasks <= 1 || numRays <= RAY_BATCH_CHUNK_SIZE) {
+			rayTestBatch(rayFromWorld, rayToWorld, numRays, result, collisionFilterMask);
+			return;
+		}
+		
+		assert (rayFromWorld.length >= numRays*3 && rayToWorld.length >= numRays*3);
+		assert (result.capacity() >= numRays);
+		
+		// rays are processed in small chunks, so tasks with expensive rays don't hold up the others
+		final AtomicInteger nextRay = new AtomicInteger();
+		
+		ParallelTasks.run(executor, numTasks, new ParallelTasks.Task() {
+			public void run(int taskIndex) {
+				rayTestBatchChunks(rayFromWorld, rayToWorld, numRays, result, collisionFilterMask, nextRay);
+			}
+		});
+	}
+	
+	private void rayTestBatchChunks(float[] rayFromWorld, float[] rayToWorld, int numRays, RayBatchResult result, short collisionFilterMask, AtomicInteger nextRay) {
+		int start;
+		while ((start = nextRay.getAndAdd(RAY_BATCH_CHUNK_SIZE)) < numRays) {
+			int end = Math.min(start + RAY_BATCH_CHUNK_SIZE, numRays);
+			rayTestBatchRange(rayFromWorld, rayToWorld, start, end, result, collisionFilterMask);
+		}
+	}
+	
+	private void rayTestBatchRange(float[] rayFromWorld, float[] rayToWorld, int start, int end, RayBatchResult result, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<ClosestRayResultCallback> resultCallbacksPool = BulletPool.get(ClosestRayResultCallback.class, ClosestRayResultCallback.FACTORY);
+		ClosestRayResultCallback resultCallback = resultCallbacksPool.get();
+		
+		stack.vectors.push();
+		try {
+			Vector3f from = stack.vectors.get();
+			Vector3f to = stack.vectors.get();
+
+			for (int i=start; i<end; i++) {
+				from.set(rayFromWorld[i*3+0], rayFromWorld[i*3+1], rayFromWorld[i*3+2]);
+				to.set(rayToWorld[i*3+0], rayToWorld[i*3+1], rayToWorld[i*3+2]);
+
+				resultCallback.rayFromWorld.set(from);
+				resultCallback.rayToWorld.set(to);
+				resultCallback.closestHitFraction = 1f;
+				resultCallback.collisionObject = null;
+
+				rayTest(from, to, resultCallback, collisionFilterMask);
+
+				result.set(i, resultCallback);
+			}
+		}
+		finally {
+			stack.vectors.pop();
+			resultCallback.collisionObject = null;
+			resultCallbacksPool.release(resultCallback);
+		}
+	}
+	
+	/**
+	 * objectQuerySingle performs a collision detection query of convex shape
+	 * swept from convexFromTrans to convexToTrans against given collision object
+	 * and calls the resultCallback. Only linear motion of the cast shape is
+	 * considered, rotation is taken from convexFromTrans.
+	 */
+	public /*static*/ void objectQuerySingle(ConvexShape castShape, Transform convexFromTrans, Transform convexToTrans,
+			CollisionObject collisionObject,
+			CollisionShape collisionShape,
+			Transform colObjWorldTransform,
+			ConvexResultCallback resultCallback) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
-			Transform rayFromTrans = stack.transforms.get(), rayToTrans = stack.transforms.get();
-			rayFromTrans.setIdentity();
-			rayFromTrans.origin.set(rayFromWorld);
-			rayToTrans.setIdentity();
+			if (collisionShape.isConvex()) {
+				ObjectPool<CastResult> castResultsPool = BulletPool.get(CastResult.class, CastResult.FACTORY);
+				ObjectPool<VoronoiSimplexSolver> simplexSolversPool = BulletPool.get(VoronoiSimplexSolver.class, VoronoiSimplexSolver.FACTORY);
+				ObjectPool<SubsimplexConvexCast> convexCastersPool = BulletPool.get(SubsimplexConvexCast.class, SubsimplexConvexCast.FACTORY);
 
-			rayToTrans.origin.set(rayToWorld);
+				CastResult castResult = castResultsPool.get();
+				castResult.fraction = resultCallback.closestHitFraction;
+				castResult.normal.set(0f, 0f, 0f);
+				castResult.hitPoint.set(0f, 0f, 0f);
 
-			// go over all objects, and if the ray intersects their aabb, do a ray-shape query using convexCaster (CCD)
-			Vector3f collisionObjectAabbMin = stack.vectors.get(), collisionObjectAabbMax = stack.vectors.get();
-			float[] hitLambda = new float[1];
+				ConvexShape convexShape = (ConvexShape) collisionShape;
+				VoronoiSimplexSolver simplexSolver = simplexSolversPool.get();
+				SubsimplexConvexCast convexCaster = convexCastersPool.get();
+				convexCaster.init(castShape, convexShape, simplexSolver);
 
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				// terminate further ray tests, once the closestHitFraction reached zero
-				if (resultCallback.closestHitFraction == 0f) {
-					break;
-				}
+				try {
+					if (convexCaster.calcTimeOfImpact(convexFromTrans, convexToTrans, colObjWorldTransform, colObjWorldTransform, castResult)) {
+						//add hit
+						if (castResult.normal.lengthSquared() > 0.0001f) {
+							if (castResult.fraction < resultCallback.closestHitFraction) {
+								//rotate normal into worldspace
+								convexFromTrans.basis.transform(castResult.normal);
+								castResult.normal.normalize();
+								
+								ObjectPool<LocalConvexResult> convexResultsPool = BulletPool.get(LocalConvexResult.class, LocalConvexResult.FACTORY);
+								LocalConvexResult localConvexResult = convexResultsPool.get();
+								localConvexResult.hitCollisionObject = collisionObject;
+								localConvexResult.localShapeInfo = null;
+								localConvexResult.hitNormalLocal.set(castResult.normal);
+								localConvexResult.hitPointLocal.set(castResult.hitPoint);
+								localConvexResult.hitFraction = castResult.fraction;
 
-				CollisionObject collisionObject = collisionObjects.get(i);
-				// only perform raycast if filterMask matches
-				if ((collisionObject.getBroadphaseHandle().collisionFilterGroup & collisionFilterMask) != 0) {
-					//RigidcollisionObject* collisionObject = ctrl->GetRigidcollisionObject();
-					collisionObject.getCollisionShape().getAabb(collisionObject.getWorldTransform(), collisionObjectAabbMin, collisionObjectAabbMax);
-
-					hitLambda[0] = resultCallback.closestHitFraction;
-					Vector3f hitNormal = stack.vectors.get();
-					if (AabbUtil2.rayAabb(rayFromWorld, rayToWorld, collisionObjectAabbMin, collisionObjectAabbMax, hitLambda, hitNormal)) {
-						rayTestSingle(rayFromTrans, rayToTrans,
-								collisionObject,
-								collisionObject.getCollisionShape(),
-								collisionObject.getWorldTransform(),
-								resultCallback,
-								(short) -1);
+								boolean normalInWorldSpace = true;
+								resultCallback.addSingleResult(localConvexResult, normalInWorldSpace);
+								
+								localConvexResult.hitCollisionObject = null;
+								convexResultsPool.release(localConvexResult);
+							}
+						}
 					}
 				}
+				finally {
+					convexCaster.init(null, null, null);
+					convexCastersPool.release(convexCaster);
+					simplexSolversPool.release(simplexSolver);
+					castResultsPool.release(castResult);
+				}
+			}
+			else {
+				if (collisionShape.isConcave()) {
+					ObjectPool<BridgeTriangleConvexcastCallback> bridgeCallbacksPool = BulletPool.get(BridgeTriangleConvexcastCallback.class, BridgeTriangleConvexcastCallback.FACTORY);
+					
+					Transform worldTocollisionObject = stack.transforms.get();
+					worldTocollisionObject.inverse(colObjWorldTransform);
+					Vector3f convexFromLocal = stack.vectors.get(convexFromTrans.origin);
+					worldTocollisionObject.transform(convexFromLocal);
+					Vector3f convexToLocal = stack.vectors.get(convexToTrans.origin);
+					worldTocollisionObject.transform(convexToLocal);
+					
+					// sweep is done in world space, local space is used only for culling of triangles
+					Transform rotationXform = stack.transforms.get();
+					rotationXform.basis.mul(worldTocollisionObject.basis, convexFromTrans.basis);
+					rotationXform.origin.set(0f, 0f, 0f);
+					Vector3f boxMinLocal = stack.vectors.get(), boxMaxLocal = stack.vectors.get();
+					castShape.getAabb(rotationXform, boxMinLocal, boxMaxLocal);
+
+					BridgeTriangleConvexcastCallback tccb = bridgeCallbacksPool.get();
+					tccb.init(castShape, convexFromTrans, convexToTrans, resultCallback, collisionObject, colObjWorldTransform);
+					tccb.hitFraction = resultCallback.closestHitFraction;
+					
+					if (collisionShape.getShapeType() == BroadphaseNativeType.TRIANGLE_MESH_SHAPE_PROXYTYPE) {
+						// optimized version for BvhTriangleMeshShape
+						BvhTriangleMeshShape triangleMesh = (BvhTriangleMeshShape)collisionShape;
+						triangleMesh.performConvexcast(tccb, convexFromLocal, convexToLocal, boxMinLocal, boxMaxLocal);
+					}
+					else {
+						ConcaveShape triangleMesh = (ConcaveShape)collisionShape;
 
+						Vector3f rayAabbMinLocal = stack.vectors.get(convexFromLocal);
+						VectorUtil.setMin(rayAabbMinLocal, convexToLocal);
+						rayAabbMinLocal.add(boxMinLocal);
+						Vector3f rayAabbMaxLocal = stack.vectors.get(convexFromLocal);
+						VectorUtil.setMax(rayAabbMaxLocal, convexToLocal);
+						rayAabbMaxLocal.add(boxMaxLocal);
+
+						triangleMesh.processAllTriangles(tccb, rayAabbMinLocal, rayAabbMaxLocal);
+					}
+					
+					tccb.init(null, convexFromTrans, convexToTrans, null, null, colObjWorldTransform);
+					bridgeCallbacksPool.release(tccb);
+				}
+				else {
+					if (collisionShape.isCompound()) {
+						// children touched by the sweep are found using AABB tree of compound
+						CompoundShape compoundShape = (CompoundShape) collisionShape;
+						Dbvt tree = compoundShape.getDynamicAabbTree();
+						
+						Transform worldTocollisionObject = stack.transforms.get();
+						worldTocollisionObject.inverse(colObjWorldTransform);
+						Vector3f convexFromLocal = stack.vectors.get(convexFromTrans.origin);
+						worldTocollisionObject.transform(convexFromLocal);
+						Vector3f convexToLocal = stack.vectors.get(convexToTrans.origin);
+						worldTocollisionObject.transform(convexToLocal);
+						
+						Transform rotationXform = stack.transforms.get();
+						rotationXform.basis.mul(worldTocollisionObject.basis, convexFromTrans.basis);
+						rotationXform.origin.set(0f, 0f, 0f);
+						Vector3f boxMinLocal = stack.vectors.get(), boxMaxLocal = stack.vectors.get();
+						castShape.getAabb(rotationXform, boxMinLocal, boxMaxLocal);
+						
+						Vector3f rayDirectionInverse = stack.vectors.get();
+						rayDirectionInverse.sub(convexToLocal, convexFromLocal);
+						rayDirectionInverse.x = 1f / rayDirectionInverse.x;
+						rayDirectionInverse.y = 1f / rayDirectionInverse.y;
+						rayDirectionInverse.z = 1f / rayDirectionInverse.z;
+						
+						ObjectPool<CompoundSweepCallback> compoundCallbacksPool = BulletPool.get(CompoundSweepCallback.class, CompoundSweepCallback.FACTORY);
+						CompoundSweepCallback ccb = compoundCallbacksPool.get();
+						ccb.init(this, castShape, convexFromTrans, convexToTrans, collisionObject, compoundShape, colObjWorldTransform, resultCallback);
+						tree.rayTest(tree.root, convexFromLocal, rayDirectionInverse, boxMinLocal, boxMaxLocal, ccb);
+						ccb.init(null, null, convexFromTrans, convexToTrans, null, null, colObjWorldTransform, null);
+						compoundCallbacksPool.release(ccb);
+					}
+				}
 			}
 		}
 		finally {
@@ -408,10 +725,53 @@ public class CollisionWorld {
 		}
 	}
 	
+	public void convexSweepTest(ConvexShape castShape, Transform convexFromWorld, Transform convexToWorld, ConvexResultCallback resultCallback) {
+		convexSweepTest(castShape, convexFromWorld, convexToWorld, resultCallback, (short)-1);
+	}
+	
+	/**
+	 * convexSweepTest performs a linear sweep of convex shape against all objects
+	 * in the CollisionWorld and calls the resultCallback, similar to rayTest.<p>
+	 * 
+	 * Candidate objects are found by traversal of the broadphase with the ray
+	 * between the sweep origins expanded by AABB of the cast shape. Can be called
+	 * from multiple threads at once, as long as the world is not modified or
+	 * stepped at the same time.
+	 */
+	public void convexSweepTest(ConvexShape castShape, Transform convexFromWorld, Transform convexToWorld, ConvexResultCallback resultCallback, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SingleSweepCallback> sweepCallbacksPool = BulletPool.get(SingleSweepCallback.class, SingleSweepCallback.FACTORY);
+		SingleSweepCallback sweepCallback = sweepCallbacksPool.get();
+		
+		stack.pushCommonMath();
+		try {
+			Transform rotationXform = stack.transforms.get();
+			rotationXform.basis.set(convexFromWorld.basis);
+			rotationXform.origin.set(0f, 0f, 0f);
+			Vector3f castShapeAabbMin = stack.vectors.get(), castShapeAabbMax = stack.vectors.get();
+			castShape.getAabb(rotationXform, castShapeAabbMin, castShapeAabbMax);
+			
+			sweepCallback.init(this, castShape, convexFromWorld, convexToWorld, resultCallback, collisionFilterMask);
+			broadphasePairCache.rayTest(convexFromWorld.origin, convexToWorld.origin, sweepCallback, castShapeAabbMin, castShapeAabbMax);
+			sweepCallback.init(null, null, convexFromWorld, convexToWorld, null, (short)0);
+		}
+		finally {
+			stack.popCommonMath();
+			sweepCallbacksPool.release(sweepCallback);
+		}
+	}
+
 	public List<CollisionObject> getCollisionObjectArray() {
 		return collisionObjects;
 	}
 	
+	/**
+	 * Returns currently active objects, see {@link ActiveObjectList#getObjects}.
+	 */
+	public List<CollisionObject> getActiveObjects() {
+		return activeObjects.getObjects();
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	
 	/**
@@ -426,11 +786,20 @@ public class CollisionWorld {
 	}
 	
 	public static class LocalRayResult {
+		public static final ObjectFactory<LocalRayResult> FACTORY = new ObjectFactory<LocalRayResult>() {
+			public LocalRayResult create() {
+				return new LocalRayResult();
+			}
+		};
+
 		public CollisionObject collisionObject;
 		public LocalShapeInfo localShapeInfo;
 		public final Vector3f hitNormalLocal = new Vector3f();
 		public float hitFraction;
 
+		public LocalRayResult() {
+		}
+		
 		public LocalRayResult(CollisionObject collisionObject, LocalShapeInfo localShapeInfo, Vector3f hitNormalLocal, float hitFraction) {
 			this.collisionObject = collisionObject;
 			this.localShapeInfo = localShapeInfo;
@@ -454,12 +823,21 @@ public class CollisionWorld {
 	}
 	
 	public static class ClosestRayResultCallback extends RayResultCallback {
+		public static final ObjectFactory<ClosestRayResultCallback> FACTORY = new ObjectFactory<ClosestRayResultCallback>() {
+			public ClosestRayResultCallback create() {
+				return new ClosestRayResultCallback();
+			}
+		};
+
 		public final Vector3f rayFromWorld = new Vector3f(); //used to calculate hitPointWorld from hitFraction
 		public final Vector3f rayToWorld = new Vector3f();
 
 		public final Vector3f hitNormalWorld = new Vector3f();
 		public final Vector3f hitPointWorld = new Vector3f();
 		
+		public ClosestRayResultCallback() {
+		}
+		
 		public ClosestRayResultCallback(Vector3f rayFromWorld, Vector3f rayToWorld) {
 			this.rayFromWorld.set(rayFromWorld);
 			this.rayToWorld.set(rayToWorld);
@@ -487,12 +865,21 @@ public class CollisionWorld {
 	}
 	
 	public static class LocalConvexResult {
+		public static final ObjectFactory<LocalConvexResult> FACTORY = new ObjectFactory<LocalConvexResult>() {
+			public LocalConvexResult create() {
+				return new LocalConvexResult();
+			}
+		};
+		
 		public CollisionObject hitCollisionObject;
 		public LocalShapeInfo localShapeInfo;
 		public final Vector3f hitNormalLocal = new Vector3f();
 		public final Vector3f hitPointLocal = new Vector3f();
 		public float hitFraction;
 
+		public LocalConvexResult() {
+		}
+		
 		public LocalConvexResult(CollisionObject hitCollisionObject, LocalShapeInfo localShapeInfo, Vector3f hitNormalLocal, Vector3f hitPointLocal, float hitFraction) {
 			this.hitCollisionObject = hitCollisionObject;
 			this.localShapeInfo = localShapeInfo;
@@ -540,28 +927,379 @@ public class CollisionWorld {
 		}
 	}
 	
-	private static class BridgeTriangleRaycastCallback extends TriangleRaycastCallback {
+	/**
+	 * Preallocated storage for results of batched raycast, see
+	 * {@link CollisionWorld#rayTestBatch}. Vectors are stored as consecutive
+	 * x, y, z triples.
+	 */
+	public static class RayBatchResult {
+		public final float[] hitFraction;
+		public final float[] hitNormalWorld;
+		public final float[] hitPointWorld;
+		public final CollisionObject[] collisionObject;
+
+		public RayBatchResult(int capacity) {
+			hitFraction = new float[capacity];
+			hitNormalWorld = new float[capacity*3];
+			hitPointWorld = new float[capacity*3];
+			collisionObject = new CollisionObject[capacity];
+		}
+
+		public int capacity() {
+			return hitFraction.length;
+		}
+
+		public boolean hasHit(int index) {
+			return collisionObject[index] != null;
+		}
+
+		public Vector3f getHitNormalWorld(int index, Vector3f out) {
+			out.set(hitNormalWorld[index*3+0], hitNormalWorld[index*3+1], hitNormalWorld[index*3+2]);
+			return out;
+		}
+
+		public Vector3f getHitPointWorld(int index, Vector3f out) {
+			out.set(hitPointWorld[index*3+0], hitPointWorld[index*3+1], hitPointWorld[index*3+2]);
+			return out;
+		}
+
+		void set(int index, ClosestRayResultCallback callback) {
+			collisionObject[index] = callback.collisionObject;
+			if (callback.hasHit()) {
+				hitFraction[index] = callback.closestHitFraction;
+				hitNormalWorld[index*3+0] = callback.hitNormalWorld.x;
+				hitNormalWorld[index*3+1] = callback.hitNormalWorld.y;
+				hitNormalWorld[index*3+2] = callback.hitNormalWorld.z;
+				hitPointWorld[index*3+0] = callback.hitPointWorld.x;
+				hitPointWorld[index*3+1] = callback.hitPointWorld.y;
+				hitPointWorld[index*3+2] = callback.hitPointWorld.z;
+			}
+			else {
+				hitFraction[index] = 1f;
+			}
+		}
+	}
+	
+	/**
+	 * Broadphase callback for single ray, it performs the narrowphase raycast
+	 * on each candidate object and shortens the ray to the closest hit.
+	 */
+	protected static class SingleRayCallback extends BroadphaseRayCallback {
+		public static final ObjectFactory<SingleRayCallback> FACTORY = new ObjectFactory<SingleRayCallback>() {
+			public SingleRayCallback create() {
+				return new SingleRayCallback();
+			}
+		};
+
+		private CollisionWorld world;
+		private final Transform rayFromTrans = new Transform();
+		private final Transform rayToTrans = new Transform();
+		private final Vector3f rayFromWorld = new Vector3f();
+		private final Vector3f rayToWorld = new Vector3f();
+		private RayResultCallback resultCallback;
+		private short collisionFilterMask;
+
+		private final Vector3f collisionObjectAabbMin = new Vector3f();
+		private final Vector3f collisionObjectAabbMax = new Vector3f();
+		private final Vector3f hitNormal = new Vector3f();
+		private final float[] hitLambda = new float[1];
+
+		public SingleRayCallback() {
+		}
+
+		public void init(CollisionWorld world, Vector3f rayFromWorld, Vector3f rayToWorld, RayResultCallback resultCallback, short collisionFilterMask) {
+			this.world = world;
+			this.rayFromWorld.set(rayFromWorld);
+			this.rayToWorld.set(rayToWorld);
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+
+			rayFromTrans.setIdentity();
+			rayFromTrans.origin.set(rayFromWorld);
+			rayToTrans.setIdentity();
+			rayToTrans.origin.set(rayToWorld);
+
+			lambdaMax = resultCallback != null? resultCallback.closestHitFraction : 1f;
+		}
+
+		public boolean process(BroadphaseProxy proxy) {
+			// terminate further ray tests, once the closestHitFraction reached zero
+			if (resultCallback.closestHitFraction == 0f) {
+				return false;
+			}
+
+			CollisionObject collisionObject = (CollisionObject)proxy.clientObject;
+
+			// only perform raycast if filterMask matches
+			if ((proxy.collisionFilterGroup & collisionFilterMask) != 0) {
+				// broadphase aabb can be bigger, test against the exact one first
+				collisionObject.getCollisionShape().getAabb(collisionObject.getWorldTransform(), collisionObjectAabbMin, collisionObjectAabbMax);
+
+				hitLambda[0] = resultCallback.closestHitFraction;
+				if (AabbUtil2.rayAabb(rayFromWorld, rayToWorld, collisionObjectAabbMin, collisionObjectAabbMax, hitLambda, hitNormal)) {
+					world.rayTestSingle(rayFromTrans, rayToTrans,
+							collisionObject,
+							collisionObject.getCollisionShape(),
+							collisionObject.getWorldTransform(),
+							resultCallback,
+							(short) -1);
+				}
+			}
+
+			lambdaMax = resultCallback.closestHitFraction;
+			return true;
+		}
+	}
+	
+	/**
+	 * Performs raycast on children of compound shape reported by its AABB tree.
+	 */
+	protected static class CompoundRayCallback extends Dbvt.RayCollide {
+		public static final ObjectFactory<CompoundRayCallback> FACTORY = new ObjectFactory<CompoundRayCallback>() {
+			public CompoundRayCallback create() {
+				return new CompoundRayCallback();
+			}
+		};
+		
+		private final BulletStack stack = BulletStack.get();
+		
+		private CollisionWorld world;
+		private final Transform rayFromTrans = new Transform();
+		private final Transform rayToTrans = new Transform();
+		private CollisionObject collisionObject;
+		private CompoundShape compoundShape;
+		private final Transform colObjWorldTransform = new Transform();
+		private RayResultCallback resultCallback;
+		private short collisionFilterMask;
+		
+		public void init(CollisionWorld world, Transform rayFromTrans, Transform rayToTrans, CollisionObject collisionObject, CompoundShape compoundShape, Transform colObjWorldTransform, RayResultCallback resultCallback, short collisionFilterMask) {
+			this.world = world;
+			this.rayFromTrans.set(rayFromTrans);
+			this.rayToTrans.set(rayToTrans);
+			this.collisionObject = collisionObject;
+			this.compoundShape = compoundShape;
+			this.colObjWorldTransform.set(colObjWorldTransform);
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+			lambdaMax = resultCallback != null? resultCallback.closestHitFraction : 1f;
+		}
+
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			int index = (Integer)leaf.data;
+			
+			stack.transforms.push();
+			try {
+				Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
+				childWorldTrans.mul(compoundShape.getChildTransform(index));
+				world.rayTestSingle(rayFromTrans, rayToTrans,
+						collisionObject,
+						compoundShape.getChildShape(index),
+						childWorldTrans,
+						resultCallback, collisionFilterMask);
+			}
+			finally {
+				stack.transforms.pop();
+			}
+			
+			lambdaMax = resultCallback.closestHitFraction;
+		}
+	}
+	
+	/**
+	 * Performs convex sweep against children of compound shape reported by its
+	 * AABB tree.
+	 */
+	protected static class CompoundSweepCallback extends Dbvt.RayCollide {
+		public static final ObjectFactory<CompoundSweepCallback> FACTORY = new ObjectFactory<CompoundSweepCallback>() {
+			public CompoundSweepCallback create() {
+				return new CompoundSweepCallback();
+			}
+		};
+		
+		private final BulletStack stack = BulletStack.get();
+		
+		private CollisionWorld world;
+		private ConvexShape castShape;
+		private final Transform convexFromTrans = new Transform();
+		private final Transform convexToTrans = new Transform();
+		private CollisionObject collisionObject;
+		private CompoundShape compoundShape;
+		private final Transform colObjWorldTransform = new Transform();
+		private ConvexResultCallback resultCallback;
+		
+		public void init(CollisionWorld world, ConvexShape castShape, Transform convexFromTrans, Transform convexToTrans, CollisionObject collisionObject, CompoundShape compoundShape, Transform colObjWorldTransform, ConvexResultCallback resultCallback) {
+			this.world = world;
+			this.castShape = castShape;
+			this.convexFromTrans.set(convexFromTrans);
+			this.convexToTrans.set(convexToTrans);
+			this.collisionObject = collisionObject;
+			this.compoundShape = compoundShape;
+			this.colObjWorldTransform.set(colObjWorldTransform);
+			this.resultCallback = resultCallback;
+			lambdaMax = resultCallback != null? resultCallback.closestHitFraction : 1f;
+		}
+
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			int index = (Integer)leaf.data;
+			
+			stack.transforms.push();
+			try {
+				Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
+				childWorldTrans.mul(compoundShape.getChildTransform(index));
+				world.objectQuerySingle(castShape, convexFromTrans, convexToTrans,
+						collisionObject,
+						compoundShape.getChildShape(index),
+						childWorldTrans,
+						resultCallback);
+			}
+			finally {
+				stack.transforms.pop();
+			}
+			
+			lambdaMax = resultCallback.closestHitFraction;
+		}
+	}
+	
+	protected static class BridgeTriangleRaycastCallback extends TriangleRaycastCallback {
+		public static final ObjectFactory<BridgeTriangleRaycastCallback> FACTORY = new ObjectFactory<BridgeTriangleRaycastCallback>() {
+			public BridgeTriangleRaycastCallback create() {
+				return new BridgeTriangleRaycastCallback();
+			}
+		};
+
 		public RayResultCallback resultCallback;
 		public CollisionObject collisionObject;
 		public ConcaveShape triangleMesh;
+		
+		// JAVA NOTE: reused for each reported hit
+		private final LocalShapeInfo shapeInfo = new LocalShapeInfo();
+		private final LocalRayResult rayResult = new LocalRayResult();
 
+		public BridgeTriangleRaycastCallback() {
+		}
+		
 		public BridgeTriangleRaycastCallback(Vector3f from, Vector3f to, RayResultCallback resultCallback, CollisionObject collisionObject, ConcaveShape triangleMesh) {
-			super(from, to);
+			init(from, to, resultCallback, collisionObject, triangleMesh);
+		}
+		
+		public void init(Vector3f from, Vector3f to, RayResultCallback resultCallback, CollisionObject collisionObject, ConcaveShape triangleMesh) {
+			super.init(from, to);
 			this.resultCallback = resultCallback;
 			this.collisionObject = collisionObject;
 			this.triangleMesh = triangleMesh;
 		}
 	
 		public float reportHit(Vector3f hitNormalLocal, float hitFraction, int partId, int triangleIndex) {
-			LocalShapeInfo shapeInfo = new LocalShapeInfo();
 			shapeInfo.shapePart = partId;
 			shapeInfo.triangleIndex = triangleIndex;
 
-			LocalRayResult rayResult = new LocalRayResult(collisionObject, shapeInfo, hitNormalLocal, hitFraction);
+			rayResult.collisionObject = collisionObject;
+			rayResult.localShapeInfo = shapeInfo;
+			rayResult.hitNormalLocal.set(hitNormalLocal);
+			rayResult.hitFraction = hitFraction;
 
 			boolean normalInWorldSpace = false;
 			return resultCallback.addSingleResult(rayResult, normalInWorldSpace);
 		}
 	}
 	
+	/**
+	 * Broadphase callback for convex sweep, it performs the narrowphase sweep
+	 * on each candidate object and shortens the sweep to the closest hit.
+	 */
+	protected static class SingleSweepCallback extends BroadphaseRayCallback {
+		public static final ObjectFactory<SingleSweepCallback> FACTORY = new ObjectFactory<SingleSweepCallback>() {
+			public SingleSweepCallback create() {
+				return new SingleSweepCallback();
+			}
+		};
+
+		private CollisionWorld world;
+		private ConvexShape castShape;
+		private final Transform convexFromTrans = new Transform();
+		private final Transform convexToTrans = new Transform();
+		private ConvexResultCallback resultCallback;
+		private short collisionFilterMask;
+
+		public SingleSweepCallback() {
+		}
+
+		public void init(CollisionWorld world, ConvexShape castShape, Transform convexFromTrans, Transform convexToTrans, ConvexResultCallback resultCallback, short collisionFilterMask) {
+			this.world = world;
+			this.castShape = castShape;
+			this.convexFromTrans.set(convexFromTrans);
+			this.convexToTrans.set(convexToTrans);
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+
+			lambdaMax = resultCallback != null? resultCallback.closestHitFraction : 1f;
+		}
+
+		public boolean process(BroadphaseProxy proxy) {
+			// terminate further convex sweep tests, once the closestHitFraction reached zero
+			if (resultCallback.closestHitFraction == 0f) {
+				return false;
+			}
+
+			CollisionObject collisionObject = (CollisionObject)proxy.clientObject;
+
+			// only perform sweep if filterMask matches
+			if ((proxy.collisionFilterGroup & collisionFilterMask) != 0) {
+				world.objectQuerySingle(castShape, convexFromTrans, convexToTrans,
+						collisionObject,
+						collisionObject.getCollisionShape(),
+						collisionObject.getWorldTransform(),
+						resultCallback);
+			}
+
+			lambdaMax = resultCallback.closestHitFraction;
+			return true;
+		}
+	}
+	
+	protected static class BridgeTriangleConvexcastCallback extends TriangleConvexcastCallback {
+		public static final ObjectFactory<BridgeTriangleConvexcastCallback> FACTORY = new ObjectFactory<BridgeTriangleConvexcastCallback>() {
+			public BridgeTriangleConvexcastCallback create() {
+				return new BridgeTriangleConvexcastCallback();
+			}
+		};
+
+		public ConvexResultCallback resultCallback;
+		public CollisionObject collisionObject;
+		
+		// JAVA NOTE: reused for each reported hit
+		private final LocalShapeInfo shapeInfo = new LocalShapeInfo();
+		private final LocalConvexResult convexResult = new LocalConvexResult();
+
+		public BridgeTriangleConvexcastCallback() {
+		}
+		
+		public void init(ConvexShape castShape, Transform from, Transform to, ConvexResultCallback resultCallback, CollisionObject collisionObject, Transform triangleToWorld) {
+			super.init(castShape, from, to, triangleToWorld);
+			this.resultCallback = resultCallback;
+			this.collisionObject = collisionObject;
+		}
+	
+		@Override
+		public float reportHit(Vector3f hitNormalLocal, Vector3f hitPointLocal, float hitFraction, int partId, int triangleIndex) {
+			if (hitFraction <= resultCallback.closestHitFraction) {
+				shapeInfo.shapePart = partId;
+				shapeInfo.triangleIndex = triangleIndex;
+
+				convexResult.hitCollisionObject = collisionObject;
+				convexResult.localShapeInfo = shapeInfo;
+				convexResult.hitNormalLocal.set(hitNormalLocal);
+				convexResult.hitPointLocal.set(hitPointLocal);
+				convexResult.hitFraction = hitFraction;
+
+				// JAVA NOTE: sweep is done in world space, so the normal is already in world space
+				boolean normalInWorldSpace = true;
+				return resultCallback.addSingleResult(convexResult, normalInWorldSpace);
+			}
+			return hitFraction;
+		}
+	}
+	
 }
@@ -23,45 +23,65 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletStack;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import javabullet.collision.broadphase.Dbvt;
+import javabullet.collision.broadphase.DbvtAabbMm;
 import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.PersistentManifold;
 import javabullet.collision.shapes.CollisionShape;
 import javabullet.collision.shapes.CompoundShape;
 import javabullet.linearmath.Transform;
+import javabullet.linearmath.VectorUtil;
+import javax.vecmath.Vector3f;
 
 /**
  * CompoundCollisionAlgorithm  supports collision between CompoundCollisionShapes and other collision shapes.
- * Place holder, not fully implemented yet.
+ * Only children overlapping the other object are processed, they're found using
+ * AABB tree of the compound shape. Child algorithms are created on first overlap
+ * and freed once the child doesn't overlap anymore.
  * 
  * @author jezek2
  */
 public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 
+	public static final ObjectFactory<CompoundCollisionAlgorithm> FACTORY = new ObjectFactory<CompoundCollisionAlgorithm>() {
+		public CompoundCollisionAlgorithm create() {
+			return new CompoundCollisionAlgorithm();
+		}
+	};
+	
+	// JAVA NOTE: contains null for children without algorithm
 	private final List<CollisionAlgorithm> childCollisionAlgorithms = new ArrayList<CollisionAlgorithm>();
 	private boolean isSwapped;
 	
+	private final CompoundLeafCallback leafCallback = new CompoundLeafCallback();
+	
+	public CompoundCollisionAlgorithm() {
+	}
+	
 	public CompoundCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
-		super(ci);
+		init(ci, body0, body1, isSwapped);
+	}
+	
+	public void init(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
+		super.init(ci);
 		this.isSwapped = isSwapped;
+		childCollisionAlgorithms.clear();
 
 		CollisionObject colObj = isSwapped ? body1 : body0;
-		CollisionObject otherObj = isSwapped ? body0 : body1;
 		assert (colObj.getCollisionShape().isCompound());
 
 		CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
 		int numChildren = compoundShape.getNumChildShapes();
-		int i;
-
-		//childCollisionAlgorithms.resize(numChildren);
-		for (i = 0; i < numChildren; i++) {
-			CollisionShape childShape = compoundShape.getChildShape(i);
-			CollisionShape orgShape = colObj.getCollisionShape();
-			colObj.setCollisionShape(childShape);
-			childCollisionAlgorithms.add(ci.dispatcher1.findAlgorithm(colObj, otherObj));
-			colObj.setCollisionShape(orgShape);
+		for (int i = 0; i < numChildren; i++) {
+			childCollisionAlgorithms.add(null);
 		}
 	}
 
@@ -70,14 +90,20 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 		int numChildren = childCollisionAlgorithms.size();
 		int i;
 		for (i = 0; i < numChildren; i++) {
-			childCollisionAlgorithms.get(i).destroy();
-			//m_dispatcher->freeCollisionAlgorithm(m_childCollisionAlgorithms[i]);
+			CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(i);
+			if (childAlgo != null) {
+				childAlgo.destroy();
+				dispatcher.freeCollisionAlgorithm(childAlgo);
+			}
 		}
+		childCollisionAlgorithms.clear();
 	}
 	
 	@Override
 	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
-		stack.transforms.push();
+		BulletStack stack = BulletStack.get();
+		
+		stack.pushCommonMath();
 		try {
 			CollisionObject colObj = isSwapped ? body1 : body0;
 			CollisionObject otherObj = isSwapped ? body0 : body1;
@@ -85,47 +111,41 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 			assert (colObj.getCollisionShape().isCompound());
 			CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
 
-			// We will use the OptimizedBVH, AABB tree to cull potential child-overlaps
-			// If both proxies are Compound, we will deal with that directly, by performing sequential/parallel tree traversals
-			// given Proxy0 and Proxy1, if both have a tree, Tree0 and Tree1, this means:
-			// determine overlapping nodes of Proxy1 using Proxy0 AABB against Tree1
-			// then use each overlapping node AABB against Tree0
-			// and vise versa.
-
-			Transform tmpTrans = stack.transforms.get();
-			Transform orgTrans = stack.transforms.get();
-
+			// AABB of other object in local space of compound is used to cull
+			// the children using AABB tree of the compound shape
+			Transform otherInCompoundSpace = stack.transforms.get();
+			otherInCompoundSpace.inverse(colObj.getWorldTransform());
+			otherInCompoundSpace.mul(otherObj.getWorldTransform());
+			
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			otherObj.getCollisionShape().getAabb(otherInCompoundSpace, aabbMin, aabbMax);
+			
+			Dbvt tree = compoundShape.getDynamicAabbTree();
+			leafCallback.init(this, colObj, otherObj, dispatchInfo, resultOut, false);
+			tree.collideTV(tree.root, aabbMin, aabbMax, leafCallback);
+			leafCallback.init(null, null, null, null, null, false);
+			
+			// release algorithms of children that don't overlap anymore
 			int numChildren = childCollisionAlgorithms.size();
-			int i;
-			for (i = 0; i < numChildren; i++) {
-				// temporarily exchange parent btCollisionShape with childShape, and recurse
-				CollisionShape childShape = compoundShape.getChildShape(i);
-
-				// backup
-				orgTrans.set(colObj.getWorldTransform());
-				CollisionShape orgShape = colObj.getCollisionShape();
-
-				Transform childTrans = compoundShape.getChildTransform(i);
-				//btTransform	newChildWorldTrans = orgTrans*childTrans ;
-				tmpTrans.set(orgTrans);
-				tmpTrans.mul(childTrans);
-				colObj.setWorldTransform(tmpTrans);
-				// the contactpoint is still projected back using the original inverted worldtrans
-				colObj.setCollisionShape(childShape);
-				childCollisionAlgorithms.get(i).processCollision(colObj, otherObj, dispatchInfo, resultOut);
-				// revert back
-				colObj.setCollisionShape(orgShape);
-				colObj.setWorldTransform(orgTrans);
+			for (int i = 0; i < numChildren; i++) {
+				CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(i);
+				if (childAlgo != null && !DbvtAabbMm.Intersect(compoundShape.getChildList().get(i).node.volume, aabbMin, aabbMax)) {
+					childAlgo.destroy();
+					dispatcher.freeCollisionAlgorithm(childAlgo);
+					childCollisionAlgorithms.set(i, null);
+				}
 			}
 		}
 		finally {
-			stack.transforms.pop();
+			stack.popCommonMath();
 		}
 	}
 
 	@Override
 	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
-		stack.transforms.push();
+		BulletStack stack = BulletStack.get();
+		
+		stack.pushCommonMath();
 		try {
 			CollisionObject colObj = isSwapped ? body1 : body0;
 			CollisionObject otherObj = isSwapped ? body0 : body1;
@@ -134,43 +154,156 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 
 			CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
 
-			// We will use the OptimizedBVH, AABB tree to cull potential child-overlaps
-			// If both proxies are Compound, we will deal with that directly, by performing sequential/parallel tree traversals
-			// given Proxy0 and Proxy1, if both have a tree, Tree0 and Tree1, this means:
-			// determine overlapping nodes of Proxy1 using Proxy0 AABB against Tree1
-			// then use each overlapping node AABB against Tree0
-			// and vise versa.
+			// children are culled by AABB of other object in local space of
+			// compound, covering both start and end of the motion
+			Transform otherInCompoundSpace = stack.transforms.get();
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			Vector3f tmpMin = stack.vectors.get(), tmpMax = stack.vectors.get();
+			
+			otherInCompoundSpace.inverse(colObj.getWorldTransform());
+			otherInCompoundSpace.mul(otherObj.getWorldTransform());
+			otherObj.getCollisionShape().getAabb(otherInCompoundSpace, aabbMin, aabbMax);
+			
+			otherInCompoundSpace.inverse(colObj.getInterpolationWorldTransform());
+			otherInCompoundSpace.mul(otherObj.getInterpolationWorldTransform());
+			otherObj.getCollisionShape().getAabb(otherInCompoundSpace, tmpMin, tmpMax);
+			
+			VectorUtil.setMin(aabbMin, tmpMin);
+			VectorUtil.setMax(aabbMax, tmpMax);
+			
+			Dbvt tree = compoundShape.getDynamicAabbTree();
+			leafCallback.init(this, colObj, otherObj, dispatchInfo, resultOut, true);
+			tree.collideTV(tree.root, aabbMin, aabbMax, leafCallback);
+			float hitFraction = leafCallback.hitFraction;
+			leafCallback.init(null, null, null, null, null, false);
+			
+			return hitFraction;
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		for (int i=0; i<childCollisionAlgorithms.size(); i++) {
+			CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(i);
+			if (childAlgo != null) {
+				childAlgo.getAllContactManifolds(manifoldArray);
+			}
+		}
+	}
+	
+	@Override
+	public int getSnapshotSize() {
+		int size = 4;
+		for (int i=0; i<childCollisionAlgorithms.size(); i++) {
+			CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(i);
+			if (childAlgo != null) {
+				size += 4 + childAlgo.getSnapshotSize();
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Writes number of children with algorithm, followed by index and state
+	 * of each such child.
+	 */
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		int countPos = buf.position();
+		buf.putInt(0);
+		int num = 0;
+		for (int i=0; i<childCollisionAlgorithms.size(); i++) {
+			CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(i);
+			if (childAlgo != null) {
+				buf.putInt(i);
+				childAlgo.writeSnapshot(buf);
+				num++;
+			}
+		}
+		buf.putInt(countPos, num);
+	}
+	
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		CollisionObject colObj = isSwapped ? body1 : body0;
+		CollisionObject otherObj = isSwapped ? body0 : body1;
+		CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
+		
+		int num = buf.getInt();
+		int nextIndex = num > 0? buf.getInt() : -1;
+		
+		for (int i=0; i<childCollisionAlgorithms.size(); i++) {
+			CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(i);
+			if (i != nextIndex) {
+				if (childAlgo != null) {
+					childAlgo.destroy();
+					dispatcher.freeCollisionAlgorithm(childAlgo);
+					childCollisionAlgorithms.set(i, null);
+				}
+				continue;
+			}
+			
+			// child shape is temporarily set the same way as in processChild,
+			// transform is not needed for creating and restoring algorithms:
+			colObj.setCollisionShape(compoundShape.getChildShape(i));
+			try {
+				if (childAlgo == null) {
+					childAlgo = dispatcher.findAlgorithm(colObj, otherObj);
+					childCollisionAlgorithms.set(i, childAlgo);
+				}
+				childAlgo.readSnapshot(buf, colObj, otherObj);
+			}
+			finally {
+				colObj.setCollisionShape(compoundShape);
+			}
+			
+			nextIndex = --num > 0? buf.getInt() : -1;
+		}
+	}
+	
+	private float processChild(int index, CollisionObject colObj, CollisionObject otherObj, DispatcherInfo dispatchInfo, ManifoldResult resultOut, boolean timeOfImpact) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.transforms.push();
+		try {
+			CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
+			
+			// temporarily exchange parent btCollisionShape with childShape, and recurse
+			CollisionShape childShape = compoundShape.getChildShape(index);
 
-			Transform tmpTrans = stack.transforms.get();
-			Transform orgTrans = stack.transforms.get();
-			float hitFraction = 1f;
+			// backup
+			Transform orgTrans = stack.transforms.get(colObj.getWorldTransform());
+			CollisionShape orgShape = colObj.getCollisionShape();
 
-			int numChildren = childCollisionAlgorithms.size();
-			int i;
-			for (i = 0; i < numChildren; i++) {
-				// temporarily exchange parent btCollisionShape with childShape, and recurse
-				CollisionShape childShape = compoundShape.getChildShape(i);
-
-				// backup
-				orgTrans.set(colObj.getWorldTransform());
-				CollisionShape orgShape = colObj.getCollisionShape();
-
-				Transform childTrans = compoundShape.getChildTransform(i);
-				//btTransform	newChildWorldTrans = orgTrans*childTrans ;
-				tmpTrans.set(orgTrans);
-				tmpTrans.mul(childTrans);
-				colObj.setWorldTransform(tmpTrans);
-
-				colObj.setCollisionShape(childShape);
-				float frac = childCollisionAlgorithms.get(i).calculateTimeOfImpact(colObj, otherObj, dispatchInfo, resultOut);
-				if (frac < hitFraction) {
-					hitFraction = frac;
-				}
-				// revert back
-				colObj.setCollisionShape(orgShape);
-				colObj.setWorldTransform(orgTrans);
+			Transform childTrans = compoundShape.getChildTransform(index);
+			//btTransform	newChildWorldTrans = orgTrans*childTrans ;
+			Transform tmpTrans = stack.transforms.get(orgTrans);
+			tmpTrans.mul(childTrans);
+			colObj.setWorldTransform(tmpTrans);
+			// the contactpoint is still projected back using the original inverted worldtrans
+			colObj.setCollisionShape(childShape);
+			
+			CollisionAlgorithm childAlgo = childCollisionAlgorithms.get(index);
+			if (childAlgo == null) {
+				childAlgo = dispatcher.findAlgorithm(colObj, otherObj);
+				childCollisionAlgorithms.set(index, childAlgo);
 			}
-			return hitFraction;
+			
+			float frac = 1f;
+			if (timeOfImpact) {
+				frac = childAlgo.calculateTimeOfImpact(colObj, otherObj, dispatchInfo, resultOut);
+			}
+			else {
+				childAlgo.processCollision(colObj, otherObj, dispatchInfo, resultOut);
+			}
+			
+			// revert back
+			colObj.setCollisionShape(orgShape);
+			colObj.setWorldTransform(orgTrans);
+			return frac;
 		}
 		finally {
 			stack.transforms.pop();
@@ -179,17 +312,76 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 	
 	////////////////////////////////////////////////////////////////////////////
 	
+	private static class CompoundLeafCallback extends Dbvt.ICollide {
+		private CompoundCollisionAlgorithm algorithm;
+		private CollisionObject colObj;
+		private CollisionObject otherObj;
+		private DispatcherInfo dispatchInfo;
+		private ManifoldResult resultOut;
+		private boolean timeOfImpact;
+		public float hitFraction;
+		
+		public void init(CompoundCollisionAlgorithm algorithm, CollisionObject colObj, CollisionObject otherObj, DispatcherInfo dispatchInfo, ManifoldResult resultOut, boolean timeOfImpact) {
+			this.algorithm = algorithm;
+			this.colObj = colObj;
+			this.otherObj = otherObj;
+			this.dispatchInfo = dispatchInfo;
+			this.resultOut = resultOut;
+			this.timeOfImpact = timeOfImpact;
+			this.hitFraction = 1f;
+		}
+
+		@Override
+		public void Process(Dbvt.Node leaf) {
+			int index = (Integer)leaf.data;
+			float frac = algorithm.processChild(index, colObj, otherObj, dispatchInfo, resultOut, timeOfImpact);
+			if (frac < hitFraction) {
+				hitFraction = frac;
+			}
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
 	public static final CollisionAlgorithmCreateFunc createFunc = new CollisionAlgorithmCreateFunc() {
+		private final ObjectPool<CompoundCollisionAlgorithm> pool = new ObjectPool<CompoundCollisionAlgorithm>(FACTORY);
+
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
-			return new CompoundCollisionAlgorithm(ci, body0, body1, false);
+			CompoundCollisionAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(ci, body0, body1, false);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((CompoundCollisionAlgorithm)algo);
+			}
 		}
 	};
 	
 	public static final CollisionAlgorithmCreateFunc swappedCreateFunc = new CollisionAlgorithmCreateFunc() {
+		private final ObjectPool<CompoundCollisionAlgorithm> pool = new ObjectPool<CompoundCollisionAlgorithm>(FACTORY);
+
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
-			return new CompoundCollisionAlgorithm(ci, body0, body1, true);
+			CompoundCollisionAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(ci, body0, body1, true);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((CompoundCollisionAlgorithm)algo);
+			}
 		}
 	};
 
@@ -23,10 +23,16 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletStack;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
 import javabullet.collision.narrowphase.ConvexCast.CastResult;
+import javabullet.collision.narrowphase.PersistentManifold;
 import javabullet.collision.narrowphase.SubsimplexConvexCast;
 import javabullet.collision.narrowphase.VoronoiSimplexSolver;
 import javabullet.collision.shapes.ConcaveShape;
@@ -45,13 +51,31 @@ import javax.vecmath.Vector3f;
  */
 public class ConvexConcaveCollisionAlgorithm extends CollisionAlgorithm {
 
+	public static final ObjectFactory<ConvexConcaveCollisionAlgorithm> FACTORY = new ObjectFactory<ConvexConcaveCollisionAlgorithm>() {
+		public ConvexConcaveCollisionAlgorithm create() {
+			return new ConvexConcaveCollisionAlgorithm();
+		}
+	};
+	
 	private boolean isSwapped;
 	private ConvexTriangleCallback btConvexTriangleCallback;
 	
+	public ConvexConcaveCollisionAlgorithm() {
+	}
+	
 	public ConvexConcaveCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
-		super(ci);
+		init(ci, body0, body1, isSwapped);
+	}
+	
+	public void init(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
+		super.init(ci);
 		this.isSwapped = isSwapped;
-		this.btConvexTriangleCallback = new ConvexTriangleCallback(dispatcher, body0, body1, isSwapped);
+		if (btConvexTriangleCallback == null) {
+			btConvexTriangleCallback = new ConvexTriangleCallback(dispatcher, body0, body1, isSwapped);
+		}
+		else {
+			btConvexTriangleCallback.init(dispatcher, body0, body1, isSwapped);
+		}
 	}
 	
 	@Override
@@ -88,6 +112,8 @@ public class ConvexConcaveCollisionAlgorithm extends CollisionAlgorithm {
 
 	@Override
 	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -161,6 +187,27 @@ public class ConvexConcaveCollisionAlgorithm extends CollisionAlgorithm {
 		btConvexTriangleCallback.clearCache();
 	}
 	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		manifoldArray.add(btConvexTriangleCallback.manifoldPtr);
+	}
+	
+	@Override
+	public int getSnapshotSize() {
+		return btConvexTriangleCallback.manifoldPtr.getSnapshotSize();
+	}
+	
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		btConvexTriangleCallback.manifoldPtr.writeSnapshot(buf);
+	}
+	
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		// manifold is created together with the algorithm:
+		btConvexTriangleCallback.manifoldPtr.readSnapshot(buf);
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	
 	private static class LocalTriangleSphereCastCallback implements TriangleCallback {
@@ -210,16 +257,44 @@ public class ConvexConcaveCollisionAlgorithm extends CollisionAlgorithm {
 	////////////////////////////////////////////////////////////////////////////
 
 	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+		private final ObjectPool<ConvexConcaveCollisionAlgorithm> pool = new ObjectPool<ConvexConcaveCollisionAlgorithm>(FACTORY);
+
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
-			return new ConvexConcaveCollisionAlgorithm(ci, body0, body1, false);
+			ConvexConcaveCollisionAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(ci, body0, body1, false);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((ConvexConcaveCollisionAlgorithm)algo);
+			}
 		}
 	}
 	
 	public static class SwappedCreateFunc extends CollisionAlgorithmCreateFunc {
+		private final ObjectPool<ConvexConcaveCollisionAlgorithm> pool = new ObjectPool<ConvexConcaveCollisionAlgorithm>(FACTORY);
+
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
-			return new ConvexConcaveCollisionAlgorithm(ci, body0, body1, true);
+			ConvexConcaveCollisionAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(ci, body0, body1, true);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((ConvexConcaveCollisionAlgorithm)algo);
+			}
 		}
 	}
 	
@@ -23,7 +23,11 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import javabullet.BulletPool;
+import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
@@ -47,18 +51,50 @@ import javax.vecmath.Vector3f;
  */
 public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 	
-	protected final ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
-
+	public static final ObjectFactory<ConvexConvexAlgorithm> FACTORY = new ObjectFactory<ConvexConvexAlgorithm>() {
+		public ConvexConvexAlgorithm create() {
+			return new ConvexConvexAlgorithm();
+		}
+	};
+	
 	private GjkPairDetector gjkPairDetector;
+	private Class<SimplexSolverInterface> simplexSolverType;
+	private ObjectFactory<SimplexSolverInterface> simplexSolverFactory;
 
 	public boolean ownManifold = false;
 	public PersistentManifold manifoldPtr;
 	public boolean lowLevelOfDetail = false;
 	
+	public ConvexConvexAlgorithm() {
+	}
+	
 	public ConvexConvexAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver pdSolver) {
-		super(ci);
-		gjkPairDetector = new GjkPairDetector(null, null, simplexSolver, pdSolver);
+		init(mf, ci, body0, body1, simplexSolver, pdSolver);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void init(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver pdSolver) {
+		super.init(ci);
+		if (gjkPairDetector == null) {
+			gjkPairDetector = new GjkPairDetector(null, null, simplexSolver, pdSolver);
+		}
+		else {
+			gjkPairDetector.init(null, null, simplexSolver, pdSolver);
+		}
+		// separating axis and simplex are kept between frames for this pair:
+		gjkPairDetector.setWarmStart(true);
+		if (simplexSolverType != simplexSolver.getClass()) {
+			simplexSolverType = (Class<SimplexSolverInterface>)simplexSolver.getClass();
+			if (simplexSolverType == (Class)VoronoiSimplexSolver.class) {
+				simplexSolverFactory = (ObjectFactory)VoronoiSimplexSolver.FACTORY;
+			}
+			else {
+				simplexSolverFactory = ObjectPool.reflectiveFactory(simplexSolverType);
+			}
+		}
 		this.manifoldPtr = mf;
+		this.ownManifold = false;
+		this.lowLevelOfDetail = false;
 	}
 	
 	@Override
@@ -103,9 +139,17 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 		ConvexShape min0 = (ConvexShape) body0.getCollisionShape();
 		ConvexShape min1 = (ConvexShape) body1.getCollisionShape();
 
+		ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class, ClosestPointInput.FACTORY);
 		ClosestPointInput input = pointInputsPool.get();
 		input.init(gl);
 
+		// JAVA NOTE: simplex solver holds state only for duration of single query, instead
+		// of the shared instance per-thread instance of the same type is used, so that
+		// collision pairs can be processed in parallel
+		ObjectPool<SimplexSolverInterface> simplexSolversPool = BulletPool.get(simplexSolverType, simplexSolverFactory);
+		SimplexSolverInterface simplexSolver = simplexSolversPool.get();
+		gjkPairDetector.setSimplexSolver(simplexSolver);
+
 		// JAVA NOTE: original: TODO: if (dispatchInfo.m_useContinuous)
 		gjkPairDetector.setMinkowskiA(min0);
 		gjkPairDetector.setMinkowskiB(min1);
@@ -120,6 +164,8 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 
 		gjkPairDetector.getClosestPoints(input, resultOut, dispatchInfo.debugDraw);
 		
+		gjkPairDetector.setSimplexSolver(null);
+		simplexSolversPool.release(simplexSolver);
 		pointInputsPool.release(input);
 		//	#endif
 
@@ -132,6 +178,8 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 	
 	@Override
 	public float calculateTimeOfImpact(CollisionObject col0, CollisionObject col1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -233,9 +281,43 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 		return manifoldPtr;
 	}
 	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+	
+	@Override
+	public int getSnapshotSize() {
+		return getManifoldSnapshotSize(ownManifold? manifoldPtr : null) + gjkPairDetector.getSnapshotSize();
+	}
+	
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(ownManifold? manifoldPtr : null, buf);
+		gjkPairDetector.writeSnapshot(buf);
+	}
+	
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(ownManifold? manifoldPtr : null, buf, body0, body1);
+		if (ownManifold || manifold != null) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+		
+		// shapes are set first, so the restored state isn't cleared in next processCollision:
+		gjkPairDetector.setMinkowskiA((ConvexShape)body0.getCollisionShape());
+		gjkPairDetector.setMinkowskiB((ConvexShape)body1.getCollisionShape());
+		gjkPairDetector.readSnapshot(buf);
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+		private final ObjectPool<ConvexConvexAlgorithm> pool = new ObjectPool<ConvexConvexAlgorithm>(FACTORY);
+
 		public ConvexPenetrationDepthSolver pdSolver;
 		public SimplexSolverInterface simplexSolver;
 
@@ -247,7 +329,19 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
 			//void* mem = ci.dispatcher1.allocateCollisionAlgorithm(sizeof(btConvexConvexAlgorithm));
-			return new ConvexConvexAlgorithm(ci.manifold,ci,body0,body1,simplexSolver,pdSolver);
+			ConvexConvexAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(ci.manifold, ci, body0, body1, simplexSolver, pdSolver);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((ConvexConvexAlgorithm)algo);
+			}
 		}
 	}
 	
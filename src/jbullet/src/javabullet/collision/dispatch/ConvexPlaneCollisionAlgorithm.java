@@ -23,6 +23,11 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletStack;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
@@ -38,12 +43,26 @@ import javax.vecmath.Vector3f;
  */
 public class ConvexPlaneCollisionAlgorithm extends CollisionAlgorithm {
 
+	public static final ObjectFactory<ConvexPlaneCollisionAlgorithm> FACTORY = new ObjectFactory<ConvexPlaneCollisionAlgorithm>() {
+		public ConvexPlaneCollisionAlgorithm create() {
+			return new ConvexPlaneCollisionAlgorithm();
+		}
+	};
+	
 	private boolean ownManifold = false;
 	private PersistentManifold manifoldPtr;
 	private boolean isSwapped;
 	
+	public ConvexPlaneCollisionAlgorithm() {
+	}
+	
 	public ConvexPlaneCollisionAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject col0, CollisionObject col1, boolean isSwapped) {
-		super(ci);
+		init(mf, ci, col0, col1, isSwapped);
+	}
+	
+	public void init(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject col0, CollisionObject col1, boolean isSwapped) {
+		super.init(ci);
+		this.ownManifold = false;
 		this.manifoldPtr = mf;
 		this.isSwapped = isSwapped;
 
@@ -65,9 +84,39 @@ public class ConvexPlaneCollisionAlgorithm extends CollisionAlgorithm {
 		}
 	}
 	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+	
+	@Override
+	public int getSnapshotSize() {
+		return getManifoldSnapshotSize(ownManifold? manifoldPtr : null);
+	}
+	
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(ownManifold? manifoldPtr : null, buf);
+	}
+	
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		CollisionObject convexObj = isSwapped ? body1 : body0;
+		CollisionObject planeObj = isSwapped ? body0 : body1;
+		
+		PersistentManifold manifold = readManifoldSnapshot(ownManifold? manifoldPtr : null, buf, convexObj, planeObj);
+		if (ownManifold || manifold != null) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
 	
 	@Override
 	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+		
 		if (manifoldPtr == null) {
 			return;
 		}
@@ -139,14 +188,28 @@ public class ConvexPlaneCollisionAlgorithm extends CollisionAlgorithm {
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+		private final ObjectPool<ConvexPlaneCollisionAlgorithm> pool = new ObjectPool<ConvexPlaneCollisionAlgorithm>(FACTORY);
+
 
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
+			ConvexPlaneCollisionAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
 			if (!swapped) {
-				return new ConvexPlaneCollisionAlgorithm(null, ci, body0, body1, false);
+				algo.init(null, ci, body0, body1, false);
 			}
 			else {
-				return new ConvexPlaneCollisionAlgorithm(null, ci, body0, body1, true);
+				algo.init(null, ci, body0, body1, true);
+			}
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((ConvexPlaneCollisionAlgorithm)algo);
 			}
 		}
 	}
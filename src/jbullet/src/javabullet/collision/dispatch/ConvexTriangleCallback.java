@@ -43,8 +43,6 @@ import javax.vecmath.Vector3f;
  */
 class ConvexTriangleCallback implements TriangleCallback {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	private CollisionObject convexBody;
 	private CollisionObject triBody;
 
@@ -61,6 +59,10 @@ class ConvexTriangleCallback implements TriangleCallback {
 	public PersistentManifold manifoldPtr;
 	
 	public ConvexTriangleCallback(Dispatcher dispatcher, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
+		init(dispatcher, body0, body1, isSwapped);
+	}
+	
+	public void init(Dispatcher dispatcher, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
 		this.dispatcher = dispatcher;
 		this.dispatchInfoPtr = null;
 
@@ -72,6 +74,8 @@ class ConvexTriangleCallback implements TriangleCallback {
 		//
 		manifoldPtr = dispatcher.getNewManifold(convexBody, triBody);
 
+		triObject.setCollisionShape(tm);
+
 		clearCache();
 	}
 	
@@ -81,12 +85,18 @@ class ConvexTriangleCallback implements TriangleCallback {
 	}
 
 	public void setTimeStepAndCounters(float collisionMarginTriangle, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			this.dispatchInfoPtr = dispatchInfo;
 			this.collisionMarginTriangle = collisionMarginTriangle;
 			this.resultOut = resultOut;
 
+			triObject.setWorldTransform(triBody.getWorldTransform());
+			triObject.setInterpolationWorldTransform(triBody.getInterpolationWorldTransform());
+			triObject.setCollisionFlags(triBody.getCollisionFlags());
+
 			// recalc aabbs
 			Transform convexInTriangleSpace = stack.transforms.get();
 
@@ -110,7 +120,14 @@ class ConvexTriangleCallback implements TriangleCallback {
 	private CollisionAlgorithmConstructionInfo ci = new CollisionAlgorithmConstructionInfo();
 	private TriangleShape tm = new TriangleShape();
 	
+	// JAVA NOTE: triangles are passed to collision algorithms using this object instead
+	// of temporarily replacing collision shape of triBody, because the concave object
+	// is usually shared by many pairs which can be processed in parallel
+	private final CollisionObject triObject = new CollisionObject();
+	
 	public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			// just for debugging purposes
@@ -155,20 +172,16 @@ class ConvexTriangleCallback implements TriangleCallback {
 				tm.init(triangle[0], triangle[1], triangle[2]);
 				tm.setMargin(collisionMarginTriangle);
 
-				CollisionShape tmpShape = ob.getCollisionShape();
-				ob.setCollisionShape(tm);
-
-				CollisionAlgorithm colAlgo = ci.dispatcher1.findAlgorithm(convexBody, triBody, manifoldPtr);
+				CollisionAlgorithm colAlgo = ci.dispatcher1.findAlgorithm(convexBody, triObject, manifoldPtr);
 				// this should use the btDispatcher, so the actual registered algorithm is used
 				//		btConvexConvexAlgorithm cvxcvxalgo(m_manifoldPtr,ci,m_convexBody,m_triBody);
 
 				resultOut.setShapeIdentifiers(-1, -1, partId, triangleIndex);
 				//cvxcvxalgo.setShapeIdentifiers(-1,-1,partId,triangleIndex);
 				//cvxcvxalgo.processCollision(m_convexBody,m_triBody,*m_dispatchInfoPtr,m_resultOut);
-				colAlgo.processCollision(convexBody, triBody, dispatchInfoPtr, resultOut);
+				colAlgo.processCollision(convexBody, triObject, dispatchInfoPtr, resultOut);
 				colAlgo.destroy();
-				//ci.dispatcher1.freeCollisionAlgorithm(colAlgo);
-				ob.setCollisionShape(tmpShape);
+				ci.dispatcher1.freeCollisionAlgorithm(colAlgo);
 			}
 		}
 		finally {
@@ -23,9 +23,13 @@
 
 package javabullet.collision.dispatch;
 
+import java.util.List;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.PersistentManifold;
 
 /**
  *
@@ -33,6 +37,15 @@ import javabullet.collision.broadphase.DispatcherInfo;
  */
 public class EmptyAlgorithm extends CollisionAlgorithm {
 
+	public static final ObjectFactory<EmptyAlgorithm> FACTORY = new ObjectFactory<EmptyAlgorithm>() {
+		public EmptyAlgorithm create() {
+			return new EmptyAlgorithm();
+		}
+	};
+	
+	public EmptyAlgorithm() {
+	}
+	
 	public EmptyAlgorithm(CollisionAlgorithmConstructionInfo ci) {
 		super(ci);
 	}
@@ -50,12 +63,30 @@ public class EmptyAlgorithm extends CollisionAlgorithm {
 		return 1f;
 	}
 	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static final CollisionAlgorithmCreateFunc createFunc = new CollisionAlgorithmCreateFunc() {
+		private final ObjectPool<EmptyAlgorithm> pool = new ObjectPool<EmptyAlgorithm>(FACTORY);
+
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
-			return new EmptyAlgorithm(ci);
+			EmptyAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(ci);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((EmptyAlgorithm)algo);
+			}
 		}
 	};
 
@@ -26,6 +26,7 @@ package javabullet.collision.dispatch;
 import javabullet.BulletGlobals;
 import javabullet.BulletPool;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.ObjectPool;
 import javabullet.collision.narrowphase.DiscreteCollisionDetectorInterface;
 import javabullet.collision.narrowphase.ManifoldPoint;
@@ -40,8 +41,11 @@ import javax.vecmath.Vector3f;
  */
 public class ManifoldResult implements DiscreteCollisionDetectorInterface.Result {
 
-	protected final BulletStack stack = BulletStack.get();
-	protected final ObjectPool<ManifoldPoint> pointsPool = BulletPool.get(ManifoldPoint.class);
+	public static final ObjectFactory<ManifoldResult> FACTORY = new ObjectFactory<ManifoldResult>() {
+		public ManifoldResult create() {
+			return new ManifoldResult();
+		}
+	};
 	
 	private PersistentManifold manifoldPtr;
 
@@ -85,6 +89,8 @@ public class ManifoldResult implements DiscreteCollisionDetectorInterface.Result
 	}
 
 	public void addContactPoint(Vector3f normalOnBInWorld, Vector3f pointInWorld, float depth) {
+		BulletStack stack = BulletStack.get();
+		
 		assert (manifoldPtr != null);
 		//order in manifold needs to match
 
@@ -111,6 +117,7 @@ public class ManifoldResult implements DiscreteCollisionDetectorInterface.Result
 				rootTransB.invXform(pointInWorld, localB);
 			}
 
+			ObjectPool<ManifoldPoint> pointsPool = BulletPool.get(ManifoldPoint.class, ManifoldPoint.FACTORY);
 			ManifoldPoint newPt = pointsPool.get();
 			newPt.init(localA, localB, normalOnBInWorld, depth);
 			
@@ -24,15 +24,12 @@
 package javabullet.collision.dispatch;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import javabullet.BulletGlobals;
 import javabullet.collision.broadphase.BroadphasePair;
 import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.broadphase.OverlapCallback;
 import javabullet.collision.narrowphase.PersistentManifold;
-import javabullet.linearmath.MiscUtil;
-import javabullet.util.HashUtil.IMap;
-import javabullet.util.HashUtil.IObjectProcedure;
 
 /**
  * SimulationIslandManager creates and handles simulation islands, using UnionFind.
@@ -46,6 +43,21 @@ public class SimulationIslandManager {
 	private final List<PersistentManifold> islandmanifold = new ArrayList<PersistentManifold>();
 	private final List<CollisionObject> islandBodies = new ArrayList<CollisionObject>();
 	
+	// island index:
+	private List<CollisionObject> collisionObjects;
+	private int numIslands;
+	private int[] islandIds = new int[0];
+	private int[] islandBodyStart = new int[0];
+	private int[] islandBodyEnd = new int[0];
+	private int[] islandManifoldStart = new int[0];
+	private int[] islandManifoldEnd = new int[0];
+	private boolean[] islandSleeping = new boolean[0];
+	
+	// temporary arrays used for sorting manifolds:
+	private int[] manifoldOffsets = new int[0];
+	private int[] manifoldKeys = new int[0];
+	private PersistentManifold[] manifoldBuffer = new PersistentManifold[0];
+	
 	public void initUnionFind(int n) {
 		unionFind.reset(n);
 	}
@@ -54,8 +66,8 @@ public class SimulationIslandManager {
 		return unionFind;
 	}
 	
-	private class FindUnionsCallback implements IObjectProcedure<BroadphasePair> {
-		public boolean execute(BroadphasePair collisionPair) {
+	private class FindUnionsCallback implements OverlapCallback {
+		public boolean processOverlap(BroadphasePair collisionPair) {
 			CollisionObject colObj0 = (CollisionObject) collisionPair.pProxy0.clientObject;
 			CollisionObject colObj1 = (CollisionObject) collisionPair.pProxy1.clientObject;
 
@@ -63,15 +75,14 @@ public class SimulationIslandManager {
 					((colObj1 != null) && ((colObj1).mergesSimulationIslands()))) {
 				unionFind.unite((colObj0).getIslandTag(), (colObj1).getIslandTag());
 			}
-			return true;
+			return false;
 		}
 	}
 	
 	private FindUnionsCallback findUnionsCallback = new FindUnionsCallback();
 
 	public void findUnions(Dispatcher dispatcher, CollisionWorld colWorld) {
-		IMap<BroadphasePair,BroadphasePair> pairPtr = colWorld.getPairCache().getOverlappingPairArray();
-		pairPtr.forEachValue(findUnionsCallback);
+		colWorld.getPairCache().processAllOverlappingPairs(findUnionsCallback, dispatcher);
 	}
 
 	public void updateActivationState(CollisionWorld colWorld, Dispatcher dispatcher) {
@@ -122,23 +133,46 @@ public class SimulationIslandManager {
 		return islandId;
 	}
 
-	public void buildAndProcessIslands(Dispatcher dispatcher, List<CollisionObject> collisionObjects, IslandCallback callback) {
-		BulletGlobals.pushProfile("islandUnionFindAndHeapSort");
+	/**
+	 * Sorts bodies and manifolds by islands, updates sleeping state of bodies
+	 * and builds island index. The index stays valid until next call and can be
+	 * read using {@link #getNumIslands} and related methods.
+	 */
+	public void buildIslands(Dispatcher dispatcher, List<CollisionObject> collisionObjects) {
+		BulletGlobals.pushProfile("islandUnionFindAndRadixSort");
 		try {
+			this.collisionObjects = collisionObjects;
+			islandmanifold.clear();
+
 			// we are going to sort the unionfind array, and store the element id in the size
 			// afterwards, we clean unionfind, to make sure no-one uses it anymore
 
 			getUnionFind().sortIslands();
 			int numElem = getUnionFind().getNumElements();
 
+			// island index, islands are in increasing order of island id:
+			numIslands = 0;
+			ensureIslandCapacity(numElem);
+			
 			int endIslandIndex = 1;
 			int startIslandIndex;
 
-			// update the sleeping state for bodies, if all are sleeping
 			for (startIslandIndex = 0; startIslandIndex < numElem; startIslandIndex = endIslandIndex) {
-				int islandId = getUnionFind().getElement(startIslandIndex).id;
-				for (endIslandIndex = startIslandIndex + 1; (endIslandIndex < numElem) && (getUnionFind().getElement(endIslandIndex).id == islandId); endIslandIndex++) {
+				int islandId = getUnionFind().getElementId(startIslandIndex);
+				for (endIslandIndex = startIslandIndex + 1; (endIslandIndex < numElem) && (getUnionFind().getElementId(endIslandIndex) == islandId); endIslandIndex++) {
 				}
+				
+				islandIds[numIslands] = islandId;
+				islandBodyStart[numIslands] = startIslandIndex;
+				islandBodyEnd[numIslands] = endIslandIndex;
+				numIslands++;
+			}
+
+			// update the sleeping state for bodies, if all are sleeping
+			for (int k = 0; k < numIslands; k++) {
+				int islandId = islandIds[k];
+				startIslandIndex = islandBodyStart[k];
+				endIslandIndex = islandBodyEnd[k];
 
 				//int numSleeping = 0;
 
@@ -146,7 +180,7 @@ public class SimulationIslandManager {
 
 				int idx;
 				for (idx = startIslandIndex; idx < endIslandIndex; idx++) {
-					int i = getUnionFind().getElement(idx).sz;
+					int i = getUnionFind().getElementSize(idx);
 
 					CollisionObject colObj0 = collisionObjects.get(i);
 					if ((colObj0.getIslandTag() != islandId) && (colObj0.getIslandTag() != -1)) {
@@ -168,7 +202,7 @@ public class SimulationIslandManager {
 				if (allSleeping) {
 					//int idx;
 					for (idx = startIslandIndex; idx < endIslandIndex; idx++) {
-						int i = getUnionFind().getElement(idx).sz;
+						int i = getUnionFind().getElementSize(idx);
 						CollisionObject colObj0 = collisionObjects.get(i);
 						if ((colObj0.getIslandTag() != islandId) && (colObj0.getIslandTag() != -1)) {
 							System.err.println("error in island management\n");
@@ -185,7 +219,7 @@ public class SimulationIslandManager {
 
 					//int idx;
 					for (idx = startIslandIndex; idx < endIslandIndex; idx++) {
-						int i = getUnionFind().getElement(idx).sz;
+						int i = getUnionFind().getElementSize(idx);
 
 						CollisionObject colObj0 = collisionObjects.get(i);
 						if ((colObj0.getIslandTag() != islandId) && (colObj0.getIslandTag() != -1)) {
@@ -237,87 +271,167 @@ public class SimulationIslandManager {
 				}
 			}
 
-			//#ifndef SPLIT_ISLANDS
-			//btPersistentManifold** manifold = dispatcher->getInternalManifoldPointer();
-			//
-			//callback->ProcessIsland(&collisionObjects[0],collisionObjects.size(),manifold,maxNumManifolds, -1);
-			//#else
 			// Sort manifolds, based on islands
-			// Sort the vector using predicate and std::sort
-			//std::sort(islandmanifold.begin(), islandmanifold.end(), btPersistentManifoldSortPredicate);
-
-			int numManifolds = islandmanifold.size();
+			// JAVA NOTE: counting sort by island id, stable so manifolds of each island stay in dispatcher order
+			sortManifolds(numElem);
+
+			// find the accompanying contact manifolds and sleeping state for each island
+			for (int k = 0; k < numIslands; k++) {
+				int islandId = islandIds[k];
+				islandManifoldStart[k] = manifoldOffsets[islandId + 1];
+				islandManifoldEnd[k] = manifoldOffsets[islandId + 2];
+
+				boolean sleeping = false;
+				for (int idx = islandBodyStart[k]; idx < islandBodyEnd[k]; idx++) {
+					CollisionObject colObj0 = collisionObjects.get(getUnionFind().getElementSize(idx));
+					if (!colObj0.isActive()) {
+						sleeping = true;
+						break;
+					}
+				}
+				islandSleeping[k] = sleeping;
+			}
+		}
+		finally {
+			BulletGlobals.popProfile();
+		}
+	}
 
-			// we should do radix sort, it it much faster (O(n) instead of O (n log2(n))
-			//islandmanifold.heapSort(btPersistentManifoldSortPredicate());
-			
-			// JAVA NOTE: memory optimized sorting with caching of temporary array
-			//Collections.sort(islandmanifold, persistentManifoldComparator);
-			MiscUtil.heapSort(islandmanifold, persistentManifoldComparator);
+	/**
+	 * Sorts islandmanifold by island id using counting sort. Island id is
+	 * in range -1 to numElem-1, offsets of manifolds with island id X start
+	 * at manifoldOffsets[X+1] and end at manifoldOffsets[X+2].
+	 */
+	private void sortManifolds(int numElem) {
+		int numManifolds = islandmanifold.size();
+		int numKeys = numElem + 1;
+
+		if (manifoldOffsets.length < numKeys + 1) {
+			manifoldOffsets = new int[Math.max(numKeys + 1, manifoldOffsets.length * 2)];
+		}
+		if (manifoldKeys.length < numManifolds) {
+			int capacity = Math.max(numManifolds, manifoldKeys.length * 2);
+			manifoldKeys = new int[capacity];
+			manifoldBuffer = new PersistentManifold[capacity];
+		}
 
-			// now process all active islands (sets of manifolds for now)
+		int[] offsets = manifoldOffsets;
+		for (int i = 0; i <= numKeys; i++) {
+			offsets[i] = 0;
+		}
+		for (int i = 0; i < numManifolds; i++) {
+			PersistentManifold manifold = islandmanifold.get(i);
+			int key = getIslandId(manifold) + 1;
+			manifoldKeys[i] = key;
+			manifoldBuffer[i] = manifold;
+			offsets[key + 1]++;
+		}
+		for (int i = 0; i < numKeys; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		// offsets[key] is now used as insertion position, after the loop it
+		// contains end of key, which is the start of key+1:
+		for (int i = 0; i < numManifolds; i++) {
+			islandmanifold.set(offsets[manifoldKeys[i]]++, manifoldBuffer[i]);
+			manifoldBuffer[i] = null;
+		}
+		for (int i = numKeys; i > 0; i--) {
+			offsets[i] = offsets[i - 1];
+		}
+		offsets[0] = 0;
+	}
 
-			int startManifoldIndex = 0;
-			int endManifoldIndex = 1;
+	private void ensureIslandCapacity(int n) {
+		if (islandIds.length < n) {
+			int capacity = Math.max(n, islandIds.length * 2);
+			islandIds = new int[capacity];
+			islandBodyStart = new int[capacity];
+			islandBodyEnd = new int[capacity];
+			islandManifoldStart = new int[capacity];
+			islandManifoldEnd = new int[capacity];
+			islandSleeping = new boolean[capacity];
+		}
+	}
 
-			//int islandId;
+	/**
+	 * Calls callback for each island that is not sleeping, using island index
+	 * created by last call of {@link #buildIslands}.
+	 */
+	public void processIslands(IslandCallback callback) {
+		// traverse the simulation islands, and call the solver, unless all objects are sleeping/deactivated
+		for (int k = 0; k < numIslands; k++) {
+			if (islandSleeping[k]) {
+				continue;
+			}
 
-			//printf("Start Islands\n");
+			for (int idx = islandBodyStart[k]; idx < islandBodyEnd[k]; idx++) {
+				islandBodies.add(getSortedBody(idx));
+			}
 
-			// traverse the simulation islands, and call the solver, unless all objects are sleeping/deactivated
-			for (startIslandIndex = 0; startIslandIndex < numElem; startIslandIndex = endIslandIndex) {
-				int islandId = getUnionFind().getElement(startIslandIndex).id;
-				boolean islandSleeping = false;
+			// Process the actual simulation, only if not sleeping/deactivated
+			int numIslandManifolds = islandManifoldEnd[k] - islandManifoldStart[k];
+			int startManifold_idx = numIslandManifolds != 0? islandManifoldStart[k] : -1;
+			callback.processIsland(islandBodies, islandBodies.size(), islandmanifold, startManifold_idx, numIslandManifolds, islandIds[k]);
+			//printf("Island callback of size:%d bodies, %d manifolds\n",islandBodies.size(),numIslandManifolds);
 
-				for (endIslandIndex = startIslandIndex; (endIslandIndex < numElem) && (getUnionFind().getElement(endIslandIndex).id == islandId); endIslandIndex++) {
-					/*int*/ i = getUnionFind().getElement(endIslandIndex).sz;
-					CollisionObject colObj0 = collisionObjects.get(i);
-					islandBodies.add(colObj0);
-					if (!colObj0.isActive()) {
-						islandSleeping = true;
-					}
-				}
+			islandBodies.clear();
+		}
+	}
 
+	public void buildAndProcessIslands(Dispatcher dispatcher, List<CollisionObject> collisionObjects, IslandCallback callback) {
+		buildIslands(dispatcher, collisionObjects);
+		processIslands(callback);
+	}
 
-				// find the accompanying contact manifold for this islandId
-				int numIslandManifolds = 0;
-				//List<PersistentManifold> startManifold = null;
-				int startManifold_idx = -1;
+	/**
+	 * Returns number of islands (including sleeping ones) in island index.
+	 */
+	public int getNumIslands() {
+		return numIslands;
+	}
 
-				if (startManifoldIndex < numManifolds) {
-					int curIslandId = getIslandId(islandmanifold.get(startManifoldIndex));
-					if (curIslandId == islandId) {
-						//startManifold = &m_islandmanifold[startManifoldIndex];
-						//startManifold = islandmanifold.subList(startManifoldIndex, islandmanifold.size());
-						startManifold_idx = startManifoldIndex;
+	public int getIslandId(int island) {
+		return islandIds[island];
+	}
 
-						for (endManifoldIndex = startManifoldIndex + 1; (endManifoldIndex < numManifolds) && (islandId == getIslandId(islandmanifold.get(endManifoldIndex))); endManifoldIndex++) {
+	public boolean isIslandSleeping(int island) {
+		return islandSleeping[island];
+	}
 
-						}
-						// Process the actual simulation, only if not sleeping/deactivated
-						numIslandManifolds = endManifoldIndex - startManifoldIndex;
-					}
+	/**
+	 * Returns start offset of island bodies, use {@link #getSortedBody} to obtain them.
+	 */
+	public int getIslandBodyStart(int island) {
+		return islandBodyStart[island];
+	}
 
-				}
+	public int getIslandBodyEnd(int island) {
+		return islandBodyEnd[island];
+	}
 
-				if (!islandSleeping) {
-					callback.processIsland(islandBodies, islandBodies.size(), islandmanifold, startManifold_idx, numIslandManifolds, islandId);
-					//printf("Island callback of size:%d bodies, %d manifolds\n",islandBodies.size(),numIslandManifolds);
-				}
+	/**
+	 * Returns start offset of island manifolds in {@link #getIslandManifolds}.
+	 */
+	public int getIslandManifoldStart(int island) {
+		return islandManifoldStart[island];
+	}
 
-				if (numIslandManifolds != 0) {
-					startManifoldIndex = endManifoldIndex;
-				}
+	public int getIslandManifoldEnd(int island) {
+		return islandManifoldEnd[island];
+	}
 
-				islandBodies.clear();
-			}
-			//#endif //SPLIT_ISLANDS
+	/**
+	 * Returns body at given offset of bodies sorted by islands.
+	 */
+	public CollisionObject getSortedBody(int index) {
+		return collisionObjects.get(getUnionFind().getElementSize(index));
+	}
 
-			islandmanifold.clear();
-		}
-		finally {
-			BulletGlobals.popProfile();
-		}
+	/**
+	 * Returns manifolds sorted by islands.
+	 */
+	public List<PersistentManifold> getIslandManifolds() {
+		return islandmanifold;
 	}
 
 	////////////////////////////////////////////////////////////////////////////
@@ -326,10 +440,4 @@ public class SimulationIslandManager {
 		public void processIsland(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifolds, int manifolds_offset, int numManifolds, int islandId);
 	}
 	
-	private static final Comparator<PersistentManifold> persistentManifoldComparator = new Comparator<PersistentManifold>() {
-		public int compare(PersistentManifold lhs, PersistentManifold rhs) {
-			return getIslandId(lhs) < getIslandId(rhs)? -1 : +1;
-		}
-	};
-	
 }
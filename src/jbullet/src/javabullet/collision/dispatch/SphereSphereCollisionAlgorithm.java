@@ -23,8 +23,12 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
+import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
@@ -38,22 +42,36 @@ import javax.vecmath.Vector3f;
  */
 public class SphereSphereCollisionAlgorithm extends CollisionAlgorithm {
 	
+	public static final ObjectFactory<SphereSphereCollisionAlgorithm> FACTORY = new ObjectFactory<SphereSphereCollisionAlgorithm>() {
+		public SphereSphereCollisionAlgorithm create() {
+			return new SphereSphereCollisionAlgorithm();
+		}
+	};
+	
 	private boolean ownManifold;
 	private PersistentManifold manifoldPtr;
 
+	public SphereSphereCollisionAlgorithm() {
+	}
+	
 	public SphereSphereCollisionAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject col0, CollisionObject col1) {
+		init(mf, ci, col0, col1);
+	}
+
+	public SphereSphereCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci) {
 		super(ci);
+	}
+	
+	public void init(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject col0, CollisionObject col1) {
+		super.init(ci);
 		manifoldPtr = mf;
+		ownManifold = false;
 
 		if (manifoldPtr == null) {
 			manifoldPtr = dispatcher.getNewManifold(col0, col1);
 			ownManifold = true;
 		}
 	}
-
-	public SphereSphereCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci) {
-		super(ci);
-	}
 	
 	@Override
 	public void destroy() {
@@ -64,8 +82,36 @@ public class SphereSphereCollisionAlgorithm extends CollisionAlgorithm {
 		}
 	}
 	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+	
+	@Override
+	public int getSnapshotSize() {
+		return getManifoldSnapshotSize(ownManifold? manifoldPtr : null);
+	}
+	
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(ownManifold? manifoldPtr : null, buf);
+	}
+	
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject col0, CollisionObject col1) {
+		PersistentManifold manifold = readManifoldSnapshot(ownManifold? manifoldPtr : null, buf, col0, col1);
+		if (ownManifold || manifold != null) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+	
 	@Override
 	public void processCollision(CollisionObject col0, CollisionObject col1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+		
 		if (manifoldPtr == null) {
 			return;
 		}
@@ -128,9 +174,23 @@ public class SphereSphereCollisionAlgorithm extends CollisionAlgorithm {
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static final CollisionAlgorithmCreateFunc createFunc = new CollisionAlgorithmCreateFunc() {
+		private final ObjectPool<SphereSphereCollisionAlgorithm> pool = new ObjectPool<SphereSphereCollisionAlgorithm>(FACTORY);
+
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
-			return new SphereSphereCollisionAlgorithm(null, ci, body0, body1);
+			SphereSphereCollisionAlgorithm algo;
+			synchronized (pool) {
+				algo = pool.get();
+			}
+			algo.init(null, ci, body0, body1);
+			return algo;
+		}
+
+		@Override
+		public void releaseCollisionAlgorithm(CollisionAlgorithm algo) {
+			synchronized (pool) {
+				pool.release((SphereSphereCollisionAlgorithm)algo);
+			}
 		}
 	};
 	
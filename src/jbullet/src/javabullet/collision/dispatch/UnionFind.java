@@ -23,71 +23,111 @@
 
 package javabullet.collision.dispatch;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import javabullet.linearmath.MiscUtil;
-
 /**
  * UnionFind calculates connected subsets.
  * Implements weighted Quick Union with path compression.
  * Optimization: could use short ints instead of ints (halving memory, would limit the number of rigid bodies to 64k, sounds reasonable).
  * 
+ * JAVA NOTE: elements are stored in primitive arrays instead of list of element
+ * objects and islands are sorted using counting sort, which is linear because
+ * island id is always index of the root element.
+ * 
  * @author jezek2
  */
 public class UnionFind {
 
-	private final List<Element> elements = new ArrayList<Element>();
+	private int[] id = new int[0];
+	private int[] sz = new int[0];
+	private int numElements;
+	
+	// temporary arrays used for sorting:
+	private int[] roots = new int[0];
+	private int[] counts = new int[0];
 	
 	/**
 	 * This is a special operation, destroying the content of UnionFind.
 	 * It sorts the elements, based on island id, in order to make it easy to iterate over islands.
+	 * Afterwards element id contains island id and size contains the original
+	 * element index. Elements within the same island stay in original order.
 	 */
 	public void sortIslands() {
-		// first store the original body index, and islandId
-		int numElements = elements.size();
+		int n = numElements;
 
-		for (int i = 0; i < numElements; i++) {
-			elements.get(i).id = find(i);
-			elements.get(i).sz = i;
+		// first store the islandId of each element
+		for (int i = 0; i < n; i++) {
+			roots[i] = find(i);
 		}
 
-		// Sort the vector using predicate and std::sort
-		//std::sort(m_elements.begin(), m_elements.end(), btUnionFindElementSortPredicate);
-		//perhaps use radix sort?
-		//elements.heapSort(btUnionFindElementSortPredicate());
-		
-		//Collections.sort(elements);
-		MiscUtil.heapSort(elements, elementComparator);
+		// island id is less than number of elements, so single pass of counting sort is enough:
+		int[] count = counts;
+		for (int i = 0; i < n; i++) {
+			count[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			count[roots[i]]++;
+		}
+		int offset = 0;
+		for (int i = 0; i < n; i++) {
+			int c = count[i];
+			count[i] = offset;
+			offset += c;
+		}
+		for (int i = 0; i < n; i++) {
+			int islandId = roots[i];
+			int dest = count[islandId]++;
+			id[dest] = islandId;
+			sz[dest] = i;
+		}
 	}
 
 	public void reset(int N) {
 		allocate(N);
 
 		for (int i = 0; i < N; i++) {
-			elements.get(i).id = i;
-			elements.get(i).sz = 1;
+			id[i] = i;
+			sz[i] = 1;
 		}
 	}
 
 	public int getNumElements() {
-		return elements.size();
+		return numElements;
 	}
 
 	public boolean isRoot(int x) {
-		return (x == elements.get(x).id);
+		return (x == id[x]);
 	}
 
-	public Element getElement(int index) {
-		return elements.get(index);
+	/**
+	 * Returns id of element, after {@link #sortIslands} it is the island id.
+	 */
+	public int getElementId(int index) {
+		return id[index];
+	}
+
+	/**
+	 * Returns size of element, after {@link #sortIslands} it is the original element index.
+	 */
+	public int getElementSize(int index) {
+		return sz[index];
 	}
 
 	public void allocate(int N) {
-		MiscUtil.resize(elements, N, Element.class);
+		if (id.length < N) {
+			int capacity = Math.max(N, id.length * 2);
+			id = new int[capacity];
+			sz = new int[capacity];
+			roots = new int[capacity];
+			counts = new int[capacity];
+		}
+		numElements = N;
 	}
 
 	public void free() {
-		elements.clear();
+		id = new int[0];
+		sz = new int[0];
+		roots = new int[0];
+		counts = new int[0];
+		numElements = 0;
 	}
 
 	public int find(int p, int q) {
@@ -111,8 +151,8 @@ public class UnionFind {
 		//	m_elements[j].m_id = i; m_elements[i].m_sz += m_elements[j].m_sz; 
 		//}
 		//#else
-		elements.get(i).id = j;
-		elements.get(j).sz += elements.get(i).sz;
+		id[i] = j;
+		sz[j] += sz[i];
 		//#endif //USE_PATH_COMPRESSION
 	}
 
@@ -120,30 +160,18 @@ public class UnionFind {
 		//assert(x < m_N);
 		//assert(x >= 0);
 
-		while (x != elements.get(x).id) {
+		int[] id = this.id;
+		while (x != id[x]) {
 			// not really a reason not to use path compression, and it flattens the trees/improves find performance dramatically
 
 			//#ifdef USE_PATH_COMPRESSION
-			elements.get(x).id = elements.get(elements.get(x).id).id;
+			id[x] = id[id[x]];
 			//#endif //
-			x = elements.get(x).id;
+			x = id[x];
 			//assert(x < m_N);
 			//assert(x >= 0);
 		}
 		return x;
 	}
 	
-	////////////////////////////////////////////////////////////////////////////
-	
-	public static class Element {
-		public int id;
-		public int sz;
-	}
-	
-	private static final Comparator<Element> elementComparator = new Comparator<Element>() {
-		public int compare(Element o1, Element o2) {
-			return o1.id < o2.id? -1 : +1;
-		}
-	};
-	
 }
@@ -23,6 +23,7 @@
 
 package javabullet.collision.narrowphase;
 
+import javabullet.ObjectFactory;
 import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.Transform;
 import javax.vecmath.Vector3f;
@@ -46,6 +47,12 @@ public interface ConvexCast {
 	 * alternatively, add a callback method to decide about closest/all results
 	 */
 	public static class CastResult {
+		public static final ObjectFactory<CastResult> FACTORY = new ObjectFactory<CastResult>() {
+			public CastResult create() {
+				return new CastResult();
+			}
+		};
+
 		public final Vector3f normal = new Vector3f();
 		public final Vector3f hitPoint = new Vector3f();
 		public float fraction = 1e30f;
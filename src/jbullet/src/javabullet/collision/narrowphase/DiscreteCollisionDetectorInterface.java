@@ -23,6 +23,7 @@
 
 package javabullet.collision.narrowphase;
 
+import javabullet.ObjectFactory;
 import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.Transform;
 import javax.vecmath.Vector3f;
@@ -46,6 +47,12 @@ public interface DiscreteCollisionDetectorInterface {
 	}
 	
 	public static class ClosestPointInput {
+		public static final ObjectFactory<ClosestPointInput> FACTORY = new ObjectFactory<ClosestPointInput>() {
+			public ClosestPointInput create() {
+				return new ClosestPointInput();
+			}
+		};
+
 		public final Transform transformA = new Transform();
 		public final Transform transformB = new Transform();
 		public float maximumDistanceSquared;
@@ -42,7 +42,7 @@ import javax.vecmath.Vector3f;
 public class GjkConvexCast implements ConvexCast {
 
 	protected final BulletStack stack = BulletStack.get();
-	protected final ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
+	protected final ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class, ClosestPointInput.FACTORY);
 	
 	private SimplexSolverInterface simplexSolver;
 	private ConvexShape convexA;
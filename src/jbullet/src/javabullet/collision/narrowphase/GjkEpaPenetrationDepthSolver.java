@@ -23,6 +23,8 @@
 
 package javabullet.collision.narrowphase;
 
+import javabullet.BulletPool;
+import javabullet.ObjectPool;
 import javabullet.collision.shapes.ConvexShape;
 import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.Transform;
@@ -42,18 +44,29 @@ public class GjkEpaPenetrationDepthSolver implements ConvexPenetrationDepthSolve
 	{
 		float radialmargin = 0f;
 
-		GjkEpaSolver.Results results = new GjkEpaSolver.Results();
-		if (GjkEpaSolver.collide(pConvexA, transformA,
-				pConvexB, transformB,
-				radialmargin/*,stackAlloc*/, results)) {
-			//debugDraw->drawLine(results.witnesses[1],results.witnesses[1]+results.normal,btVector3(255,0,0));
-			//resultOut->addContactPoint(results.normal,results.witnesses[1],-results.depth);
-			wWitnessOnA.set(results.witnesses[0]);
-			wWitnessOnB.set(results.witnesses[1]);
-			return true;
-		}
+		// JAVA NOTE: solver is taken from per-thread pool, so this can be called
+		// from multiple threads concurrently
+		ObjectPool<GjkEpaSolver> solverPool = BulletPool.get(GjkEpaSolver.class, GjkEpaSolver.FACTORY);
+		ObjectPool<GjkEpaSolver.Results> resultsPool = BulletPool.get(GjkEpaSolver.Results.class, GjkEpaSolver.Results.FACTORY);
+		GjkEpaSolver solver = solverPool.get();
+		GjkEpaSolver.Results results = resultsPool.get();
+		try {
+			if (solver.collide(pConvexA, transformA,
+					pConvexB, transformB,
+					radialmargin/*,stackAlloc*/, results)) {
+				//debugDraw->drawLine(results.witnesses[1],results.witnesses[1]+results.normal,btVector3(255,0,0));
+				//resultOut->addContactPoint(results.normal,results.witnesses[1],-results.depth);
+				wWitnessOnA.set(results.witnesses[0]);
+				wWitnessOnB.set(results.witnesses[1]);
+				return true;
+			}
 
-		return false;
+			return false;
+		}
+		finally {
+			resultsPool.release(results);
+			solverPool.release(solver);
+		}
 	}
 
 }
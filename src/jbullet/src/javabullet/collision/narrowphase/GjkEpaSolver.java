@@ -26,6 +26,7 @@ package javabullet.collision.narrowphase;
 import java.util.Arrays;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.ObjectStackList;
 import javabullet.collision.narrowphase.GjkEpaSolver.EPA.Face;
 import javabullet.collision.narrowphase.GjkEpaSolver.GJK.He;
@@ -51,22 +52,12 @@ Nov.2006
  */
 public class GjkEpaSolver {
 	
-	protected static ObjectStackList<Mkv> stackMkv = new ObjectStackList<Mkv>(Mkv.class);
-	protected static ObjectStackList<He> stackHe = new ObjectStackList<He>(He.class);
-	protected static ObjectStackList<Face> stackFace = new ObjectStackList<Face>(Face.class);
-	
-	protected static void pushStack() {
-		stackMkv.push();
-		stackHe.push();
-		stackFace.push();
-	}
+	public static final ObjectFactory<GjkEpaSolver> FACTORY = new ObjectFactory<GjkEpaSolver>() {
+		public GjkEpaSolver create() {
+			return new GjkEpaSolver();
+		}
+	};
 	
-	protected static void popStack() {
-		stackMkv.pop();
-		stackHe.pop();
-		stackFace.pop();
-	}
-
 	public enum ResultsStatus {
 		Separated,		/* Shapes doesnt penetrate												*/ 
 		Penetrating,	/* Shapes are penetrating												*/ 
@@ -75,6 +66,12 @@ public class GjkEpaSolver {
 	}
 	
 	public static class Results {
+		public static final ObjectFactory<Results> FACTORY = new ObjectFactory<Results>() {
+			public Results create() {
+				return new Results();
+			}
+		};
+
 		public ResultsStatus status;
 		public final Vector3f[] witnesses/*[2]*/ = new Vector3f[] { new Vector3f(), new Vector3f() };
 		public final Vector3f normal = new Vector3f();
@@ -100,9 +97,14 @@ public class GjkEpaSolver {
 	////////////////////////////////////////////////////////////////////////////
 	
 	protected static class GJK {
-		protected final BulletStack stack = BulletStack.get();
 		
 		public static class Mkv {
+			public static final ObjectFactory<Mkv> FACTORY = new ObjectFactory<Mkv>() {
+				public Mkv create() {
+					return new Mkv();
+				}
+			};
+
 			public final Vector3f w = new Vector3f(); // Minkowski vertice
 			public final Vector3f r = new Vector3f(); // Ray
 			
@@ -113,12 +115,24 @@ public class GjkEpaSolver {
 		}
 
 		public static class He {
+			public static final ObjectFactory<He> FACTORY = new ObjectFactory<He>() {
+				public He create() {
+					return new He();
+				}
+			};
+
 			public final Vector3f v = new Vector3f();
 			public He n;
 		}
 		
 		//public btStackAlloc sa;
 		//public Block sablock;
+		
+		// JAVA NOTE: scratch storage (btStackAlloc in original) is per instance, shared with EPA
+		protected final ObjectStackList<Mkv> stackMkv = new ObjectStackList<Mkv>(Mkv.FACTORY);
+		protected final ObjectStackList<He> stackHe = new ObjectStackList<He>(He.FACTORY);
+		protected final ObjectStackList<Face> stackFace = new ObjectStackList<Face>(Face.FACTORY);
+		
 		public final He[] table = new He[GJK_hashsize];
 		public final Matrix3f[] wrotations/*[2]*/ = new Matrix3f[] { new Matrix3f(), new Matrix3f() };
 		public final Vector3f[] positions/*[2]*/ = new Vector3f[] { new Vector3f(), new Vector3f() };
@@ -171,6 +185,18 @@ public class GjkEpaSolver {
 			popStack();
 		}
 		
+		protected void pushStack() {
+			stackMkv.push();
+			stackHe.push();
+			stackFace.push();
+		}
+
+		protected void popStack() {
+			stackMkv.pop();
+			stackHe.pop();
+			stackFace.pop();
+		}
+		
 		// vdh: very dummy hash
 		public static /*unsigned*/ int Hash(Vector3f v) {
 			int h = (int)(v.x * 15461) ^ (int)(v.y * 83003) ^ (int)(v.z * 15473);
@@ -178,6 +204,8 @@ public class GjkEpaSolver {
 		}
 
 		public Vector3f LocalSupport(Vector3f d, /*unsigned*/ int i) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				Vector3f tmp = stack.vectors.get();
@@ -195,6 +223,8 @@ public class GjkEpaSolver {
 		}
 		
 		public void Support(Vector3f d, Mkv v) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				v.r.set(d);
@@ -237,6 +267,8 @@ public class GjkEpaSolver {
 		}
 
 		public boolean SolveSimplex2(Vector3f ao, Vector3f ab) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				if (ab.dot(ao) >= 0) {
@@ -263,6 +295,8 @@ public class GjkEpaSolver {
 
 		public boolean SolveSimplex3(Vector3f ao, Vector3f ab, Vector3f ac)
 		{
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				Vector3f tmp = stack.vectors.get();
@@ -275,6 +309,8 @@ public class GjkEpaSolver {
 		}
 		
 		public boolean SolveSimplex3a(Vector3f ao, Vector3f ab, Vector3f ac, Vector3f cabc) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				// TODO: optimize
@@ -305,7 +341,7 @@ public class GjkEpaSolver {
 						else {
 							ray.negate(cabc);
 
-							Mkv swapTmp = new Mkv();
+							Mkv swapTmp = stackMkv.get();
 							swapTmp.set(simplex[0]);
 							simplex[0].set(simplex[1]);
 							simplex[1].set(swapTmp);
@@ -323,6 +359,8 @@ public class GjkEpaSolver {
 		}
 		
 		public boolean SolveSimplex4(Vector3f ao, Vector3f ab, Vector3f ac, Vector3f ad) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				// TODO: optimize
@@ -370,6 +408,8 @@ public class GjkEpaSolver {
 		}
 		
 		public boolean SearchOrigin() {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				return SearchOrigin(stack.vectors.get(1f, 0f, 0f));
@@ -380,6 +420,8 @@ public class GjkEpaSolver {
 		}
 		
 		public boolean SearchOrigin(Vector3f initray) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				Vector3f tmp1 = stack.vectors.get();
@@ -442,6 +484,8 @@ public class GjkEpaSolver {
 		}
 		
 		public boolean EncloseOrigin() {
+			BulletStack stack = BulletStack.get();
+			
 			stack.pushCommonMath();
 			stack.quats.push();
 			try {
@@ -458,12 +502,16 @@ public class GjkEpaSolver {
 						Vector3f ab = stack.vectors.get();
 						ab.sub(simplex[1].w, simplex[0].w);
 
-						Vector3f[] b = new Vector3f[] { stack.vectors.get(1f, 0f, 0f), stack.vectors.get(0f, 1f, 0f), stack.vectors.get(0, 0, 1f) };
-						b[0].cross(ab, b[0]);
-						b[1].cross(ab, b[1]);
-						b[2].cross(ab, b[2]);
+						Vector3f b0 = stack.vectors.get(1f, 0f, 0f);
+						Vector3f b1 = stack.vectors.get(0f, 1f, 0f);
+						Vector3f b2 = stack.vectors.get(0f, 0f, 1f);
+						b0.cross(ab, b0);
+						b1.cross(ab, b1);
+						b2.cross(ab, b2);
 
-						float m[] = new float[] { b[0].lengthSquared(), b[1].lengthSquared(), b[2].lengthSquared() };
+						float m0 = b0.lengthSquared();
+						float m1 = b1.lengthSquared();
+						float m2 = b2.lengthSquared();
 
 						Quat4f tmpQuat = stack.quats.get();
 						tmp.normalize(ab);
@@ -472,7 +520,7 @@ public class GjkEpaSolver {
 						Matrix3f r = stack.matrices.get();
 						MatrixUtil.setRotation(r, tmpQuat);
 
-						Vector3f w = stack.vectors.get(b[m[0] > m[1] ? m[0] > m[2] ? 0 : 2 : m[1] > m[2] ? 1 : 2]);
+						Vector3f w = stack.vectors.get(m0 > m1 ? m0 > m2 ? b0 : b2 : m1 > m2 ? b1 : b2);
 
 						tmp.normalize(w);
 						Support(tmp, simplex[4]); r.transform(w);
@@ -518,9 +566,14 @@ public class GjkEpaSolver {
 	////////////////////////////////////////////////////////////////////////////
 	
 	protected static class EPA {
-		protected final BulletStack stack = BulletStack.get();
 		
 		public static class Face {
+			public static final ObjectFactory<Face> FACTORY = new ObjectFactory<Face>() {
+				public Face create() {
+					return new Face();
+				}
+			};
+
 			public final GJK.Mkv[] v = new GJK.Mkv[3];
 			public final Face[] f = new Face[3];
 			public final int[] e = new int[3];
@@ -542,6 +595,12 @@ public class GjkEpaSolver {
 		public float depth;
 		public boolean failed;
 		
+		// JAVA NOTE: scratch arrays of EvaluatePD kept in instance
+		private final GJK.Mkv[] basemkv = new GJK.Mkv[5];
+		private final Face[] basefaces = new Face[6];
+		private final Face[] cf = new Face[1];
+		private final Face[] ff = new Face[1];
+		
 		{
 			for (int i=0; i<features.length; i++) {
 				for (int j=0; j<features[i].length; j++) {
@@ -556,6 +615,8 @@ public class GjkEpaSolver {
 		}
 		
 		public Vector3f GetCoordinates(Face face) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				Vector3f tmp = stack.vectors.get();
@@ -613,6 +674,8 @@ public class GjkEpaSolver {
 		}
 
 		public boolean Set(Face f, GJK.Mkv a, GJK.Mkv b, GJK.Mkv c) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				Vector3f tmp1 = stack.vectors.get();
@@ -649,7 +712,7 @@ public class GjkEpaSolver {
 		
 		public Face NewFace(GJK.Mkv a, GJK.Mkv b, GJK.Mkv c) {
 			//Face pf = new Face();
-			Face pf = stackFace.get();
+			Face pf = gjk.stackFace.get();
 			if (Set(pf, a, b, c)) {
 				if (root != null) {
 					root.prev = pf;
@@ -692,12 +755,12 @@ public class GjkEpaSolver {
 
 		public Mkv Support(Vector3f w) {
 			//Mkv v = new Mkv();
-			Mkv v = stackMkv.get();
+			Mkv v = gjk.stackMkv.get();
 			gjk.Support(w, v);
 			return v;
 		}
 
-		private static int[] mod3 = new int[] { 0, 1, 2, 0, 1 };
+		private static final int[] mod3 = new int[] { 0, 1, 2, 0, 1 };
 		
 		public int BuildHorizon(int markid, GJK.Mkv w, Face f, int e, Face[] cf, Face[] ff) {
 			int ne = 0;
@@ -737,8 +800,10 @@ public class GjkEpaSolver {
 		private static final int[][] hexahedron_eidx/*[9][4]*/ = new int[][] {{0,0,4,0},{0,1,2,1},{0,2,1,2},{1,1,5,2},{1,0,2,0},{2,2,3,2},{3,1,5,0},{3,0,4,2},{5,1,4,1}};
 		
 		public float EvaluatePD(float accuracy) {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
-			pushStack();
+			gjk.pushStack();
 			try {
 				Vector3f tmp = stack.vectors.get();
 
@@ -763,8 +828,6 @@ public class GjkEpaSolver {
 					int peidx_index = 0;
 
 					int neidx = 0;
-					GJK.Mkv[] basemkv = new GJK.Mkv[5];
-					Face[] basefaces = new Face[6];
 					switch (gjk.order) {
 						// Tetrahedron
 						case 3:
@@ -802,7 +865,7 @@ public class GjkEpaSolver {
 					int i;
 
 					for (i = 0; i <= gjk.order; ++i) {
-						basemkv[i] = new GJK.Mkv();
+						basemkv[i] = gjk.stackMkv.get();
 						basemkv[i].set(gjk.simplex[i]);
 					}
 					for (i = 0; i < nfidx; ++i, pfidx_index++) {
@@ -825,8 +888,8 @@ public class GjkEpaSolver {
 						float d = bf.n.dot(w.w) + bf.d;
 						bestface = bf;
 						if (d < -accuracy) {
-							Face[] cf = new Face[]{null};
-							Face[] ff = new Face[]{null};
+							cf[0] = null;
+							ff[0] = null;
 							int nf = 0;
 							Detach(bf);
 							bf.mark = ++markid;
@@ -881,7 +944,7 @@ public class GjkEpaSolver {
 			}
 			finally {
 				stack.vectors.pop();
-				popStack();
+				gjk.popStack();
 			}
 		}
 		
@@ -889,9 +952,12 @@ public class GjkEpaSolver {
 	
 	////////////////////////////////////////////////////////////////////////////
 	
-	private static GJK gjk = new GJK();
+	// JAVA NOTE: all state is per instance, the solver can be used from one thread
+	// at a time, use per-thread instance (eg. from BulletPool) for concurrent queries
+	private final GJK gjk = new GJK();
+	private final EPA epa = new EPA(gjk);
 	
-	public static boolean collide(ConvexShape shape0, Transform wtrs0,
+	public boolean collide(ConvexShape shape0, Transform wtrs0,
 			ConvexShape shape1, Transform wtrs1,
 			float radialmargin/*,
 			btStackAlloc* stackAlloc*/,
@@ -915,7 +981,6 @@ public class GjkEpaSolver {
 			results.gjk_iterations = gjk.iterations + 1;
 			if (collide) {
 				/* Then EPA for penetration depth	*/
-				EPA epa = new EPA(gjk);
 				float pd = epa.EvaluatePD();
 				results.epa_iterations = epa.iterations + 1;
 				if (pd > 0) {
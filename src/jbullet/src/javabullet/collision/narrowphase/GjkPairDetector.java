@@ -23,12 +23,14 @@
 
 package javabullet.collision.narrowphase;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
 import javabullet.collision.shapes.ConvexShape;
 import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
+import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
 
 /**
@@ -38,8 +40,6 @@ import javax.vecmath.Vector3f;
  */
 public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	// must be above the machine epsilon
 	private static final float REL_ERROR2 = 1.0e-6f;
 	
@@ -50,6 +50,14 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 	private ConvexShape minkowskiB;
 	private boolean ignoreMargin = false;
 	
+	// frame coherence, see setWarmStart:
+	private boolean warmStart = false;
+	private Vector3f[] cachedSimplexA;
+	private Vector3f[] cachedSimplexB;
+	private Vector3f[] cachedSimplexW;
+	private int cachedSimplexSize;
+	private boolean hasCachedState;
+	
 	//some debugging to fix degeneracy problems
 	public int lastUsedMethod = -1;
 	public int curIter;
@@ -57,6 +65,18 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 	public int catchDegeneracies = 1;
 	
 	public GjkPairDetector(ConvexShape objectA, ConvexShape objectB, SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver penetrationDepthSolver) {
+		init(objectA, objectB, simplexSolver, penetrationDepthSolver);
+	}
+	
+	public void init(ConvexShape objectA, ConvexShape objectB, SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver penetrationDepthSolver) {
+		this.cachedSeparatingAxis.set(0f, 0f, 1f);
+		this.ignoreMargin = false;
+		this.warmStart = false;
+		this.cachedSimplexSize = 0;
+		this.hasCachedState = false;
+		this.lastUsedMethod = -1;
+		this.catchDegeneracies = 1;
+		
 		this.penetrationDepthSolver = penetrationDepthSolver;
 		this.simplexSolver = simplexSolver;
 		this.minkowskiA = objectA;
@@ -64,6 +84,8 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 	}
 	
 	public void getClosestPoints(ClosestPointInput input, Result output, IDebugDraw debugDraw) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -92,7 +114,12 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 
 			curIter = 0;
 			int gGjkMaxIter = 1000; // this is to catch invalid input, perhaps check for #NaN?
-			cachedSeparatingAxis.set(0f, 1f, 0f);
+			
+			float cachedAxisLenSqr = cachedSeparatingAxis.lengthSquared();
+			if (!warmStart || !hasCachedState || !(cachedAxisLenSqr > BulletGlobals.FLT_EPSILON * BulletGlobals.FLT_EPSILON) || Float.isInfinite(cachedAxisLenSqr)) {
+				cachedSeparatingAxis.set(0f, 1f, 0f);
+				cachedAxisLenSqr = 1f;
+			}
 
 			boolean isValid = false;
 			boolean checkSimplex = false;
@@ -108,6 +135,10 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 				float margin = marginA + marginB;
 
 				simplexSolver.reset();
+				
+				if (warmStart && cachedSimplexSize > 0) {
+					squaredDistance = restoreSimplex(localTransA, localTransB, squaredDistance);
+				}
 
 				for (;;) //while (true)
 				{
@@ -134,7 +165,10 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 					delta = cachedSeparatingAxis.dot(w);
 
 					// potential exit, they don't overlap
-					if ((delta > 0f) && (delta * delta > squaredDistance * input.maximumDistanceSquared)) {
+					// JAVA NOTE: the test is valid for any axis, when warm started the cached
+					// axis is used also in the first iteration, so separated pairs exit early
+					float axisSquaredDistance = (warmStart && squaredDistance == BulletGlobals.SIMD_INFINITY)? cachedAxisLenSqr : squaredDistance;
+					if ((delta > 0f) && (delta * delta > axisSquaredDistance * input.maximumDistanceSquared)) {
 						checkPenetration = false;
 						break;
 					}
@@ -206,6 +240,10 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 					}
 				}
 
+				if (warmStart) {
+					storeSimplex(localTransA, localTransB);
+				}
+
 				if (checkSimplex) {
 					simplexSolver.compute_points(pointOnA, pointOnB);
 					normalInB.sub(pointOnA, pointOnB);
@@ -311,18 +349,152 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 		}
 	}
 
+	/**
+	 * Fills simplex solver with simplex cached from previous query, transformed
+	 * by current transforms. Returns new squared distance, or the given one when
+	 * the cached simplex is not usable.
+	 */
+	private float restoreSimplex(Transform localTransA, Transform localTransB, float squaredDistance) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		try {
+			Vector3f pWorld = stack.vectors.get();
+			Vector3f qWorld = stack.vectors.get();
+			Vector3f w = stack.vectors.get();
+			
+			for (int i=0; i<cachedSimplexSize; i++) {
+				pWorld.set(cachedSimplexA[i]);
+				localTransA.transform(pWorld);
+				qWorld.set(cachedSimplexB[i]);
+				localTransB.transform(qWorld);
+				w.sub(pWorld, qWorld);
+				simplexSolver.addVertex(w, pWorld, qWorld);
+			}
+			
+			Vector3f v = stack.vectors.get();
+			if (simplexSolver.closest(v)) {
+				float lenSqr = v.lengthSquared();
+				if (lenSqr > BulletGlobals.FLT_EPSILON * BulletGlobals.FLT_EPSILON) {
+					cachedSeparatingAxis.set(v);
+					return lenSqr;
+				}
+			}
+			
+			// degenerate or penetrating, start from scratch:
+			simplexSolver.reset();
+			return squaredDistance;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	/**
+	 * Stores current simplex in local coordinates of both shapes for next query.
+	 */
+	private void storeSimplex(Transform localTransA, Transform localTransB) {
+		int num = simplexSolver.getSimplex(cachedSimplexA, cachedSimplexB, cachedSimplexW);
+		
+		// full simplex is either degenerate or encloses origin (penetration),
+		// the last added vertex is dropped so the rest can be reused:
+		if (num == 4) {
+			num = 3;
+		}
+		
+		for (int i=0; i<num; i++) {
+			cachedSimplexA[i].sub(localTransA.origin);
+			MatrixUtil.transposeTransform(cachedSimplexA[i], cachedSimplexA[i], localTransA.basis);
+			cachedSimplexB[i].sub(localTransB.origin);
+			MatrixUtil.transposeTransform(cachedSimplexB[i], cachedSimplexB[i], localTransB.basis);
+		}
+		cachedSimplexSize = num;
+		hasCachedState = true;
+	}
+
 	public void setMinkowskiA(ConvexShape minkA) {
+		if (minkowskiA != minkA) {
+			cachedSimplexSize = 0;
+			hasCachedState = false;
+		}
 		minkowskiA = minkA;
 	}
 
 	public void setMinkowskiB(ConvexShape minkB) {
+		if (minkowskiB != minkB) {
+			cachedSimplexSize = 0;
+			hasCachedState = false;
+		}
 		minkowskiB = minkB;
 	}
+	
+	/**
+	 * Enables reusing of separating axis and simplex from previous query
+	 * as a starting point, useful when the detector is used for the same
+	 * pair of shapes in consecutive frames. Disabled by default.
+	 */
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+		cachedSimplexSize = 0;
+		hasCachedState = false;
+		if (warmStart && cachedSimplexA == null) {
+			cachedSimplexA = new Vector3f[4];
+			cachedSimplexB = new Vector3f[4];
+			cachedSimplexW = new Vector3f[4];
+			for (int i=0; i<4; i++) {
+				cachedSimplexA[i] = new Vector3f();
+				cachedSimplexB[i] = new Vector3f();
+				cachedSimplexW[i] = new Vector3f();
+			}
+		}
+	}
 
+	/**
+	 * Returns size in bytes written by {@link #writeSnapshot}.
+	 */
+	public int getSnapshotSize() {
+		return 4 + 12 + (hasCachedState? cachedSimplexSize * 2*12 : 0);
+	}
+	
+	/**
+	 * Writes separating axis and simplex cached for warm start into buffer.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(hasCachedState? cachedSimplexSize : -1);
+		VectorUtil.put(buf, cachedSeparatingAxis);
+		if (hasCachedState) {
+			for (int i=0; i<cachedSimplexSize; i++) {
+				VectorUtil.put(buf, cachedSimplexA[i]);
+				VectorUtil.put(buf, cachedSimplexB[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Restores cached state previously written by {@link #writeSnapshot}.
+	 * Shapes must be already set (see {@link #setMinkowskiA}), changing them
+	 * afterwards clears the state.
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		int num = buf.getInt();
+		VectorUtil.get(buf, cachedSeparatingAxis);
+		hasCachedState = (num >= 0);
+		cachedSimplexSize = Math.max(num, 0);
+		assert (cachedSimplexSize == 0 || warmStart);
+		for (int i=0; i<cachedSimplexSize; i++) {
+			VectorUtil.get(buf, cachedSimplexA[i]);
+			VectorUtil.get(buf, cachedSimplexB[i]);
+		}
+	}
+	
 	public void setCachedSeperatingAxis(Vector3f seperatingAxis) {
 		cachedSeparatingAxis.set(seperatingAxis);
 	}
 
+	public void setSimplexSolver(SimplexSolverInterface simplexSolver) {
+		this.simplexSolver = simplexSolver;
+	}
+
 	public void setPenetrationDepthSolver(ConvexPenetrationDepthSolver penetrationDepthSolver) {
 		this.penetrationDepthSolver = penetrationDepthSolver;
 	}
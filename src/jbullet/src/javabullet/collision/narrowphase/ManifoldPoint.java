@@ -23,6 +23,7 @@
 
 package javabullet.collision.narrowphase;
 
+import javabullet.ObjectFactory;
 import javax.vecmath.Vector3f;
 
 /**
@@ -33,6 +34,12 @@ import javax.vecmath.Vector3f;
  */
 public class ManifoldPoint {
 
+	public static final ObjectFactory<ManifoldPoint> FACTORY = new ObjectFactory<ManifoldPoint>() {
+		public ManifoldPoint create() {
+			return new ManifoldPoint();
+		}
+	};
+	
 	public final Vector3f localPointA = new Vector3f();
 	public final Vector3f localPointB = new Vector3f();
 	public final Vector3f positionWorldOnB = new Vector3f();
@@ -59,6 +66,11 @@ public class ManifoldPoint {
 		this.localPointB.set(pointB);
 		this.normalWorldOnB.set(normal);
 		this.distance1 = distance;
+		// JAVA NOTE: points are pooled, clear state left from previous use
+		this.combinedFriction = 0f;
+		this.combinedRestitution = 0f;
+		this.userPersistentData = null;
+		this.lifeTime = 0;
 	}
 
 	public float getDistance() {
@@ -23,8 +23,10 @@
 
 package javabullet.collision.narrowphase;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
@@ -44,7 +46,11 @@ import javax.vecmath.Vector4f;
  */
 public class PersistentManifold {
 
-	protected final BulletStack stack = BulletStack.get();
+	public static final ObjectFactory<PersistentManifold> FACTORY = new ObjectFactory<PersistentManifold>() {
+		public PersistentManifold create() {
+			return new PersistentManifold();
+		}
+	};
 	
 	public static final int MANIFOLD_CACHE_SIZE = 4;
 	
@@ -77,6 +83,8 @@ public class PersistentManifold {
 
 	/// sort cached points so most isolated points come first
 	private int sortCachedPoints(ManifoldPoint pt) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		stack.vectors4.push();
 		try {
@@ -213,6 +221,8 @@ public class PersistentManifold {
 	}
 
 	public int getCacheEntry(ManifoldPoint newPoint) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			float shortestDist = getContactBreakingThreshold() * getContactBreakingThreshold();
@@ -254,6 +264,8 @@ public class PersistentManifold {
 			//#endif
 		}
 		else {
+			// JAVA NOTE: unused slot may hold lifetime from removed point or previous use of pooled manifold
+			pointCache[insertIndex].lifeTime = 0;
 			cachedPoints++;
 		}
 		replaceContactPoint(newPoint, insertIndex);
@@ -301,6 +313,8 @@ public class PersistentManifold {
 
 	/// calculated new worldspace coordinates and depth, and reject points that exceed the collision margin
 	public void refreshContactPoints(Transform trA, Transform trB) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -370,4 +384,59 @@ public class PersistentManifold {
 		cachedPoints = 0;
 	}
 	
+	private static final int POINT_SNAPSHOT_SIZE = 5*12 + 4*4;
+	
+	/**
+	 * Returns size in bytes written by {@link #writeSnapshot} for current
+	 * number of contacts.
+	 */
+	public int getSnapshotSize() {
+		return 4 + cachedPoints * POINT_SNAPSHOT_SIZE;
+	}
+	
+	/**
+	 * Writes cached contact points into buffer. User persistent data
+	 * are not stored.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(cachedPoints);
+		for (int i=0; i<cachedPoints; i++) {
+			ManifoldPoint pt = pointCache[i];
+			VectorUtil.put(buf, pt.localPointA);
+			VectorUtil.put(buf, pt.localPointB);
+			VectorUtil.put(buf, pt.positionWorldOnA);
+			VectorUtil.put(buf, pt.positionWorldOnB);
+			VectorUtil.put(buf, pt.normalWorldOnB);
+			buf.putFloat(pt.distance1);
+			buf.putFloat(pt.combinedFriction);
+			buf.putFloat(pt.combinedRestitution);
+			buf.putInt(pt.lifeTime);
+		}
+	}
+	
+	/**
+	 * Replaces cached contact points with points previously written by
+	 * {@link #writeSnapshot}.
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		clearManifold();
+		
+		int num = buf.getInt();
+		assert (num <= MANIFOLD_CACHE_SIZE);
+		for (int i=0; i<num; i++) {
+			ManifoldPoint pt = pointCache[i];
+			VectorUtil.get(buf, pt.localPointA);
+			VectorUtil.get(buf, pt.localPointB);
+			VectorUtil.get(buf, pt.positionWorldOnA);
+			VectorUtil.get(buf, pt.positionWorldOnB);
+			VectorUtil.get(buf, pt.normalWorldOnB);
+			pt.distance1 = buf.getFloat();
+			pt.combinedFriction = buf.getFloat();
+			pt.combinedRestitution = buf.getFloat();
+			pt.lifeTime = buf.getInt();
+			pt.userPersistentData = null;
+		}
+		cachedPoints = num;
+	}
+	
 }
@@ -25,9 +25,11 @@ package javabullet.collision.narrowphase;
 
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.collision.shapes.ConvexShape;
 import javabullet.collision.shapes.MinkowskiSumShape;
 import javabullet.linearmath.Transform;
+import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
 
 /**
@@ -40,6 +42,12 @@ import javax.vecmath.Vector3f;
  */
 public class SubsimplexConvexCast implements ConvexCast {
 
+	public static final ObjectFactory<SubsimplexConvexCast> FACTORY = new ObjectFactory<SubsimplexConvexCast>() {
+		public SubsimplexConvexCast create() {
+			return new SubsimplexConvexCast();
+		}
+	};
+	
 	protected final BulletStack stack = BulletStack.get();
 	
 	// Typically the conservative advancement reaches solution in a few iterations, clip it to 32 for degenerate cases.
@@ -55,8 +63,19 @@ public class SubsimplexConvexCast implements ConvexCast {
 	private SimplexSolverInterface simplexSolver;
 	private ConvexShape convexA;
 	private ConvexShape convexB;
+	
+	// JAVA NOTE: reused for each cast
+	private final MinkowskiSumShape combi = new MinkowskiSumShape(null, null);
 
+	public SubsimplexConvexCast() {
+	}
+	
 	public SubsimplexConvexCast(ConvexShape shapeA, ConvexShape shapeB, SimplexSolverInterface simplexSolver) {
+		init(shapeA, shapeB, simplexSolver);
+	}
+	
+	// JAVA NOTE: added to allow reusing of instance
+	public void init(ConvexShape shapeA, ConvexShape shapeB, SimplexSolverInterface simplexSolver) {
 		this.convexA = shapeA;
 		this.convexB = shapeB;
 		this.simplexSolver = simplexSolver;
@@ -65,7 +84,8 @@ public class SubsimplexConvexCast implements ConvexCast {
 	public boolean calcTimeOfImpact(Transform fromA, Transform toA, Transform fromB, Transform toB, CastResult result) {
 		stack.pushCommonMath();
 		try {
-			MinkowskiSumShape combi = new MinkowskiSumShape(convexA, convexB);
+			//MinkowskiSumShape combi = new MinkowskiSumShape(convexA, convexB);
+			combi.init(convexA, convexB);
 			MinkowskiSumShape convex = combi;
 
 			Transform rayFromLocalA = stack.transforms.get();
@@ -159,6 +179,16 @@ public class SubsimplexConvexCast implements ConvexCast {
 			result.fraction = lambda;
 			result.normal.set(n);
 
+			// JAVA NOTE: added, hit point is computed as the point of shape A
+			// in direction against the normal at time of impact (in world space)
+			if (hasResult) {
+				n.negate();
+				result.hitPoint.set(convexA.localGetSupportingVertex(n));
+				fromA.basis.transform(result.hitPoint);
+				VectorUtil.setInterpolate3(p, fromA.origin, toA.origin, lambda);
+				result.hitPoint.add(p);
+			}
+
 			return true;
 		}
 		finally {
@@ -41,7 +41,15 @@ public abstract class TriangleRaycastCallback implements TriangleCallback {
 
 	public float hitFraction;
 
+	public TriangleRaycastCallback() {
+	}
+	
 	public TriangleRaycastCallback(Vector3f from, Vector3f to) {
+		init(from, to);
+	}
+	
+	// JAVA NOTE: added to allow reusing of instance
+	public void init(Vector3f from, Vector3f to) {
 		this.from.set(from);
 		this.to.set(to);
 		this.hitFraction = 1f;
@@ -83,7 +91,7 @@ public abstract class TriangleRaycastCallback implements TriangleCallback {
 			if (distance < hitFraction) {
 				float edge_tolerance = triangleNormal.lengthSquared();
 				edge_tolerance *= -0.0001f;
-				Vector3f point = new Vector3f();
+				Vector3f point = stack.vectors.get();
 				VectorUtil.setInterpolate3(point, from, to, distance);
 				{
 					Vector3f v0p = stack.vectors.get();
@@ -25,6 +25,7 @@ package javabullet.collision.narrowphase;
 
 import javabullet.BulletPool;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.ObjectPool;
 import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
@@ -35,8 +36,14 @@ import javax.vecmath.Vector3f;
  */
 public class VoronoiSimplexSolver implements SimplexSolverInterface {
 
+	public static final ObjectFactory<VoronoiSimplexSolver> FACTORY = new ObjectFactory<VoronoiSimplexSolver>() {
+		public VoronoiSimplexSolver create() {
+			return new VoronoiSimplexSolver();
+		}
+	};
+	
 	protected final BulletStack stack = BulletStack.get();
-	protected final ObjectPool<SubSimplexClosestResult> subsimplexResultsPool = BulletPool.get(SubSimplexClosestResult.class);
+	protected final ObjectPool<SubSimplexClosestResult> subsimplexResultsPool = BulletPool.get(SubSimplexClosestResult.class, SubSimplexClosestResult.FACTORY);
 	
 	private static final int VORONOI_SIMPLEX_MAX_VERTS = 5;
 	
@@ -706,6 +713,12 @@ public class VoronoiSimplexSolver implements SimplexSolverInterface {
 	}
 	
 	public static class SubSimplexClosestResult {
+		public static final ObjectFactory<SubSimplexClosestResult> FACTORY = new ObjectFactory<SubSimplexClosestResult>() {
+			public SubSimplexClosestResult create() {
+				return new SubSimplexClosestResult();
+			}
+		};
+
 		public final Vector3f closestPointOnSimplex = new Vector3f();
 		//MASK for m_usedVertices
 		//stores the simplex vertex-usage, using the MASK, 
@@ -23,6 +23,7 @@
 
 package javabullet.collision.shapes;
 
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.ScalarUtil;
@@ -46,6 +47,8 @@ public class BoxShape extends PolyhedralConvexShape {
 	}
 
 	public Vector3f getHalfExtentsWithMargin() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f halfExtents = stack.vectors.get(getHalfExtentsWithoutMargin());
@@ -69,6 +72,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public Vector3f localGetSupportingVertex(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f halfExtents = stack.vectors.get(getHalfExtentsWithoutMargin());
@@ -87,6 +92,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f halfExtents = stack.vectors.get(getHalfExtentsWithoutMargin());
@@ -103,6 +110,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public void batchedUnitVectorGetSupportingVertexWithoutMargin(Vector3f[] vectors, Vector3f[] supportVerticesOut, int numVectors) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f halfExtents = stack.vectors.get(getHalfExtentsWithoutMargin());
@@ -121,6 +130,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public void setMargin(float margin) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			// correct the implicitShapeDimensions for the margin
@@ -139,6 +150,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public void setLocalScaling(Vector3f scaling) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f oldMargin = stack.vectors.get(getMargin(), getMargin(), getMargin());
@@ -159,6 +172,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public void getAabb(Transform t, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f halfExtents = getHalfExtentsWithoutMargin();
@@ -189,6 +204,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public void calculateLocalInertia(float mass, Vector3f inertia) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			//btScalar margin = btScalar(0.);
@@ -209,6 +226,8 @@ public class BoxShape extends PolyhedralConvexShape {
 
 	@Override
 	public void getPlane(Vector3f planeNormal, Vector3f planeSupport, int i) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		stack.vectors4.push();
 		try {
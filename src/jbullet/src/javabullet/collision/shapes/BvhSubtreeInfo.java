@@ -44,5 +44,13 @@ public class BvhSubtreeInfo {
 		quantizedAabbMax[1] = (short)quantizedNodes.getQuantizedAabbMax(nodeId, 1);
 		quantizedAabbMax[2] = (short)quantizedNodes.getQuantizedAabbMax(nodeId, 2);
 	}
+	
+	public long getQuantizedAabbMin() {
+		return (quantizedAabbMin[0] & 0xFFFFL) | ((quantizedAabbMin[1] & 0xFFFFL) << 16) | ((quantizedAabbMin[2] & 0xFFFFL) << 32);
+	}
+
+	public long getQuantizedAabbMax() {
+		return (quantizedAabbMax[0] & 0xFFFFL) | ((quantizedAabbMax[1] & 0xFFFFL) << 16) | ((quantizedAabbMax[2] & 0xFFFFL) << 32);
+	}
 
 }
@@ -0,0 +1,299 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.shapes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import javabullet.linearmath.VectorUtil;
+import javax.vecmath.Vector3f;
+
+/**
+ * BvhTriangleMeshCache stores {@link BvhTriangleMeshShape} (triangle and vertex
+ * data of {@link TriangleIndexVertexArray} together with quantized {@link OptimizedBvh})
+ * in binary form, that can be used directly from memory-mapped file.<p>
+ * 
+ * Loading doesn't parse or copy the mesh data or bvh nodes, the returned shape
+ * accesses them in the mapped file. This makes loading of big static meshes
+ * almost instant and the pages are shared between processes mapping the same
+ * file. Mesh data is stored in byte order of the original buffers, bvh in
+ * native byte order.<p>
+ * 
+ * Shapes loaded from read-only mapping can't be refitted and their local
+ * scaling can't be changed.
+ * 
+ * @author jezek2
+ */
+public class BvhTriangleMeshCache {
+	
+	private static final int MAGIC = 0x4A42544D; // "JBTM"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int PART_SIZE = 48;
+	
+	private BvhTriangleMeshCache() {}
+	
+	/**
+	 * Returns number of bytes needed for storing of given shape.
+	 */
+	public static int calculateSize(BvhTriangleMeshShape shape) {
+		List<IndexedMesh> meshes = getMeshes(shape);
+		
+		int size = HEADER_SIZE + align16(meshes.size() * PART_SIZE);
+		for (int i=0; i<meshes.size(); i++) {
+			IndexedMesh mesh = meshes.get(i);
+			size += align16(getIndexLength(mesh));
+			size += align16(getVertexLength(mesh));
+		}
+		size += shape.getOptimizedBvh().calculateSerializeBufferSize();
+		return size;
+	}
+	
+	/**
+	 * Writes shape to buffer at its current position and advances the position.
+	 * The data is aligned relative to the starting position.
+	 */
+	public static void write(BvhTriangleMeshShape shape, ByteBuffer buf) {
+		List<IndexedMesh> meshes = getMeshes(shape);
+		int size = calculateSize(shape);
+		if (buf.remaining() < size) {
+			throw new IllegalArgumentException("buffer too small, needs " + size + " bytes");
+		}
+		
+		ByteOrder oldOrder = buf.order();
+		buf.order(ByteOrder.nativeOrder());
+		
+		int start = buf.position();
+		int offset = HEADER_SIZE + align16(meshes.size() * PART_SIZE);
+		
+		// part table and data:
+		for (int i=0; i<meshes.size(); i++) {
+			IndexedMesh mesh = meshes.get(i);
+			int indexLength = getIndexLength(mesh);
+			int vertexLength = getVertexLength(mesh);
+			
+			buf.position(start + HEADER_SIZE + i * PART_SIZE);
+			buf.putInt(mesh.numTriangles);
+			buf.putInt(mesh.triangleIndexStride);
+			buf.putInt(mesh.indexType == ScalarType.PHY_SHORT? 1 : 0);
+			buf.putInt(mesh.triangleIndexBase.order() == ByteOrder.BIG_ENDIAN? 0 : 1);
+			buf.putInt(offset);
+			buf.putInt(indexLength);
+			copy(mesh.triangleIndexBase, indexLength, buf, start + offset);
+			offset += align16(indexLength);
+			
+			buf.putInt(mesh.numVertices);
+			buf.putInt(mesh.vertexStride);
+			buf.putInt(mesh.vertexBase.order() == ByteOrder.BIG_ENDIAN? 0 : 1);
+			buf.putInt(offset);
+			buf.putInt(vertexLength);
+			copy(mesh.vertexBase, vertexLength, buf, start + offset);
+			offset += align16(vertexLength);
+		}
+		
+		// header:
+		buf.position(start);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(meshes.size());
+		buf.putInt(offset);
+		buf.putFloat(shape.getMargin());
+		VectorUtil.put(buf, shape.meshInterface.getScaling());
+		VectorUtil.put(buf, shape.localAabbMin);
+		VectorUtil.put(buf, shape.localAabbMax);
+		
+		buf.position(start + offset);
+		shape.getOptimizedBvh().serialize(buf);
+		assert (buf.position() == start + size);
+		
+		buf.order(oldOrder);
+	}
+	
+	/**
+	 * Creates shape from data written by {@link #write}, starting at current
+	 * position of buffer, which is advanced past the data. Neither mesh data
+	 * nor bvh nodes are copied.
+	 * 
+	 * @throws IllegalArgumentException when the data is not valid
+	 */
+	public static BvhTriangleMeshShape read(ByteBuffer buf) {
+		ByteOrder oldOrder = buf.order();
+		int start = buf.position();
+		
+		if (buf.remaining() < HEADER_SIZE) {
+			throw new IllegalArgumentException("not a triangle mesh cache");
+		}
+		
+		// detect byte order of the data:
+		int magic = buf.order(ByteOrder.BIG_ENDIAN).getInt(start);
+		if (magic == Integer.reverseBytes(MAGIC)) {
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		else if (magic != MAGIC) {
+			buf.order(oldOrder);
+			throw new IllegalArgumentException("not a triangle mesh cache");
+		}
+		
+		try {
+			buf.position(start + 4);
+			if (buf.getInt() != VERSION) {
+				throw new IllegalArgumentException("unsupported triangle mesh cache version");
+			}
+			int numParts = buf.getInt();
+			int bvhOffset = buf.getInt();
+			float margin = buf.getFloat();
+			Vector3f scaling = new Vector3f();
+			Vector3f localAabbMin = new Vector3f();
+			Vector3f localAabbMax = new Vector3f();
+			VectorUtil.get(buf, scaling);
+			VectorUtil.get(buf, localAabbMin);
+			VectorUtil.get(buf, localAabbMax);
+			
+			TriangleIndexVertexArray meshInterface = new TriangleIndexVertexArray();
+			for (int i=0; i<numParts; i++) {
+				buf.position(start + HEADER_SIZE + i * PART_SIZE);
+				
+				IndexedMesh mesh = new IndexedMesh();
+				mesh.numTriangles = buf.getInt();
+				mesh.triangleIndexStride = buf.getInt();
+				ScalarType indexType = buf.getInt() == 1? ScalarType.PHY_SHORT : ScalarType.PHY_INTEGER;
+				ByteOrder indexOrder = buf.getInt() == 0? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+				int indexOffset = buf.getInt();
+				int indexLength = buf.getInt();
+				mesh.triangleIndexBase = slice(buf, start + indexOffset, indexLength, indexOrder);
+				
+				mesh.numVertices = buf.getInt();
+				mesh.vertexStride = buf.getInt();
+				ByteOrder vertexOrder = buf.getInt() == 0? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+				int vertexOffset = buf.getInt();
+				int vertexLength = buf.getInt();
+				mesh.vertexBase = slice(buf, start + vertexOffset, vertexLength, vertexOrder);
+				
+				meshInterface.addIndexedMesh(mesh, indexType);
+			}
+			meshInterface.setScaling(scaling);
+			
+			buf.position(start + bvhOffset);
+			OptimizedBvh bvh = OptimizedBvh.deSerializeInPlace(buf);
+			
+			BvhTriangleMeshShape shape = new BvhTriangleMeshShape(meshInterface, bvh, localAabbMin, localAabbMax);
+			shape.setMargin(margin);
+			return shape;
+		}
+		finally {
+			buf.order(oldOrder);
+		}
+	}
+	
+	/**
+	 * Stores shape into file.
+	 */
+	public static void save(BvhTriangleMeshShape shape, File file) throws IOException {
+		int size = calculateSize(shape);
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			write(shape, buf);
+			buf.force();
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Loads shape from read-only memory-mapped file.
+	 */
+	public static BvhTriangleMeshShape load(File file) throws IOException {
+		return load(file, false);
+	}
+	
+	/**
+	 * Loads shape from memory-mapped file. When writable is true, the file is
+	 * mapped privately (copy-on-write), so the shape can be refitted without
+	 * changing the file.
+	 * 
+	 * @throws IllegalArgumentException when the file is not valid cache
+	 */
+	public static BvhTriangleMeshShape load(File file, boolean writable) throws IOException {
+		// private mapping needs channel opened for writing, the file isn't modified
+		RandomAccessFile raf = new RandomAccessFile(file, writable? "rw" : "r");
+		try {
+			FileChannel.MapMode mode = writable? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY;
+			// mapping stays valid after closing of the file
+			MappedByteBuffer buf = raf.getChannel().map(mode, 0, raf.length());
+			return read(buf);
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static List<IndexedMesh> getMeshes(BvhTriangleMeshShape shape) {
+		if (!(shape.meshInterface instanceof TriangleIndexVertexArray)) {
+			throw new IllegalArgumentException("only TriangleIndexVertexArray meshes are supported");
+		}
+		return ((TriangleIndexVertexArray)shape.meshInterface).getIndexedMeshArray();
+	}
+	
+	private static int getIndexLength(IndexedMesh mesh) {
+		return Math.min(mesh.numTriangles * mesh.triangleIndexStride, mesh.triangleIndexBase.limit());
+	}
+	
+	private static int getVertexLength(IndexedMesh mesh) {
+		return Math.min(mesh.numVertices * mesh.vertexStride, mesh.vertexBase.limit());
+	}
+	
+	private static void copy(ByteBuffer src, int length, ByteBuffer dest, int destOffset) {
+		ByteBuffer s = src.duplicate();
+		s.clear();
+		s.limit(length);
+		ByteBuffer d = dest.duplicate();
+		d.clear();
+		d.position(destOffset);
+		d.put(s);
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buf, int offset, int length, ByteOrder order) {
+		ByteBuffer d = buf.duplicate();
+		d.clear();
+		d.position(offset);
+		d.limit(offset + length);
+		return d.slice().order(order);
+	}
+	
+	private static int align16(int size) {
+		return (size + 15) & ~15;
+	}
+	
+}
@@ -26,11 +26,15 @@ package javabullet.collision.shapes;
 import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletPool;
+import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.ObjectPool;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.collision.narrowphase.TriangleConvexcastCallback;
 import javabullet.collision.narrowphase.TriangleRaycastCallback;
+import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
+import javabullet.util.IntArrayList;
 import javax.vecmath.Vector3f;
 
 /**
@@ -45,7 +49,13 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	private boolean useQuantizedAabbCompression;
 	private boolean ownsBvh;
 	
-	private ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class);
+	// JAVA NOTE: triangles changed since last refit, triplets of partId, first triangle and count
+	private final IntArrayList dirtyTriangles = new IntArrayList();
+	private volatile boolean dirty;
+	
+	// lazily created mapping of vertices to triangles for markVerticesDirty (per part)
+	private int[][] vertexTriangleOffsets;
+	private int[][] vertexTriangles;
 	
 	public BvhTriangleMeshShape() {
 		super(null);
@@ -112,12 +122,49 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 		//#endif //DISABLE_BVH
 	}
 	
+	/**
+	 * Creates shape with already built bvh (eg. using {@link OptimizedBvh#buildParallel}).
+	 */
+	public BvhTriangleMeshShape(StridingMeshInterface meshInterface, OptimizedBvh bvh) {
+		super(meshInterface);
+		
+		this.bvh = bvh;
+		this.useQuantizedAabbCompression = bvh.isQuantized();
+		this.ownsBvh = false;
+		
+		// JAVA NOTE: local AABB computed in single pass over triangles, the result
+		// is the same as with recalcLocalAabb (extreme vertices in axis directions)
+		meshInterface.calculateAabbBruteForce(localAabbMin, localAabbMax);
+		Vector3f margin = new Vector3f(collisionMargin, collisionMargin, collisionMargin);
+		localAabbMin.sub(margin);
+		localAabbMax.add(margin);
+	}
+	
+	/**
+	 * Creates shape with already built (eg. deserialized) bvh and known local
+	 * AABB (including margin), so no pass over the triangles is needed.
+	 * See {@link BvhTriangleMeshCache}.
+	 */
+	public BvhTriangleMeshShape(StridingMeshInterface meshInterface, OptimizedBvh bvh, Vector3f localAabbMin, Vector3f localAabbMax) {
+		super(meshInterface);
+		
+		this.bvh = bvh;
+		this.useQuantizedAabbCompression = bvh.isQuantized();
+		this.ownsBvh = false;
+		
+		this.localAabbMin.set(localAabbMin);
+		this.localAabbMax.set(localAabbMax);
+	}
+	
 	@Override
 	public BroadphaseNativeType getShapeType() {
 		return BroadphaseNativeType.TRIANGLE_MESH_SHAPE_PROXYTYPE;
 	}
 
 	public void performRaycast(TriangleRaycastCallback callback, Vector3f raySource, Vector3f rayTarget) {
+		refitDirtyTriangles();
+
+		ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class, MyNodeOverlapCallback.FACTORY);
 		MyNodeOverlapCallback myNodeCallback = myNodeCallbacks.get();
 		myNodeCallback.init(callback, meshInterface);
 
@@ -127,6 +174,9 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	}
 	
 	public void performConvexcast(TriangleConvexcastCallback callback, Vector3f raySource, Vector3f rayTarget, Vector3f aabbMin, Vector3f aabbMax) {
+		refitDirtyTriangles();
+
+		ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class, MyNodeOverlapCallback.FACTORY);
 		MyNodeOverlapCallback myNodeCallback = myNodeCallbacks.get();
 		myNodeCallback.init(callback, meshInterface);
 
@@ -145,7 +195,10 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 		//btTriangleMeshShape::processAllTriangles(callback,aabbMin,aabbMax);
 		//#else
 
+		refitDirtyTriangles();
+
 		// first get all the nodes
+		ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class, MyNodeOverlapCallback.FACTORY);
 		MyNodeOverlapCallback myNodeCallback = myNodeCallbacks.get();
 		myNodeCallback.init(callback, meshInterface);
 
@@ -171,6 +224,173 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 		VectorUtil.setMax(localAabbMax, aabbMax);
 	}
 
+	/**
+	 * Marks range of triangles of given part as changed. Changed triangles are
+	 * refitted before next collision query (or explicitly using {@link #refitDirtyTriangles}).
+	 * Call it after vertices of the triangles are modified.<p>
+	 * 
+	 * Refit is incremental only for quantized bvh and when the triangles stay
+	 * within quantization AABB (see constructor with bvhAabbMin and bvhAabbMax),
+	 * otherwise whole tree is refitted.
+	 */
+	public void markTrianglesDirty(int partId, int firstTriangle, int numTriangles) {
+		if (numTriangles <= 0) {
+			return;
+		}
+		
+		synchronized (dirtyTriangles) {
+			// merge with previous range when possible:
+			int size = dirtyTriangles.size();
+			if (size > 0 && dirtyTriangles.get(size-3) == partId) {
+				int prevFirst = dirtyTriangles.get(size-2);
+				int prevEnd = prevFirst + dirtyTriangles.get(size-1);
+				if (firstTriangle <= prevEnd && firstTriangle + numTriangles >= prevFirst) {
+					int first = Math.min(prevFirst, firstTriangle);
+					int end = Math.max(prevEnd, firstTriangle + numTriangles);
+					dirtyTriangles.set(size-2, first);
+					dirtyTriangles.set(size-1, end - first);
+					dirty = true;
+					return;
+				}
+			}
+			
+			dirtyTriangles.add(partId);
+			dirtyTriangles.add(firstTriangle);
+			dirtyTriangles.add(numTriangles);
+			dirty = true;
+		}
+	}
+	
+	/**
+	 * Marks all triangles using given range of vertices of given part as changed.
+	 * The vertex to triangle mapping is created on first use (it's assumed the
+	 * indices don't change).
+	 * 
+	 * @see #markTrianglesDirty
+	 */
+	public void markVerticesDirty(int partId, int firstVertex, int numVertices) {
+		synchronized (dirtyTriangles) {
+			if (vertexTriangles == null) {
+				initVertexTriangles();
+			}
+
+			int[] offsets = vertexTriangleOffsets[partId];
+			int[] triangles = vertexTriangles[partId];
+			int first = Math.max(firstVertex, 0);
+			int end = Math.min(firstVertex + numVertices, offsets.length - 1);
+			for (int v=first; v<end; v++) {
+				for (int i=offsets[v]; i<offsets[v+1]; i++) {
+					markTrianglesDirty(partId, triangles[i], 1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Refits changed triangles, only affected nodes of the bvh are updated.
+	 * Local AABB of the shape is enlarged to contain changed triangles, it
+	 * never shrinks (the same as in {@link #partialRefitTree}).
+	 */
+	public void refitDirtyTriangles() {
+		if (!dirty) {
+			return;
+		}
+		
+		BulletStack stack = BulletStack.get();
+		
+		synchronized (dirtyTriangles) {
+			if (!dirty) {
+				return;
+			}
+			
+			stack.vectors.push();
+			try {
+				Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+				if (bvh.isQuantized() && bvh.refitTriangles(meshInterface, dirtyTriangles, aabbMin, aabbMax)) {
+					if (aabbMin.x <= aabbMax.x) {
+						float margin = getMargin();
+						aabbMin.sub(stack.vectors.get(margin, margin, margin));
+						aabbMax.add(stack.vectors.get(margin, margin, margin));
+						VectorUtil.setMin(localAabbMin, aabbMin);
+						VectorUtil.setMax(localAabbMax, aabbMax);
+					}
+				}
+				else {
+					refitTree();
+				}
+
+				dirtyTriangles.clear();
+				dirty = false;
+			}
+			finally {
+				stack.vectors.pop();
+			}
+		}
+	}
+	
+	public boolean hasDirtyTriangles() {
+		return dirty;
+	}
+	
+	private void initVertexTriangles() {
+		VertexData data = new VertexData();
+		int numParts = meshInterface.getNumSubParts();
+		int[][] offsets = new int[numParts][];
+		int[][] triangles = new int[numParts][];
+		
+		for (int part=0; part<numParts; part++) {
+			meshInterface.getLockedReadOnlyVertexIndexBase(data, part);
+			
+			int[] partOffsets = new int[data.numverts + 1];
+			for (int pass=0; pass<2; pass++) {
+				for (int t=0; t<data.numfaces; t++) {
+					for (int j=0; j<3; j++) {
+						int index = getVertexIndex(data, t, j);
+						if (pass == 0) {
+							partOffsets[index+1]++;
+						}
+						else {
+							triangles[part][partOffsets[index]++] = t;
+						}
+					}
+				}
+				
+				if (pass == 0) {
+					for (int v=0; v<data.numverts; v++) {
+						partOffsets[v+1] += partOffsets[v];
+					}
+					triangles[part] = new int[partOffsets[data.numverts]];
+				}
+				else {
+					// offsets were shifted by filling:
+					System.arraycopy(partOffsets, 0, partOffsets, 1, data.numverts);
+					partOffsets[0] = 0;
+				}
+			}
+			offsets[part] = partOffsets;
+			
+			meshInterface.unLockReadOnlyVertexBase(part);
+		}
+		data.unref();
+		
+		vertexTriangleOffsets = offsets;
+		vertexTriangles = triangles;
+	}
+	
+	private static int getVertexIndex(VertexData data, int triangleIndex, int j) {
+		int index = triangleIndex * data.indexstride;
+		if (data.indicestype == ScalarType.PHY_SHORT) {
+			return data.indexbase.getShort(index + j * 2) & 0xFFFF;
+		}
+		return data.indexbase.getInt(index + j * 4);
+	}
+
+	@Override
+	public void getAabb(Transform trans, Vector3f aabbMin, Vector3f aabbMax) {
+		refitDirtyTriangles();
+		super.getAabb(trans, aabbMin, aabbMax);
+	}
+	
 	@Override
 	public String getName() {
 		return "BVHTRIANGLEMESH";
@@ -178,6 +398,8 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	
 	@Override
 	public void setLocalScaling(Vector3f scaling) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -223,6 +445,12 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	////////////////////////////////////////////////////////////////////////////
 	
 	protected static class MyNodeOverlapCallback implements NodeOverlapCallback {
+		public static final ObjectFactory<MyNodeOverlapCallback> FACTORY = new ObjectFactory<MyNodeOverlapCallback>() {
+			public MyNodeOverlapCallback create() {
+				return new MyNodeOverlapCallback();
+			}
+		};
+
 		public StridingMeshInterface meshInterface;
 		public TriangleCallback callback;
 
@@ -35,12 +35,12 @@ import javax.vecmath.Vector3f;
  */
 public abstract class CollisionShape {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	///getAabb returns the axis aligned bounding box in the coordinate frame of the given transform t.
 	public abstract void getAabb(Transform t, Vector3f aabbMin, Vector3f aabbMax);
 
 	public void getBoundingSphere(Vector3f center, float[] radius) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -64,13 +64,16 @@ public abstract class CollisionShape {
 
 	///getAngularMotionDisc returns the maximus radius needed for Conservative Advancement to handle time-of-impact with rotations.
 	public float getAngularMotionDisc() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f center = stack.vectors.get();
-			float[] disc = new float[1]; // TODO: stack
+			float[] disc = stack.floatArrays.getFixed(1);
 			getBoundingSphere(center, disc);
-			disc[0] += center.length();
-			return disc[0];
+			float result = disc[0] + center.length();
+			stack.floatArrays.release(disc);
+			return result;
 		}
 		finally {
 			stack.vectors.pop();
@@ -80,6 +83,8 @@ public abstract class CollisionShape {
 	///calculateTemporalAabb calculates the enclosing aabb for the moving object over interval [0..timeStep)
 	///result is conservative
 	public void calculateTemporalAabb(Transform curTrans, Vector3f linvel, Vector3f angvel, float timeStep, Vector3f temporalAabbMin, Vector3f temporalAabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			//start with static aabb
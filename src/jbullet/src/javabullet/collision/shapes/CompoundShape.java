@@ -25,7 +25,10 @@ package javabullet.collision.shapes;
 
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
+import javabullet.collision.broadphase.Dbvt;
+import javabullet.collision.broadphase.DbvtAabbMm;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -44,12 +47,15 @@ public class CompoundShape extends CollisionShape {
 	private final Vector3f localAabbMin = new Vector3f(1e30f, 1e30f, 1e30f);
 	private final Vector3f localAabbMax = new Vector3f(-1e30f, -1e30f, -1e30f);
 
-	private OptimizedBvh aabbTree = null;
+	// AABB tree of children in local space, leaves store index of child
+	private final Dbvt dynamicAabbTree = new Dbvt();
 
 	private float collisionMargin = 0f;
 	protected final Vector3f localScaling = new Vector3f(1f, 1f, 1f);
 
 	public void addChildShape(Transform localTransform, CollisionShape shape) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			//m_childTransforms.push_back(localTransform);
@@ -80,6 +86,9 @@ public class CompoundShape extends CollisionShape {
 	//		}
 			VectorUtil.setMin(this.localAabbMin, _localAabbMin);
 			VectorUtil.setMax(this.localAabbMax, _localAabbMax);
+			
+			DbvtAabbMm bounds = DbvtAabbMm.FromMM(_localAabbMin, _localAabbMax, new DbvtAabbMm());
+			child.node = dynamicAabbTree.insert(bounds, Integer.valueOf(children.size() - 1));
 		}
 		finally {
 			stack.vectors.pop();
@@ -107,6 +116,8 @@ public class CompoundShape extends CollisionShape {
 	 */
 	@Override
 	public void getAabb(Transform trans, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f localHalfExtents = stack.vectors.get();
@@ -157,6 +168,8 @@ public class CompoundShape extends CollisionShape {
 
 	@Override
 	public void calculateLocalInertia(float mass, Vector3f inertia) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			// approximation: take the inertia from the aabb for now
@@ -202,11 +215,13 @@ public class CompoundShape extends CollisionShape {
 		return "Compound";
 	}
 
-	// this is optional, but should make collision queries faster, by culling non-overlapping nodes
-	// void	createAabbTreeFromChildren();
-	
-	public OptimizedBvh getAabbTree() {
-		return aabbTree;
+	/**
+	 * Returns AABB tree of children, it's used for culling of non-overlapping
+	 * children in collision queries. Leaf data is index of child (Integer), leaf
+	 * volumes are in local space of the compound.
+	 */
+	public Dbvt getDynamicAabbTree() {
+		return dynamicAabbTree;
 	}
 	
 }
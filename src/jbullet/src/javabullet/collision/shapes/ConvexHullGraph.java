@@ -0,0 +1,414 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.shapes;
+
+import java.util.HashMap;
+import javabullet.util.IntArrayList;
+
+/**
+ * Vertex adjacency graph of convex hull of point cloud, used for hill-climbing
+ * support mapping in {@link ConvexHullShape}. The graph is immutable once
+ * built and can be queried concurrently.<p>
+ * 
+ * Any local maximum of linear function over edges of convex polytope is also
+ * global maximum, so walking to better neighbours from good starting vertex
+ * finds supporting vertex by visiting only small part of the hull (roughly
+ * O(sqrt n) vertices for evenly tessellated hulls).
+ * 
+ * @author jezek2
+ */
+final class ConvexHullGraph {
+
+	// directions used for choosing of starting vertex
+	private static final float[] SEED_DIRECTIONS = new float[] {
+		 1f,  0f,  0f,   -1f,  0f,  0f,
+		 0f,  1f,  0f,    0f, -1f,  0f,
+		 0f,  0f,  1f,    0f,  0f, -1f,
+		 1f,  1f,  1f,   -1f, -1f, -1f,
+		 1f,  1f, -1f,   -1f, -1f,  1f,
+		 1f, -1f,  1f,   -1f,  1f, -1f,
+		-1f,  1f,  1f,    1f, -1f, -1f,
+	};
+	
+	// neighbours of vertex i are stored in adjacency[offsets[i]..offsets[i+1]-1]
+	private final int[] offsets;
+	private final int[] adjacency;
+	private final int[] seeds;
+
+	private ConvexHullGraph(int[] offsets, int[] adjacency, int[] seeds) {
+		this.offsets = offsets;
+		this.adjacency = adjacency;
+		this.seeds = seeds;
+	}
+	
+	/**
+	 * Returns index of point with maximum dot product with given direction.
+	 * Points are in the same order (and may be scaled differently) as when
+	 * the graph was built.
+	 */
+	public int getSupportingVertex(float[] points, float dx, float dy, float dz) {
+		int best = seeds[0];
+		float maxDot = -1e30f;
+		for (int i=0; i<seeds.length; i++) {
+			int p = seeds[i] * 3;
+			float dot = dx*points[p] + dy*points[p+1] + dz*points[p+2];
+			if (dot > maxDot) {
+				maxDot = dot;
+				best = seeds[i];
+			}
+		}
+		
+		int current;
+		do {
+			current = best;
+			for (int i=offsets[current], end=offsets[current+1]; i<end; i++) {
+				int n = adjacency[i];
+				int p = n * 3;
+				float dot = dx*points[p] + dy*points[p+1] + dz*points[p+2];
+				if (dot > maxDot) {
+					maxDot = dot;
+					best = n;
+				}
+			}
+		}
+		while (best != current);
+		
+		return best;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Builds the graph using incremental convex hull, points are given as
+	 * (x,y,z) triples. Returns null when the points are degenerate (coplanar)
+	 * or the hull can't be built reliably, linear scan should be used then.<p>
+	 * 
+	 * Construction is O(n*f) where f is number of hull faces, it's meant to be
+	 * done once per shape.
+	 */
+	public static ConvexHullGraph build(float[] points, int numPoints) {
+		if (numPoints < 4) {
+			return null;
+		}
+		
+		HullBuilder builder = new HullBuilder(points, numPoints);
+		if (!builder.build()) {
+			return null;
+		}
+		return builder.createGraph();
+	}
+	
+	/**
+	 * Incremental convex hull in double precision. Faces are triangles with
+	 * counter-clockwise winding when viewed from outside, each directed edge
+	 * is mapped to face containing it.
+	 */
+	private static class HullBuilder {
+		private final float[] points;
+		private final int numPoints;
+		private double epsilon;
+		
+		private final IntArrayList faceVerts = new IntArrayList();
+		private final IntArrayList faceAlive = new IntArrayList();
+		private double[] planes = new double[16*4];
+		private final HashMap<Long,Integer> edges = new HashMap<Long,Integer>();
+		private final boolean[] onHull;
+
+		public HullBuilder(float[] points, int numPoints) {
+			this.points = points;
+			this.numPoints = numPoints;
+			this.onHull = new boolean[numPoints];
+		}
+		
+		private double x(int i) { return points[i*3+0]; }
+		private double y(int i) { return points[i*3+1]; }
+		private double z(int i) { return points[i*3+2]; }
+		
+		private long edgeKey(int a, int b) {
+			return ((long)a << 32) | (b & 0xFFFFFFFFL);
+		}
+		
+		public boolean build() {
+			// initial tetrahedron from extreme points:
+			double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+			double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			double minZ = Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+			int p0 = 0;
+			for (int i=0; i<numPoints; i++) {
+				if (x(i) < minX) {
+					minX = x(i);
+					p0 = i;
+				}
+				maxX = Math.max(maxX, x(i));
+				minY = Math.min(minY, y(i));
+				maxY = Math.max(maxY, y(i));
+				minZ = Math.min(minZ, z(i));
+				maxZ = Math.max(maxZ, z(i));
+			}
+			double size = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+			if (!(size > 0.0)) {
+				return false;
+			}
+			epsilon = size * 1e-6;
+			
+			// farthest from p0:
+			int p1 = -1;
+			double best = 0.0;
+			for (int i=0; i<numPoints; i++) {
+				double dx = x(i) - x(p0), dy = y(i) - y(p0), dz = z(i) - z(p0);
+				double dist = dx*dx + dy*dy + dz*dz;
+				if (dist > best) {
+					best = dist;
+					p1 = i;
+				}
+			}
+			if (p1 < 0) {
+				return false;
+			}
+			
+			// farthest from line p0-p1:
+			int p2 = -1;
+			best = epsilon * size;
+			double ux = x(p1) - x(p0), uy = y(p1) - y(p0), uz = z(p1) - z(p0);
+			for (int i=0; i<numPoints; i++) {
+				double vx = x(i) - x(p0), vy = y(i) - y(p0), vz = z(i) - z(p0);
+				double cx = uy*vz - uz*vy, cy = uz*vx - ux*vz, cz = ux*vy - uy*vx;
+				double area = Math.sqrt(cx*cx + cy*cy + cz*cz);
+				if (area > best) {
+					best = area;
+					p2 = i;
+				}
+			}
+			if (p2 < 0) {
+				return false;
+			}
+			
+			// farthest from plane p0-p1-p2:
+			int p3 = -1;
+			best = epsilon;
+			double vx = x(p2) - x(p0), vy = y(p2) - y(p0), vz = z(p2) - z(p0);
+			double nx = uy*vz - uz*vy, ny = uz*vx - ux*vz, nz = ux*vy - uy*vx;
+			double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+			nx /= len; ny /= len; nz /= len;
+			for (int i=0; i<numPoints; i++) {
+				double dist = Math.abs(nx*(x(i) - x(p0)) + ny*(y(i) - y(p0)) + nz*(z(i) - z(p0)));
+				if (dist > best) {
+					best = dist;
+					p3 = i;
+				}
+			}
+			if (p3 < 0) {
+				return false;
+			}
+			
+			if (nx*(x(p3) - x(p0)) + ny*(y(p3) - y(p0)) + nz*(z(p3) - z(p0)) > 0.0) {
+				// p3 is above the plane, flip the base:
+				int tmp = p1; p1 = p2; p2 = tmp;
+			}
+			if (!addFace(p0, p1, p2) || !addFace(p0, p3, p1) || !addFace(p1, p3, p2) || !addFace(p2, p3, p0)) {
+				return false;
+			}
+			
+			IntArrayList hullFaces = new IntArrayList();
+			IntArrayList prevHullFaces = new IntArrayList();
+			for (int f=0; f<4; f++) {
+				hullFaces.add(f);
+			}
+			IntArrayList visible = new IntArrayList();
+			IntArrayList horizon = new IntArrayList();
+			
+			for (int i=0; i<numPoints; i++) {
+				if (i == p0 || i == p1 || i == p2 || i == p3) {
+					continue;
+				}
+				
+				visible.clear();
+				for (int j=0; j<hullFaces.size(); j++) {
+					int f = hullFaces.get(j);
+					if (distance(f, i) > epsilon) {
+						visible.add(f);
+					}
+				}
+				if (visible.size() == 0) {
+					continue;
+				}
+				
+				// horizon consists of edges of visible faces, whose twin face is not visible:
+				horizon.clear();
+				for (int j=0; j<visible.size(); j++) {
+					int f = visible.get(j);
+					for (int k=0; k<3; k++) {
+						int a = faceVerts.get(f*3 + k);
+						int b = faceVerts.get(f*3 + (k+1) % 3);
+						Integer twin = edges.get(edgeKey(b, a));
+						if (twin == null) {
+							return false;
+						}
+						if (distance(twin, i) <= epsilon) {
+							horizon.add(a);
+							horizon.add(b);
+						}
+					}
+				}
+				
+				for (int j=0; j<visible.size(); j++) {
+					removeFace(visible.get(j));
+				}
+				int firstNew = faceAlive.size();
+				for (int j=0; j<horizon.size(); j+=2) {
+					if (!addFace(horizon.get(j), horizon.get(j+1), i)) {
+						return false;
+					}
+				}
+				
+				// keep list of current faces compact:
+				IntArrayList tmp = hullFaces;
+				hullFaces = prevHullFaces;
+				prevHullFaces = tmp;
+				hullFaces.clear();
+				for (int j=0; j<prevHullFaces.size(); j++) {
+					int f = prevHullFaces.get(j);
+					if (faceAlive.get(f) != 0) {
+						hullFaces.add(f);
+					}
+				}
+				for (int f=firstNew; f<faceAlive.size(); f++) {
+					hullFaces.add(f);
+				}
+			}
+			
+			// every directed edge must have its twin in closed hull:
+			for (Long key : edges.keySet()) {
+				long k = key;
+				int a = (int)(k >>> 32);
+				int b = (int)k;
+				if (!edges.containsKey(edgeKey(b, a))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private double distance(int face, int point) {
+			int p = face*4;
+			return planes[p]*x(point) + planes[p+1]*y(point) + planes[p+2]*z(point) - planes[p+3];
+		}
+		
+		private boolean addFace(int a, int b, int c) {
+			double ux = x(b) - x(a), uy = y(b) - y(a), uz = z(b) - z(a);
+			double vx = x(c) - x(a), vy = y(c) - y(a), vz = z(c) - z(a);
+			double nx = uy*vz - uz*vy, ny = uz*vx - ux*vz, nz = ux*vy - uy*vx;
+			double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+			if (!(len > 0.0)) {
+				return false;
+			}
+			nx /= len; ny /= len; nz /= len;
+			
+			int f = faceAlive.size();
+			faceVerts.add(a);
+			faceVerts.add(b);
+			faceVerts.add(c);
+			faceAlive.add(1);
+			
+			if ((f+1)*4 > planes.length) {
+				double[] newPlanes = new double[planes.length << 1];
+				System.arraycopy(planes, 0, newPlanes, 0, planes.length);
+				planes = newPlanes;
+			}
+			planes[f*4+0] = nx;
+			planes[f*4+1] = ny;
+			planes[f*4+2] = nz;
+			planes[f*4+3] = nx*x(a) + ny*y(a) + nz*z(a);
+			
+			return edges.put(edgeKey(a, b), f) == null &&
+			       edges.put(edgeKey(b, c), f) == null &&
+			       edges.put(edgeKey(c, a), f) == null;
+		}
+		
+		private void removeFace(int f) {
+			faceAlive.set(f, 0);
+			for (int k=0; k<3; k++) {
+				int a = faceVerts.get(f*3 + k);
+				int b = faceVerts.get(f*3 + (k+1) % 3);
+				edges.remove(edgeKey(a, b));
+			}
+		}
+		
+		public ConvexHullGraph createGraph() {
+			int[] offsets = new int[numPoints + 1];
+			for (Long key : edges.keySet()) {
+				int a = (int)(key.longValue() >>> 32);
+				offsets[a+1]++;
+				onHull[a] = true;
+			}
+			for (int i=0; i<numPoints; i++) {
+				offsets[i+1] += offsets[i];
+			}
+			
+			int[] adjacency = new int[offsets[numPoints]];
+			int[] fill = new int[numPoints];
+			for (Long key : edges.keySet()) {
+				long k = key;
+				int a = (int)(k >>> 32);
+				int b = (int)k;
+				adjacency[offsets[a] + fill[a]++] = b;
+			}
+			
+			// extreme hull vertices in fixed directions are used as starting points:
+			IntArrayList seedList = new IntArrayList();
+			for (int d=0; d<SEED_DIRECTIONS.length; d+=3) {
+				int seed = -1;
+				float maxDot = -1e30f;
+				for (int i=0; i<numPoints; i++) {
+					if (!onHull[i]) {
+						continue;
+					}
+					float dot = SEED_DIRECTIONS[d]*points[i*3] + SEED_DIRECTIONS[d+1]*points[i*3+1] + SEED_DIRECTIONS[d+2]*points[i*3+2];
+					if (dot > maxDot) {
+						maxDot = dot;
+						seed = i;
+					}
+				}
+				boolean found = false;
+				for (int i=0; i<seedList.size(); i++) {
+					if (seedList.get(i) == seed) {
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					seedList.add(seed);
+				}
+			}
+			
+			int[] seeds = new int[seedList.size()];
+			for (int i=0; i<seeds.length; i++) {
+				seeds[i] = seedList.get(i);
+			}
+			
+			return new ConvexHullGraph(offsets, adjacency, seeds);
+		}
+	}
+	
+}
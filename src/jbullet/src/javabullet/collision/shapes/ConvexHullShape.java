@@ -26,22 +26,31 @@ package javabullet.collision.shapes;
 import java.util.ArrayList;
 import java.util.List;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
-import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
 
 /**
  * ConvexHullShape implements an implicit (getSupportingVertex) Convex Hull of a Point Cloud (vertices).
- * No connectivity is needed. localGetSupportingVertex iterates linearly though all vertices.
- * On modern hardware, due to cache coherency this isn't that bad. Complex algorithms tend to trash the cashe
- * (memory is much slower then the cpu).
+ * No connectivity is needed. For small hulls localGetSupportingVertex iterates linearly
+ * though all vertices, for bigger hulls it walks over vertex adjacency graph of the hull
+ * (computed on first use), which visits only small part of the vertices.
  * 
  * @author jezek2
  */
 public class ConvexHullShape extends PolyhedralConvexShape {
 
+	/** Minimum number of points for using adjacency graph instead of linear scan. */
+	public static final int HILL_CLIMBING_THRESHOLD = 32;
+	
 	private final List<Vector3f> points = new ArrayList<Vector3f>();
 	
+	// JAVA NOTE: points multiplied by local scaling, stored as (x,y,z) triples
+	private float[] scaledPoints = new float[3*16];
+	
+	private volatile ConvexHullGraph graph;
+	private boolean graphValid = false;
+	
 	/**
 	 * TODO: This constructor optionally takes in a pointer to points. Each point is assumed to be 3 consecutive float (x,y,z), the striding defines the number of bytes between each point, in memory.
 	 * It is easier to not pass any points in the constructor, and just add one point at a time, using addPoint.
@@ -55,14 +64,20 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 			this.points.add(new Vector3f(points.get(i)));
 		}
 		
+		updateScaledPoints();
 		recalcLocalAabb();
 	}
 	
 	public void addPoint(Vector3f point) {
 		points.add(new Vector3f(point));
+		updateScaledPoints();
 		recalcLocalAabb();
 	}
 
+	/**
+	 * Returns points of the hull. When the points are modified, {@link #updatePoints}
+	 * must be called.
+	 */
 	public List<Vector3f> getPoints() {
 		return points;
 	}
@@ -71,33 +86,93 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 		return points.size();
 	}
 
+	/**
+	 * Updates internal data after modification of points returned by {@link #getPoints}.
+	 */
+	public void updatePoints() {
+		updateScaledPoints();
+		recalcLocalAabb();
+	}
+	
+	@Override
+	public void setLocalScaling(Vector3f scaling) {
+		super.setLocalScaling(scaling);
+		updateScaledPoints();
+		recalcLocalAabb();
+	}
+
+	private synchronized void updateScaledPoints() {
+		int num = points.size();
+		if (scaledPoints.length < num*3) {
+			scaledPoints = new float[Math.max(num*3, scaledPoints.length << 1)];
+		}
+		for (int i=0; i<num; i++) {
+			Vector3f pt = points.get(i);
+			scaledPoints[i*3+0] = pt.x * localScaling.x;
+			scaledPoints[i*3+1] = pt.y * localScaling.y;
+			scaledPoints[i*3+2] = pt.z * localScaling.z;
+		}
+		
+		// graph is built lazily, because points are often added one by one:
+		graph = null;
+		graphValid = false;
+	}
+	
+	private synchronized ConvexHullGraph buildGraph() {
+		if (!graphValid) {
+			graph = ConvexHullGraph.build(scaledPoints, points.size());
+			graphValid = true;
+		}
+		return graph;
+	}
+	
+	/**
+	 * Returns index of point with maximum dot product with given direction.
+	 */
+	private int getSupportingIndex(float dx, float dy, float dz) {
+		int num = points.size();
+		if (num >= HILL_CLIMBING_THRESHOLD) {
+			ConvexHullGraph g = graph;
+			if (g == null && !graphValid) {
+				g = buildGraph();
+			}
+			if (g != null) {
+				return g.getSupportingVertex(scaledPoints, dx, dy, dz);
+			}
+		}
+		
+		float[] pts = scaledPoints;
+		int best = -1;
+		float maxDot = -1e30f;
+		for (int i=0, p=0; i<num; i++, p+=3) {
+			float dot = dx*pts[p] + dy*pts[p+1] + dz*pts[p+2];
+			if (dot > maxDot) {
+				maxDot = dot;
+				best = i;
+			}
+		}
+		return best;
+	}
+	
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f vec0) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f supVec = stack.vectors.get(0f, 0f, 0f);
-			float newDot, maxDot = -1e30f;
 
-			Vector3f vec = stack.vectors.get(vec0);
-			float lenSqr = vec.lengthSquared();
-			if (lenSqr < 0.0001f) {
-				vec.set(1f, 0f, 0f);
-			}
-			else {
-				float rlen = 1f / (float) Math.sqrt(lenSqr);
-				vec.scale(rlen);
+			// JAVA NOTE: direction doesn't need to be normalized for finding maximum dot product
+			float dx = vec0.x, dy = vec0.y, dz = vec0.z;
+			if (dx*dx + dy*dy + dz*dz < 0.0001f) {
+				dx = 1f;
+				dy = 0f;
+				dz = 0f;
 			}
 
-
-			Vector3f vtx = stack.vectors.get();
-			for (int i = 0; i < points.size(); i++) {
-				VectorUtil.mul(vtx, points.get(i), localScaling);
-
-				newDot = vec.dot(vtx);
-				if (newDot > maxDot) {
-					maxDot = newDot;
-					supVec.set(vtx);
-				}
+			int index = getSupportingIndex(dx, dy, dz);
+			if (index >= 0) {
+				supVec.set(scaledPoints[index*3+0], scaledPoints[index*3+1], scaledPoints[index*3+2]);
 			}
 			return stack.vectors.returning(supVec);
 		}
@@ -108,46 +183,50 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 
 	@Override
 	public void batchedUnitVectorGetSupportingVertexWithoutMargin(Vector3f[] vectors, Vector3f[] supportVerticesOut, int numVectors) {
-		stack.vectors.push();
-		try {
-			float newDot;
-
-			// JAVA NOTE: rewritten as code used W coord for temporary usage in Vector3
-			// TODO: optimize it
-			float[] wcoords = new float[numVectors];
-
-			// use 'w' component of supportVerticesOut?
-			{
-				for (int i = 0; i < numVectors; i++) {
-					//supportVerticesOut[i][3] = btScalar(-1e30);
-					wcoords[i] = -1e30f;
-				}
-			}
-			Vector3f vtx = stack.vectors.get();
-			for (int i = 0; i < points.size(); i++) {
-				VectorUtil.mul(vtx, points.get(i), localScaling);
-
-				for (int j = 0; j < numVectors; j++) {
-					Vector3f vec = vectors[j];
-
-					newDot = vec.dot(vtx);
-					//if (newDot > supportVerticesOut[j][3])
-					if (newDot > wcoords[j]) {
-						// WARNING: don't swap next lines, the w component would get overwritten!
-						supportVerticesOut[j].set(vtx);
-						//supportVerticesOut[j][3] = newDot;
-						wcoords[j] = newDot;
-					}
-				}
+		for (int j = 0; j < numVectors; j++) {
+			Vector3f vec = vectors[j];
+			int index = getSupportingIndex(vec.x, vec.y, vec.z);
+			if (index >= 0) {
+				supportVerticesOut[j].set(scaledPoints[index*3+0], scaledPoints[index*3+1], scaledPoints[index*3+2]);
 			}
 		}
-		finally {
-			stack.vectors.pop();
+	}
+
+	@Override
+	public void recalcLocalAabb() {
+		// JAVA NOTE: computed directly from points, so adding of points one by one
+		// doesn't trigger building of adjacency graph, the result is the same as
+		// with supporting vertices in axis directions
+		isLocalAabbValid = true;
+		
+		float margin = getMargin();
+		localAabbMin.set(1e30f, 1e30f, 1e30f);
+		localAabbMax.set(-1e30f, -1e30f, -1e30f);
+		for (int i=0, p=0; i<points.size(); i++, p+=3) {
+			localAabbMin.x = Math.min(localAabbMin.x, scaledPoints[p+0]);
+			localAabbMin.y = Math.min(localAabbMin.y, scaledPoints[p+1]);
+			localAabbMin.z = Math.min(localAabbMin.z, scaledPoints[p+2]);
+			localAabbMax.x = Math.max(localAabbMax.x, scaledPoints[p+0]);
+			localAabbMax.y = Math.max(localAabbMax.y, scaledPoints[p+1]);
+			localAabbMax.z = Math.max(localAabbMax.z, scaledPoints[p+2]);
 		}
+		if (points.size() == 0) {
+			localAabbMin.set(0f, 0f, 0f);
+			localAabbMax.set(0f, 0f, 0f);
+		}
+		
+		localAabbMin.x -= 2f * margin;
+		localAabbMin.y -= 2f * margin;
+		localAabbMin.z -= 2f * margin;
+		localAabbMax.x += 2f * margin;
+		localAabbMax.y += 2f * margin;
+		localAabbMax.z += 2f * margin;
 	}
 
 	@Override
 	public Vector3f localGetSupportingVertex(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f supVertex = stack.vectors.get(localGetSupportingVertexWithoutMargin(vec));
@@ -185,13 +264,13 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 	public void getEdge(int i, Vector3f pa, Vector3f pb) {
 		int index0 = i % points.size();
 		int index1 = (i + 1) % points.size();
-		VectorUtil.mul(pa, points.get(index0), localScaling);
-		VectorUtil.mul(pb, points.get(index1), localScaling);
+		pa.set(scaledPoints[index0*3+0], scaledPoints[index0*3+1], scaledPoints[index0*3+2]);
+		pb.set(scaledPoints[index1*3+0], scaledPoints[index1*3+1], scaledPoints[index1*3+2]);
 	}
 
 	@Override
 	public void getVertex(int i, Vector3f vtx) {
-		VectorUtil.mul(vtx, points.get(i), localScaling);
+		vtx.set(scaledPoints[i*3+0], scaledPoints[i*3+1], scaledPoints[i*3+2]);
 	}
 
 	@Override
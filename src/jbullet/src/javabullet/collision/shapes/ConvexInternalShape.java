@@ -24,6 +24,7 @@
 package javabullet.collision.shapes;
 
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -50,6 +51,8 @@ public abstract class ConvexInternalShape extends ConvexShape {
 	
 	@Override
 	public void getAabbSlow(Transform trans, Vector3f minAabb, Vector3f maxAabb) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			float margin = getMargin();
@@ -83,6 +86,8 @@ public abstract class ConvexInternalShape extends ConvexShape {
 
 	@Override
 	public Vector3f localGetSupportingVertex(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f supVertex = stack.vectors.get(localGetSupportingVertexWithoutMargin(vec));
@@ -24,12 +24,16 @@
 package javabullet.collision.shapes;
 
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 import javabullet.BulletStack;
 import javabullet.linearmath.AabbUtil2;
 import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.VectorUtil;
+import javabullet.util.IntArrayList;
 import javax.vecmath.Vector3f;
 
 /**
@@ -39,8 +43,6 @@ import javax.vecmath.Vector3f;
  */
 public class OptimizedBvh {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	private static final boolean DEBUG_TREE_BUILDING = false;
 	private static int gStackDepth = 0;
 	private static int gMaxStackDepth = 0;
@@ -54,6 +56,11 @@ public class OptimizedBvh {
 	// actually) triangles each (since the sign bit is reserved
 	public static final int MAX_NUM_PARTS_IN_BITS = 10;
 	
+	private static final int SERIALIZE_MAGIC = 0x4A425648; // "JBVH"
+	private static final int SERIALIZE_VERSION = 1;
+	private static final int SERIALIZE_HEADER_SIZE = 64;
+	private static final int SERIALIZE_SUBTREE_SIZE = 20;
+	
 	////////////////////////////////////////////////////////////////////////////
 
 	private final List<OptimizedBvhNode> leafNodes = new ArrayList<OptimizedBvhNode>();
@@ -74,7 +81,20 @@ public class OptimizedBvh {
 	protected final List<BvhSubtreeInfo> SubtreeHeaders = new ArrayList<BvhSubtreeInfo>();
 	// This is only used for serialization so we don't have to add serialization directly to btAlignedObjectArray
 	protected int subtreeHeaderCount;
-
+	
+	// JAVA NOTE: deserialized subtree headers are read on first use, see loadSubtreeHeaders
+	private ByteBuffer serializedSubtreeHeaders;
+	
+	// JAVA NOTE: lazily created data for refitTriangles, leaf node for each triangle of each part
+	// and subtree header indices sorted by root node
+	private int[][] triangleLeafNodes;
+	private int[] sortedSubtreeRoots;
+	private int[] parentPath = new int[64];
+
+	public boolean isQuantized() {
+		return useQuantization;
+	}
+	
 	// two versions, one for quantized and normal nodes. This allows code-reuse while maintaining readability (no template/macro!)
 	// this might be refactored into a virtual, it is usually not calculated at run-time
 	public void setInternalNodeAabbMin(int nodeIndex, Vector3f aabbMin) {
@@ -122,6 +142,8 @@ public class OptimizedBvh {
 	}
 	
 	public void setQuantizationValues(Vector3f aabbMin, Vector3f aabbMax, float quantizationMargin) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			// enlarge the AABB to avoid division by zero when initializing the quantization values
@@ -226,8 +248,6 @@ public class OptimizedBvh {
 	}
 
 	private static class QuantizedNodeTriangleCallback implements InternalTriangleIndexCallback {
-		protected final BulletStack stack = BulletStack.get();
-		
 		public QuantizedBvhNodes triangleNodes;
 		public OptimizedBvh optimizedTree; // for quantization
 
@@ -237,6 +257,8 @@ public class OptimizedBvh {
 		}
 		
 		public void internalProcessTriangleIndex(Vector3f[] triangle, int partId, int triangleIndex) {
+			BulletStack stack = BulletStack.get();
+			
 			// The partId and triangle index must fit in the same (positive) integer
 			assert (partId < (1 << MAX_NUM_PARTS_IN_BITS));
 			assert (triangleIndex < (1 << (31 - MAX_NUM_PARTS_IN_BITS)));
@@ -284,9 +306,13 @@ public class OptimizedBvh {
 	}
 	
 	public void build(StridingMeshInterface triangles, boolean useQuantizedAabbCompression, Vector3f _aabbMin, Vector3f _aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			this.useQuantization = useQuantizedAabbCompression;
+			triangleLeafNodes = null;
+			sortedSubtreeRoots = null;
 
 			// NodeArray	triangleNodes;
 
@@ -347,7 +373,47 @@ public class OptimizedBvh {
 		}
 	}
 	
+	/**
+	 * Builds quantized tree using binned surface area heuristic, which gives
+	 * faster queries than median split used by {@link #build}. Subtrees are built
+	 * in parallel using given executor (can be null), the result doesn't depend
+	 * on number of tasks.
+	 * 
+	 * @param aabbMin minimum of quantization AABB (usually AABB of the mesh)
+	 * @param aabbMax maximum of quantization AABB
+	 */
+	public void buildParallel(StridingMeshInterface triangles, Vector3f aabbMin, Vector3f aabbMax, Executor executor, int numTasks) {
+		useQuantization = true;
+		setQuantizationValues(aabbMin, aabbMax);
+		
+		leafNodes.clear();
+		contiguousNodes.clear();
+		quantizedLeafNodes.clear();
+		quantizedContiguousNodes = new QuantizedBvhNodes();
+		SubtreeHeaders.clear();
+		serializedSubtreeHeaders = null;
+		triangleLeafNodes = null;
+		sortedSubtreeRoots = null;
+		
+		SahBvhBuilder builder = new SahBvhBuilder(this, quantizedContiguousNodes, bvhAabbMin, bvhAabbMax, bvhQuantization);
+		curNodeIndex = builder.build(triangles, executor, numTasks);
+
+		//  if the entire tree is small then subtree size, we need to create a header info for the tree
+		if (SubtreeHeaders.size() == 0 && curNodeIndex > 0) {
+			BvhSubtreeInfo subtree = new BvhSubtreeInfo();
+			SubtreeHeaders.add(subtree);
+
+			subtree.setAabbFromQuantizeNode(quantizedContiguousNodes, 0);
+			subtree.rootNodeIndex = 0;
+			subtree.subtreeSize = quantizedContiguousNodes.isLeafNode(0) ? 1 : quantizedContiguousNodes.getEscapeIndex(0);
+		}
+		
+		subtreeHeaderCount = SubtreeHeaders.size();
+	}
+	
 	public void refit(StridingMeshInterface meshInterface) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			if (useQuantization) {
@@ -359,6 +425,8 @@ public class OptimizedBvh {
 
 				updateBvhNodes(meshInterface, 0, curNodeIndex, 0);
 
+				loadSubtreeHeaders();
+
 				// now update all subtree headers
 
 				int i;
@@ -379,46 +447,281 @@ public class OptimizedBvh {
 	}
 	
 	public void refitPartial(StridingMeshInterface meshInterface, Vector3f aabbMin, Vector3f aabbMax) {
-		throw new UnsupportedOperationException();
-//		// incrementally initialize quantization values
-//		assert (useQuantization);
-//
-//		btAssert(aabbMin.getX() > m_bvhAabbMin.getX());
-//		btAssert(aabbMin.getY() > m_bvhAabbMin.getY());
-//		btAssert(aabbMin.getZ() > m_bvhAabbMin.getZ());
-//
-//		btAssert(aabbMax.getX() < m_bvhAabbMax.getX());
-//		btAssert(aabbMax.getY() < m_bvhAabbMax.getY());
-//		btAssert(aabbMax.getZ() < m_bvhAabbMax.getZ());
-//
-//		///we should update all quantization values, using updateBvhNodes(meshInterface);
-//		///but we only update chunks that overlap the given aabb
-//
-//		unsigned short	quantizedQueryAabbMin[3];
-//		unsigned short	quantizedQueryAabbMax[3];
-//
-//		quantizeWithClamp(&quantizedQueryAabbMin[0],aabbMin);
-//		quantizeWithClamp(&quantizedQueryAabbMax[0],aabbMax);
-//
-//		int i;
-//		for (i=0;i<this->m_SubtreeHeaders.size();i++)
-//		{
-//			btBvhSubtreeInfo& subtree = m_SubtreeHeaders[i];
-//
-//			//PCK: unsigned instead of bool
-//			unsigned overlap = testQuantizedAabbAgainstQuantizedAabb(quantizedQueryAabbMin,quantizedQueryAabbMax,subtree.m_quantizedAabbMin,subtree.m_quantizedAabbMax);
-//			if (overlap != 0)
-//			{
-//				updateBvhNodes(meshInterface,subtree.m_rootNodeIndex,subtree.m_rootNodeIndex+subtree.m_subtreeSize,i);
-//
-//				subtree.setAabbFromQuantizeNode(m_quantizedContiguousNodes[subtree.m_rootNodeIndex]);
-//			}
-//		}
+		// incrementally initialize quantization values
+		assert (useQuantization);
+
+		assert (aabbMin.x > bvhAabbMin.x);
+		assert (aabbMin.y > bvhAabbMin.y);
+		assert (aabbMin.z > bvhAabbMin.z);
+
+		assert (aabbMax.x < bvhAabbMax.x);
+		assert (aabbMax.y < bvhAabbMax.y);
+		assert (aabbMax.z < bvhAabbMax.z);
+
+		// we should update all quantization values, using updateBvhNodes(meshInterface);
+		// but we only update chunks that overlap the given aabb
+
+		long quantizedQueryAabbMin = quantizeWithClamp(aabbMin);
+		long quantizedQueryAabbMax = quantizeWithClamp(aabbMax);
+
+		loadSubtreeHeaders();
+		
+		int i;
+		for (i = 0; i < SubtreeHeaders.size(); i++) {
+			BvhSubtreeInfo subtree = SubtreeHeaders.get(i);
+
+			boolean overlap = testQuantizedAabbAgainstQuantizedAabb(quantizedQueryAabbMin, quantizedQueryAabbMax, subtree.getQuantizedAabbMin(), subtree.getQuantizedAabbMax());
+			if (overlap) {
+				updateBvhNodes(meshInterface, subtree.rootNodeIndex, subtree.rootNodeIndex + subtree.subtreeSize, i);
+
+				subtree.setAabbFromQuantizeNode(quantizedContiguousNodes, subtree.rootNodeIndex);
+
+				// JAVA NOTE: nodes above subtrees are updated too, they're used by other traversal modes
+				updateParentNodes(subtree.rootNodeIndex);
+			}
+		}
+	}
+	
+	/**
+	 * Refits leaf nodes of given triangles and their parent nodes. Triangles are
+	 * given as triplets of partId, first triangle index and number of triangles.
+	 * Works only for quantized tree, cost is proportional to number of triangles
+	 * (times depth of the tree), not to the size of the mesh.<p>
+	 * 
+	 * Triangles must stay inside of quantization bounds, otherwise false is
+	 * returned (and the tree is partially refitted) and full {@link #refit} must
+	 * be done instead.<p>
+	 * 
+	 * Bounds of refitted triangles are stored into aabbMin and aabbMax.
+	 */
+	public boolean refitTriangles(StridingMeshInterface meshInterface, IntArrayList triangleRanges, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
+		assert (useQuantization);
+		
+		if (triangleLeafNodes == null) {
+			initTriangleLeafNodes(meshInterface);
+		}
+		loadSubtreeHeaders();
+		if (sortedSubtreeRoots == null) {
+			initSortedSubtreeRoots();
+		}
+
+		stack.vectors.push();
+		try {
+			Vector3f[] triangleVerts/*[3]*/ = new Vector3f[] { stack.vectors.get(), stack.vectors.get(), stack.vectors.get() };
+			Vector3f triMin = stack.vectors.get(), triMax = stack.vectors.get();
+			Vector3f meshScaling = meshInterface.getScaling();
+			
+			aabbMin.set(1e30f, 1e30f, 1e30f);
+			aabbMax.set(-1e30f, -1e30f, -1e30f);
+			
+			int curNodeSubPart = -1;
+			boolean inside = true;
+			
+			for (int r=0; r<triangleRanges.size() && inside; r+=3) {
+				int partId = triangleRanges.get(r);
+				if (partId < 0 || partId >= triangleLeafNodes.length) {
+					continue;
+				}
+				
+				int[] leafNodes = triangleLeafNodes[partId];
+				int first = Math.max(triangleRanges.get(r+1), 0);
+				int end = Math.min(triangleRanges.get(r+1) + triangleRanges.get(r+2), leafNodes.length);
+				
+				for (int triangleIndex=first; triangleIndex<end; triangleIndex++) {
+					int leafNode = leafNodes[triangleIndex];
+					if (leafNode < 0) {
+						continue;
+					}
+					
+					if (partId != curNodeSubPart) {
+						if (curNodeSubPart >= 0) {
+							meshInterface.unLockReadOnlyVertexBase(curNodeSubPart);
+						}
+						meshInterface.getLockedReadOnlyVertexIndexBase(data, partId);
+						curNodeSubPart = partId;
+					}
+					
+					getTriangleVertices(data, triangleIndex, meshScaling, triangleVerts);
+					
+					triMin.set(triangleVerts[0]);
+					triMax.set(triangleVerts[0]);
+					VectorUtil.setMin(triMin, triangleVerts[1]);
+					VectorUtil.setMax(triMax, triangleVerts[1]);
+					VectorUtil.setMin(triMin, triangleVerts[2]);
+					VectorUtil.setMax(triMax, triangleVerts[2]);
+					
+					VectorUtil.setMin(aabbMin, triMin);
+					VectorUtil.setMax(aabbMax, triMax);
+					
+					if (triMin.x < bvhAabbMin.x || triMin.y < bvhAabbMin.y || triMin.z < bvhAabbMin.z ||
+						triMax.x > bvhAabbMax.x || triMax.y > bvhAabbMax.y || triMax.z > bvhAabbMax.z) {
+						inside = false;
+						break;
+					}
+					
+					quantizedContiguousNodes.setQuantizedAabbMin(leafNode, quantizeWithClamp(triMin));
+					quantizedContiguousNodes.setQuantizedAabbMax(leafNode, quantizeWithClamp(triMax));
+					
+					updateParentNodes(leafNode);
+					
+					int subtree = findSubtree(leafNode);
+					if (subtree >= 0) {
+						BvhSubtreeInfo subtreeInfo = SubtreeHeaders.get(subtree);
+						subtreeInfo.setAabbFromQuantizeNode(quantizedContiguousNodes, subtreeInfo.rootNodeIndex);
+					}
+				}
+			}
+			
+			if (curNodeSubPart >= 0) {
+				meshInterface.unLockReadOnlyVertexBase(curNodeSubPart);
+			}
+			data.unref();
+			
+			return inside;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	/**
+	 * Recalculates aabbs of all parent nodes of given node. Nodes are stored
+	 * in depth-first order, so the path is found by descending from the root.
+	 */
+	private void updateParentNodes(int nodeIndex) {
+		QuantizedBvhNodes nodes = quantizedContiguousNodes;
+		
+		int depth = 0;
+		int curIndex = 0;
+		while (curIndex != nodeIndex) {
+			if (depth == parentPath.length) {
+				int[] newPath = new int[parentPath.length << 1];
+				System.arraycopy(parentPath, 0, newPath, 0, parentPath.length);
+				parentPath = newPath;
+			}
+			parentPath[depth++] = curIndex;
+			
+			int leftChildNodeId = curIndex + 1;
+			int rightChildNodeId = nodes.isLeafNode(leftChildNodeId) ? curIndex + 2 : leftChildNodeId + nodes.getEscapeIndex(leftChildNodeId);
+			curIndex = (nodeIndex < rightChildNodeId)? leftChildNodeId : rightChildNodeId;
+		}
+		
+		for (int i=depth-1; i>=0; i--) {
+			int curNodeId = parentPath[i];
+			int leftChildNodeId = curNodeId + 1;
+			int rightChildNodeId = nodes.isLeafNode(leftChildNodeId) ? curNodeId + 2 : leftChildNodeId + nodes.getEscapeIndex(leftChildNodeId);
+			
+			boolean changed = false;
+			for (int i2 = 0; i2 < 3; i2++) {
+				int min = Math.min(nodes.getQuantizedAabbMin(leftChildNodeId, i2), nodes.getQuantizedAabbMin(rightChildNodeId, i2));
+				int max = Math.max(nodes.getQuantizedAabbMax(leftChildNodeId, i2), nodes.getQuantizedAabbMax(rightChildNodeId, i2));
+				if (min != nodes.getQuantizedAabbMin(curNodeId, i2)) {
+					nodes.setQuantizedAabbMin(curNodeId, i2, min);
+					changed = true;
+				}
+				if (max != nodes.getQuantizedAabbMax(curNodeId, i2)) {
+					nodes.setQuantizedAabbMax(curNodeId, i2, max);
+					changed = true;
+				}
+			}
+			
+			// upper nodes contain this node already:
+			if (!changed) {
+				break;
+			}
+		}
+	}
+	
+	private void initTriangleLeafNodes(StridingMeshInterface meshInterface) {
+		int[][] leafNodes = new int[meshInterface.getNumSubParts()][];
+		for (int part=0; part<leafNodes.length; part++) {
+			meshInterface.getLockedReadOnlyVertexIndexBase(data, part);
+			leafNodes[part] = new int[data.numfaces];
+			Arrays.fill(leafNodes[part], -1);
+			meshInterface.unLockReadOnlyVertexBase(part);
+		}
+		data.unref();
+		
+		for (int i=0; i<curNodeIndex; i++) {
+			if (quantizedContiguousNodes.isLeafNode(i)) {
+				int partId = quantizedContiguousNodes.getPartId(i);
+				int triangleIndex = quantizedContiguousNodes.getTriangleIndex(i);
+				if (partId < leafNodes.length && triangleIndex < leafNodes[partId].length) {
+					leafNodes[partId][triangleIndex] = i;
+				}
+			}
+		}
+		triangleLeafNodes = leafNodes;
+	}
+	
+	private void initSortedSubtreeRoots() {
+		// subtrees don't overlap, sort them by root node to find them by binary search:
+		long[] roots = new long[SubtreeHeaders.size()];
+		for (int i=0; i<roots.length; i++) {
+			roots[i] = ((long)SubtreeHeaders.get(i).rootNodeIndex << 32) | i;
+		}
+		Arrays.sort(roots);
+		
+		int[] sorted = new int[roots.length];
+		for (int i=0; i<roots.length; i++) {
+			sorted[i] = (int)roots[i];
+		}
+		sortedSubtreeRoots = sorted;
+	}
+	
+	/**
+	 * Returns index of subtree header containing given node, or -1.
+	 */
+	private int findSubtree(int nodeIndex) {
+		int lo = 0, hi = sortedSubtreeRoots.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (SubtreeHeaders.get(sortedSubtreeRoots[mid]).rootNodeIndex <= nodeIndex) {
+				found = mid;
+				lo = mid + 1;
+			}
+			else {
+				hi = mid - 1;
+			}
+		}
+		if (found < 0) {
+			return -1;
+		}
+		BvhSubtreeInfo subtree = SubtreeHeaders.get(sortedSubtreeRoots[found]);
+		return (nodeIndex < subtree.rootNodeIndex + subtree.subtreeSize)? sortedSubtreeRoots[found] : -1;
+	}
+	
+	private void getTriangleVertices(VertexData data, int triangleIndex, Vector3f meshScaling, Vector3f[] triangleVerts) {
+		ByteBuffer gfxbase_ptr = data.indexbase;
+		int gfxbase_index = triangleIndex * data.indexstride;
+
+		for (int j = 2; j >= 0; j--) {
+			int graphicsindex;
+			if (data.indicestype == ScalarType.PHY_SHORT) {
+				graphicsindex = gfxbase_ptr.getShort(gfxbase_index + j * 2) & 0xFFFF;
+			}
+			else {
+				graphicsindex = gfxbase_ptr.getInt(gfxbase_index + j * 4);
+			}
+
+			ByteBuffer graphicsbase_ptr = data.vertexbase;
+			int graphicsbase_index = graphicsindex * data.stride;
+
+			triangleVerts[j].set(
+					graphicsbase_ptr.getFloat(graphicsbase_index + 4 * 0) * meshScaling.x,
+					graphicsbase_ptr.getFloat(graphicsbase_index + 4 * 1) * meshScaling.y,
+					graphicsbase_ptr.getFloat(graphicsbase_index + 4 * 2) * meshScaling.z);
+		}
 	}
 
 	private VertexData data = new VertexData();
 	
 	public void updateBvhNodes(StridingMeshInterface meshInterface, int firstNode, int endNode, int index) {
+		BulletStack stack = BulletStack.get();
+		
 		assert (useQuantization);
 
 		stack.vectors.push();
@@ -446,33 +749,7 @@ public class OptimizedBvh {
 					}
 					//triangles->getLockedReadOnlyVertexIndexBase(vertexBase,numVerts,
 
-					ByteBuffer gfxbase_ptr = data.indexbase;
-					int gfxbase_index = nodeTriangleIndex * data.indexstride;
-
-					for (int j = 2; j >= 0; j--) {
-						int graphicsindex;
-						if (data.indicestype == ScalarType.PHY_SHORT) {
-							graphicsindex = gfxbase_ptr.getShort(gfxbase_index + j * 2) & 0xFFFF;
-						}
-						else {
-							graphicsindex = gfxbase_ptr.getInt(gfxbase_index + j * 4);
-						}
-
-						ByteBuffer graphicsbase_ptr = data.vertexbase;
-						int graphicsbase_index = graphicsindex * data.stride;
-
-						//#ifdef DEBUG_PATCH_COLORS
-						//btVector3 mycolor = color[index&3];
-						//graphicsbase[8] = mycolor.getX();
-						//graphicsbase[9] = mycolor.getY();
-						//graphicsbase[10] = mycolor.getZ();
-						//#endif //DEBUG_PATCH_COLORS
-
-						triangleVerts[j].set(
-								graphicsbase_ptr.getFloat(graphicsbase_index + 4 * 0) * meshScaling.x,
-								graphicsbase_ptr.getFloat(graphicsbase_index + 4 * 1) * meshScaling.y,
-								graphicsbase_ptr.getFloat(graphicsbase_index + 4 * 2) * meshScaling.z);
-					}
+					getTriangleVertices(data, nodeTriangleIndex, meshScaling, triangleVerts);
 
 					aabbMin.set(1e30f, 1e30f, 1e30f);
 					aabbMax.set(-1e30f, -1e30f, -1e30f);
@@ -520,6 +797,8 @@ public class OptimizedBvh {
 	}
 	
 	protected void buildTree(int startIndex, int endIndex) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			//#ifdef DEBUG_TREE_BUILDING
@@ -659,6 +938,8 @@ public class OptimizedBvh {
 	}
 	
 	protected int sortAndCalcSplittingIndex(int startIndex, int endIndex, int splitAxis) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			int i;
@@ -717,6 +998,8 @@ public class OptimizedBvh {
 	}
 
 	protected int calcSplittingAxis(int startIndex, int endIndex) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			int i;
@@ -858,6 +1141,8 @@ public class OptimizedBvh {
 	}
 	
 	public void reportRayOverlappingNodex(NodeOverlapCallback nodeCallback, Vector3f raySource, Vector3f rayTarget) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			boolean fast_path = useQuantization && traversalMode == TraversalMode.TRAVERSAL_STACKLESS;
@@ -880,6 +1165,8 @@ public class OptimizedBvh {
 	}
 
 	public void reportBoxCastOverlappingNodex(NodeOverlapCallback nodeCallback, Vector3f raySource, Vector3f rayTarget, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			boolean fast_path = useQuantization && traversalMode == TraversalMode.TRAVERSAL_STACKLESS;
@@ -905,6 +1192,8 @@ public class OptimizedBvh {
 	}
 	
 	public long quantizeWithClamp(Vector3f point) {
+		BulletStack stack = BulletStack.get();
+		
 		assert (useQuantization);
 
 		stack.vectors.push();
@@ -928,6 +1217,128 @@ public class OptimizedBvh {
 		}
 	}
 	
+	/**
+	 * Returns number of bytes needed by {@link #serialize}. Only quantized tree
+	 * can be serialized.
+	 */
+	public int calculateSerializeBufferSize() {
+		if (!useQuantization) {
+			throw new IllegalStateException("only quantized bvh can be serialized");
+		}
+		return SERIALIZE_HEADER_SIZE + align16(subtreeHeaderCount * SERIALIZE_SUBTREE_SIZE) + curNodeIndex * QuantizedBvhNodes.getNodeSize();
+	}
+	
+	/**
+	 * Writes the tree to buffer at its current position (using its byte order)
+	 * and advances the position. Node data is aligned to 16 bytes relative to
+	 * the starting position.
+	 */
+	public void serialize(ByteBuffer buf) {
+		int size = calculateSerializeBufferSize();
+		if (buf.remaining() < size) {
+			throw new IllegalArgumentException("buffer too small, needs " + size + " bytes");
+		}
+		
+		int start = buf.position();
+		buf.putInt(SERIALIZE_MAGIC);
+		buf.putInt(SERIALIZE_VERSION);
+		buf.putInt(curNodeIndex);
+		buf.putInt(subtreeHeaderCount);
+		buf.putInt(traversalMode != null? traversalMode.ordinal() : -1);
+		VectorUtil.put(buf, bvhAabbMin);
+		VectorUtil.put(buf, bvhAabbMax);
+		VectorUtil.put(buf, bvhQuantization);
+		buf.position(start + SERIALIZE_HEADER_SIZE);
+		
+		loadSubtreeHeaders();
+		for (int i=0; i<subtreeHeaderCount; i++) {
+			BvhSubtreeInfo subtree = SubtreeHeaders.get(i);
+			for (int j=0; j<3; j++) {
+				buf.putShort(subtree.quantizedAabbMin[j]);
+			}
+			for (int j=0; j<3; j++) {
+				buf.putShort(subtree.quantizedAabbMax[j]);
+			}
+			buf.putInt(subtree.rootNodeIndex);
+			buf.putInt(subtree.subtreeSize);
+		}
+		buf.position(start + SERIALIZE_HEADER_SIZE + align16(subtreeHeaderCount * SERIALIZE_SUBTREE_SIZE));
+		
+		IntBuffer nodes = buf.asIntBuffer();
+		quantizedContiguousNodes.write(nodes, curNodeIndex);
+		buf.position(start + size);
+	}
+	
+	/**
+	 * Creates tree from data written by {@link #serialize}, starting at current
+	 * position of buffer, which is advanced past the data. Nodes are not copied,
+	 * they are accessed directly in the buffer (eg. memory-mapped file), subtree
+	 * headers are read when first needed. When the buffer is read-only, the tree
+	 * can't be refitted.
+	 * 
+	 * @throws IllegalArgumentException when the data is not valid serialized tree
+	 */
+	public static OptimizedBvh deSerializeInPlace(ByteBuffer buf) {
+		int start = buf.position();
+		if (buf.remaining() < SERIALIZE_HEADER_SIZE || buf.getInt() != SERIALIZE_MAGIC) {
+			throw new IllegalArgumentException("not a serialized bvh");
+		}
+		if (buf.getInt() != SERIALIZE_VERSION) {
+			throw new IllegalArgumentException("unsupported serialized bvh version");
+		}
+		
+		OptimizedBvh bvh = new OptimizedBvh();
+		bvh.useQuantization = true;
+		bvh.curNodeIndex = buf.getInt();
+		bvh.subtreeHeaderCount = buf.getInt();
+		int mode = buf.getInt();
+		bvh.traversalMode = mode >= 0? TraversalMode.values()[mode] : null;
+		VectorUtil.get(buf, bvh.bvhAabbMin);
+		VectorUtil.get(buf, bvh.bvhAabbMax);
+		VectorUtil.get(buf, bvh.bvhQuantization);
+		
+		int size = SERIALIZE_HEADER_SIZE + align16(bvh.subtreeHeaderCount * SERIALIZE_SUBTREE_SIZE) + bvh.curNodeIndex * QuantizedBvhNodes.getNodeSize();
+		if (buf.limit() - start < size) {
+			throw new IllegalArgumentException("truncated serialized bvh");
+		}
+		buf.position(start + SERIALIZE_HEADER_SIZE);
+		bvh.serializedSubtreeHeaders = buf.slice().order(buf.order());
+		bvh.serializedSubtreeHeaders.limit(bvh.subtreeHeaderCount * SERIALIZE_SUBTREE_SIZE);
+		buf.position(start + SERIALIZE_HEADER_SIZE + align16(bvh.subtreeHeaderCount * SERIALIZE_SUBTREE_SIZE));
+		
+		ByteBuffer nodeBytes = buf.slice().order(buf.order());
+		nodeBytes.limit(bvh.curNodeIndex * QuantizedBvhNodes.getNodeSize());
+		bvh.quantizedContiguousNodes = new QuantizedBvhNodes(nodeBytes.asIntBuffer(), bvh.curNodeIndex);
+		buf.position(start + size);
+		
+		return bvh;
+	}
+	
+	private void loadSubtreeHeaders() {
+		ByteBuffer buf = serializedSubtreeHeaders;
+		if (buf == null) {
+			return;
+		}
+		
+		for (int i=0; i<subtreeHeaderCount; i++) {
+			BvhSubtreeInfo subtree = new BvhSubtreeInfo();
+			for (int j=0; j<3; j++) {
+				subtree.quantizedAabbMin[j] = buf.getShort();
+			}
+			for (int j=0; j<3; j++) {
+				subtree.quantizedAabbMax[j] = buf.getShort();
+			}
+			subtree.rootNodeIndex = buf.getInt();
+			subtree.subtreeSize = buf.getInt();
+			SubtreeHeaders.add(subtree);
+		}
+		serializedSubtreeHeaders = null;
+	}
+	
+	private static int align16(int size) {
+		return (size + 15) & ~15;
+	}
+	
 	public void unQuantize(Vector3f vecOut, long vecIn) {
 		int vecIn0 = (int)((vecIn & 0x00000000FFFFL));
 		int vecIn1 = (int)((vecIn & 0x0000FFFF0000L) >>> 16);
@@ -23,6 +23,8 @@
 
 package javabullet.collision.shapes;
 
+import java.nio.IntBuffer;
+
 /**
  * QuantizedBvhNodes is array of compressed AABB nodes, each of 16 bytes.
  * Node can be used for leafnode or internal node. Leafnodes can point to 32-bit
@@ -37,6 +39,10 @@ package javabullet.collision.shapes;
  * signed   int    escapeIndexOrTriangleIndex
  * </pre>
  * 
+ * Nodes can be also backed by {@link IntBuffer} (eg. view of memory-mapped
+ * file), see {@link OptimizedBvh#deSerializeInPlace}. Such nodes can't be
+ * resized.
+ * 
  * @author jezek2
  */
 public class QuantizedBvhNodes {
@@ -44,12 +50,38 @@ public class QuantizedBvhNodes {
 	private static final int STRIDE = 4; // 16 bytes
 	
 	private int[] buf;
+	private IntBuffer mappedBuf;
 	private int size = 0;
 
 	public QuantizedBvhNodes() {
 		resize(16);
 	}
 	
+	/**
+	 * Creates nodes backed directly by given buffer (no copy is made).
+	 */
+	QuantizedBvhNodes(IntBuffer buf, int size) {
+		assert (buf.capacity() >= size*STRIDE);
+		this.mappedBuf = buf;
+		this.size = size;
+	}
+	
+	private int get(int index) {
+		if (buf != null) {
+			return buf[index];
+		}
+		return mappedBuf.get(index);
+	}
+	
+	private void put(int index, int value) {
+		if (buf != null) {
+			buf[index] = value;
+		}
+		else {
+			mappedBuf.put(index, value);
+		}
+	}
+	
 	public int add() {
 		while (size+1 >= capacity()) {
 			resize(capacity()*2);
@@ -62,6 +94,9 @@ public class QuantizedBvhNodes {
 	}
 	
 	public int capacity() {
+		if (buf == null) {
+			return mappedBuf.capacity() / STRIDE;
+		}
 		return buf.length / STRIDE;
 	}
 	
@@ -70,6 +105,10 @@ public class QuantizedBvhNodes {
 	}
 	
 	public void resize(int num) {
+		if (mappedBuf != null) {
+			throw new UnsupportedOperationException("can't resize mapped nodes");
+		}
+		
 		int[] oldBuf = buf;
 		
 		buf = new int[num*STRIDE];
@@ -78,6 +117,20 @@ public class QuantizedBvhNodes {
 		}
 	}
 	
+	/**
+	 * Writes raw data of first num nodes to given buffer.
+	 */
+	void write(IntBuffer out, int num) {
+		if (buf != null) {
+			out.put(buf, 0, num*STRIDE);
+		}
+		else {
+			IntBuffer src = mappedBuf.duplicate();
+			src.clear().limit(num*STRIDE);
+			out.put(src);
+		}
+	}
+	
 	public static int getNodeSize() {
 		return STRIDE*4;
 	}
@@ -85,96 +138,89 @@ public class QuantizedBvhNodes {
 	public void set(int destId, QuantizedBvhNodes srcNodes, int srcId) {
 		assert (STRIDE == 4);
 
-		// save field access:
-		int[] buf = this.buf;
-		int[] srcBuf = srcNodes.buf;
-		
-		buf[destId*STRIDE+0] = srcBuf[srcId*STRIDE+0];
-		buf[destId*STRIDE+1] = srcBuf[srcId*STRIDE+1];
-		buf[destId*STRIDE+2] = srcBuf[srcId*STRIDE+2];
-		buf[destId*STRIDE+3] = srcBuf[srcId*STRIDE+3];
+		put(destId*STRIDE+0, srcNodes.get(srcId*STRIDE+0));
+		put(destId*STRIDE+1, srcNodes.get(srcId*STRIDE+1));
+		put(destId*STRIDE+2, srcNodes.get(srcId*STRIDE+2));
+		put(destId*STRIDE+3, srcNodes.get(srcId*STRIDE+3));
 	}
 	
 	public void swap(int id1, int id2) {
 		assert (STRIDE == 4);
 		
-		// save field access:
-		int[] buf = this.buf;
-		
-		int temp0 = buf[id1*STRIDE+0];
-		int temp1 = buf[id1*STRIDE+1];
-		int temp2 = buf[id1*STRIDE+2];
-		int temp3 = buf[id1*STRIDE+3];
+		int temp0 = get(id1*STRIDE+0);
+		int temp1 = get(id1*STRIDE+1);
+		int temp2 = get(id1*STRIDE+2);
+		int temp3 = get(id1*STRIDE+3);
 		
-		buf[id1*STRIDE+0] = buf[id2*STRIDE+0];
-		buf[id1*STRIDE+1] = buf[id2*STRIDE+1];
-		buf[id1*STRIDE+2] = buf[id2*STRIDE+2];
-		buf[id1*STRIDE+3] = buf[id2*STRIDE+3];
+		put(id1*STRIDE+0, get(id2*STRIDE+0));
+		put(id1*STRIDE+1, get(id2*STRIDE+1));
+		put(id1*STRIDE+2, get(id2*STRIDE+2));
+		put(id1*STRIDE+3, get(id2*STRIDE+3));
 		
-		buf[id2*STRIDE+0] = temp0;
-		buf[id2*STRIDE+1] = temp1;
-		buf[id2*STRIDE+2] = temp2;
-		buf[id2*STRIDE+3] = temp3;
+		put(id2*STRIDE+0, temp0);
+		put(id2*STRIDE+1, temp1);
+		put(id2*STRIDE+2, temp2);
+		put(id2*STRIDE+3, temp3);
 	}
 	
 	public int getQuantizedAabbMin(int nodeId, int index) {
 		switch (index) {
 			default:
-			case 0: return (buf[nodeId*STRIDE+0]) & 0xFFFF;
-			case 1: return (buf[nodeId*STRIDE+0] >>> 16) & 0xFFFF;
-			case 2: return (buf[nodeId*STRIDE+1]) & 0xFFFF;
+			case 0: return (get(nodeId*STRIDE+0)) & 0xFFFF;
+			case 1: return (get(nodeId*STRIDE+0) >>> 16) & 0xFFFF;
+			case 2: return (get(nodeId*STRIDE+1)) & 0xFFFF;
 		}
 	}
 
 	public long getQuantizedAabbMin(int nodeId) {
-		return (buf[nodeId*STRIDE+0] & 0xFFFFFFFFL) | ((buf[nodeId*STRIDE+1] & 0xFFFFL) << 32);
+		return (get(nodeId*STRIDE+0) & 0xFFFFFFFFL) | ((get(nodeId*STRIDE+1) & 0xFFFFL) << 32);
 	}
 
 	public void setQuantizedAabbMin(int nodeId, long value) {
-		buf[nodeId*STRIDE+0] = (int)value;
+		put(nodeId*STRIDE+0, (int)value);
 		setQuantizedAabbMin(nodeId, 2, (short)((value & 0xFFFF00000000L) >>> 32));
 	}
 
 	public void setQuantizedAabbMax(int nodeId, long value) {
 		setQuantizedAabbMax(nodeId, 0, (short)value);
-		buf[nodeId*STRIDE+2] = (int)(value >>> 16);
+		put(nodeId*STRIDE+2, (int)(value >>> 16));
 	}
 
 	public void setQuantizedAabbMin(int nodeId, int index, int value) {
 		switch (index) {
-			case 0: buf[nodeId*STRIDE+0] = (buf[nodeId*STRIDE+0] & 0xFFFF0000) | (value & 0xFFFF); break;
-			case 1: buf[nodeId*STRIDE+0] = (buf[nodeId*STRIDE+0] & 0x0000FFFF) | ((value & 0xFFFF) << 16); break;
-			case 2: buf[nodeId*STRIDE+1] = (buf[nodeId*STRIDE+1] & 0xFFFF0000) | (value & 0xFFFF); break;
+			case 0: put(nodeId*STRIDE+0, (get(nodeId*STRIDE+0) & 0xFFFF0000) | (value & 0xFFFF)); break;
+			case 1: put(nodeId*STRIDE+0, (get(nodeId*STRIDE+0) & 0x0000FFFF) | ((value & 0xFFFF) << 16)); break;
+			case 2: put(nodeId*STRIDE+1, (get(nodeId*STRIDE+1) & 0xFFFF0000) | (value & 0xFFFF)); break;
 		}
 	}
 
 	public int getQuantizedAabbMax(int nodeId, int index) {
 		switch (index) {
 			default:
-			case 0: return (buf[nodeId*STRIDE+1] >>> 16) & 0xFFFF;
-			case 1: return (buf[nodeId*STRIDE+2]) & 0xFFFF;
-			case 2: return (buf[nodeId*STRIDE+2] >>> 16) & 0xFFFF;
+			case 0: return (get(nodeId*STRIDE+1) >>> 16) & 0xFFFF;
+			case 1: return (get(nodeId*STRIDE+2)) & 0xFFFF;
+			case 2: return (get(nodeId*STRIDE+2) >>> 16) & 0xFFFF;
 		}
 	}
 
 	public long getQuantizedAabbMax(int nodeId) {
-		return ((buf[nodeId*STRIDE+1] & 0xFFFF0000L) >>> 16) | ((buf[nodeId*STRIDE+2] & 0xFFFFFFFFL) << 16);
+		return ((get(nodeId*STRIDE+1) & 0xFFFF0000L) >>> 16) | ((get(nodeId*STRIDE+2) & 0xFFFFFFFFL) << 16);
 	}
 
 	public void setQuantizedAabbMax(int nodeId, int index, int value) {
 		switch (index) {
-			case 0: buf[nodeId*STRIDE+1] = (buf[nodeId*STRIDE+1] & 0x0000FFFF) | ((value & 0xFFFF) << 16); break;
-			case 1: buf[nodeId*STRIDE+2] = (buf[nodeId*STRIDE+2] & 0xFFFF0000) | (value & 0xFFFF); break;
-			case 2: buf[nodeId*STRIDE+2] = (buf[nodeId*STRIDE+2] & 0x0000FFFF) | ((value & 0xFFFF) << 16); break;
+			case 0: put(nodeId*STRIDE+1, (get(nodeId*STRIDE+1) & 0x0000FFFF) | ((value & 0xFFFF) << 16)); break;
+			case 1: put(nodeId*STRIDE+2, (get(nodeId*STRIDE+2) & 0xFFFF0000) | (value & 0xFFFF)); break;
+			case 2: put(nodeId*STRIDE+2, (get(nodeId*STRIDE+2) & 0x0000FFFF) | ((value & 0xFFFF) << 16)); break;
 		}
 	}
 	
 	public int getEscapeIndexOrTriangleIndex(int nodeId) {
-		return buf[nodeId*STRIDE+3];
+		return get(nodeId*STRIDE+3);
 	}
 	
 	public void setEscapeIndexOrTriangleIndex(int nodeId, int value) {
-		buf[nodeId*STRIDE+3] = value;
+		put(nodeId*STRIDE+3, value);
 	}
 	
 	public boolean isLeafNode(int nodeId) {
@@ -0,0 +1,469 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.shapes;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import javabullet.util.IntArrayList;
+import javabullet.util.ParallelTasks;
+import javax.vecmath.Vector3f;
+
+/**
+ * Builds quantized {@link OptimizedBvh} using binned surface area heuristic.
+ * Upper levels of the tree are split on the calling thread, subtrees below
+ * are built in parallel. Subtree with n leaves always occupies 2n-1 nodes,
+ * so each subtree knows its place in the node array in advance and the
+ * result doesn't depend on number of tasks.
+ * 
+ * @author jezek2
+ */
+class SahBvhBuilder {
+
+	private static final int NUM_BINS = 16;
+	
+	// when exceeded, plain median split is used to limit recursion depth:
+	private static final int MAX_SAH_DEPTH = 48;
+	
+	// bounds of leaves (min, max) followed by bounds of their centroids:
+	private static final int BOUNDS_SIZE = 12;
+	
+	private final OptimizedBvh bvh;
+	private final QuantizedBvhNodes nodes;
+	private final Vector3f quantMin;
+	private final Vector3f quantMax;
+	private final Vector3f quantization;
+	
+	// leaf data is partitioned in place during building:
+	private int numLeaves;
+	private float[] leafBounds; // min x,y,z, max x,y,z
+	private float[] centroids;
+	private int[] leafData;
+	
+	// subtree jobs: start, end, nodeIndex, depth and bounds of each job:
+	private final IntArrayList jobs = new IntArrayList();
+	private float[] jobBounds = new float[BOUNDS_SIZE*16];
+	
+	// pairs of child nodes of big subtrees for subtree headers, per job:
+	private IntArrayList[] subtreePairs;
+	private final IntArrayList topSubtreePairs = new IntArrayList();
+	
+	public SahBvhBuilder(OptimizedBvh bvh, QuantizedBvhNodes nodes, Vector3f quantMin, Vector3f quantMax, Vector3f quantization) {
+		this.bvh = bvh;
+		this.nodes = nodes;
+		this.quantMin = quantMin;
+		this.quantMax = quantMax;
+		this.quantization = quantization;
+	}
+	
+	/**
+	 * Builds the tree, returns number of nodes.
+	 */
+	public int build(StridingMeshInterface triangles, Executor executor, int numTasks) {
+		collectLeaves(triangles);
+		if (numLeaves == 0) {
+			return 0;
+		}
+		
+		int numNodes = 2*numLeaves - 1;
+		nodes.clear();
+		nodes.resize(numNodes + 1);
+		
+		// split upper levels until there is enough work for all tasks:
+		int jobSize = (executor != null && numTasks > 1)? Math.max(numLeaves / (numTasks * 8), 1024) : numLeaves;
+		Bins bins = new Bins();
+		float[] rootBounds = new float[BOUNDS_SIZE];
+		calcBounds(0, numLeaves, rootBounds, 0);
+		buildTop(0, numLeaves, 0, 0, rootBounds, 0, jobSize, bins);
+		
+		final int numJobs = jobs.size() / 4;
+		subtreePairs = new IntArrayList[numJobs];
+		for (int i=0; i<numJobs; i++) {
+			subtreePairs[i] = new IntArrayList();
+		}
+		
+		final AtomicInteger nextJob = new AtomicInteger();
+		ParallelTasks.run(executor, Math.min(numTasks, numJobs), new ParallelTasks.Task() {
+			public void run(int taskIndex) {
+				Bins bins = new Bins();
+				int job;
+				while ((job = nextJob.getAndIncrement()) < numJobs) {
+					buildSubtree(jobs.get(job*4+0), jobs.get(job*4+1), jobs.get(job*4+2), jobs.get(job*4+3), jobBounds, job*BOUNDS_SIZE, bins, subtreePairs[job]);
+				}
+			}
+		});
+		
+		// subtree headers in deterministic order:
+		for (int i=0; i<numJobs; i++) {
+			IntArrayList pairs = subtreePairs[i];
+			for (int j=0; j<pairs.size(); j+=2) {
+				bvh.updateSubtreeHeaders(pairs.get(j), pairs.get(j+1));
+			}
+		}
+		for (int j=0; j<topSubtreePairs.size(); j+=2) {
+			bvh.updateSubtreeHeaders(topSubtreePairs.get(j), topSubtreePairs.get(j+1));
+		}
+		
+		leafBounds = null;
+		centroids = null;
+		leafData = null;
+		
+		return numNodes;
+	}
+	
+	private void collectLeaves(StridingMeshInterface triangles) {
+		int total = 0;
+		VertexData data = new VertexData();
+		for (int part=0; part<triangles.getNumSubParts(); part++) {
+			triangles.getLockedReadOnlyVertexIndexBase(data, part);
+			total += data.numfaces;
+			triangles.unLockReadOnlyVertexBase(part);
+		}
+		data.unref();
+		
+		leafBounds = new float[total*6];
+		centroids = new float[total*3];
+		leafData = new int[total];
+		numLeaves = 0;
+		
+		Vector3f aabbMin = new Vector3f(-1e30f, -1e30f, -1e30f);
+		Vector3f aabbMax = new Vector3f(1e30f, 1e30f, 1e30f);
+		triangles.internalProcessAllTriangles(new InternalTriangleIndexCallback() {
+			public void internalProcessTriangleIndex(Vector3f[] triangle, int partId, int triangleIndex) {
+				// The partId and triangle index must fit in the same (positive) integer
+				assert (partId < (1 << OptimizedBvh.MAX_NUM_PARTS_IN_BITS));
+				assert (triangleIndex < (1 << (31 - OptimizedBvh.MAX_NUM_PARTS_IN_BITS)));
+				assert (triangleIndex >= 0);
+				
+				int i = numLeaves++;
+				for (int axis=0; axis<3; axis++) {
+					float min = Math.min(Math.min(coord(triangle[0], axis), coord(triangle[1], axis)), coord(triangle[2], axis));
+					float max = Math.max(Math.max(coord(triangle[0], axis), coord(triangle[1], axis)), coord(triangle[2], axis));
+					
+					// PCK: add these checks for zero dimensions of aabb
+					if (max - min < 0.002f) {
+						max = max + 0.001f;
+						min = min - 0.001f;
+					}
+					
+					leafBounds[i*6+axis] = min;
+					leafBounds[i*6+3+axis] = max;
+					centroids[i*3+axis] = (min + max) * 0.5f;
+				}
+				leafData[i] = (partId << (31 - OptimizedBvh.MAX_NUM_PARTS_IN_BITS)) | triangleIndex;
+			}
+		}, aabbMin, aabbMax);
+	}
+	
+	private static float coord(Vector3f v, int axis) {
+		switch (axis) {
+			case 0: return v.x;
+			case 1: return v.y;
+			default: return v.z;
+		}
+	}
+	
+	private void buildTop(int start, int end, int nodeIndex, int depth, float[] bounds, int boundsOffset, int jobSize, Bins bins) {
+		int num = end - start;
+		if (num <= jobSize || num == 1) {
+			int job = jobs.size() / 4;
+			jobs.add(start);
+			jobs.add(end);
+			jobs.add(nodeIndex);
+			jobs.add(depth);
+			if (jobBounds.length < (job+1)*BOUNDS_SIZE) {
+				float[] newBounds = new float[jobBounds.length << 1];
+				System.arraycopy(jobBounds, 0, newBounds, 0, jobBounds.length);
+				jobBounds = newBounds;
+			}
+			System.arraycopy(bounds, boundsOffset, jobBounds, job*BOUNDS_SIZE, BOUNDS_SIZE);
+			return;
+		}
+		
+		// top levels are few, so child bounds can be allocated:
+		float[] childBounds = new float[BOUNDS_SIZE*2];
+		int split = splitNode(start, end, nodeIndex, depth, bounds, boundsOffset, childBounds, bins, topSubtreePairs);
+		buildTop(start, split, nodeIndex + 1, depth + 1, childBounds, 0, jobSize, bins);
+		buildTop(split, end, nodeIndex + 2*(split - start), depth + 1, childBounds, BOUNDS_SIZE, jobSize, bins);
+	}
+	
+	private void buildSubtree(int start, int end, int nodeIndex, int depth, float[] bounds, int boundsOffset, Bins bins, IntArrayList pairs) {
+		if (end - start == 1) {
+			writeLeaf(nodeIndex, start);
+			return;
+		}
+		
+		// child bounds of each depth are used only until both children are built:
+		float[] childBounds = bins.getChildBounds(depth);
+		int split = splitNode(start, end, nodeIndex, depth, bounds, boundsOffset, childBounds, bins, pairs);
+		buildSubtree(start, split, nodeIndex + 1, depth + 1, childBounds, 0, bins, pairs);
+		buildSubtree(split, end, nodeIndex + 2*(split - start), depth + 1, childBounds, BOUNDS_SIZE, bins, pairs);
+	}
+	
+	/**
+	 * Writes internal node for given range of leaves and partitions the range,
+	 * returns index of first leaf of right child. Bounds of children are stored
+	 * to childBounds.
+	 */
+	private int splitNode(int start, int end, int nodeIndex, int depth, float[] bounds, int off, float[] childBounds, Bins bins, IntArrayList pairs) {
+		int num = end - start;
+		
+		nodes.setQuantizedAabbMin(nodeIndex, quantize(bounds[off+0], bounds[off+1], bounds[off+2]));
+		nodes.setQuantizedAabbMax(nodeIndex, quantize(bounds[off+3], bounds[off+4], bounds[off+5]));
+		int escapeIndex = 2*num - 1;
+		nodes.setEscapeIndexOrTriangleIndex(nodeIndex, -escapeIndex);
+		
+		int split = -1;
+		if (depth < MAX_SAH_DEPTH) {
+			split = findSahSplit(start, end, bounds, off, childBounds, bins);
+		}
+		if (split <= start || split >= end) {
+			split = start + (num >> 1);
+			calcBounds(start, split, childBounds, 0);
+			calcBounds(split, end, childBounds, BOUNDS_SIZE);
+		}
+		
+		if (escapeIndex * QuantizedBvhNodes.getNodeSize() > OptimizedBvh.MAX_SUBTREE_SIZE_IN_BYTES) {
+			pairs.add(nodeIndex + 1);
+			pairs.add(nodeIndex + 2*(split - start));
+		}
+		return split;
+	}
+	
+	/**
+	 * Computes bounds of leaves and of their centroids.
+	 */
+	private void calcBounds(int start, int end, float[] out, int off) {
+		resetBounds(out, off);
+		resetBounds(out, off+6);
+		for (int i=start; i<end; i++) {
+			for (int axis=0; axis<3; axis++) {
+				out[off+axis] = Math.min(out[off+axis], leafBounds[i*6+axis]);
+				out[off+3+axis] = Math.max(out[off+3+axis], leafBounds[i*6+3+axis]);
+				out[off+6+axis] = Math.min(out[off+6+axis], centroids[i*3+axis]);
+				out[off+9+axis] = Math.max(out[off+9+axis], centroids[i*3+axis]);
+			}
+		}
+	}
+	
+	/**
+	 * Finds best split of centroid bins of longest centroid axis and partitions
+	 * the leaves accordingly. Returns -1 when no split is possible.
+	 */
+	private int findSahSplit(int start, int end, float[] nodeBounds, int off, float[] childBounds, Bins bins) {
+		int c = off + 6;
+		int axis = 0;
+		float extent = nodeBounds[c+3] - nodeBounds[c+0];
+		if (nodeBounds[c+4] - nodeBounds[c+1] > extent) {
+			axis = 1;
+			extent = nodeBounds[c+4] - nodeBounds[c+1];
+		}
+		if (nodeBounds[c+5] - nodeBounds[c+2] > extent) {
+			axis = 2;
+			extent = nodeBounds[c+5] - nodeBounds[c+2];
+		}
+		if (!(extent > 0f)) {
+			return -1;
+		}
+		
+		float cmin = nodeBounds[c+axis];
+		float scale = NUM_BINS * (1f - 1e-5f) / extent;
+		
+		int[] counts = bins.counts;
+		float[] bounds = bins.bounds;
+		for (int i=0; i<NUM_BINS; i++) {
+			counts[i] = 0;
+			resetBounds(bounds, i*BOUNDS_SIZE);
+			resetBounds(bounds, i*BOUNDS_SIZE+6);
+		}
+		
+		float[] leafBounds = this.leafBounds;
+		float[] centroids = this.centroids;
+		for (int i=start; i<end; i++) {
+			int bin = (int)((centroids[i*3+axis] - cmin) * scale);
+			counts[bin]++;
+			int b = bin*BOUNDS_SIZE;
+			for (int j=0; j<3; j++) {
+				bounds[b+j] = Math.min(bounds[b+j], leafBounds[i*6+j]);
+				bounds[b+3+j] = Math.max(bounds[b+3+j], leafBounds[i*6+3+j]);
+				bounds[b+6+j] = Math.min(bounds[b+6+j], centroids[i*3+j]);
+				bounds[b+9+j] = Math.max(bounds[b+9+j], centroids[i*3+j]);
+			}
+		}
+		
+		// sweep from right to get area and count of right sides:
+		float[] rightArea = bins.rightArea;
+		int[] rightCount = bins.rightCount;
+		float[] acc = bins.accum;
+		resetBounds(acc, 0);
+		int count = 0;
+		for (int i=NUM_BINS-1; i>0; i--) {
+			count += counts[i];
+			if (counts[i] > 0) {
+				growBounds(acc, 0, bounds, i*BOUNDS_SIZE, 6);
+			}
+			rightArea[i] = area(acc, 0);
+			rightCount[i] = count;
+		}
+		
+		// sweep from left and evaluate cost of split before each bin:
+		resetBounds(acc, 0);
+		count = 0;
+		int bestBin = -1;
+		float bestCost = 1e30f;
+		for (int i=1; i<NUM_BINS; i++) {
+			count += counts[i-1];
+			if (counts[i-1] > 0) {
+				growBounds(acc, 0, bounds, (i-1)*BOUNDS_SIZE, 6);
+			}
+			if (count == 0 || rightCount[i] == 0) {
+				continue;
+			}
+			float cost = area(acc, 0) * count + rightArea[i] * rightCount[i];
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestBin = i;
+			}
+		}
+		if (bestBin < 0) {
+			return -1;
+		}
+		
+		// bounds of children:
+		resetBounds(childBounds, 0);
+		resetBounds(childBounds, 6);
+		resetBounds(childBounds, BOUNDS_SIZE);
+		resetBounds(childBounds, BOUNDS_SIZE+6);
+		for (int i=0; i<NUM_BINS; i++) {
+			if (counts[i] > 0) {
+				growBounds(childBounds, i < bestBin? 0 : BOUNDS_SIZE, bounds, i*BOUNDS_SIZE, BOUNDS_SIZE);
+			}
+		}
+		
+		// partition leaves:
+		int left = start, right = end - 1;
+		while (left <= right) {
+			int bin = (int)((centroids[left*3+axis] - cmin) * scale);
+			if (bin < bestBin) {
+				left++;
+			}
+			else {
+				swapLeaves(left, right);
+				right--;
+			}
+		}
+		return left;
+	}
+	
+	private void swapLeaves(int i, int j) {
+		float[] leafBounds = this.leafBounds;
+		for (int k=0; k<6; k++) {
+			float tmp = leafBounds[i*6+k];
+			leafBounds[i*6+k] = leafBounds[j*6+k];
+			leafBounds[j*6+k] = tmp;
+		}
+		float[] centroids = this.centroids;
+		for (int k=0; k<3; k++) {
+			float tmp = centroids[i*3+k];
+			centroids[i*3+k] = centroids[j*3+k];
+			centroids[j*3+k] = tmp;
+		}
+		int tmp = leafData[i];
+		leafData[i] = leafData[j];
+		leafData[j] = tmp;
+	}
+	
+	private static void resetBounds(float[] b, int off) {
+		b[off+0] = b[off+1] = b[off+2] = 1e30f;
+		b[off+3] = b[off+4] = b[off+5] = -1e30f;
+	}
+	
+	/**
+	 * Grows bounds (or bounds and centroid bounds when size is 12) by other ones.
+	 */
+	private static void growBounds(float[] b, int off, float[] other, int otherOff, int size) {
+		for (int j=0; j<size; j+=6) {
+			for (int k=0; k<3; k++) {
+				b[off+j+k] = Math.min(b[off+j+k], other[otherOff+j+k]);
+				b[off+j+3+k] = Math.max(b[off+j+3+k], other[otherOff+j+3+k]);
+			}
+		}
+	}
+	
+	private static float area(float[] b, int off) {
+		float dx = b[off+3] - b[off+0], dy = b[off+4] - b[off+1], dz = b[off+5] - b[off+2];
+		if (dx < 0f) {
+			return 0f;
+		}
+		return dx*dy + dy*dz + dz*dx;
+	}
+	
+	private void writeLeaf(int nodeIndex, int leaf) {
+		int p = leaf*6;
+		nodes.setQuantizedAabbMin(nodeIndex, quantize(leafBounds[p+0], leafBounds[p+1], leafBounds[p+2]));
+		nodes.setQuantizedAabbMax(nodeIndex, quantize(leafBounds[p+3], leafBounds[p+4], leafBounds[p+5]));
+		nodes.setEscapeIndexOrTriangleIndex(nodeIndex, leafData[leaf]);
+	}
+	
+	/**
+	 * Same as {@link OptimizedBvh#quantizeWithClamp}.
+	 */
+	private long quantize(float x, float y, float z) {
+		x = Math.min(Math.max(x, quantMin.x), quantMax.x);
+		y = Math.min(Math.max(y, quantMin.y), quantMax.y);
+		z = Math.min(Math.max(z, quantMin.z), quantMax.z);
+		
+		int out0 = (int)((x - quantMin.x) * quantization.x + 0.5f) & 0xFFFF;
+		int out1 = (int)((y - quantMin.y) * quantization.y + 0.5f) & 0xFFFF;
+		int out2 = (int)((z - quantMin.z) * quantization.z + 0.5f) & 0xFFFF;
+		
+		return ((long)out0) | (((long)out1) << 16) | (((long)out2) << 32);
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Per-thread scratch data.
+	 */
+	private static class Bins {
+		public final int[] counts = new int[NUM_BINS];
+		public final float[] bounds = new float[NUM_BINS*BOUNDS_SIZE];
+		public final float[] rightArea = new float[NUM_BINS];
+		public final int[] rightCount = new int[NUM_BINS];
+		public final float[] accum = new float[6];
+		private float[][] childBounds = new float[64][];
+		
+		public float[] getChildBounds(int depth) {
+			if (depth >= childBounds.length) {
+				float[][] newChildBounds = new float[childBounds.length << 1][];
+				System.arraycopy(childBounds, 0, newChildBounds, 0, childBounds.length);
+				childBounds = newChildBounds;
+			}
+			if (childBounds[depth] == null) {
+				childBounds[depth] = new float[BOUNDS_SIZE*2];
+			}
+			return childBounds[depth];
+		}
+	}
+	
+}
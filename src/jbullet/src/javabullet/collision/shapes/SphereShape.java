@@ -37,6 +37,11 @@ import javax.vecmath.Vector3f;
 public class SphereShape extends ConvexInternalShape {
 	
 	public SphereShape(float radius) {
+		init(radius);
+	}
+	
+	// JAVA NOTE: added to allow reusing of instance
+	public void init(float radius) {
 		implicitShapeDimensions.x = radius;
 	}
 
@@ -54,6 +59,8 @@ public class SphereShape extends ConvexInternalShape {
 
 	@Override
 	public void getAabb(Transform t, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f center = t.origin;
@@ -23,6 +23,7 @@
 
 package javabullet.collision.shapes;
 
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.TransformUtil;
@@ -59,6 +60,8 @@ public class StaticPlaneShape extends ConcaveShape {
 	
 	@Override
 	public void processAllTriangles(TriangleCallback callback, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -23,6 +23,7 @@
 
 package javabullet.collision.shapes;
 
+import javabullet.BulletStack;
 import javabullet.linearmath.AabbUtil2;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
@@ -52,6 +53,8 @@ public abstract class TriangleMeshShape extends ConcaveShape {
 	}
 	
 	public Vector3f localGetSupportingVertex(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -83,6 +86,8 @@ public abstract class TriangleMeshShape extends ConcaveShape {
 	}
 
 	public void recalcLocalAabb() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			for (int i = 0; i < 3; i++) {
@@ -102,6 +107,8 @@ public abstract class TriangleMeshShape extends ConcaveShape {
 
 	@Override
 	public void getAabb(Transform trans, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -197,6 +204,8 @@ public abstract class TriangleMeshShape extends ConcaveShape {
 		}
 
 		public Vector3f getSupportVertexWorldSpace() {
+			BulletStack stack = BulletStack.get();
+			
 			stack.vectors.push();
 			try {
 				Vector3f tmp = stack.vectors.get(supportVertexLocal);
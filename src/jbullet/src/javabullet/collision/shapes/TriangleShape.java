@@ -23,6 +23,7 @@
 
 package javabullet.collision.shapes;
 
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -91,6 +92,8 @@ public class TriangleShape extends PolyhedralConvexShape {
 
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f dir) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f dots = stack.vectors.get(dir.dot(vertices1[0]), dir.dot(vertices1[1]), dir.dot(vertices1[2]));
@@ -103,6 +106,8 @@ public class TriangleShape extends PolyhedralConvexShape {
 
 	@Override
 	public void batchedUnitVectorGetSupportingVertexWithoutMargin(Vector3f[] vectors, Vector3f[] supportVerticesOut, int numVectors) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f dots = stack.vectors.get();
@@ -129,6 +134,8 @@ public class TriangleShape extends PolyhedralConvexShape {
 	}
 
 	public void calcNormal(Vector3f normal) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp1 = stack.vectors.get();
@@ -158,6 +165,8 @@ public class TriangleShape extends PolyhedralConvexShape {
 	
 	@Override
 	public boolean isInside(Vector3f pt, float tolerance) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f normal = stack.vectors.get();
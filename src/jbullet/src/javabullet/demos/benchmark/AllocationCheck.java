@@ -0,0 +1,273 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javabullet.collision.broadphase.AxisSweep3;
+import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.broadphase.SimpleBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.CollisionWorld.ClosestRayResultCallback;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.BvhTriangleMeshShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.CompoundShape;
+import javabullet.collision.shapes.CylinderShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.collision.shapes.TriangleIndexVertexArray;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.ConstraintSolver;
+import javabullet.dynamics.constraintsolver.HingeConstraint;
+import javabullet.dynamics.constraintsolver.Point2PointConstraint;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.dynamics.constraintsolver.SoASequentialImpulseConstraintSolver;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless allocation regression check. A scene covering the common collision
+ * algorithms (convex-convex, sphere-sphere, compound, convex-triangle mesh) and
+ * constraints is simulated until settled and warmed up, then the number of
+ * bytes allocated by the stepping thread is measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ * Steady-state stepping is expected not to allocate at all.<p>
+ * 
+ * Pools and internal arrays grow when the number of contacts reaches new peak,
+ * therefore allocation is measured in several windows and the check passes once
+ * a window without any allocation is observed. Allocation done every step
+ * (garbage) makes all windows fail.<p>
+ * 
+ * Exits with non-zero status when allocation is detected.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.AllocationCheck [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class AllocationCheck {
+
+	private static final int WARMUP_STEPS = 600;
+	private static final int MAX_WINDOWS = 5;
+	private static final int NUM_VERTS = 20;
+	private static final float TRIANGLE_SIZE = 4f;
+	
+	private final ClosestRayResultCallback rayCallback = new ClosestRayResultCallback();
+	
+	/**
+	 * Returns lowest number of bytes allocated by current thread during given
+	 * number of steps, measured in several windows after warm-up.
+	 */
+	public long run(ConstraintSolver solver, BroadphaseInterface broadphase, int steps) {
+		DiscreteDynamicsWorld world = createWorld(solver, broadphase);
+		
+		for (int i=0; i<WARMUP_STEPS; i++) {
+			step(world);
+		}
+		
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		// JAVA NOTE: the first call of getThreadAllocatedBytes can allocate by itself
+		threadBean.getThreadAllocatedBytes(threadId);
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		long after = threadBean.getThreadAllocatedBytes(threadId);
+		long overhead = after - before;
+		
+		long minBytes = Long.MAX_VALUE;
+		for (int w=0; w<MAX_WINDOWS && minBytes > 0; w++) {
+			before = threadBean.getThreadAllocatedBytes(threadId);
+			for (int i=0; i<steps; i++) {
+				step(world);
+			}
+			after = threadBean.getThreadAllocatedBytes(threadId);
+			minBytes = Math.min(minBytes, Math.max(0, after - before - overhead));
+		}
+		return minBytes;
+	}
+	
+	private void step(DiscreteDynamicsWorld world) {
+		world.stepSimulation(1f/60f, 0);
+		
+		rayCallback.closestHitFraction = 1f;
+		rayCallback.collisionObject = null;
+		world.rayTest(rayCallback.rayFromWorld, rayCallback.rayToWorld, rayCallback);
+	}
+	
+	private DiscreteDynamicsWorld createWorld(ConstraintSolver solver, BroadphaseInterface broadphase) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		DiscreteDynamicsWorld world = new DiscreteDynamicsWorld(dispatcher, broadphase, solver, collisionConfiguration);
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		
+		// triangle mesh ground:
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), createGroundShape()));
+		
+		// static box ground under part of scene:
+		tr.origin.set(-30f, -1f, 0f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(10f, 1f, 10f))));
+		
+		CollisionShape box = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+		CollisionShape sphere = new SphereShape(0.5f);
+		CollisionShape cylinder = new CylinderShape(new Vector3f(0.5f, 0.5f, 0.5f));
+		
+		CompoundShape compound = new CompoundShape();
+		Transform localTrans = new Transform();
+		localTrans.setIdentity();
+		localTrans.origin.set(-0.5f, 0f, 0f);
+		compound.addChildShape(localTrans, box);
+		localTrans.origin.set(0.5f, 0f, 0f);
+		compound.addChildShape(localTrans, box);
+		
+		// stacks on mesh:
+		for (int x=0; x<4; x++) {
+			RigidBody prev = null;
+			for (int y=0; y<4; y++) {
+				tr.setIdentity();
+				tr.origin.set(x * 3f, 0.5f + y * 1.01f, 0f);
+				RigidBody body = addBody(world, tr, y == 0? cylinder : box);
+				if (y == 3) {
+					world.addConstraint(new Point2PointConstraint(body, prev, new Vector3f(0f, -0.5f, 0f), new Vector3f(0f, 0.5f, 0f)), false);
+				}
+				prev = body;
+			}
+		}
+		
+		// stacks on box ground:
+		for (int x=0; x<4; x++) {
+			RigidBody prev = null;
+			for (int y=0; y<3; y++) {
+				tr.setIdentity();
+				tr.origin.set(-34f + x * 3f, 0.5f + y * 1.01f, 0f);
+				RigidBody body = addBody(world, tr, box);
+				if (y == 2) {
+					world.addConstraint(new HingeConstraint(body, prev, new Vector3f(0f, -0.5f, 0f), new Vector3f(0f, 0.5f, 0f), new Vector3f(1f, 0f, 0f), new Vector3f(1f, 0f, 0f)), false);
+				}
+				prev = body;
+			}
+		}
+		
+		// touching spheres and compounds on both grounds:
+		for (int i=0; i<2; i++) {
+			float ox = i == 0? 0f : -34f;
+			tr.setIdentity();
+			tr.origin.set(ox, 0.5f, 5f);
+			addBody(world, tr, sphere);
+			tr.origin.set(ox + 1f, 0.5f, 5f);
+			addBody(world, tr, sphere);
+			tr.origin.set(ox, 0.5f, -5f);
+			addBody(world, tr, compound);
+		}
+		
+		rayCallback.rayFromWorld.set(-40f, 2.25f, 0f);
+		rayCallback.rayToWorld.set(20f, 2.25f, 0f);
+		
+		return world;
+	}
+	
+	private RigidBody addBody(DiscreteDynamicsWorld world, Transform tr, CollisionShape shape) {
+		Vector3f localInertia = new Vector3f();
+		shape.calculateLocalInertia(1f, localInertia);
+		RigidBody body = new RigidBody(1f, new DefaultMotionState(tr), shape, localInertia);
+		// keep bodies simulated, sleeping bodies would hide allocations:
+		body.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+		world.addRigidBody(body);
+		return body;
+	}
+	
+	private static CollisionShape createGroundShape() {
+		int totalTriangles = 2 * (NUM_VERTS - 1) * (NUM_VERTS - 1);
+		int totalVerts = NUM_VERTS * NUM_VERTS;
+		
+		ByteBuffer vertices = ByteBuffer.allocateDirect(totalVerts * 3 * 4).order(ByteOrder.nativeOrder());
+		for (int i=0; i<NUM_VERTS; i++) {
+			for (int j=0; j<NUM_VERTS; j++) {
+				int index = i + j * NUM_VERTS;
+				vertices.putFloat((index * 3 + 0) * 4, (i - NUM_VERTS * 0.5f) * TRIANGLE_SIZE + 6f);
+				vertices.putFloat((index * 3 + 1) * 4, 0f);
+				vertices.putFloat((index * 3 + 2) * 4, (j - NUM_VERTS * 0.5f) * TRIANGLE_SIZE);
+			}
+		}
+		
+		ByteBuffer indices = ByteBuffer.allocateDirect(totalTriangles * 3 * 4).order(ByteOrder.nativeOrder());
+		for (int i=0; i<NUM_VERTS - 1; i++) {
+			for (int j=0; j<NUM_VERTS - 1; j++) {
+				indices.putInt(j * NUM_VERTS + i);
+				indices.putInt(j * NUM_VERTS + i + 1);
+				indices.putInt((j + 1) * NUM_VERTS + i + 1);
+				
+				indices.putInt(j * NUM_VERTS + i);
+				indices.putInt((j + 1) * NUM_VERTS + i + 1);
+				indices.putInt((j + 1) * NUM_VERTS + i);
+			}
+		}
+		indices.flip();
+		
+		TriangleIndexVertexArray indexVertexArrays = new TriangleIndexVertexArray(totalTriangles, indices, 3 * 4, totalVerts, vertices, 3 * 4);
+		return new BvhTriangleMeshShape(indexVertexArrays, true);
+	}
+	
+	public static void main(String[] args) {
+		int steps = args.length > 0? Integer.parseInt(args[0]) : 1000;
+		
+		AllocationCheck check = new AllocationCheck();
+		
+		String[] solverNames = { "SequentialImpulse", "SoASequentialImpulse" };
+		String[] broadphaseNames = { "Dbvt", "AxisSweep3", "Simple" };
+		
+		boolean failed = false;
+		System.out.println("solver\tbroadphase\tbytes allocated over " + steps + " steps");
+		for (int s=0; s<solverNames.length; s++) {
+			for (int b=0; b<broadphaseNames.length; b++) {
+				ConstraintSolver solver = s == 0? new SequentialImpulseConstraintSolver() : new SoASequentialImpulseConstraintSolver();
+				BroadphaseInterface broadphase;
+				switch (b) {
+					case 0: broadphase = new DbvtBroadphase(); break;
+					case 1: broadphase = new AxisSweep3(new Vector3f(-100f, -100f, -100f), new Vector3f(100f, 100f, 100f)); break;
+					default: broadphase = new SimpleBroadphase(); break;
+				}
+				
+				long bytes = check.run(solver, broadphase, steps);
+				System.out.println(solverNames[s] + "\t" + broadphaseNames[b] + "\t" + bytes);
+				if (bytes != 0) {
+					failed = true;
+				}
+			}
+		}
+		
+		if (failed) {
+			System.out.println("FAILED: steady-state stepping allocates");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+	
+}
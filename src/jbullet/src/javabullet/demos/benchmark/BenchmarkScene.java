@@ -0,0 +1,297 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javabullet.collision.broadphase.AxisSweep3;
+import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.BvhTriangleMeshShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.CompoundShape;
+import javabullet.collision.shapes.CylinderShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.collision.shapes.TriangleIndexVertexArray;
+import javabullet.demos.genericjoint.RagDoll;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Scene used by {@link BenchmarkSuite}. Scenes are built directly against
+ * {@link DiscreteDynamicsWorld} without any rendering, so they can be run
+ * on machines without OpenGL. Dynamic bodies are kept awake, so measured
+ * steps don't depend on deactivation timing.
+ * 
+ * @author jezek2
+ */
+public abstract class BenchmarkScene {
+
+	private final String name;
+	private final int defaultSteps;
+
+	protected BenchmarkScene(String name, int defaultSteps) {
+		this.name = name;
+		this.defaultSteps = defaultSteps;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns number of measured steps used when not given on command line.
+	 */
+	public int getDefaultSteps() {
+		return defaultSteps;
+	}
+
+	/**
+	 * Creates new world containing the scene.
+	 */
+	public abstract DiscreteDynamicsWorld createWorld();
+	
+	/**
+	 * Returns all scenes, from the smallest.
+	 */
+	public static BenchmarkScene[] getScenes() {
+		return new BenchmarkScene[] {
+			new BoxStacks("boxes-125", 125, 5, 1000),
+			new BoxStacks("boxes-1k", 1000, 10, 500),
+			new BoxStacks("boxes-10k", 10000, 10, 50),
+			new BoxStacks("boxes-50k", 50000, 10, 10),
+			new RagdollCrowd("ragdoll", 1, 1000),
+			new RagdollCrowd("ragdolls-100", 100, 200),
+			new RagdollCrowd("ragdolls-400", 400, 50),
+			new TerrainDebris("terrain-debris-1k", 1000, 200),
+			new TerrainDebris("terrain-debris-5k", 5000, 50),
+		};
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	protected static DiscreteDynamicsWorld createWorld(BroadphaseInterface broadphase) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		return new DiscreteDynamicsWorld(dispatcher, broadphase, new SequentialImpulseConstraintSolver(), collisionConfiguration);
+	}
+	
+	/**
+	 * Disables deactivation of all dynamic bodies in the world.
+	 */
+	protected static void keepAwake(DiscreteDynamicsWorld world) {
+		for (CollisionObject colObj : world.getCollisionObjectArray()) {
+			if (!colObj.isStaticOrKinematicObject()) {
+				colObj.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+			}
+		}
+	}
+	
+	protected static RigidBody addBody(DiscreteDynamicsWorld world, float mass, Transform tr, CollisionShape shape) {
+		Vector3f localInertia = new Vector3f(0f, 0f, 0f);
+		if (mass != 0f) {
+			shape.calculateLocalInertia(mass, localInertia);
+		}
+		RigidBody body = new RigidBody(mass, new DefaultMotionState(tr), shape, localInertia);
+		world.addRigidBody(body);
+		return body;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Stacks of boxes of the same size as boxes shot by DemoApplication,
+	 * standing on ground box. Stacks are placed in square grid.
+	 */
+	public static class BoxStacks extends BenchmarkScene {
+		private final int numBoxes;
+		private final int stackHeight;
+
+		public BoxStacks(String name, int numBoxes, int stackHeight, int defaultSteps) {
+			super(name, defaultSteps);
+			this.numBoxes = numBoxes;
+			this.stackHeight = stackHeight;
+		}
+
+		@Override
+		public DiscreteDynamicsWorld createWorld() {
+			DiscreteDynamicsWorld world = createWorld(new DbvtBroadphase());
+			
+			int numStacks = (numBoxes + stackHeight - 1) / stackHeight;
+			int side = (int)Math.ceil(Math.sqrt(numStacks));
+			float spacing = 2.5f;
+			float size = side * spacing;
+			
+			Transform tr = new Transform();
+			tr.setIdentity();
+			tr.origin.set(0f, -10f, 0f);
+			addBody(world, 0f, tr, new BoxShape(new Vector3f(size, 10f, size)));
+			
+			CollisionShape box = new BoxShape(new Vector3f(1f, 1f, 1f));
+			for (int i=0; i<numBoxes; i++) {
+				int stack = i / stackHeight;
+				tr.setIdentity();
+				tr.origin.set(
+						(stack % side) * spacing - size * 0.5f,
+						1f + (i % stackHeight) * 2f,
+						(stack / side) * spacing - size * 0.5f);
+				addBody(world, 1f, tr, box);
+			}
+			keepAwake(world);
+			return world;
+		}
+	}
+	
+	/**
+	 * Ragdolls of GenericJointDemo, placed in square grid. With single
+	 * ragdoll the scene is the same as in the demo.
+	 */
+	public static class RagdollCrowd extends BenchmarkScene {
+		private final int numRagdolls;
+
+		public RagdollCrowd(String name, int numRagdolls, int defaultSteps) {
+			super(name, defaultSteps);
+			this.numRagdolls = numRagdolls;
+		}
+
+		@Override
+		public DiscreteDynamicsWorld createWorld() {
+			Vector3f worldAabbMin = new Vector3f(-10000f, -10000f, -10000f);
+			Vector3f worldAabbMax = new Vector3f(10000f, 10000f, 10000f);
+			DiscreteDynamicsWorld world = createWorld(new AxisSweep3(worldAabbMin, worldAabbMax));
+			world.setGravity(new Vector3f(0f, -30f, 0f));
+
+			Transform tr = new Transform();
+			tr.setIdentity();
+			tr.origin.set(0f, -15f, 0f);
+			addBody(world, 0f, tr, new BoxShape(new Vector3f(200f, 10f, 200f)));
+
+			int side = (int)Math.ceil(Math.sqrt(numRagdolls));
+			float spacing = 9f;
+			Vector3f pos = new Vector3f();
+			for (int i=0; i<numRagdolls; i++) {
+				if (numRagdolls == 1) {
+					pos.set(0f, 0f, 10f);
+				}
+				else {
+					pos.set((i % side - side * 0.5f) * spacing, (i % 3) * 2f, (i / side - side * 0.5f) * spacing);
+				}
+				new RagDoll(world, pos, 5f);
+			}
+			keepAwake(world);
+			return world;
+		}
+	}
+	
+	/**
+	 * Triangle mesh terrain with debris of mixed shapes (boxes, spheres,
+	 * cylinders and compounds) falling on it.
+	 */
+	public static class TerrainDebris extends BenchmarkScene {
+		private static final int GRID = 128;
+		private static final float CELL_SIZE = 2f;
+		
+		private final int numDebris;
+
+		public TerrainDebris(String name, int numDebris, int defaultSteps) {
+			super(name, defaultSteps);
+			this.numDebris = numDebris;
+		}
+
+		@Override
+		public DiscreteDynamicsWorld createWorld() {
+			DiscreteDynamicsWorld world = createWorld(new DbvtBroadphase());
+			
+			Transform tr = new Transform();
+			tr.setIdentity();
+			addBody(world, 0f, tr, createTerrainShape());
+			
+			CollisionShape[] shapes = new CollisionShape[4];
+			shapes[0] = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+			shapes[1] = new SphereShape(0.5f);
+			shapes[2] = new CylinderShape(new Vector3f(0.5f, 0.5f, 0.5f));
+			
+			CompoundShape compound = new CompoundShape();
+			Transform localTrans = new Transform();
+			localTrans.setIdentity();
+			localTrans.origin.set(-0.5f, 0f, 0f);
+			compound.addChildShape(localTrans, shapes[0]);
+			localTrans.origin.set(0.5f, 0f, 0f);
+			compound.addChildShape(localTrans, shapes[0]);
+			shapes[3] = compound;
+			
+			// debris is spread in layers above the terrain:
+			float size = GRID * CELL_SIZE;
+			int side = (int)Math.ceil(Math.sqrt(Math.min(numDebris, 1024)));
+			float spacing = (size - 8f) / side;
+			for (int i=0; i<numDebris; i++) {
+				int layer = i / (side * side);
+				int j = i % (side * side);
+				tr.setIdentity();
+				tr.origin.set(4f + (j % side + (layer & 1) * 0.5f) * spacing, 12f + layer * 3f, 4f + (j / side) * spacing);
+				addBody(world, 1f, tr, shapes[i & 3]);
+			}
+			keepAwake(world);
+			return world;
+		}
+		
+		private static CollisionShape createTerrainShape() {
+			int numVerts = (GRID + 1) * (GRID + 1);
+			ByteBuffer vertices = ByteBuffer.allocateDirect(numVerts*3*4).order(ByteOrder.nativeOrder());
+			for (int z=0; z<=GRID; z++) {
+				for (int x=0; x<=GRID; x++) {
+					vertices.putFloat(x * CELL_SIZE);
+					vertices.putFloat((float)(Math.sin(x*0.1f) * Math.cos(z*0.13f) * 4f));
+					vertices.putFloat(z * CELL_SIZE);
+				}
+			}
+
+			ByteBuffer indices = ByteBuffer.allocateDirect(GRID*GRID*2*3*4).order(ByteOrder.nativeOrder());
+			for (int z=0; z<GRID; z++) {
+				for (int x=0; x<GRID; x++) {
+					int i0 = z*(GRID+1) + x;
+					indices.putInt(i0);
+					indices.putInt(i0 + GRID + 1);
+					indices.putInt(i0 + 1);
+					indices.putInt(i0 + 1);
+					indices.putInt(i0 + GRID + 1);
+					indices.putInt(i0 + GRID + 2);
+				}
+			}
+			indices.flip();
+
+			TriangleIndexVertexArray mesh = new TriangleIndexVertexArray(GRID*GRID*2, indices, 3*4, numVerts, vertices, 3*4);
+			return new BvhTriangleMeshShape(mesh, true);
+		}
+	}
+	
+}
@@ -0,0 +1,233 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepStatistics;
+
+/**
+ * Headless physics benchmark suite. Runs scenes from {@link BenchmarkScene}
+ * (demo scenes and their scaled-up variants) and reports for each of them
+ * time per step, bytes allocated per step, allocation rate and time of each
+ * {@link StepPhase}.<p>
+ * 
+ * Each scene is stepped for warm-up first (by default the same number of
+ * steps as measured, at most 100). Then time, phase times and allocation of
+ * the stepping thread are measured over the given number of steps, with
+ * profiler enabled.<p>
+ * 
+ * Output of previous run can be passed as baseline, the suite then exits with
+ * non-zero status when time per step of some scene got worse by more than the
+ * tolerance or when a scene allocates more than before.<p>
+ * 
+ * Worlds can be switched to deterministic mode using <code>-deterministic</code>,
+ * see {@link DiscreteDynamicsWorld#setDeterministic}.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.BenchmarkSuite [-steps N] [-warmup N]
+ * [-deterministic] [-baseline file] [-tolerance percent] [-list] [scene...]</code>
+ * 
+ * @author jezek2
+ */
+public class BenchmarkSuite {
+
+	private static final StepPhase[] PHASES = StepPhase.values();
+	
+	/** Allowed increase of allocated bytes per step over baseline. */
+	private static final long ALLOCATION_SLACK = 64;
+	
+	private final StepStatistics stats = new StepStatistics();
+	private final long[] phaseTimes = new long[PHASES.length];
+	
+	private int steps = -1;
+	private int warmupSteps = -1;
+	private boolean deterministic;
+	
+	public long nsPerStep;
+	public long bytesPerStep;
+	public int numBodies;
+	
+	public void run(BenchmarkScene scene) {
+		int numSteps = steps > 0? steps : scene.getDefaultSteps();
+		
+		DiscreteDynamicsWorld world = scene.createWorld();
+		world.setDeterministic(deterministic);
+		numBodies = world.getNumCollisionObjects();
+		
+		int numWarmupSteps = warmupSteps >= 0? warmupSteps : Math.min(numSteps, 100);
+		for (int i=0; i<numWarmupSteps; i++) {
+			world.stepSimulation(1f/60f, 0);
+		}
+		
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		// JAVA NOTE: the first call of getThreadAllocatedBytes can allocate by itself
+		threadBean.getThreadAllocatedBytes(threadId);
+		
+		for (int i=0; i<phaseTimes.length; i++) {
+			phaseTimes[i] = 0;
+		}
+		world.getProfiler().setEnabled(true);
+		
+		long allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long timeBefore = System.nanoTime();
+		for (int i=0; i<numSteps; i++) {
+			world.stepSimulation(1f/60f, 0);
+			world.getProfiler().getLastStep(stats);
+			for (int j=0; j<PHASES.length; j++) {
+				phaseTimes[j] += stats.getPhaseTime(PHASES[j]);
+			}
+		}
+		long timeAfter = System.nanoTime();
+		long allocAfter = threadBean.getThreadAllocatedBytes(threadId);
+		
+		world.getProfiler().setEnabled(false);
+		
+		nsPerStep = (timeAfter - timeBefore) / numSteps;
+		bytesPerStep = (allocAfter - allocBefore) / numSteps;
+		
+		double mbPerSecond = nsPerStep > 0? (bytesPerStep * 1e9 / nsPerStep) / (1024 * 1024) : 0.0;
+		
+		System.out.println(String.format("%-20s %8d %6d %12d %12d %10.2f",
+				scene.getName(), numBodies, numSteps, nsPerStep, bytesPerStep, mbPerSecond));
+		for (int j=0; j<PHASES.length; j++) {
+			StringBuilder sb = new StringBuilder("    ");
+			for (int i=0; i<PHASES[j].getDepth(); i++) {
+				sb.append("  ");
+			}
+			sb.append(PHASES[j]);
+			System.out.println(String.format("%-32s %12d ns", sb, phaseTimes[j] / numSteps));
+		}
+	}
+	
+	/**
+	 * Reads scene results (time and allocation per step) from previous output.
+	 */
+	private static Map<String,long[]> readBaseline(String fileName) throws IOException {
+		Map<String,long[]> results = new HashMap<String,long[]>();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0 || Character.isWhitespace(line.charAt(0)) || line.startsWith("#")) {
+					continue;
+				}
+				String[] cols = line.trim().split("\\s+");
+				if (cols.length < 5) {
+					continue;
+				}
+				try {
+					results.put(cols[0], new long[] { Long.parseLong(cols[3]), Long.parseLong(cols[4]) });
+				}
+				catch (NumberFormatException e) {
+					// not a result line
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return results;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		BenchmarkSuite suite = new BenchmarkSuite();
+		String baselineFile = null;
+		float tolerance = 10f;
+		List<String> names = new ArrayList<String>();
+		
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-steps")) {
+				suite.steps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-warmup")) {
+				suite.warmupSteps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-deterministic")) {
+				suite.deterministic = true;
+			}
+			else if (args[i].equals("-baseline")) {
+				baselineFile = args[++i];
+			}
+			else if (args[i].equals("-tolerance")) {
+				tolerance = Float.parseFloat(args[++i]);
+			}
+			else if (args[i].equals("-list")) {
+				for (BenchmarkScene scene : BenchmarkScene.getScenes()) {
+					System.out.println(scene.getName());
+				}
+				return;
+			}
+			else {
+				names.add(args[i]);
+			}
+		}
+		
+		List<BenchmarkScene> scenes = new ArrayList<BenchmarkScene>();
+		for (BenchmarkScene scene : BenchmarkScene.getScenes()) {
+			if (names.isEmpty() || names.contains(scene.getName())) {
+				scenes.add(scene);
+			}
+		}
+		if (scenes.isEmpty()) {
+			System.err.println("no matching scene, use -list to show available scenes");
+			System.exit(2);
+		}
+		
+		Map<String,long[]> baseline = baselineFile != null? readBaseline(baselineFile) : null;
+		List<String> regressions = new ArrayList<String>();
+		
+		System.out.println(String.format("# %-18s %8s %6s %12s %12s %10s", "scene", "bodies", "steps", "ns/step", "bytes/step", "MB/s"));
+		for (BenchmarkScene scene : scenes) {
+			suite.run(scene);
+			
+			long[] base = baseline != null? baseline.get(scene.getName()) : null;
+			if (base != null) {
+				if (suite.nsPerStep > base[0] * (1f + tolerance / 100f)) {
+					regressions.add(scene.getName() + ": " + suite.nsPerStep + " ns/step, baseline " + base[0]);
+				}
+				if (suite.bytesPerStep > base[1] + ALLOCATION_SLACK) {
+					regressions.add(scene.getName() + ": " + suite.bytesPerStep + " bytes/step, baseline " + base[1]);
+				}
+			}
+		}
+		
+		if (!regressions.isEmpty()) {
+			for (String s : regressions) {
+				System.err.println("regression in " + s);
+			}
+			System.exit(1);
+		}
+	}
+	
+}
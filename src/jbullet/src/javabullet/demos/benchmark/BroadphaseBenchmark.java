@@ -0,0 +1,144 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.Random;
+import javabullet.collision.broadphase.AxisSweep3;
+import javabullet.collision.broadphase.AxisSweep3_32;
+import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.BroadphaseNativeType;
+import javabullet.collision.broadphase.BroadphaseProxy;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.broadphase.SimpleBroadphase;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of broadphase pair update cost. Boxes are scattered with
+ * constant density (the world grows with the body count) and a fraction of them
+ * moves a little every step, similar to a settled scene. Time per step of an
+ * incremental broadphase should grow roughly linearly with the body count.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.BroadphaseBenchmark [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class BroadphaseBenchmark {
+
+	private static final int[] BODY_COUNTS = { 1000, 2000, 4000, 8000, 16000, 32000 };
+	private static final int SIMPLE_BROADPHASE_LIMIT = 4000;
+	private static final float MOVING_FRACTION = 0.2f;
+	
+	private final Random rand = new Random(1234);
+	
+	private float[] boxes;
+	private float worldSize;
+	private BroadphaseProxy[] proxies;
+	
+	private final Vector3f aabbMin = new Vector3f();
+	private final Vector3f aabbMax = new Vector3f();
+	
+	public long run(BroadphaseInterface broadphase, int numBodies, int steps) {
+		initBoxes(numBodies);
+		
+		proxies = new BroadphaseProxy[numBodies];
+		for (int i=0; i<numBodies; i++) {
+			getAabb(i);
+			proxies[i] = broadphase.createProxy(aabbMin, aabbMax, BroadphaseNativeType.BOX_SHAPE_PROXYTYPE, null, (short)1, (short)1, null);
+		}
+		
+		// warm up:
+		for (int i=0; i<steps; i++) {
+			step(broadphase);
+		}
+		
+		long t0 = System.nanoTime();
+		for (int i=0; i<steps; i++) {
+			step(broadphase);
+		}
+		return (System.nanoTime() - t0) / steps;
+	}
+	
+	private void step(BroadphaseInterface broadphase) {
+		int numBodies = proxies.length;
+		int numMoving = (int)(numBodies * MOVING_FRACTION);
+		for (int i=0; i<numMoving; i++) {
+			int idx = rand.nextInt(numBodies);
+			for (int j=0; j<3; j++) {
+				boxes[idx*3+j] += (rand.nextFloat() - 0.5f) * 0.2f;
+			}
+			getAabb(idx);
+			broadphase.setAabb(proxies[idx], aabbMin, aabbMax, null);
+		}
+		broadphase.calculateOverlappingPairs(null);
+	}
+	
+	private void initBoxes(int numBodies) {
+		// keep constant density of roughly one box per 8 cubic units
+		worldSize = (float)Math.cbrt(numBodies * 8f);
+		boxes = new float[numBodies*3];
+		for (int i=0; i<boxes.length; i++) {
+			boxes[i] = rand.nextFloat() * worldSize;
+		}
+	}
+	
+	private void getAabb(int idx) {
+		aabbMin.set(boxes[idx*3+0] - 1f, boxes[idx*3+1] - 1f, boxes[idx*3+2] - 1f);
+		aabbMax.set(boxes[idx*3+0] + 1f, boxes[idx*3+1] + 1f, boxes[idx*3+2] + 1f);
+	}
+	
+	public static void main(String[] args) {
+		int steps = args.length > 0? Integer.parseInt(args[0]) : 100;
+		
+		BroadphaseBenchmark bench = new BroadphaseBenchmark();
+		Vector3f worldMin = new Vector3f(-100f, -100f, -100f);
+		Vector3f worldMax = new Vector3f(200f, 200f, 200f);
+		
+		System.out.println("bodies\tAxisSweep3\tAxisSweep3_32\tDbvtBroadphase\tSimpleBroadphase (us/step)");
+		for (int numBodies : BODY_COUNTS) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(numBodies);
+			
+			if (numBodies < 16384) {
+				sb.append('\t').append(bench.run(new AxisSweep3(worldMin, worldMax, numBodies+1), numBodies, steps) / 1000);
+			}
+			else {
+				sb.append("\t-");
+			}
+			
+			sb.append('\t').append(bench.run(new AxisSweep3_32(worldMin, worldMax, numBodies+1), numBodies, steps) / 1000);
+			sb.append('\t').append(bench.run(new DbvtBroadphase(), numBodies, steps) / 1000);
+			
+			if (numBodies <= SIMPLE_BROADPHASE_LIMIT) {
+				sb.append('\t').append(bench.run(new SimpleBroadphase(), numBodies, Math.max(1, steps/10)) / 1000);
+			}
+			else {
+				sb.append("\t-");
+			}
+			
+			System.out.println(sb);
+		}
+	}
+	
+}
@@ -0,0 +1,221 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javabullet.collision.shapes.NodeOverlapCallback;
+import javabullet.collision.shapes.OptimizedBvh;
+import javabullet.collision.shapes.TriangleIndexVertexArray;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of {@link OptimizedBvh} construction and query cost.
+ * Compares the original median split builder ({@link OptimizedBvh#build}) with
+ * binned SAH builder ({@link OptimizedBvh#buildParallel}) running on one and on
+ * all available threads. The mesh is terrain with uneven tessellation (dense
+ * in one corner) with small clutter triangles scattered over it.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.BvhBuildBenchmark [maxTriangles] [threads]</code>
+ * 
+ * @author jezek2
+ */
+public class BvhBuildBenchmark {
+
+	private static final int[] TRIANGLE_COUNTS = { 10000, 100000, 1000000, 5000000 };
+	private static final int NUM_QUERIES = 20000;
+	
+	private TriangleIndexVertexArray mesh;
+	private final Vector3f meshMin = new Vector3f();
+	private final Vector3f meshMax = new Vector3f();
+	private float size;
+	
+	private final CountingCallback counter = new CountingCallback();
+	
+	public void createMesh(int numTriangles) {
+		Random rand = new Random(1234);
+		
+		// 80% terrain, 20% clutter:
+		int grid = (int)Math.sqrt(numTriangles * 0.8f / 2f);
+		int numClutter = numTriangles - grid*grid*2;
+		size = grid;
+		
+		int numVerts = (grid+1)*(grid+1) + numClutter*3;
+		ByteBuffer vertices = ByteBuffer.allocateDirect(numVerts*3*4).order(ByteOrder.nativeOrder());
+		for (int z=0; z<=grid; z++) {
+			for (int x=0; x<=grid; x++) {
+				// uneven spacing, dense near origin:
+				float fx = (float)x / grid, fz = (float)z / grid;
+				float px = fx * fx * size;
+				float pz = fz * fz * size;
+				vertices.putFloat(px);
+				vertices.putFloat((float)(Math.sin(px*0.05f) * Math.cos(pz*0.07f) * 8f));
+				vertices.putFloat(pz);
+			}
+		}
+		for (int i=0; i<numClutter; i++) {
+			float cx = rand.nextFloat() * size, cy = rand.nextFloat() * 10f, cz = rand.nextFloat() * size;
+			for (int j=0; j<3; j++) {
+				vertices.putFloat(cx + rand.nextFloat() - 0.5f);
+				vertices.putFloat(cy + rand.nextFloat() - 0.5f);
+				vertices.putFloat(cz + rand.nextFloat() - 0.5f);
+			}
+		}
+		
+		ByteBuffer indices = ByteBuffer.allocateDirect(numTriangles*3*4).order(ByteOrder.nativeOrder());
+		for (int z=0; z<grid; z++) {
+			for (int x=0; x<grid; x++) {
+				int i0 = z*(grid+1) + x;
+				indices.putInt(i0);
+				indices.putInt(i0 + grid + 1);
+				indices.putInt(i0 + 1);
+				indices.putInt(i0 + 1);
+				indices.putInt(i0 + grid + 1);
+				indices.putInt(i0 + grid + 2);
+			}
+		}
+		int base = (grid+1)*(grid+1);
+		for (int i=0; i<numClutter*3; i++) {
+			indices.putInt(base + i);
+		}
+		
+		mesh = new TriangleIndexVertexArray(numTriangles, indices, 3*4, numVerts, vertices, 3*4);
+		mesh.calculateAabbBruteForce(meshMin, meshMax);
+	}
+	
+	public OptimizedBvh build(boolean sah, ExecutorService executor, int numTasks, long[] timeOut) {
+		OptimizedBvh bvh = new OptimizedBvh();
+		long t0 = System.nanoTime();
+		if (sah) {
+			bvh.buildParallel(mesh, meshMin, meshMax, executor, numTasks);
+		}
+		else {
+			bvh.build(mesh, true, meshMin, meshMax);
+		}
+		timeOut[0] = System.nanoTime() - t0;
+		return bvh;
+	}
+	
+	/**
+	 * Returns average time of AABB query in ns, number of reported triangles
+	 * is stored in counter.
+	 */
+	public long queryAabbs(OptimizedBvh bvh) {
+		Random rand = new Random(5678);
+		Vector3f aabbMin = new Vector3f(), aabbMax = new Vector3f();
+		counter.count = 0;
+		
+		long t0 = System.nanoTime();
+		for (int i=0; i<NUM_QUERIES; i++) {
+			aabbMin.set(rand.nextFloat() * size, rand.nextFloat() * 10f - 5f, rand.nextFloat() * size);
+			aabbMax.set(aabbMin.x + rand.nextFloat() * 4f, aabbMin.y + rand.nextFloat() * 4f, aabbMin.z + rand.nextFloat() * 4f);
+			bvh.reportAabbOverlappingNodex(counter, aabbMin, aabbMax);
+		}
+		return (System.nanoTime() - t0) / NUM_QUERIES;
+	}
+	
+	/**
+	 * Returns average time of ray query in ns.
+	 */
+	public long queryRays(OptimizedBvh bvh) {
+		Random rand = new Random(9012);
+		Vector3f from = new Vector3f(), to = new Vector3f();
+		counter.count = 0;
+		
+		long t0 = System.nanoTime();
+		for (int i=0; i<NUM_QUERIES; i++) {
+			from.set(rand.nextFloat() * size, 20f, rand.nextFloat() * size);
+			to.set(from.x + rand.nextFloat() * 10f - 5f, -20f, from.z + rand.nextFloat() * 10f - 5f);
+			bvh.reportRayOverlappingNodex(counter, from, to);
+		}
+		return (System.nanoTime() - t0) / NUM_QUERIES;
+	}
+	
+	private String measure(OptimizedBvh bvh, long buildTime) {
+		// warm up:
+		queryAabbs(bvh);
+		queryRays(bvh);
+		
+		long aabbTime = queryAabbs(bvh);
+		long aabbCount = counter.count;
+		long rayTime = queryRays(bvh);
+		long rayCount = counter.count;
+		return (buildTime / 1000000) + "\t" + aabbTime + "\t" + rayTime + "\t" + aabbCount + "/" + rayCount;
+	}
+	
+	public static void main(String[] args) {
+		int maxTriangles = args.length > 0? Integer.parseInt(args[0]) : 5000000;
+		int numThreads = args.length > 1? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			BvhBuildBenchmark bench = new BvhBuildBenchmark();
+			long[] time = new long[1];
+			
+			System.out.println("triangles\tbuilder\tbuild (ms)\taabb query (ns)\tray query (ns)\treported triangles");
+			for (int numTriangles : TRIANGLE_COUNTS) {
+				if (numTriangles > maxTriangles) {
+					break;
+				}
+				
+				bench.createMesh(numTriangles);
+				
+				// warm up builders on small mesh portion is not possible, so build twice for small meshes:
+				if (numTriangles <= 100000) {
+					bench.build(false, null, 1, time);
+					bench.build(true, executor, numThreads, time);
+				}
+				
+				OptimizedBvh bvh = bench.build(false, null, 1, time);
+				System.out.println(numTriangles + "\tmedian\t" + bench.measure(bvh, time[0]));
+				bvh = null;
+				
+				bvh = bench.build(true, null, 1, time);
+				System.out.println(numTriangles + "\tSAH x1\t" + bench.measure(bvh, time[0]));
+				bvh = null;
+				
+				bvh = bench.build(true, executor, numThreads, time);
+				System.out.println(numTriangles + "\tSAH x" + numThreads + "\t" + bench.measure(bvh, time[0]));
+				bvh = null;
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class CountingCallback implements NodeOverlapCallback {
+		public long count;
+		
+		public void processNode(int subPart, int triangleIndex) {
+			count++;
+		}
+	}
+	
+}
@@ -0,0 +1,216 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import javabullet.collision.shapes.BvhTriangleMeshShape;
+import javabullet.collision.shapes.NodeOverlapCallback;
+import javabullet.collision.shapes.TriangleIndexVertexArray;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark and check of incremental refit of deformed
+ * {@link BvhTriangleMeshShape}. Craters are repeatedly made in a terrain,
+ * time of dirty region refit is compared with full refit and queries of
+ * the refitted tree are compared with freshly built one.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.BvhRefitBenchmark [gridSize] [numCraters]</code>
+ * 
+ * @author jezek2
+ */
+public class BvhRefitBenchmark {
+
+	private static final int CRATER_RADIUS = 6;
+	private static final int NUM_QUERIES = 2000;
+	
+	private int grid;
+	private ByteBuffer vertices;
+	private TriangleIndexVertexArray mesh;
+	private final Vector3f bvhMin = new Vector3f();
+	private final Vector3f bvhMax = new Vector3f();
+	
+	public void createMesh(int grid) {
+		this.grid = grid;
+		
+		int numVerts = (grid+1)*(grid+1);
+		vertices = ByteBuffer.allocateDirect(numVerts*3*4).order(ByteOrder.nativeOrder());
+		for (int z=0; z<=grid; z++) {
+			for (int x=0; x<=grid; x++) {
+				vertices.putFloat(x);
+				vertices.putFloat((float)(Math.sin(x*0.05f) * Math.cos(z*0.07f) * 8f));
+				vertices.putFloat(z);
+			}
+		}
+		
+		ByteBuffer indices = ByteBuffer.allocateDirect(grid*grid*2*3*4).order(ByteOrder.nativeOrder());
+		for (int z=0; z<grid; z++) {
+			for (int x=0; x<grid; x++) {
+				int i0 = z*(grid+1) + x;
+				indices.putInt(i0);
+				indices.putInt(i0 + grid + 1);
+				indices.putInt(i0 + 1);
+				indices.putInt(i0 + 1);
+				indices.putInt(i0 + grid + 1);
+				indices.putInt(i0 + grid + 2);
+			}
+		}
+		
+		mesh = new TriangleIndexVertexArray(grid*grid*2, indices, 3*4, numVerts, vertices, 3*4);
+		
+		// leave room for craters in quantization AABB:
+		mesh.calculateAabbBruteForce(bvhMin, bvhMax);
+		bvhMin.y -= 100f;
+	}
+	
+	/**
+	 * Lowers vertices around given point and marks them dirty, either by
+	 * vertex ranges (one per row) or by triangle ranges.
+	 */
+	public void makeCrater(BvhTriangleMeshShape shape, int cx, int cz, float depth, boolean byTriangles) {
+		int x0 = Math.max(cx - CRATER_RADIUS, 0), x1 = Math.min(cx + CRATER_RADIUS, grid);
+		int z0 = Math.max(cz - CRATER_RADIUS, 0), z1 = Math.min(cz + CRATER_RADIUS, grid);
+		for (int z=z0; z<=z1; z++) {
+			for (int x=x0; x<=x1; x++) {
+				float d = (float)Math.sqrt((x-cx)*(x-cx) + (z-cz)*(z-cz)) / CRATER_RADIUS;
+				if (d < 1f) {
+					int index = (z*(grid+1) + x)*3*4 + 4;
+					vertices.putFloat(index, vertices.getFloat(index) - depth * (1f - d*d));
+				}
+			}
+			
+			if (shape != null) {
+				if (byTriangles) {
+					// triangles of cells touching the row:
+					for (int row=Math.max(z-1, 0); row<=Math.min(z, grid-1); row++) {
+						int first = (row*grid + Math.max(x0-1, 0))*2;
+						int end = (row*grid + Math.min(x1, grid-1) + 1)*2;
+						shape.markTrianglesDirty(0, first, end - first);
+					}
+				}
+				else {
+					int first = z*(grid+1) + x0;
+					shape.markVerticesDirty(0, first, x1 - x0 + 1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns hash of reported triangles of random queries.
+	 */
+	public long query(BvhTriangleMeshShape shape, long[] countOut) {
+		Random rand = new Random(5678);
+		Vector3f aabbMin = new Vector3f(), aabbMax = new Vector3f();
+		HashingCallback callback = new HashingCallback();
+		
+		for (int i=0; i<NUM_QUERIES; i++) {
+			aabbMin.set(rand.nextFloat() * grid, rand.nextFloat() * 30f - 25f, rand.nextFloat() * grid);
+			aabbMax.set(aabbMin.x + rand.nextFloat() * 20f, aabbMin.y + rand.nextFloat() * 4f, aabbMin.z + rand.nextFloat() * 20f);
+			shape.getOptimizedBvh().reportAabbOverlappingNodex(callback, aabbMin, aabbMax);
+		}
+		countOut[0] = callback.count;
+		return callback.hash;
+	}
+	
+	public static void main(String[] args) {
+		int grid = args.length > 0? Integer.parseInt(args[0]) : 1000;
+		int numCraters = args.length > 1? Integer.parseInt(args[1]) : 200;
+		
+		BvhRefitBenchmark bench = new BvhRefitBenchmark();
+		bench.createMesh(grid);
+		BvhTriangleMeshShape shape = new BvhTriangleMeshShape(bench.mesh, true, bench.bvhMin, bench.bvhMax);
+		System.out.println("triangles: " + grid*grid*2);
+		
+		Random rand = new Random(1234);
+		
+		// first refit creates lookup tables:
+		long t0 = System.nanoTime();
+		bench.makeCrater(shape, grid/4, grid/4, 0.4f, true);
+		bench.makeCrater(shape, grid/4, grid/4, 0.4f, false);
+		shape.refitDirtyTriangles();
+		System.out.println("first refit (with lookup tables): " + ((System.nanoTime() - t0) / 1000) + " us");
+		
+		long incrementalTime = 0;
+		for (int i=0; i<numCraters; i++) {
+			bench.makeCrater(shape, rand.nextInt(grid), rand.nextInt(grid), 0.4f, (i & 1) != 0);
+			t0 = System.nanoTime();
+			shape.refitDirtyTriangles();
+			incrementalTime += System.nanoTime() - t0;
+		}
+		System.out.println("incremental refit: " + (incrementalTime / numCraters / 1000) + " us per crater");
+		
+		int numFull = Math.max(numCraters / 20, 1);
+		long fullTime = 0;
+		for (int i=0; i<numFull; i++) {
+			t0 = System.nanoTime();
+			shape.getOptimizedBvh().refit(bench.mesh);
+			fullTime += System.nanoTime() - t0;
+		}
+		System.out.println("full refit: " + (fullTime / numFull / 1000) + " us");
+		
+		// compare with fresh tree (same quantization):
+		BvhTriangleMeshShape incremental = new BvhTriangleMeshShape(bench.mesh, true, bench.bvhMin, bench.bvhMax);
+		rand = new Random(4321);
+		for (int i=0; i<20; i++) {
+			bench.makeCrater(incremental, rand.nextInt(grid), rand.nextInt(grid), 0.4f, (i & 1) != 0);
+		}
+		incremental.refitDirtyTriangles();
+		BvhTriangleMeshShape fresh = new BvhTriangleMeshShape(bench.mesh, true, bench.bvhMin, bench.bvhMax);
+		
+		long[] count1 = new long[1], count2 = new long[1];
+		long hash1 = bench.query(incremental, count1);
+		long hash2 = bench.query(fresh, count2);
+		System.out.println("reported triangles: " + count1[0] + " (incremental), " + count2[0] + " (fresh)");
+		
+		// crater deeper than quantization AABB must fall back to full refit:
+		bench.makeCrater(incremental, grid/2, grid/2, 200f, false);
+		incremental.refitDirtyTriangles();
+		Vector3f min = new Vector3f(), max = new Vector3f();
+		bench.mesh.calculateAabbBruteForce(min, max);
+		long[] count3 = new long[1];
+		Vector3f qmin = new Vector3f(grid/2 - 1, min.y - 1f, grid/2 - 1), qmax = new Vector3f(grid/2 + 1, min.y + 1f, grid/2 + 1);
+		HashingCallback deep = new HashingCallback();
+		incremental.getOptimizedBvh().reportAabbOverlappingNodex(deep, qmin, qmax);
+		count3[0] = deep.count;
+		System.out.println("triangles at crater bottom after fallback: " + count3[0]);
+		
+		boolean ok = hash1 == hash2 && count1[0] == count2[0] && count3[0] > 0;
+		System.out.println(ok? "OK" : "FAILED");
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class HashingCallback implements NodeOverlapCallback {
+		public long count;
+		public long hash;
+		
+		public void processNode(int subPart, int triangleIndex) {
+			count++;
+			hash += (triangleIndex + 1) * 0x9E3779B97F4A7C15L;
+		}
+	}
+	
+}
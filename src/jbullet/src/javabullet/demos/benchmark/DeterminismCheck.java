@@ -0,0 +1,355 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javax.vecmath.Vector3f;
+
+/**
+ * Record/replay harness for deterministic mode. A scene from {@link BenchmarkScene}
+ * is simulated with scripted inputs (impulses applied to random bodies) and hash
+ * of world state is recorded after every step. The inputs are then replayed in
+ * freshly created worlds and the hashes are compared, first step with different
+ * hash is reported as divergence.<p>
+ * 
+ * Without arguments it records and replays in the same JVM, serially, with
+ * parallel island solving and with parallel collision dispatch (including compound
+ * pairs, which release child manifolds during dispatch). Rollback is checked by
+ * capturing world snapshot every few steps, simulating, restoring the snapshot and
+ * simulating the same steps again, while contacts are being made and broken.
+ * Parallel island solving is also compared with serial solving without deterministic
+ * mode. Exits with non-zero status on divergence.
+ * For checking across JVMs or platforms, record into file on one machine with
+ * <code>-record</code> and replay the file on another with <code>-replay</code>.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.DeterminismCheck [-steps N]
+ * [-record file | -replay file] [scene...]</code>
+ * 
+ * @author jezek2
+ */
+public class DeterminismCheck {
+
+	private static final int MAGIC = 0x4A424452; // "JBDR"
+	private static final int INPUT_INTERVAL = 10;
+	private static final int INPUTS_PER_INTERVAL = 4;
+	// not multiple of input interval, so rollbacks cross inputs at varying offsets:
+	private static final int ROLLBACK_DISTANCE = 7;
+	
+	/**
+	 * Recorded inputs and state hashes of one scene.
+	 */
+	public static class Recording {
+		public String sceneName;
+		public int steps;
+		// inputs, applied before the step:
+		public final List<Input> inputs = new ArrayList<Input>();
+		// hash of world state after each step:
+		public long[] hashes;
+	}
+	
+	public static class Input {
+		public int step;
+		public int bodyIndex;
+		public final Vector3f impulse = new Vector3f();
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static Recording record(BenchmarkScene scene, int steps) {
+		return record(scene, steps, true);
+	}
+	
+	public static Recording record(BenchmarkScene scene, int steps, boolean deterministic) {
+		DiscreteDynamicsWorld world = scene.createWorld();
+		world.setDeterministic(deterministic);
+		
+		List<Integer> dynamicBodies = new ArrayList<Integer>();
+		List<CollisionObject> objects = world.getCollisionObjectArray();
+		for (int i=0; i<objects.size(); i++) {
+			if (!objects.get(i).isStaticOrKinematicObject()) {
+				dynamicBodies.add(i);
+			}
+		}
+		
+		// inputs are generated by own generator, so they're the same on every JVM:
+		long seed = 12345L;
+		
+		Recording rec = new Recording();
+		rec.sceneName = scene.getName();
+		rec.steps = steps;
+		rec.hashes = new long[steps];
+		for (int step=0; step<steps; step++) {
+			if (step % INPUT_INTERVAL == 0 && !dynamicBodies.isEmpty()) {
+				for (int i=0; i<INPUTS_PER_INTERVAL; i++) {
+					Input input = new Input();
+					input.step = step;
+					seed = nextSeed(seed);
+					input.bodyIndex = dynamicBodies.get((int)((seed >>> 33) % dynamicBodies.size()));
+					seed = nextSeed(seed);
+					input.impulse.x = ((seed >>> 40) % 2001 - 1000) * 0.01f;
+					seed = nextSeed(seed);
+					input.impulse.y = ((seed >>> 40) % 1001) * 0.02f;
+					seed = nextSeed(seed);
+					input.impulse.z = ((seed >>> 40) % 2001 - 1000) * 0.01f;
+					rec.inputs.add(input);
+				}
+			}
+			rec.hashes[step] = step(world, rec, step);
+		}
+		return rec;
+	}
+	
+	/**
+	 * Replays recording in new world and returns first step with different
+	 * hash, or -1 when all steps match.
+	 */
+	public static int replay(BenchmarkScene scene, Recording rec, boolean deterministic, ExecutorService executor, int islandTasks, int dispatchTasks) {
+		DiscreteDynamicsWorld world = scene.createWorld();
+		world.setDeterministic(deterministic);
+		if (executor != null && islandTasks > 1) {
+			world.setIslandExecutor(executor, islandTasks);
+		}
+		if (executor != null && dispatchTasks > 1) {
+			((CollisionDispatcher)world.getDispatcher()).setDispatchExecutor(executor, dispatchTasks);
+		}
+		
+		for (int step=0; step<rec.steps; step++) {
+			if (step(world, rec, step) != rec.hashes[step]) {
+				return step;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Replays recording in new world, rolling back to snapshot captured every
+	 * {@link #ROLLBACK_DISTANCE} steps and simulating the steps again. Returns
+	 * first step with different hash (either before or after rollback), or -1
+	 * when all steps match.
+	 */
+	public static int replayWithRollback(BenchmarkScene scene, Recording rec) {
+		DiscreteDynamicsWorld world = scene.createWorld();
+		world.setDeterministic(true);
+		
+		ByteBuffer snapshot = null;
+		for (int start=0; start<rec.steps; start+=ROLLBACK_DISTANCE) {
+			int size = world.getSnapshotSize();
+			if (snapshot == null || snapshot.capacity() < size) {
+				snapshot = ByteBuffer.allocateDirect(size * 2);
+			}
+			snapshot.clear();
+			world.captureSnapshot(snapshot);
+			
+			int end = Math.min(start + ROLLBACK_DISTANCE, rec.steps);
+			for (int pass=0; pass<2; pass++) {
+				if (pass == 1) {
+					snapshot.flip();
+					world.restoreSnapshot(snapshot);
+				}
+				for (int step=start; step<end; step++) {
+					if (step(world, rec, step) != rec.hashes[step]) {
+						return step;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+	
+	private static long step(DiscreteDynamicsWorld world, Recording rec, int step) {
+		// inputs are sorted by step:
+		for (int i=0; i<rec.inputs.size(); i++) {
+			Input input = rec.inputs.get(i);
+			if (input.step == step) {
+				RigidBody body = RigidBody.upcast(world.getCollisionObjectArray().get(input.bodyIndex));
+				body.activate();
+				body.applyCentralImpulse(input.impulse);
+			}
+		}
+		world.stepSimulation(1f/60f, 0);
+		return world.computeStateHash();
+	}
+	
+	private static long nextSeed(long seed) {
+		return seed * 0x5DEECE66DL + 0xBL;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static void write(Recording rec, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeUTF(rec.sceneName);
+		out.writeInt(rec.steps);
+		out.writeInt(rec.inputs.size());
+		for (Input input : rec.inputs) {
+			out.writeInt(input.step);
+			out.writeInt(input.bodyIndex);
+			out.writeFloat(input.impulse.x);
+			out.writeFloat(input.impulse.y);
+			out.writeFloat(input.impulse.z);
+		}
+		for (int i=0; i<rec.steps; i++) {
+			out.writeLong(rec.hashes[i]);
+		}
+	}
+	
+	public static Recording read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a recording");
+		}
+		Recording rec = new Recording();
+		rec.sceneName = in.readUTF();
+		rec.steps = in.readInt();
+		int numInputs = in.readInt();
+		for (int i=0; i<numInputs; i++) {
+			Input input = new Input();
+			input.step = in.readInt();
+			input.bodyIndex = in.readInt();
+			input.impulse.x = in.readFloat();
+			input.impulse.y = in.readFloat();
+			input.impulse.z = in.readFloat();
+			rec.inputs.add(input);
+		}
+		rec.hashes = new long[rec.steps];
+		for (int i=0; i<rec.steps; i++) {
+			rec.hashes[i] = in.readLong();
+		}
+		return rec;
+	}
+	
+	private static BenchmarkScene findScene(String name) {
+		for (BenchmarkScene scene : BenchmarkScene.getScenes()) {
+			if (scene.getName().equals(name)) {
+				return scene;
+			}
+		}
+		throw new IllegalArgumentException("unknown scene " + name);
+	}
+	
+	private static String result(int divergence) {
+		return divergence < 0? "identical" : "diverged at step " + divergence;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		// compound children of terrain debris start to separate after ~250 steps
+		int steps = 300;
+		String recordFile = null;
+		String replayFile = null;
+		List<String> names = new ArrayList<String>();
+		
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-record")) {
+				recordFile = args[++i];
+			}
+			else if (args[i].equals("-replay")) {
+				replayFile = args[++i];
+			}
+			else {
+				names.add(args[i]);
+			}
+		}
+		if (names.isEmpty()) {
+			names.add("ragdolls-100");
+			names.add("terrain-debris-1k");
+		}
+		
+		boolean failed = false;
+		
+		if (replayFile != null) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(replayFile)));
+			try {
+				while (in.available() > 0) {
+					Recording rec = read(in);
+					int divergence = replay(findScene(rec.sceneName), rec, true, null, 1, 1);
+					System.out.println(rec.sceneName + ": " + result(divergence));
+					failed |= divergence >= 0;
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		else if (recordFile != null) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordFile)));
+			try {
+				for (String name : names) {
+					Recording rec = record(findScene(name), steps);
+					write(rec, out);
+					System.out.println(name + ": recorded " + steps + " steps, final hash " + Long.toHexString(rec.hashes[steps - 1]));
+				}
+			}
+			finally {
+				out.close();
+			}
+		}
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool(3);
+			try {
+				for (String name : names) {
+					BenchmarkScene scene = findScene(name);
+					Recording rec = record(scene, steps);
+					
+					int serial = replay(scene, rec, true, null, 1, 1);
+					int parallel = replay(scene, rec, true, executor, 4, 1);
+					int parallelDispatch = replay(scene, rec, true, executor, 1, 4);
+					int rollback = replayWithRollback(scene, rec);
+					// without deterministic mode parallel islands must still match serial solving in same JVM:
+					Recording nonDeterministicRec = record(scene, steps, false);
+					int nonDeterministic = replay(scene, nonDeterministicRec, false, executor, 4, 1);
+					
+					System.out.println(name + ": serial replay " + result(serial) + ", parallel islands " + result(parallel)
+							+ ", parallel dispatch " + result(parallelDispatch) + ", rollback " + result(rollback)
+							+ ", parallel islands without deterministic mode " + result(nonDeterministic));
+					failed |= serial >= 0 || parallel >= 0 || parallelDispatch >= 0 || rollback >= 0 || nonDeterministic >= 0;
+				}
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+		
+		if (failed) {
+			System.exit(1);
+		}
+	}
+	
+}
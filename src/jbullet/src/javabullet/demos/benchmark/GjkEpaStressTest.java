@@ -0,0 +1,202 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import javabullet.collision.narrowphase.GjkEpaPenetrationDepthSolver;
+import javabullet.collision.narrowphase.VoronoiSimplexSolver;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CapsuleShape;
+import javabullet.collision.shapes.ConvexHullShape;
+import javabullet.collision.shapes.ConvexShape;
+import javabullet.collision.shapes.CylinderShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.linearmath.QuaternionUtil;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Quat4f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless concurrent stress test of {@link GjkEpaPenetrationDepthSolver}.
+ * Penetration queries between random overlapping convex shapes are computed
+ * serially first, then the same queries are run from multiple threads at once
+ * (each thread in different order) and results must be bit-identical. Also
+ * checks that the queries don't allocate once warmed up.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.GjkEpaStressTest [threads] [rounds]</code>
+ * 
+ * @author jezek2
+ */
+public class GjkEpaStressTest {
+
+	private static final int NUM_QUERIES = 2000;
+	private static final long TIMEOUT = 10L * 60L * 1000L;
+	
+	private final ConvexShape[] shapesA = new ConvexShape[NUM_QUERIES];
+	private final ConvexShape[] shapesB = new ConvexShape[NUM_QUERIES];
+	private final Transform[] transA = new Transform[NUM_QUERIES];
+	private final Transform[] transB = new Transform[NUM_QUERIES];
+	
+	private final int[] expected = new int[NUM_QUERIES * 7];
+	
+	private final GjkEpaPenetrationDepthSolver pdSolver = new GjkEpaPenetrationDepthSolver();
+	
+	public void createQueries(long seed) {
+		Random rnd = new Random(seed);
+		
+		List<Vector3f> points = new ArrayList<Vector3f>();
+		for (int i=0; i<40; i++) {
+			points.add(new Vector3f(rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f));
+		}
+		
+		ConvexShape[] shapes = new ConvexShape[] {
+			new BoxShape(new Vector3f(0.5f, 0.3f, 0.7f)),
+			new SphereShape(0.5f),
+			new CylinderShape(new Vector3f(0.4f, 0.6f, 0.4f)),
+			new CapsuleShape(0.3f, 0.8f),
+			new ConvexHullShape(points),
+		};
+		
+		Vector3f axis = new Vector3f();
+		Quat4f rot = new Quat4f();
+		for (int i=0; i<NUM_QUERIES; i++) {
+			shapesA[i] = shapes[rnd.nextInt(shapes.length)];
+			shapesB[i] = shapes[rnd.nextInt(shapes.length)];
+			
+			transA[i] = new Transform();
+			transB[i] = new Transform();
+			for (Transform tr : new Transform[] { transA[i], transB[i] }) {
+				axis.set(rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f);
+				axis.normalize();
+				QuaternionUtil.setRotation(rot, axis, rnd.nextFloat() * 6.28f);
+				tr.setRotation(rot);
+			}
+			// close enough to overlap in most cases:
+			transB[i].origin.set(rnd.nextFloat() * 0.8f - 0.4f, rnd.nextFloat() * 0.8f - 0.4f, rnd.nextFloat() * 0.8f - 0.4f);
+		}
+	}
+	
+	/**
+	 * Runs all queries starting from given one, stores bits of results into output.
+	 */
+	public void runQueries(int start, VoronoiSimplexSolver simplexSolver, Vector3f v, Vector3f wA, Vector3f wB, int[] out) {
+		for (int n=0; n<NUM_QUERIES; n++) {
+			int i = (start + n) % NUM_QUERIES;
+			v.set(0f, 0f, 0f);
+			wA.set(0f, 0f, 0f);
+			wB.set(0f, 0f, 0f);
+			boolean hit = pdSolver.calcPenDepth(simplexSolver, shapesA[i], shapesB[i], transA[i], transB[i], v, wA, wB, null);
+			
+			out[i*7+0] = hit? 1 : 0;
+			out[i*7+1] = Float.floatToIntBits(wA.x);
+			out[i*7+2] = Float.floatToIntBits(wA.y);
+			out[i*7+3] = Float.floatToIntBits(wA.z);
+			out[i*7+4] = Float.floatToIntBits(wB.x);
+			out[i*7+5] = Float.floatToIntBits(wB.y);
+			out[i*7+6] = Float.floatToIntBits(wB.z);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int numThreads = args.length > 0? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+		final int rounds = args.length > 1? Integer.parseInt(args[1]) : 20;
+		
+		final GjkEpaStressTest test = new GjkEpaStressTest();
+		test.createQueries(1234L);
+		
+		// serial reference, the second run is used to check allocations:
+		VoronoiSimplexSolver simplexSolver = new VoronoiSimplexSolver();
+		Vector3f v = new Vector3f(), wA = new Vector3f(), wB = new Vector3f();
+		int[] serial = new int[NUM_QUERIES * 7];
+		test.runQueries(0, simplexSolver, v, wA, wB, test.expected);
+		
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		// JAVA NOTE: the first call of getThreadAllocatedBytes can allocate by itself
+		threadBean.getThreadAllocatedBytes(threadId);
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		test.runQueries(0, simplexSolver, v, wA, wB, serial);
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		
+		int numHits = 0;
+		for (int i=0; i<NUM_QUERIES; i++) {
+			numHits += test.expected[i*7];
+		}
+		
+		final AtomicInteger mismatches = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[numThreads];
+		long t0 = System.nanoTime();
+		for (int t=0; t<numThreads; t++) {
+			final int start = t * NUM_QUERIES / numThreads;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						VoronoiSimplexSolver simplexSolver = new VoronoiSimplexSolver();
+						Vector3f v = new Vector3f(), wA = new Vector3f(), wB = new Vector3f();
+						int[] results = new int[NUM_QUERIES * 7];
+						for (int r=0; r<rounds; r++) {
+							test.runQueries(start + r, simplexSolver, v, wA, wB, results);
+							for (int i=0; i<results.length; i++) {
+								if (results[i] != test.expected[i]) {
+									mismatches.incrementAndGet();
+								}
+							}
+						}
+					}
+					catch (Throwable e) {
+						e.printStackTrace();
+						failures.incrementAndGet();
+					}
+				}
+			};
+			// corrupted solver state can also result in endless loop:
+			threads[t].setDaemon(true);
+			threads[t].start();
+		}
+		for (int t=0; t<numThreads; t++) {
+			threads[t].join(TIMEOUT);
+			if (threads[t].isAlive()) {
+				System.out.println("thread " + t + " timed out");
+				failures.incrementAndGet();
+			}
+		}
+		long time = System.nanoTime() - t0;
+		
+		boolean ok = (mismatches.get() == 0) && (failures.get() == 0) && (allocated == 0);
+		System.out.println("queries: " + NUM_QUERIES + " (" + numHits + " penetrating), threads: " + numThreads + ", rounds: " + rounds);
+		System.out.println("concurrent time: " + (time / 1000000) + " ms");
+		System.out.println("mismatches: " + mismatches.get() + ", exceptions: " + failures.get() + ", serial allocation: " + allocated + " bytes");
+		System.out.println(ok? "OK" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+	
+}
@@ -0,0 +1,152 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.Point2PointConstraint;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.StepCounter;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepStatistics;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of island building. Worlds contain many small awake
+ * islands: pairs of boxes resting on the ground, connected by point to point
+ * constraint. Island building is part of the island and solve phases.<p>
+ * 
+ * Prints checksum of body positions at the end, it must not change between
+ * versions that are supposed to produce the same results.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.IslandBenchmark [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class IslandBenchmark {
+
+	private static final int[] BODY_COUNTS = { 2500, 5000, 10000 };
+	private static final int WARMUP_STEPS = 50;
+	
+	private static final StepPhase[] PHASES = {
+		StepPhase.ISLANDS, StepPhase.SOLVE, StepPhase.STEP
+	};
+	
+	private final StepStatistics stats = new StepStatistics();
+	private final long[] phaseTimes = new long[PHASES.length];
+	private float checksum;
+	
+	public void run(int numBodies, int steps) {
+		DiscreteDynamicsWorld world = createWorld(numBodies);
+		world.getProfiler().setEnabled(true);
+		
+		for (int i=0; i<WARMUP_STEPS; i++) {
+			world.stepSimulation(1f/60f, 0);
+		}
+		
+		for (int i=0; i<phaseTimes.length; i++) {
+			phaseTimes[i] = 0;
+		}
+		for (int i=0; i<steps; i++) {
+			world.stepSimulation(1f/60f, 0);
+			world.getProfiler().getLastStep(stats);
+			for (int j=0; j<PHASES.length; j++) {
+				phaseTimes[j] += stats.getPhaseTime(PHASES[j]);
+			}
+		}
+		
+		checksum = 0f;
+		for (CollisionObject colObj : world.getCollisionObjectArray()) {
+			Vector3f pos = colObj.getWorldTransform().origin;
+			checksum += pos.x + pos.y * 3f + pos.z * 7f;
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(numBodies).append('\t').append(stats.getCounter(StepCounter.ISLANDS));
+		for (int j=0; j<PHASES.length; j++) {
+			sb.append('\t').append(phaseTimes[j] / steps / 1000);
+		}
+		System.out.println(sb);
+	}
+	
+	private DiscreteDynamicsWorld createWorld(int numBodies) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		DiscreteDynamicsWorld world = new DiscreteDynamicsWorld(dispatcher, new DbvtBroadphase(), null, collisionConfiguration);
+		
+		int numPairs = numBodies / 2;
+		int side = (int)Math.ceil(Math.sqrt(numPairs));
+		float size = side * 3f;
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		tr.origin.set(size * 0.5f, -1f, size * 0.5f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(size, 1f, size))));
+		
+		CollisionShape box = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+		Vector3f localInertia = new Vector3f();
+		box.calculateLocalInertia(1f, localInertia);
+		
+		for (int i=0; i<numPairs; i++) {
+			float x = (i % side) * 3f;
+			float z = (i / side) * 3f;
+			
+			tr.setIdentity();
+			tr.origin.set(x, 0.5f, z);
+			RigidBody body0 = new RigidBody(1f, new DefaultMotionState(tr), box, localInertia);
+			body0.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+			world.addRigidBody(body0);
+			
+			tr.origin.set(x + 1.1f, 0.5f, z);
+			RigidBody body1 = new RigidBody(1f, new DefaultMotionState(tr), box, localInertia);
+			body1.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+			world.addRigidBody(body1);
+			
+			world.addConstraint(new Point2PointConstraint(body0, body1, new Vector3f(0.55f, 0f, 0f), new Vector3f(-0.55f, 0f, 0f)), true);
+		}
+		return world;
+	}
+	
+	public static void main(String[] args) {
+		int steps = args.length > 0? Integer.parseInt(args[0]) : 100;
+		
+		IslandBenchmark bench = new IslandBenchmark();
+		
+		System.out.println("bodies\tislands\tislands\tsolve\tstep (us/step)");
+		float checksum = 0f;
+		for (int numBodies : BODY_COUNTS) {
+			bench.run(numBodies, steps);
+			checksum += bench.checksum;
+		}
+		System.out.println("checksum: " + checksum);
+	}
+	
+}
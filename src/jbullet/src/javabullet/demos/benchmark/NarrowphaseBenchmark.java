@@ -0,0 +1,124 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.BulletGlobals;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.CylinderShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepStatistics;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of convex-convex narrowphase cost. Stacks of boxes,
+ * cylinders and spheres are dropped on the ground and simulated until mostly
+ * settled (deactivation is disabled so the pairs keep being processed), then
+ * time spent in narrowphase is measured.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.NarrowphaseBenchmark [bodies] [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class NarrowphaseBenchmark {
+
+	private static final int STACK_HEIGHT = 8;
+	private static final int SETTLE_STEPS = 120;
+	
+	public static void main(String[] args) {
+		int numBodies = args.length > 0? Integer.parseInt(args[0]) : 4000;
+		int steps = args.length > 1? Integer.parseInt(args[1]) : 200;
+		
+		BulletGlobals.gDisableDeactivation = true;
+		
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		DiscreteDynamicsWorld world = new DiscreteDynamicsWorld(dispatcher, new DbvtBroadphase(), null, collisionConfiguration);
+		world.getProfiler().setEnabled(true);
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		tr.origin.set(0f, -1f, 0f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(500f, 1f, 500f))));
+		
+		CollisionShape[] shapes = new CollisionShape[] {
+			new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)),
+			new CylinderShape(new Vector3f(0.5f, 0.5f, 0.5f)),
+			new SphereShape(0.5f),
+		};
+		Vector3f[] localInertia = new Vector3f[shapes.length];
+		for (int i=0; i<shapes.length; i++) {
+			localInertia[i] = new Vector3f();
+			shapes[i].calculateLocalInertia(1f, localInertia[i]);
+		}
+		
+		// spheres are only at the top of stacks, cylinders and boxes are mixed:
+		int numStacks = (numBodies + STACK_HEIGHT - 1) / STACK_HEIGHT;
+		int side = (int)Math.ceil(Math.sqrt(numStacks));
+		int count = 0;
+		for (int i=0; i<numStacks; i++) {
+			for (int j=0; j<STACK_HEIGHT && count < numBodies; j++, count++) {
+				int s = (j == STACK_HEIGHT-1)? 2 : (i + j) % 2;
+				tr.setIdentity();
+				tr.origin.set((i % side) * 1.5f, 0.5f + j * 1.01f, (i / side) * 1.5f);
+				world.addRigidBody(new RigidBody(1f, new DefaultMotionState(tr), shapes[s], localInertia[s]));
+			}
+		}
+		
+		for (int i=0; i<SETTLE_STEPS; i++) {
+			world.stepSimulation(1f/60f, 0);
+		}
+		
+		StepStatistics stats = new StepStatistics();
+		long narrowphaseTime = 0;
+		int gjkChecks = BulletGlobals.gNumGjkChecks;
+		int penetrationChecks = BulletGlobals.gNumDeepPenetrationChecks;
+		for (int i=0; i<steps; i++) {
+			world.stepSimulation(1f/60f, 0);
+			world.getProfiler().getLastStep(stats);
+			narrowphaseTime += stats.getPhaseTime(StepPhase.NARROWPHASE);
+		}
+		gjkChecks = BulletGlobals.gNumGjkChecks - gjkChecks;
+		penetrationChecks = BulletGlobals.gNumDeepPenetrationChecks - penetrationChecks;
+		
+		float height = 0f;
+		for (int i=0; i<world.getNumCollisionObjects(); i++) {
+			height += world.getCollisionObjectArray().get(i).getWorldTransform().origin.y;
+		}
+		
+		System.out.println("bodies: " + numBodies + ", manifolds: " + dispatcher.getNumManifolds());
+		System.out.println("narrowphase: " + (narrowphaseTime / steps / 1000) + " us/step");
+		System.out.println("gjk queries: " + (gjkChecks / steps) + "/step, penetration depth queries: " + (penetrationChecks / steps) + "/step");
+		System.out.println("average height: " + (height / world.getNumCollisionObjects()));
+	}
+	
+}
@@ -0,0 +1,154 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepStatistics;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of per-body step phases in worlds where most bodies
+ * are asleep. Number of awake bodies is fixed while the number of sleeping
+ * bodies grows, time of per-body phases should stay roughly the same.<p>
+ * 
+ * Prints checksum of body positions at the end, it must not change between
+ * versions that are supposed to produce the same results.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.SleepingBenchmark [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class SleepingBenchmark {
+
+	private static final int[] SLEEPING_COUNTS = { 2500, 5000, 10000, 20000 };
+	private static final int NUM_AWAKE = 1000;
+	private static final int SETTLE_STEPS = 200;
+	
+	private static final StepPhase[] PHASES = {
+		StepPhase.PREDICT_MOTION, StepPhase.UPDATE_AABBS, StepPhase.INTEGRATE, StepPhase.ACTIVATION, StepPhase.STEP
+	};
+	
+	private final StepStatistics stats = new StepStatistics();
+	private final long[] phaseTimes = new long[PHASES.length];
+	private float checksum;
+	
+	public void run(int numSleeping, int steps) {
+		DiscreteDynamicsWorld world = createWorld(numSleeping);
+		world.getProfiler().setEnabled(true);
+		
+		// let the resting bodies fall asleep:
+		for (int i=0; i<SETTLE_STEPS; i++) {
+			world.stepSimulation(1f/60f, 0);
+		}
+		
+		int numActive = 0;
+		for (CollisionObject colObj : world.getCollisionObjectArray()) {
+			if (colObj.isActive()) {
+				numActive++;
+			}
+		}
+		
+		for (int i=0; i<phaseTimes.length; i++) {
+			phaseTimes[i] = 0;
+		}
+		for (int i=0; i<steps; i++) {
+			world.stepSimulation(1f/60f, 0);
+			world.getProfiler().getLastStep(stats);
+			for (int j=0; j<PHASES.length; j++) {
+				phaseTimes[j] += stats.getPhaseTime(PHASES[j]);
+			}
+		}
+		
+		checksum = 0f;
+		for (CollisionObject colObj : world.getCollisionObjectArray()) {
+			Vector3f pos = colObj.getWorldTransform().origin;
+			checksum += pos.x + pos.y * 3f + pos.z * 7f;
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(numSleeping).append('\t').append(numActive);
+		for (int j=0; j<PHASES.length; j++) {
+			sb.append('\t').append(phaseTimes[j] / steps / 1000);
+		}
+		System.out.println(sb);
+	}
+	
+	private DiscreteDynamicsWorld createWorld(int numSleeping) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		DiscreteDynamicsWorld world = new DiscreteDynamicsWorld(dispatcher, new DbvtBroadphase(), null, collisionConfiguration);
+		
+		int side = (int)Math.ceil(Math.sqrt(numSleeping + NUM_AWAKE));
+		float size = side * 1.5f;
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		tr.origin.set(size * 0.5f, -1f, size * 0.5f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(size, 1f, size))));
+		
+		CollisionShape box = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+		Vector3f localInertia = new Vector3f();
+		box.calculateLocalInertia(1f, localInertia);
+		
+		// awake bodies are spread evenly between the resting ones:
+		int awakeEvery = (numSleeping + NUM_AWAKE) / NUM_AWAKE;
+		for (int i=0; i<numSleeping + NUM_AWAKE; i++) {
+			boolean awake = (i % awakeEvery) == 0;
+			tr.setIdentity();
+			tr.origin.set((i % side) * 1.5f, awake? 3f : 0.5f, (i / side) * 1.5f);
+			RigidBody body = new RigidBody(1f, new DefaultMotionState(tr), box, localInertia);
+			if (awake) {
+				body.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+				body.setRestitution(1f);
+			}
+			world.addRigidBody(body);
+		}
+		return world;
+	}
+	
+	public static void main(String[] args) {
+		int steps = args.length > 0? Integer.parseInt(args[0]) : 100;
+		
+		SleepingBenchmark bench = new SleepingBenchmark();
+		
+		System.out.println("sleeping\tactive\tpredict\taabbs\tintegrate\tactivation\tstep (us/step)");
+		float checksum = 0f;
+		for (int numSleeping : SLEEPING_COUNTS) {
+			bench.run(numSleeping, steps);
+			checksum += bench.checksum;
+		}
+		System.out.println("checksum: " + checksum);
+	}
+	
+}
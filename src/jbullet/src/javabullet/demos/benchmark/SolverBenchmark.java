@@ -0,0 +1,150 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.List;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.ConstraintSolver;
+import javabullet.dynamics.constraintsolver.ContactSolverInfo;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.dynamics.constraintsolver.SoASequentialImpulseConstraintSolver;
+import javabullet.dynamics.constraintsolver.TypedConstraint;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.IDebugDraw;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of constraint solver cost. Stacks of boxes are dropped on
+ * the ground and simulated until mostly settled, then the time spent in the
+ * constraint solver is measured for {@link SequentialImpulseConstraintSolver}
+ * and {@link SoASequentialImpulseConstraintSolver}.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.SolverBenchmark [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class SolverBenchmark {
+
+	private static final int[] BODY_COUNTS = { 1000, 2500, 5000, 10000 };
+	private static final int STACK_HEIGHT = 10;
+	private static final int SETTLE_STEPS = 60;
+	
+	private long solverTime;
+	
+	public long run(SequentialImpulseConstraintSolver solver, int numBodies, int steps) {
+		DiscreteDynamicsWorld world = createWorld(solver, numBodies);
+		
+		// let the stacks settle and warm up:
+		for (int i=0; i<SETTLE_STEPS; i++) {
+			world.stepSimulation(1f/60f, 0);
+		}
+		
+		solverTime = 0;
+		for (int i=0; i<steps; i++) {
+			world.stepSimulation(1f/60f, 0);
+		}
+		return solverTime / steps;
+	}
+	
+	private DiscreteDynamicsWorld createWorld(SequentialImpulseConstraintSolver solver, int numBodies) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		DiscreteDynamicsWorld world = new DiscreteDynamicsWorld(dispatcher, new DbvtBroadphase(), new TimingSolver(solver), collisionConfiguration);
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		tr.origin.set(0f, -1f, 0f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(500f, 1f, 500f))));
+		
+		CollisionShape box = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+		Vector3f localInertia = new Vector3f();
+		box.calculateLocalInertia(1f, localInertia);
+		
+		int numStacks = (numBodies + STACK_HEIGHT - 1) / STACK_HEIGHT;
+		int side = (int)Math.ceil(Math.sqrt(numStacks));
+		int count = 0;
+		for (int i=0; i<numStacks; i++) {
+			for (int j=0; j<STACK_HEIGHT && count < numBodies; j++, count++) {
+				tr.setIdentity();
+				tr.origin.set((i % side) * 3f, 0.5f + j * 1.01f, (i / side) * 3f);
+				world.addRigidBody(new RigidBody(1f, new DefaultMotionState(tr), box, localInertia));
+			}
+		}
+		return world;
+	}
+	
+	/**
+	 * Measures time spent in wrapped solver.
+	 */
+	private class TimingSolver extends ConstraintSolver {
+		private final SequentialImpulseConstraintSolver solver;
+
+		public TimingSolver(SequentialImpulseConstraintSolver solver) {
+			this.solver = solver;
+		}
+
+		@Override
+		public float solveGroup(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifold, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo info, IDebugDraw debugDrawer, Dispatcher dispatcher) {
+			long t0 = System.nanoTime();
+			try {
+				return solver.solveGroup(bodies, numBodies, manifold, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, info, debugDrawer, dispatcher);
+			}
+			finally {
+				solverTime += System.nanoTime() - t0;
+			}
+		}
+
+		@Override
+		public void reset() {
+			solver.reset();
+		}
+	}
+	
+	public static void main(String[] args) {
+		int steps = args.length > 0? Integer.parseInt(args[0]) : 100;
+		
+		SolverBenchmark bench = new SolverBenchmark();
+		
+		System.out.println("bodies\tSequentialImpulse\tSoASequentialImpulse (us/step)");
+		for (int numBodies : BODY_COUNTS) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(numBodies);
+			sb.append('\t').append(bench.run(new SequentialImpulseConstraintSolver(), numBodies, steps) / 1000);
+			sb.append('\t').append(bench.run(new SoASequentialImpulseConstraintSolver(), numBodies, steps) / 1000);
+			System.out.println(sb);
+		}
+	}
+	
+}
@@ -0,0 +1,204 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.RigidBodyConstructionInfo;
+import javabullet.dynamics.TransformStream;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepStatistics;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark and check of {@link TransformStream}. Boxes are dropped
+ * on the ground (half of them start at rest and fall asleep) in two identical
+ * worlds. First one uses motion states and transforms are copied from them
+ * to an array after each step, second one uses the stream (and no motion
+ * states) while another thread reads it. Both worlds must produce the same
+ * transforms.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.TransformStreamBenchmark [bodies] [steps]</code>
+ * 
+ * @author jezek2
+ */
+public class TransformStreamBenchmark {
+
+	private DiscreteDynamicsWorld world;
+	private RigidBody[] bodies;
+	private TransformStream stream;
+	
+	private final StepStatistics stats = new StepStatistics();
+	
+	public void createWorld(int numBodies, boolean useStream) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		world = new DiscreteDynamicsWorld(dispatcher, new DbvtBroadphase(), null, collisionConfiguration);
+		world.getProfiler().setEnabled(true);
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		tr.origin.set(0f, -1f, 0f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(500f, 1f, 500f))));
+		
+		CollisionShape box = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+		Vector3f localInertia = new Vector3f();
+		box.calculateLocalInertia(1f, localInertia);
+		
+		if (useStream) {
+			stream = new TransformStream(TransformStream.Format.OPENGL_MATRIX, new float[numBodies*16], new float[numBodies*16]);
+			world.setTransformStream(stream);
+		}
+		
+		int side = (int)Math.ceil(Math.sqrt(numBodies));
+		bodies = new RigidBody[numBodies];
+		for (int i=0; i<numBodies; i++) {
+			tr.setIdentity();
+			tr.origin.set((i % side) * 3f, (i & 1) == 0? 0.5f : 2f + (i % 7), (i / side) * 3f);
+			
+			RigidBodyConstructionInfo cinfo = new RigidBodyConstructionInfo(1f, useStream? null : new DefaultMotionState(tr), box, localInertia);
+			cinfo.startWorldTransform.set(tr);
+			bodies[i] = new RigidBody(cinfo);
+			world.addRigidBody(bodies[i]);
+			if (useStream) {
+				stream.add(bodies[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Steps the world, returns time spent in synchronization of motion
+	 * states (and writing the stream) in ns.
+	 */
+	public long step() {
+		world.stepSimulation(1f/60f, 10, 1f/120f);
+		world.getProfiler().getLastStep(stats);
+		return stats.getPhaseTime(StepPhase.MOTION_STATES);
+	}
+	
+	/**
+	 * Copies transforms from motion states, the way it's done without the stream.
+	 */
+	public void copyMotionStates(float[] out, float[] matrix) {
+		for (int i=0; i<bodies.length; i++) {
+			DefaultMotionState motionState = (DefaultMotionState)bodies[i].getMotionState();
+			motionState.graphicsWorldTrans.getOpenGLMatrix(matrix);
+			System.arraycopy(matrix, 0, out, i*16, 16);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int numBodies = args.length > 0? Integer.parseInt(args[0]) : 5000;
+		int steps = args.length > 1? Integer.parseInt(args[1]) : 600;
+		
+		TransformStreamBenchmark motionStates = new TransformStreamBenchmark();
+		motionStates.createWorld(numBodies, false);
+		final TransformStreamBenchmark streamed = new TransformStreamBenchmark();
+		streamed.createWorld(numBodies, true);
+		
+		// reader thread:
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final long[] readerStats = new long[3]; // frames read, torn frames, changed transforms
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				float[] copy = new float[streamed.bodies.length*16];
+				int lastFrame = 0;
+				while (running.get()) {
+					TransformStream.Frame frame = streamed.stream.getFrontFrame();
+					int seq = frame.getSequence();
+					if (frame.getFrameNumber() == lastFrame) {
+						Thread.yield();
+						continue;
+					}
+					
+					long changed = 0;
+					float[] data = frame.getArray();
+					for (int slot=0; slot<frame.getNumSlots(); slot++) {
+						if (frame.isChanged(slot)) {
+							System.arraycopy(data, slot*16, copy, slot*16, 16);
+							changed++;
+						}
+					}
+					
+					if (frame.validate(seq)) {
+						lastFrame = frame.getFrameNumber();
+						readerStats[0]++;
+						readerStats[2] += changed;
+					}
+					else {
+						readerStats[1]++;
+					}
+				}
+			}
+		};
+		reader.start();
+		
+		float[] out = new float[numBodies*16];
+		float[] matrix = new float[16];
+		long motionStateTime = 0;
+		long streamTime = 0;
+		for (int i=0; i<steps; i++) {
+			long time = motionStates.step();
+			long t0 = System.nanoTime();
+			motionStates.copyMotionStates(out, matrix);
+			motionStateTime += time + System.nanoTime() - t0;
+			
+			streamTime += streamed.step();
+		}
+		running.set(false);
+		reader.join();
+		
+		int active = 0;
+		for (int i=0; i<numBodies; i++) {
+			if (streamed.bodies[i].isActive()) active++;
+		}
+		
+		// both worlds are deterministic, compare the results:
+		float[] data = streamed.stream.getFrontFrame().getArray();
+		float maxDiff = 0f;
+		for (int i=0; i<numBodies; i++) {
+			int slot = streamed.stream.getSlot(streamed.bodies[i]);
+			for (int j=0; j<16; j++) {
+				maxDiff = Math.max(maxDiff, Math.abs(out[i*16+j] - data[slot*16+j]));
+			}
+		}
+		
+		System.out.println("bodies: " + numBodies + ", active at end: " + active);
+		System.out.println("motion states + copy: " + (motionStateTime / steps / 1000) + " us/step");
+		System.out.println("transform stream: " + (streamTime / steps / 1000) + " us/step");
+		System.out.println("reader: " + readerStats[0] + " frames, " + readerStats[1] + " torn frames detected, " + (readerStats[0] > 0? readerStats[2] / readerStats[0] : 0) + " changed transforms per frame");
+		System.out.println("max difference: " + maxDiff);
+		System.out.println(maxDiff < 1e-5f? "OK" : "FAILED");
+	}
+	
+}
@@ -0,0 +1,239 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.CompoundShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.vehicle.DefaultVehicleRaycaster;
+import javabullet.dynamics.vehicle.RaycastVehicle;
+import javabullet.dynamics.vehicle.VehicleManager;
+import javabullet.dynamics.vehicle.VehicleTuning;
+import javabullet.dynamics.vehicle.WheelInfo;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepStatistics;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless benchmark of vehicle update. Vehicles drive around on the ground
+ * with scattered static obstacles. Updating each vehicle separately (the
+ * original way) is compared with batched update by {@link VehicleManager},
+ * serial and in parallel. All variants must produce identical results.<p>
+ * 
+ * Usage: <code>java javabullet.demos.benchmark.VehicleBenchmark [vehicles] [steps] [threads]</code>
+ * 
+ * @author jezek2
+ */
+public class VehicleBenchmark {
+
+	private static final int NUM_OBSTACLES = 2000;
+	
+	private static final float wheelRadius = 0.5f;
+	private static final float wheelWidth = 0.4f;
+	private static final float suspensionRestLength = 0.6f;
+	private static final float connectionHeight = 1.2f;
+	
+	private DiscreteDynamicsWorld world;
+	private RaycastVehicle[] vehicles;
+	private final StepStatistics stats = new StepStatistics();
+	
+	/**
+	 * World updating vehicles one by one, as before VehicleManager.
+	 */
+	private static class SerialVehiclesWorld extends DiscreteDynamicsWorld {
+		public SerialVehiclesWorld(CollisionDispatcher dispatcher, DefaultCollisionConfiguration collisionConfiguration) {
+			super(dispatcher, new DbvtBroadphase(), null, collisionConfiguration);
+		}
+
+		@Override
+		protected void updateVehicles(float timeStep) {
+			for (int i = 0; i < vehicles.size(); i++) {
+				vehicles.get(i).updateVehicle(timeStep);
+			}
+		}
+	}
+	
+	public void createWorld(int numVehicles, boolean serial) {
+		DefaultCollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		if (serial) {
+			world = new SerialVehiclesWorld(dispatcher, collisionConfiguration);
+		}
+		else {
+			world = new DiscreteDynamicsWorld(dispatcher, new DbvtBroadphase(), null, collisionConfiguration);
+		}
+		world.getProfiler().setEnabled(true);
+		
+		int side = (int)Math.ceil(Math.sqrt(numVehicles));
+		float size = side * 20f;
+		
+		Transform tr = new Transform();
+		tr.setIdentity();
+		tr.origin.set(size * 0.5f, -1f, size * 0.5f);
+		world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), new BoxShape(new Vector3f(size, 1f, size))));
+		
+		// obstacles (low ramps the vehicles can drive over):
+		CollisionShape obstacle = new BoxShape(new Vector3f(1f, 0.1f, 1f));
+		int obstacleSide = (int)Math.sqrt(NUM_OBSTACLES);
+		for (int i=0; i<NUM_OBSTACLES; i++) {
+			tr.setIdentity();
+			tr.origin.set((i % obstacleSide + 0.5f) * size / obstacleSide, 0.05f, (i / obstacleSide + 0.5f) * size / obstacleSide);
+			world.addRigidBody(new RigidBody(0f, new DefaultMotionState(tr), obstacle));
+		}
+		
+		CollisionShape chassisShape = new BoxShape(new Vector3f(1f, 0.5f, 2f));
+		CompoundShape compound = new CompoundShape();
+		Transform localTrans = new Transform();
+		localTrans.setIdentity();
+		localTrans.origin.set(0f, 1f, 0f);
+		compound.addChildShape(localTrans, chassisShape);
+		Vector3f localInertia = new Vector3f();
+		compound.calculateLocalInertia(800f, localInertia);
+		
+		VehicleTuning tuning = new VehicleTuning();
+		DefaultVehicleRaycaster raycaster = new DefaultVehicleRaycaster(world);
+		Vector3f wheelDirectionCS0 = new Vector3f(0f, -1f, 0f);
+		Vector3f wheelAxleCS = new Vector3f(-1f, 0f, 0f);
+		
+		vehicles = new RaycastVehicle[numVehicles];
+		for (int i=0; i<numVehicles; i++) {
+			tr.setIdentity();
+			tr.origin.set((i % side) * 20f + 10f, 1f, (i / side) * 20f + 10f);
+			RigidBody chassis = new RigidBody(800f, new DefaultMotionState(tr), compound, localInertia);
+			chassis.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+			world.addRigidBody(chassis);
+			
+			RaycastVehicle vehicle = new RaycastVehicle(tuning, chassis, raycaster);
+			vehicle.setCoordinateSystem(0, 1, 2);
+			world.addVehicle(vehicle);
+			
+			for (int w=0; w<4; w++) {
+				float x = (w == 0 || w == 3)? 1f - 0.3f*wheelWidth : -1f + 0.3f*wheelWidth;
+				float z = (w < 2)? 2f - wheelRadius : -2f + wheelRadius;
+				vehicle.addWheel(new Vector3f(x, connectionHeight, z), wheelDirectionCS0, wheelAxleCS, suspensionRestLength, wheelRadius, tuning, w < 2);
+				
+				WheelInfo wheel = vehicle.getWheelInfo(w);
+				wheel.suspensionStiffness = 20f;
+				wheel.wheelsDampingRelaxation = 2.3f;
+				wheel.wheelsDampingCompression = 4.4f;
+				wheel.frictionSlip = 1000f;
+				wheel.rollInfluence = 0.1f;
+			}
+			vehicles[i] = vehicle;
+		}
+	}
+	
+	/**
+	 * Steps the world, returns time spent in vehicle update in ns.
+	 */
+	public long step(int stepIndex) {
+		for (int i=0; i<vehicles.length; i++) {
+			// AI drivers:
+			float engineForce = ((i + stepIndex / 60) % 3 == 0)? 0f : 1000f;
+			float steering = (float)Math.sin(stepIndex * 0.02f + i) * 0.3f;
+			vehicles[i].applyEngineForce(engineForce, 2);
+			vehicles[i].applyEngineForce(engineForce, 3);
+			vehicles[i].setBrake(engineForce == 0f? 50f : 0f, 2);
+			vehicles[i].setBrake(engineForce == 0f? 50f : 0f, 3);
+			vehicles[i].setSteeringValue(steering, 0);
+			vehicles[i].setSteeringValue(steering, 1);
+		}
+		
+		world.stepSimulation(1f/60f, 0);
+		world.getProfiler().getLastStep(stats);
+		return stats.getPhaseTime(StepPhase.VEHICLES);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int numVehicles = args.length > 0? Integer.parseInt(args[0]) : 400;
+		int steps = args.length > 1? Integer.parseInt(args[1]) : 600;
+		int numThreads = args.length > 2? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			VehicleBenchmark serial = new VehicleBenchmark();
+			serial.createWorld(numVehicles, true);
+			VehicleBenchmark batched = new VehicleBenchmark();
+			batched.createWorld(numVehicles, false);
+			VehicleBenchmark parallel = new VehicleBenchmark();
+			parallel.createWorld(numVehicles, false);
+			parallel.world.setIslandExecutor(executor, Math.max(numThreads, 2));
+			VehicleBenchmark check = new VehicleBenchmark();
+			check.createWorld(numVehicles, true);
+			check.world.setIslandExecutor(executor, Math.max(numThreads, 2));
+			
+			long serialTime = 0, batchedTime = 0, parallelTime = 0;
+			for (int i=0; i<steps; i++) {
+				serialTime += serial.step(i);
+				batchedTime += batched.step(i);
+				parallelTime += parallel.step(i);
+				check.step(i);
+			}
+			
+			float maxDiff = 0f, maxParallelDiff = 0f, distance = 0f;
+			for (int i=0; i<numVehicles; i++) {
+				Vector3f a = serial.vehicles[i].getRigidBody().getCenterOfMassPosition();
+				Vector3f b = batched.vehicles[i].getRigidBody().getCenterOfMassPosition();
+				Vector3f d = check.vehicles[i].getRigidBody().getCenterOfMassPosition();
+				Vector3f c = parallel.vehicles[i].getRigidBody().getCenterOfMassPosition();
+				Vector3f tmp = new Vector3f();
+				tmp.sub(a, b);
+				maxDiff = Math.max(maxDiff, tmp.length());
+				tmp.sub(d, c);
+				maxParallelDiff = Math.max(maxParallelDiff, tmp.length());
+				
+				tr(serial, i, tmp);
+				distance += tmp.length();
+			}
+			
+			System.out.println("vehicles: " + numVehicles + ", static objects: " + (NUM_OBSTACLES + 1) + ", threads: " + numThreads);
+			System.out.println("average distance driven: " + (distance / numVehicles));
+			System.out.println("per-vehicle update: " + (serialTime / steps / 1000) + " us/step");
+			System.out.println("VehicleManager: " + (batchedTime / steps / 1000) + " us/step");
+			System.out.println("VehicleManager (parallel): " + (parallelTime / steps / 1000) + " us/step");
+			System.out.println("max difference: " + maxDiff + ", parallel: " + maxParallelDiff);
+			System.out.println(maxDiff == 0f && maxParallelDiff == 0f? "OK" : "FAILED");
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	private static void tr(VehicleBenchmark bench, int i, Vector3f out) {
+		int side = (int)Math.ceil(Math.sqrt(bench.vehicles.length));
+		Vector3f pos = bench.vehicles[i].getRigidBody().getCenterOfMassPosition();
+		out.set(pos.x - ((i % side) * 20f + 10f), 0f, pos.z - ((i / side) * 20f + 10f));
+	}
+	
+}
@@ -23,11 +23,15 @@
 
 package javabullet.dynamics;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.BroadphaseProxy;
 import javabullet.collision.broadphase.CollisionFilterGroups;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.broadphase.DispatcherInfo;
@@ -38,18 +42,24 @@ import javabullet.collision.dispatch.SimulationIslandManager;
 import javabullet.collision.narrowphase.PersistentManifold;
 import javabullet.collision.shapes.CollisionShape;
 import javabullet.collision.shapes.InternalTriangleIndexCallback;
+import javabullet.collision.shapes.SphereShape;
 import javabullet.collision.shapes.TriangleCallback;
 import javabullet.dynamics.constraintsolver.ConstraintSolver;
 import javabullet.dynamics.constraintsolver.ContactSolverInfo;
 import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.dynamics.constraintsolver.SoASequentialImpulseConstraintSolver;
 import javabullet.dynamics.constraintsolver.TypedConstraint;
 import javabullet.dynamics.vehicle.RaycastVehicle;
+import javabullet.dynamics.vehicle.VehicleManager;
 import javabullet.linearmath.DebugDrawModes;
 import javabullet.linearmath.IDebugDraw;
-import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.ScalarUtil;
+import javabullet.linearmath.StepCounter;
+import javabullet.linearmath.StepPhase;
+import javabullet.linearmath.StepProfiler;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.TransformUtil;
+import javabullet.util.ParallelTasks;
 import javax.vecmath.Vector3f;
 
 /**
@@ -74,8 +84,22 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 
 	protected ContactSolverInfo solverInfo = new ContactSolverInfo();
 	protected List<RaycastVehicle> vehicles = new ArrayList<RaycastVehicle>();
+	protected VehicleManager vehicleManager = new VehicleManager();
 	protected int profileTimings = 0;
 	
+	protected Executor islandExecutor;
+	protected int islandNumTasks = 1;
+	
+	private WorldSnapshot worldSnapshot;
+	private ByteBuffer stateHashBuffer;
+	
+	private TransformStream transformStream;
+	
+	// JAVA NOTE: reused for continuous collision detection of each body
+	private final SphereShape ccdSphere = new SphereShape(0f);
+	private final ClosestNotMeConvexResultCallback ccdSweepResults = new ClosestNotMeConvexResultCallback();
+	private final Transform ccdSweepToTrans = new Transform();
+	
 	public DiscreteDynamicsWorld(Dispatcher dispatcher, BroadphaseInterface pairCache, ConstraintSolver constraintSolver, CollisionConfiguration collisionConfiguration) {
 		super(dispatcher, pairCache, collisionConfiguration);
 		this.constraintSolver = constraintSolver;
@@ -208,9 +232,9 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	 * Apply gravity, call this once per timestep.
 	 */
 	public void applyGravity() {
-		// todo: iterate over awake simulation islands!
-		for (int i = 0; i < collisionObjects.size(); i++) {
-			CollisionObject colObj = collisionObjects.get(i);
+		List<CollisionObject> objects = activeObjects.getObjects();
+		for (int i = 0; i < objects.size(); i++) {
+			CollisionObject colObj = objects.get(i);
 
 			RigidBody body = RigidBody.upcast(colObj);
 			if (body != null && body.isActive()) {
@@ -267,6 +291,10 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 
 		long t0 = nanoTime();
 		
+		StepProfiler profiler = getProfiler();
+		profiler.beginStep();
+		long profileStart = profiler.startPhase();
+		
 		BulletGlobals.pushProfile("stepSimulation");
 		try {
 			int numSimulationSubSteps = 0;
@@ -305,13 +333,23 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 				// clamp the number of substeps, to prevent simulation grinding spiralling down to a halt
 				int clampedSimulationSteps = (numSimulationSubSteps > maxSubSteps) ? maxSubSteps : numSimulationSubSteps;
 
+				profiler.setCounter(StepCounter.SUBSTEPS, clampedSimulationSteps);
+
 				for (int i = 0; i < clampedSimulationSteps; i++) {
 					internalSingleStepSimulation(fixedTimeStep);
+					
+					long t = profiler.startPhase();
 					synchronizeMotionStates();
+					profiler.endPhase(StepPhase.MOTION_STATES, t);
 				}
 			}
 
+			long t = profiler.startPhase();
 			synchronizeMotionStates();
+			if (transformStream != null) {
+				transformStream.write(localTime);
+			}
+			profiler.endPhase(StepPhase.MOTION_STATES, t);
 
 			clearForces();
 
@@ -323,14 +361,20 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 			BulletGlobals.popProfile();
 			
 			BulletGlobals.stepSimulationTime = (nanoTime() - t0) / 1000000;
+			
+			profiler.endPhase(StepPhase.STEP, profileStart);
+			profiler.endStep();
 		}
 	}
 
 	protected void internalSingleStepSimulation(float timeStep) {
 		BulletGlobals.pushProfile("internalSingleStepSimulation");
+		StepProfiler profiler = getProfiler();
 		try {
 			// apply gravity, predict motion
+			long t = profiler.startPhase();
 			predictUnconstraintMotion(timeStep);
+			profiler.endPhase(StepPhase.PREDICT_MOTION, t);
 
 			DispatcherInfo dispatchInfo = getDispatchInfo();
 
@@ -341,22 +385,32 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 			// perform collision detection
 			performDiscreteCollisionDetection();
 
+			t = profiler.startPhase();
 			calculateSimulationIslands();
+			profiler.endPhase(StepPhase.ISLANDS, t);
 
 			getSolverInfo().timeStep = timeStep;
 
 			// solve contact and other joint constraints
+			t = profiler.startPhase();
 			solveConstraints(getSolverInfo());
+			profiler.endPhase(StepPhase.SOLVE, t);
 
 			//CallbackTriggers();
 
 			// integrate transforms
+			t = profiler.startPhase();
 			integrateTransforms(timeStep);
+			profiler.endPhase(StepPhase.INTEGRATE, t);
 
 			// update vehicle simulation
+			t = profiler.startPhase();
 			updateVehicles(timeStep);
+			profiler.endPhase(StepPhase.VEHICLES, t);
 
+			t = profiler.startPhase();
 			updateActivationState(timeStep);
+			profiler.endPhase(StepPhase.ACTIVATION, t);
 		}
 		finally {
 			BulletGlobals.popProfile();
@@ -379,6 +433,29 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	public void removeRigidBody(RigidBody body) {
 		removeCollisionObject(body);
 	}
+	
+	@Override
+	public void removeCollisionObject(CollisionObject collisionObject) {
+		super.removeCollisionObject(collisionObject);
+		
+		RigidBody body = RigidBody.upcast(collisionObject);
+		if (body != null && transformStream != null) {
+			transformStream.remove(body);
+		}
+	}
+	
+	/**
+	 * Sets stream that receives interpolated transforms of its bodies at the
+	 * end of each {@link #stepSimulation}. Bodies removed from the world are
+	 * removed from the stream too.
+	 */
+	public void setTransformStream(TransformStream transformStream) {
+		this.transformStream = transformStream;
+	}
+
+	public TransformStream getTransformStream() {
+		return transformStream;
+	}
 
 	@Override
 	public void addRigidBody(RigidBody body) {
@@ -408,10 +485,8 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	protected void updateVehicles(float timeStep) {
 		BulletGlobals.pushProfile("updateVehicles");
 		try {
-			for (int i = 0; i < vehicles.size(); i++) {
-				RaycastVehicle vehicle = vehicles.get(i);
-				vehicle.updateVehicle(timeStep);
-			}
+			// JAVA NOTE: vehicles are updated in batch, using island executor when set
+			vehicleManager.updateVehicles(this, vehicles, timeStep, islandExecutor, islandNumTasks);
 		}
 		finally {
 			BulletGlobals.popProfile();
@@ -421,8 +496,14 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	protected void updateActivationState(float timeStep) {
 		BulletGlobals.pushProfile("updateActivationState");
 		try {
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			// JAVA NOTE: sleeping bodies are skipped as it's no-op for them, unless
+			// deactivation is globally disabled (then they're woken up here)
+			List<CollisionObject> objects = activeObjects.getObjects();
+			if (BulletGlobals.gDisableDeactivation || (BulletGlobals.gDeactivationTime == 0f)) {
+				objects = collisionObjects;
+			}
+			for (int i = 0; i < objects.size(); i++) {
+				CollisionObject colObj = objects.get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 				if (body != null) {
 					body.updateDeactivation(timeStep);
@@ -489,21 +570,44 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		public ContactSolverInfo solverInfo;
 		public ConstraintSolver solver;
 		public List<TypedConstraint> sortedConstraints;
+		public int[] constraintOffsets;
 		public int numConstraints;
 		public IDebugDraw debugDrawer;
 		//public StackAlloc* m_stackAlloc;
 		public Dispatcher dispatcher;
-
-		public void init(ContactSolverInfo solverInfo, ConstraintSolver solver, List<TypedConstraint> sortedConstraints, int numConstraints, IDebugDraw debugDrawer, Dispatcher dispatcher) {
+		public int numIslands;
+		// solver is seeded (or reset) before each island, so the result depends only on the island:
+		public boolean seedSolver;
+		public long baseSeed;
+		public boolean resetSolver;
+		// used by parallel solving:
+		public final List<CollisionObject> islandBodies = new ArrayList<CollisionObject>();
+
+		public void init(ContactSolverInfo solverInfo, ConstraintSolver solver, List<TypedConstraint> sortedConstraints, int[] constraintOffsets, int numConstraints, IDebugDraw debugDrawer, Dispatcher dispatcher) {
 			this.solverInfo = solverInfo;
 			this.solver = solver;
 			this.sortedConstraints = sortedConstraints;
+			this.constraintOffsets = constraintOffsets;
 			this.numConstraints = numConstraints;
 			this.debugDrawer = debugDrawer;
 			this.dispatcher = dispatcher;
+			this.numIslands = 0;
+		}
+
+		public void setSeeding(boolean seedSolver, long baseSeed, boolean resetSolver) {
+			this.seedSolver = seedSolver;
+			this.baseSeed = baseSeed;
+			this.resetSolver = resetSolver;
 		}
 
 		public void processIsland(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifolds, int manifolds_offset, int numManifolds, int islandId) {
+			numIslands++;
+			if (seedSolver && solver instanceof SequentialImpulseConstraintSolver) {
+				((SequentialImpulseConstraintSolver) solver).setRandSeed(getIslandSeed(baseSeed, islandId));
+			}
+			else if (resetSolver) {
+				solver.reset();
+			}
 			if (islandId < 0) {
 				// we don't split islands, so all constraints/contact manifolds/bodies are passed into the solver regardless the island id
 				solver.solveGroup(bodies, numBodies, manifolds, manifolds_offset, numManifolds, sortedConstraints, 0, numConstraints, solverInfo, debugDrawer/*,m_stackAlloc*/, dispatcher);
@@ -515,19 +619,13 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 				int numCurConstraints = 0;
 				int i;
 
-				// find the first constraint for this island
-				for (i = 0; i < numConstraints; i++) {
-					if (getConstraintIslandId(sortedConstraints.get(i)) == islandId) {
+				// JAVA NOTE: constraints of the island are found using offsets computed when sorting
+				if (sortedConstraints != null && islandId + 2 < constraintOffsets.length) {
+					i = constraintOffsets[islandId + 1];
+					numCurConstraints = constraintOffsets[islandId + 2] - i;
+					if (numCurConstraints != 0) {
 						//startConstraint = &m_sortedConstraints[i];
-						//startConstraint = sortedConstraints.subList(i, sortedConstraints.size());
 						startConstraint_idx = i;
-						break;
-					}
-				}
-				// count the number of constraints in this island
-				for (; i < numConstraints; i++) {
-					if (getConstraintIslandId(sortedConstraints.get(i)) == islandId) {
-						numCurConstraints++;
 					}
 				}
 
@@ -536,36 +634,208 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 	}
 
+	/**
+	 * Returns random seed for solving given island, derived from seed of the
+	 * world solver at the start of the step.
+	 */
+	private static long getIslandSeed(long baseSeed, int islandId) {
+		long seed = baseSeed ^ ((islandId + 1) * 0x9E3779B97F4A7C15L);
+		seed ^= seed >>> 29;
+		return seed & 0xffffffffL;
+	}
+
+	private class IslandSolverTask implements ParallelTasks.Task {
+		public final AtomicInteger nextIsland = new AtomicInteger();
+		public int numIslands;
+
+		public void run(int taskIndex) {
+			InplaceSolverIslandCallback callback = islandSolverCallbacks[taskIndex];
+			SimulationIslandManager islands = islandManager;
+			List<CollisionObject> bodies = callback.islandBodies;
+			int i;
+			while ((i = nextIsland.getAndIncrement()) < numIslands) {
+				if (islands.isIslandSleeping(i)) {
+					continue;
+				}
+				for (int j=islands.getIslandBodyStart(i); j<islands.getIslandBodyEnd(i); j++) {
+					bodies.add(islands.getSortedBody(j));
+				}
+				int manifoldStart = islands.getIslandManifoldStart(i);
+				int numManifolds = islands.getIslandManifoldEnd(i) - manifoldStart;
+				callback.processIsland(bodies, bodies.size(), islands.getIslandManifolds(), manifoldStart, numManifolds, islands.getIslandId(i));
+				bodies.clear();
+			}
+		}
+	}
+
 	private List<TypedConstraint> sortedConstraints = new ArrayList<TypedConstraint>();
+	private int[] constraintOffsets = new int[0];
+	private int[] constraintKeys = new int[0];
 	private InplaceSolverIslandCallback solverCallback = new InplaceSolverIslandCallback();
+	private final IslandSolverTask islandSolverTask = new IslandSolverTask();
+	private InplaceSolverIslandCallback[] islandSolverCallbacks = new InplaceSolverIslandCallback[0];
+	// set when createIslandSolver doesn't support the world solver, until the solver is changed:
+	private boolean islandSolverUnsupported;
 	
+	/**
+	 * Sorts constraints by island id using counting sort. Island id is in range
+	 * -1 to number of collision objects - 1, constraints of island X start at
+	 * constraintOffsets[X+1] and end at constraintOffsets[X+2].
+	 */
+	private void sortConstraints() {
+		int numConstraints = constraints.size();
+		int numKeys = getCollisionWorld().getNumCollisionObjects() + 1;
+
+		if (constraintOffsets.length < numKeys + 1) {
+			constraintOffsets = new int[Math.max(numKeys + 1, constraintOffsets.length * 2)];
+		}
+		if (constraintKeys.length < numConstraints) {
+			constraintKeys = new int[Math.max(numConstraints, constraintKeys.length * 2)];
+		}
+
+		int[] offsets = constraintOffsets;
+		for (int i=0; i<=numKeys; i++) {
+			offsets[i] = 0;
+		}
+		sortedConstraints.clear();
+		for (int i=0; i<numConstraints; i++) {
+			int key = getConstraintIslandId(constraints.get(i)) + 1;
+			constraintKeys[i] = key;
+			offsets[key + 1]++;
+			sortedConstraints.add(null);
+		}
+		for (int i=0; i<numKeys; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		for (int i=0; i<numConstraints; i++) {
+			sortedConstraints.set(offsets[constraintKeys[i]]++, constraints.get(i));
+		}
+		for (int i=numKeys; i>0; i--) {
+			offsets[i] = offsets[i - 1];
+		}
+		offsets[0] = 0;
+	}
+
 	protected void solveConstraints(ContactSolverInfo solverInfo) {
 		BulletGlobals.pushProfile("solveConstraints");
 		try {
 			// sorted version of all btTypedConstraint, based on islandId
-			sortedConstraints.clear();
-			for (int i=0; i<constraints.size(); i++) {
-				sortedConstraints.add(constraints.get(i));
-			}
-			//Collections.sort(sortedConstraints, sortConstraintOnIslandPredicate);
-			MiscUtil.heapSort(sortedConstraints, sortConstraintOnIslandPredicate);
+			sortConstraints();
 
 			List<TypedConstraint> constraintsPtr = getNumConstraints() != 0 ? sortedConstraints : null;
 
-			solverCallback.init(solverInfo, constraintSolver, constraintsPtr, sortedConstraints.size(), debugDrawer/*,m_stackAlloc*/, dispatcher1);
+			// same seeding policy is used for serial and parallel solving, so enabling
+			// island executor doesn't change the results:
+			boolean seedSolver = constraintSolver instanceof SequentialImpulseConstraintSolver;
+			long baseSeed = seedSolver? ((SequentialImpulseConstraintSolver) constraintSolver).getRandSeed() : 0L;
+			boolean resetSolver = deterministic || islandExecutor != null;
+
+			solverCallback.init(solverInfo, constraintSolver, constraintsPtr, constraintOffsets, sortedConstraints.size(), debugDrawer/*,m_stackAlloc*/, dispatcher1);
+			solverCallback.setSeeding(seedSolver, baseSeed, resetSolver);
 
 			constraintSolver.prepareSolve(getCollisionWorld().getNumCollisionObjects(), getCollisionWorld().getDispatcher().getNumManifolds());
 
-			// solve all the constraints for this island
-			islandManager.buildAndProcessIslands(getCollisionWorld().getDispatcher(), getCollisionWorld().getCollisionObjectArray(), solverCallback);
+			int numIslands = islandExecutor != null? solveIslandsParallel(solverInfo, constraintsPtr, seedSolver, baseSeed, resetSolver) : -1;
+			if (numIslands >= 0) {
+				getProfiler().setCounter(StepCounter.ISLANDS, numIslands);
+			}
+			else {
+				// solve all the constraints for this island
+				islandManager.buildAndProcessIslands(getCollisionWorld().getDispatcher(), getCollisionWorld().getCollisionObjectArray(), solverCallback);
+				getProfiler().setCounter(StepCounter.ISLANDS, solverCallback.numIslands);
+			}
 
 			constraintSolver.allSolved(solverInfo, debugDrawer/*, m_stackAlloc*/);
+			
+			// world solver state must not depend on which islands it solved itself:
+			if (seedSolver) {
+				((SequentialImpulseConstraintSolver) constraintSolver).setRandSeed((1664525L * baseSeed + 1013904223L) & 0xffffffffL);
+			}
+			else if (resetSolver) {
+				constraintSolver.reset();
+			}
 		}
 		finally {
 			BulletGlobals.popProfile();
 		}
 	}
 
+	/**
+	 * Builds island index first and then solves active islands on islandNumTasks
+	 * tasks, each owning one solver instance. Solvers are seeded (or reset) before
+	 * each island, so the result doesn't depend on which task solved the island.
+	 * Returns number of solved islands, or -1 when no solver instances can be
+	 * created for the world solver (islands are then solved serially).
+	 */
+	private int solveIslandsParallel(ContactSolverInfo solverInfo, List<TypedConstraint> constraintsPtr, boolean seedSolver, long baseSeed, boolean resetSolver) {
+		if (islandSolverUnsupported) {
+			return -1;
+		}
+		if (islandSolverCallbacks.length < islandNumTasks) {
+			InplaceSolverIslandCallback[] callbacks = new InplaceSolverIslandCallback[islandNumTasks];
+			System.arraycopy(islandSolverCallbacks, 0, callbacks, 0, islandSolverCallbacks.length);
+			for (int i=islandSolverCallbacks.length; i<islandNumTasks; i++) {
+				ConstraintSolver solver = createIslandSolver();
+				if (solver == null) {
+					islandSolverUnsupported = true;
+					return -1;
+				}
+				callbacks[i] = new InplaceSolverIslandCallback();
+				callbacks[i].solver = solver;
+			}
+			islandSolverCallbacks = callbacks;
+		}
+
+		islandManager.buildIslands(getCollisionWorld().getDispatcher(), getCollisionWorld().getCollisionObjectArray());
+
+		int numIslands = islandManager.getNumIslands();
+		int numTasks = Math.max(1, Math.min(islandNumTasks, numIslands));
+
+		// solver mode can be changed anytime, keep the task solvers in sync:
+		int solverMode = constraintSolver instanceof SequentialImpulseConstraintSolver?
+				((SequentialImpulseConstraintSolver) constraintSolver).getSolverMode() : -1;
+
+		for (int i=0; i<numTasks; i++) {
+			InplaceSolverIslandCallback callback = islandSolverCallbacks[i];
+			if (solverMode != -1 && callback.solver instanceof SequentialImpulseConstraintSolver) {
+				((SequentialImpulseConstraintSolver) callback.solver).setSolverMode(solverMode);
+			}
+			// JAVA NOTE: debug drawer is not passed, drawing from multiple threads is not supported
+			callback.init(solverInfo, callback.solver, constraintsPtr, constraintOffsets, sortedConstraints.size(), null, dispatcher1);
+			callback.setSeeding(seedSolver, baseSeed, resetSolver);
+			callback.solver.prepareSolve(getCollisionWorld().getNumCollisionObjects(), getCollisionWorld().getDispatcher().getNumManifolds());
+		}
+
+		islandSolverTask.numIslands = numIslands;
+		islandSolverTask.nextIsland.set(0);
+		ParallelTasks.run(islandExecutor, numTasks, islandSolverTask);
+
+		int numSolvedIslands = 0;
+		for (int i=0; i<numTasks; i++) {
+			islandSolverCallbacks[i].solver.allSolved(solverInfo, null);
+			numSolvedIslands += islandSolverCallbacks[i].numIslands;
+		}
+		return numSolvedIslands;
+	}
+
+	/**
+	 * Creates solver instance used by one task in parallel island solving.
+	 * Default implementation supports exactly {@link SequentialImpulseConstraintSolver}
+	 * and {@link SoASequentialImpulseConstraintSolver}, for other solvers (including
+	 * their subclasses) it returns null and islands are solved serially. Override it
+	 * when using other solvers.
+	 */
+	protected ConstraintSolver createIslandSolver() {
+		Class<?> solverClass = constraintSolver.getClass();
+		if (solverClass == SequentialImpulseConstraintSolver.class) {
+			return new SequentialImpulseConstraintSolver();
+		}
+		if (solverClass == SoASequentialImpulseConstraintSolver.class) {
+			return new SoASequentialImpulseConstraintSolver();
+		}
+		return null;
+	}
+
 	protected void calculateSimulationIslands() {
 		BulletGlobals.pushProfile("calculateSimulationIslands");
 		try {
@@ -604,16 +874,27 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		stack.transforms.push();
 		try {
 			Transform predictedTrans = stack.transforms.get();
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			boolean useCcd = getDispatchInfo().useContinuous;
+			int numClamped = 0;
+			List<CollisionObject> objects = activeObjects.getObjects();
+			for (int i = 0; i < objects.size(); i++) {
+				CollisionObject colObj = objects.get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 				if (body != null) {
 					if (body.isActive() && (!body.isStaticOrKinematicObject())) {
 						body.predictIntegratedTransform(timeStep, predictedTrans);
+						
+						if (useCcd && body.getCcdSquareMotionThreshold() != 0f) {
+							if (clampMotion(body, timeStep, predictedTrans)) {
+								numClamped++;
+							}
+						}
+						
 						body.proceedToTransform(predictedTrans);
 					}
 				}
 			}
+			profiler.setCounter(StepCounter.CCD_CLAMPS, numClamped);
 		}
 		finally {
 			stack.transforms.pop();
@@ -621,11 +902,54 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 	}
 	
+	/**
+	 * Clamps the motion of fast moving body to the time of first impact, the
+	 * body is swept as sphere of its CCD swept sphere radius from current to
+	 * predicted position. Only used when square motion exceeds the body's CCD
+	 * square motion threshold. Returns true when the motion was clamped.<p>
+	 * 
+	 * Enabled by {@link DispatcherInfo#useContinuous}. The swept sphere should
+	 * be embedded inside the body's shape, so the clamped body slightly
+	 * penetrates and the contact is resolved in the next step.
+	 */
+	protected boolean clampMotion(RigidBody body, float timeStep, Transform predictedTrans) {
+		stack.vectors.push();
+		try {
+			Vector3f motion = stack.vectors.get();
+			motion.sub(predictedTrans.origin, body.getWorldTransform().origin);
+			if (motion.lengthSquared() <= body.getCcdSquareMotionThreshold() || !body.getCollisionShape().isConvex()) {
+				return false;
+			}
+
+			ccdSphere.init(body.getCcdSweptSphereRadius());
+			ccdSweepResults.init(body, body.getWorldTransform().origin, predictedTrans.origin, getDispatchInfo().allowedCcdPenetration);
+			
+			// rotation is not swept:
+			ccdSweepToTrans.basis.set(body.getWorldTransform().basis);
+			ccdSweepToTrans.origin.set(predictedTrans.origin);
+			
+			BroadphaseProxy proxy = body.getBroadphaseHandle();
+			convexSweepTest(ccdSphere, body.getWorldTransform(), ccdSweepToTrans, ccdSweepResults, proxy != null? proxy.collisionFilterMask : (short)-1);
+			
+			boolean clamped = false;
+			if (ccdSweepResults.hasHit() && ccdSweepResults.closestHitFraction < 1f) {
+				body.predictIntegratedTransform(timeStep * ccdSweepResults.closestHitFraction, predictedTrans);
+				clamped = true;
+			}
+			ccdSweepResults.init(null, motion, motion, 0f);
+			return clamped;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
 	protected void predictUnconstraintMotion(float timeStep) {
 		BulletGlobals.pushProfile("predictUnconstraintMotion");
 		try {
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			List<CollisionObject> objects = activeObjects.getObjects();
+			for (int i = 0; i < objects.size(); i++) {
+				CollisionObject colObj = objects.get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 				if (body != null) {
 					if (!body.isStaticOrKinematicObject()) {
@@ -906,6 +1230,8 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 		ownsConstraintSolver = false;
 		constraintSolver = solver;
+		islandSolverCallbacks = new InplaceSolverIslandCallback[0];
+		islandSolverUnsupported = false;
 	}
 
 	@Override
@@ -940,16 +1266,183 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		return solverInfo;
 	}
 	
+	/**
+	 * Enables solving of simulation islands in parallel. Islands are independent,
+	 * so they're distributed to numTasks tasks (one of them runs on the calling
+	 * thread, the rest is submitted to the executor), each using its own solver
+	 * instance obtained from {@link #createIslandSolver}. When it can't provide
+	 * solver for the world solver, islands are solved serially.<p>
+	 * 
+	 * Sequential impulse solvers are seeded before each island from the seed of
+	 * the world solver and the island id, the same way as in serial solving, so
+	 * the results match the serial solving exactly regardless of number of tasks
+	 * or thread scheduling. Other solvers are reset before each island when an
+	 * executor is set or in deterministic mode (see {@link #setDeterministic}).<p>
+	 * 
+	 * Pass null executor to use the original serial solving.
+	 */
+	public void setIslandExecutor(Executor executor, int numTasks) {
+		islandExecutor = executor;
+		islandNumTasks = Math.max(1, numTasks);
+	}
+
+	public Executor getIslandExecutor() {
+		return islandExecutor;
+	}
+
+	public int getIslandNumTasks() {
+		return islandNumTasks;
+	}
+	
+	/**
+	 * Returns upper bound of size of snapshot of current world state (both full
+	 * and delta).
+	 */
+	public int getSnapshotSize() {
+		return getWorldSnapshot().getMaxSize();
+	}
+	
+	/**
+	 * Writes snapshot of dynamic state into buffer at its current position.
+	 * Snapshot covers transforms, velocities, forces and activation state of
+	 * collision objects, accumulated impulses of constraints, broadphase state,
+	 * overlapping pairs with state of their collision algorithms (contact points
+	 * and cached separating axes), local time and solver random seed. In
+	 * deterministic mode (see {@link #setDeterministic}) simulation continues
+	 * from restored snapshot exactly the same way as it did after capture.<p>
+	 * 
+	 * Structure of world (added objects, constraints and collision shapes) is
+	 * not stored, snapshot can be restored only into the same world (or world
+	 * constructed in the same order) with unchanged structure. Vehicles and
+	 * user persistent data of contact points are not stored.
+	 */
+	public void captureSnapshot(ByteBuffer buf) {
+		getWorldSnapshot().capture(null, buf);
+	}
+	
+	/**
+	 * Writes delta snapshot into buffer at its current position. Only collision
+	 * objects that differ from given full snapshot (starting at base's current
+	 * position) are stored, constraints, broadphase state and overlapping pairs
+	 * are always stored whole.
+	 */
+	public void captureDeltaSnapshot(ByteBuffer base, ByteBuffer buf) {
+		getWorldSnapshot().capture(base, buf);
+	}
+	
+	/**
+	 * Restores state from full snapshot starting at buffer's current position.
+	 * Buffer position is advanced past the snapshot.<p>
+	 * 
+	 * Motion states are not updated, they're synchronized in next call of
+	 * {@link #stepSimulation}.
+	 */
+	public void restoreSnapshot(ByteBuffer buf) {
+		getWorldSnapshot().restore(null, buf);
+	}
+	
+	/**
+	 * Restores state from delta snapshot captured against given full snapshot.
+	 * Position of base is left unchanged.
+	 */
+	public void restoreDeltaSnapshot(ByteBuffer base, ByteBuffer buf) {
+		getWorldSnapshot().restore(base, buf);
+	}
+	
+	/**
+	 * Returns 64-bit hash of current world state, computed from full snapshot
+	 * (see {@link #captureSnapshot}). Comparing hashes of two simulations after
+	 * every step detects the first step in which they diverged, eg. when
+	 * replaying recorded inputs in deterministic mode.
+	 */
+	public long computeStateHash() {
+		int size = getSnapshotSize();
+		if (stateHashBuffer == null || stateHashBuffer.capacity() < size) {
+			stateHashBuffer = ByteBuffer.allocate(Math.max(size, stateHashBuffer != null? stateHashBuffer.capacity() * 2 : 0));
+		}
+		
+		ByteBuffer buf = stateHashBuffer;
+		buf.clear();
+		captureSnapshot(buf);
+		int len = buf.position();
+		
+		// FNV-1a over 64-bit words, with final mixing:
+		long hash = 0xCBF29CE484222325L;
+		int i = 0;
+		for (; i+8 <= len; i+=8) {
+			hash ^= buf.getLong(i);
+			hash *= 0x100000001B3L;
+			hash ^= hash >>> 29;
+		}
+		for (; i<len; i++) {
+			hash ^= buf.get(i) & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		hash ^= hash >>> 32;
+		return hash;
+	}
+	
+	private WorldSnapshot getWorldSnapshot() {
+		if (worldSnapshot == null) {
+			worldSnapshot = new WorldSnapshot(this);
+		}
+		return worldSnapshot;
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	
-	private static final Comparator<TypedConstraint> sortConstraintOnIslandPredicate = new Comparator<TypedConstraint>() {
-		public int compare(TypedConstraint lhs, TypedConstraint rhs) {
-			int rIslandId0, lIslandId0;
-			rIslandId0 = getConstraintIslandId(rhs);
-			lIslandId0 = getConstraintIslandId(lhs);
-			return lIslandId0 < rIslandId0? -1 : +1;
-		}
-	};
+	/**
+	 * Reports closest hit of motion sweep, ignoring the moving body itself,
+	 * objects without contact response and hits where the motion is not going
+	 * into the contact.
+	 */
+	protected static class ClosestNotMeConvexResultCallback extends ClosestConvexResultCallback {
+		private final BulletStack stack = BulletStack.get();
+		
+		private CollisionObject me;
+		private float allowedPenetration;
+		
+		public void init(CollisionObject me, Vector3f fromA, Vector3f toA, float allowedPenetration) {
+			this.me = me;
+			this.allowedPenetration = allowedPenetration;
+			convexFromWorld.set(fromA);
+			convexToWorld.set(toA);
+			closestHitFraction = 1f;
+			hitCollisionObject = null;
+		}
+
+		@Override
+		public float addSingleResult(LocalConvexResult convexResult, boolean normalInWorldSpace) {
+			if (convexResult.hitCollisionObject == me) {
+				return 1f;
+			}
+			
+			// ignore result if there is no contact response
+			if (!convexResult.hitCollisionObject.hasContactResponse()) {
+				return 1f;
+			}
+
+			stack.vectors.push();
+			try {
+				Vector3f hitNormalWorld = stack.vectors.get(convexResult.hitNormalLocal);
+				if (!normalInWorldSpace) {
+					convexResult.hitCollisionObject.getWorldTransform().basis.transform(hitNormalWorld);
+				}
+
+				// don't report time of impact for motion away from the contact normal (or causes minor penetration)
+				Vector3f relativeVelocity = stack.vectors.get();
+				relativeVelocity.sub(convexToWorld, convexFromWorld);
+				if (hitNormalWorld.dot(relativeVelocity) >= -allowedPenetration) {
+					return 1f;
+				}
+			}
+			finally {
+				stack.vectors.pop();
+			}
+
+			return super.addSingleResult(convexResult, normalInWorldSpace);
+		}
+	}
 	
 	private static class DebugDrawcallback implements TriangleCallback, InternalTriangleIndexCallback {
 		private IDebugDraw debugDrawer;
@@ -23,9 +23,11 @@
 
 package javabullet.dynamics;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseProxy;
 import javabullet.collision.dispatch.CollisionFlags;
 import javabullet.collision.dispatch.CollisionObject;
@@ -36,6 +38,7 @@ import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.MotionState;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.TransformUtil;
+import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Matrix3f;
 import javax.vecmath.Quat4f;
 import javax.vecmath.Vector3f;
@@ -222,6 +225,8 @@ public class RigidBody extends CollisionObject {
 	 * Damps the velocity, using the given linearDamping and angularDamping.
 	 */
 	public void applyDamping(float timeStep) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			linearVelocity.scale(MiscUtil.GEN_clamped((1f - timeStep * linearDamping), 0f, 1f));
@@ -294,6 +299,8 @@ public class RigidBody extends CollisionObject {
 	}
 	
 	public void integrateVelocities(float step) {
+		BulletStack stack = BulletStack.get();
+		
 		if (isStaticOrKinematicObject()) {
 			return;
 		}
@@ -351,6 +358,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public void applyForce(Vector3f force, Vector3f rel_pos) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			applyCentralForce(force);
@@ -368,6 +377,8 @@ public class RigidBody extends CollisionObject {
 	}
 	
 	public void applyTorqueImpulse(Vector3f torque) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get(torque);
@@ -380,6 +391,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public void applyImpulse(Vector3f impulse, Vector3f rel_pos) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			if (inverseMass != 0f) {
@@ -415,6 +428,8 @@ public class RigidBody extends CollisionObject {
 	}
 	
 	public void updateInertiaTensor() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.matrices.push();
 		try {
 			Matrix3f mat1 = stack.matrices.get();
@@ -435,6 +450,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public Quat4f getOrientation() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.quats.push();
 		try {
 			Quat4f orn = stack.quats.get();
@@ -469,6 +486,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public Vector3f getVelocityInLocalPoint(Vector3f rel_pos) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			// we also calculate lin/ang velocity for kinematic objects
@@ -494,6 +513,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public float computeImpulseDenominator(Vector3f pos, Vector3f normal) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f r0 = stack.vectors.get();
@@ -516,6 +537,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public float computeAngularImpulseDenominator(Vector3f axis) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f vec = stack.vectors.get();
@@ -636,4 +659,28 @@ public class RigidBody extends CollisionObject {
 		return constraintRefs.size();
 	}
 	
+	@Override
+	public int getSnapshotSize() {
+		return super.getSnapshotSize() + 4*12;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		VectorUtil.put(buf, linearVelocity);
+		VectorUtil.put(buf, angularVelocity);
+		VectorUtil.put(buf, totalForce);
+		VectorUtil.put(buf, totalTorque);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		VectorUtil.get(buf, linearVelocity);
+		VectorUtil.get(buf, angularVelocity);
+		VectorUtil.get(buf, totalForce);
+		VectorUtil.get(buf, totalTorque);
+		updateInertiaTensor();
+	}
+	
 }
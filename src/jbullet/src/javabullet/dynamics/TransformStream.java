@@ -0,0 +1,378 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.dynamics;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import javabullet.linearmath.MatrixUtil;
+import javabullet.linearmath.Transform;
+import javabullet.linearmath.TransformUtil;
+import javabullet.util.IntArrayList;
+import javax.vecmath.Quat4f;
+
+/**
+ * TransformStream exports interpolated world transforms of registered rigid
+ * bodies into float buffers in one pass, for render threads and network code.
+ * It's filled by {@link DiscreteDynamicsWorld#setTransformStream DiscreteDynamicsWorld}
+ * at the end of each stepSimulation (not for each substep).<p>
+ * 
+ * Each body occupies one slot in the buffer, the slot is returned from {@link #add}.
+ * Exported transform is the center of mass transform (motion state offsets
+ * are not applied).<p>
+ * 
+ * The stream is double-buffered: the world writes into back frame while other
+ * threads read front frame (see {@link #getFrontFrame}), frames are swapped
+ * after each step. Reading doesn't lock, reader obtains {@link Frame#getSequence}
+ * before reading and checks that the frame wasn't overwritten in the meantime
+ * (ie. the reading took longer than the step) using {@link Frame#validate},
+ * data read from frame that fails validation must be discarded. Each frame contains change mask of slots that changed
+ * since the previous frame, sleeping bodies are not written and their bits are
+ * cleared.
+ * 
+ * @author jezek2
+ */
+public class TransformStream {
+	
+	public enum Format {
+		/** Column-major 4x4 matrix, as returned by {@link Transform#getOpenGLMatrix}. */
+		OPENGL_MATRIX(16),
+		/** Position (x, y, z) followed by rotation quaternion (x, y, z, w). */
+		POSITION_ROTATION(7);
+		
+		private final int floatCount;
+		
+		private Format(int floatCount) {
+			this.floatCount = floatCount;
+		}
+		
+		public int getFloatCount() {
+			return floatCount;
+		}
+	}
+	
+	private final Format format;
+	private final int stride;
+	private final int capacity;
+	private final Frame[] frames = new Frame[2];
+	private volatile int frontFrame;
+	private int frameNumber;
+	
+	// slot data:
+	private final RigidBody[] bodies;
+	private final int[] lastChange;
+	private final boolean[] wasActive;
+	private final HashMap<RigidBody,Integer> slots = new HashMap<RigidBody,Integer>();
+	private final IntArrayList freeSlots = new IntArrayList();
+	private int numSlots;
+	
+	private final Transform interpolatedTransform = new Transform();
+	private final float[] tmpMatrix = new float[16];
+	private final Quat4f tmpQuat = new Quat4f();
+	
+	/**
+	 * Creates stream writing into given arrays, number of slots is given by
+	 * size of the smaller array.
+	 */
+	public TransformStream(Format format, float[] buffer0, float[] buffer1) {
+		this(format, Math.min(buffer0.length, buffer1.length) / format.getFloatCount());
+		frames[0] = new Frame(buffer0, null, capacity);
+		frames[1] = new Frame(buffer1, null, capacity);
+	}
+	
+	/**
+	 * Creates stream writing into given buffers (using absolute indexing from
+	 * zero), number of slots is given by capacity of the smaller buffer.
+	 */
+	public TransformStream(Format format, FloatBuffer buffer0, FloatBuffer buffer1) {
+		this(format, Math.min(buffer0.capacity(), buffer1.capacity()) / format.getFloatCount());
+		frames[0] = new Frame(null, buffer0, capacity);
+		frames[1] = new Frame(null, buffer1, capacity);
+	}
+	
+	private TransformStream(Format format, int capacity) {
+		this.format = format;
+		this.stride = format.getFloatCount();
+		this.capacity = capacity;
+		bodies = new RigidBody[capacity];
+		lastChange = new int[capacity];
+		wasActive = new boolean[capacity];
+	}
+	
+	/**
+	 * Registers body to the stream, returns assigned slot or -1 when there
+	 * is no free slot. Slots of removed bodies are reused.
+	 */
+	public int add(RigidBody body) {
+		Integer existing = slots.get(body);
+		if (existing != null) {
+			return existing.intValue();
+		}
+		
+		int slot;
+		if (freeSlots.size() > 0) {
+			slot = freeSlots.remove(freeSlots.size() - 1);
+		}
+		else if (numSlots < capacity) {
+			slot = numSlots++;
+		}
+		else {
+			return -1;
+		}
+		
+		bodies[slot] = body;
+		wasActive[slot] = false;
+		// written in next frame even when sleeping:
+		lastChange[slot] = frameNumber + 1;
+		slots.put(body, slot);
+		return slot;
+	}
+	
+	/**
+	 * Unregisters body from the stream, returns its former slot or -1.
+	 */
+	public int remove(RigidBody body) {
+		Integer slot = slots.remove(body);
+		if (slot == null) {
+			return -1;
+		}
+		bodies[slot] = null;
+		freeSlots.add(slot);
+		return slot;
+	}
+	
+	public int getSlot(RigidBody body) {
+		Integer slot = slots.get(body);
+		return (slot != null)? slot.intValue() : -1;
+	}
+	
+	public RigidBody getBody(int slot) {
+		return bodies[slot];
+	}
+	
+	/**
+	 * Returns number of used slots (including free slots in between).
+	 */
+	public int getNumSlots() {
+		return numSlots;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public Format getFormat() {
+		return format;
+	}
+	
+	/**
+	 * Returns frame with data of last finished step. Can be called from any thread.
+	 */
+	public Frame getFrontFrame() {
+		return frames[frontFrame];
+	}
+	
+	/**
+	 * Writes interpolated transforms of bodies into back frame and swaps frames.
+	 * Called by the world.
+	 * 
+	 * @param timeStep time from last simulation step, used for interpolation
+	 */
+	public void write(float timeStep) {
+		int frameNum = ++frameNumber;
+		Frame frame = frames[frontFrame ^ 1];
+		
+		frame.sequence++; // odd, writing in progress
+		// JAVA NOTE: volatile read keeps following data writes after the odd
+		// sequence (volatile write followed by volatile read isn't reordered),
+		// see Frame.validate
+		int readerSync = frame.readerSync;
+		
+		int[] changeMask = frame.changeMask;
+		int[] writtenFrame = frame.writtenFrame;
+		for (int i=0; i<changeMask.length; i++) {
+			changeMask[i] = 0;
+		}
+		
+		for (int slot=0; slot<numSlots; slot++) {
+			RigidBody body = bodies[slot];
+			if (body == null) {
+				continue;
+			}
+			
+			// body falling asleep moved in the last step too:
+			boolean active = body.isActive();
+			if (active || wasActive[slot]) {
+				lastChange[slot] = frameNum;
+			}
+			wasActive[slot] = active;
+			
+			if (lastChange[slot] == frameNum) {
+				changeMask[slot >>> 5] |= 1 << (slot & 31);
+				
+				if (body.isStaticOrKinematicObject()) {
+					interpolatedTransform.set(body.getWorldTransform());
+				}
+				else {
+					TransformUtil.integrateTransform(body.getInterpolationWorldTransform(),
+							body.getInterpolationLinearVelocity(), body.getInterpolationAngularVelocity(), timeStep, interpolatedTransform);
+				}
+				writeTransform(frame, slot * stride, interpolatedTransform);
+				writtenFrame[slot] = frameNum;
+			}
+			else if (writtenFrame[slot] < lastChange[slot]) {
+				// the other frame has newer data of sleeping body:
+				copyTransform(frames[frontFrame], frame, slot * stride);
+				writtenFrame[slot] = frameNum;
+			}
+		}
+		
+		frame.frameNumber = frameNum;
+		frame.numSlots = numSlots;
+		frame.sequence++; // even, done
+		
+		frontFrame ^= 1;
+	}
+	
+	private void writeTransform(Frame frame, int offset, Transform trans) {
+		float[] data = tmpMatrix;
+		if (format == Format.OPENGL_MATRIX) {
+			trans.getOpenGLMatrix(data);
+		}
+		else {
+			MatrixUtil.getRotation(trans.basis, tmpQuat);
+			data[0] = trans.origin.x;
+			data[1] = trans.origin.y;
+			data[2] = trans.origin.z;
+			data[3] = tmpQuat.x;
+			data[4] = tmpQuat.y;
+			data[5] = tmpQuat.z;
+			data[6] = tmpQuat.w;
+		}
+		
+		if (frame.array != null) {
+			System.arraycopy(data, 0, frame.array, offset, stride);
+		}
+		else {
+			FloatBuffer buf = frame.buffer;
+			for (int i=0; i<stride; i++) {
+				buf.put(offset + i, data[i]);
+			}
+		}
+	}
+	
+	private void copyTransform(Frame src, Frame dest, int offset) {
+		if (src.array != null) {
+			System.arraycopy(src.array, offset, dest.array, offset, stride);
+		}
+		else {
+			for (int i=0; i<stride; i++) {
+				dest.buffer.put(offset + i, src.buffer.get(offset + i));
+			}
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * One of the two buffers of the stream.
+	 */
+	public static class Frame {
+		private final float[] array;
+		private final FloatBuffer buffer;
+		private final int[] changeMask;
+		private final int[] writtenFrame;
+		private volatile int sequence;
+		private volatile int readerSync;
+		private int frameNumber;
+		private int numSlots;
+		
+		private Frame(float[] array, FloatBuffer buffer, int capacity) {
+			this.array = array;
+			this.buffer = buffer;
+			changeMask = new int[(capacity + 31) >>> 5];
+			writtenFrame = new int[capacity];
+		}
+		
+		/**
+		 * Returns sequence number to be checked by {@link #validate} after reading,
+		 * must be called before reading any data of the frame.
+		 */
+		public int getSequence() {
+			return sequence;
+		}
+		
+		/**
+		 * Returns true when the frame wasn't modified since given sequence
+		 * number was obtained, otherwise read data may be inconsistent.
+		 */
+		public boolean validate(int sequence) {
+			// JAVA NOTE: volatile write keeps preceding data reads before the
+			// second read of sequence; either the writer's read of readerSync
+			// sees this write (and the data reads happen-before its writes), or
+			// this read of sequence sees writer's odd increment
+			readerSync = sequence;
+			return (sequence & 1) == 0 && this.sequence == sequence;
+		}
+		
+		/**
+		 * Array with transform data, or null when the stream uses FloatBuffer.
+		 */
+		public float[] getArray() {
+			return array;
+		}
+		
+		/**
+		 * Buffer with transform data, or null when the stream uses float array.
+		 */
+		public FloatBuffer getBuffer() {
+			return buffer;
+		}
+		
+		/**
+		 * Returns true when transform in given slot changed since previous frame.
+		 */
+		public boolean isChanged(int slot) {
+			return (changeMask[slot >>> 5] & (1 << (slot & 31))) != 0;
+		}
+		
+		/**
+		 * Returns change mask, one bit per slot (bit (slot &amp; 31) of word slot/32).
+		 */
+		public int[] getChangeMask() {
+			return changeMask;
+		}
+		
+		/**
+		 * Returns serial number of the frame, increasing by one with each step.
+		 */
+		public int getFrameNumber() {
+			return frameNumber;
+		}
+		
+		public int getNumSlots() {
+			return numSlots;
+		}
+	}
+	
+}
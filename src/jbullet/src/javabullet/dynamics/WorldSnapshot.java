@@ -0,0 +1,445 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.dynamics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.BroadphasePair;
+import javabullet.collision.broadphase.BroadphaseProxy;
+import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.broadphase.OverlappingPairCache;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+
+/**
+ * Binary snapshots of {@link DiscreteDynamicsWorld} state, see
+ * {@link DiscreteDynamicsWorld#captureSnapshot}.<p>
+ * 
+ * Layout (in byte order of the buffer):
+ * <ul>
+ * <li>header: magic, version, flags, number of collision objects, number of
+ *     constraints, local time, solver random seed</li>
+ * <li>broadphase state</li>
+ * <li>collision objects: for delta snapshot bit mask of changed objects
+ *     followed by records of changed objects only, for full snapshot records
+ *     of all objects in world order, record contains also state of the
+ *     broadphase proxy</li>
+ * <li>constraints: record of every constraint in world order</li>
+ * <li>overlapping pairs: count, byte length, for each pair (in order of pair
+ *     cache) body indices and state of collision algorithm (manifolds and
+ *     cached data), followed by dispatcher indices of all manifolds in order
+ *     returned by the algorithms</li>
+ * </ul>
+ * 
+ * Objects and constraints are identified by their index in world, snapshot
+ * can only be restored into the same world or identically constructed one.
+ * Restore recreates overlapping pairs, collision algorithms and manifolds that
+ * were present at capture time (and removes others), and puts the manifolds
+ * back into the same order in the dispatcher.
+ * 
+ * @author jezek2
+ */
+final class WorldSnapshot {
+
+	private static final int MAGIC = 0x4A425353; // "JBSS"
+	private static final int VERSION = 2;
+	private static final int FLAG_DELTA = 1;
+	
+	private static final int HEADER_SIZE = 6*4 + 8;
+	
+	private final DiscreteDynamicsWorld world;
+	
+	// JAVA NOTE: temporary storage reused between captures and restores
+	private final List<PersistentManifold> manifoldArray = new ArrayList<PersistentManifold>();
+	private PersistentManifold[] sortedManifolds = new PersistentManifold[64];
+	
+	public WorldSnapshot(DiscreteDynamicsWorld world) {
+		this.world = world;
+	}
+	
+	public int getMaxSize() {
+		List<CollisionObject> objects = world.getCollisionObjectArray();
+		BroadphaseInterface broadphase = world.getBroadphase();
+		int size = HEADER_SIZE + broadphase.getSnapshotSize();
+		
+		size += ((objects.size() + 31) >>> 5) * 4;
+		for (int i=0; i<objects.size(); i++) {
+			size += getRecordSize(objects.get(i), broadphase);
+		}
+		
+		for (int i=0; i<world.constraints.size(); i++) {
+			size += world.constraints.get(i).getSnapshotSize();
+		}
+		
+		OverlappingPairCache pairCache = getOverlappingPairCache();
+		size += 2*4;
+		for (int i=0; i<pairCache.getCount(); i++) {
+			BroadphasePair pair = pairCache.getOverlappingPair(i);
+			size += 3*4 + (pair.algorithm != null? pair.algorithm.getSnapshotSize() : 0);
+		}
+		size += 4 + world.getDispatcher().getNumManifolds() * 4;
+		return size;
+	}
+	
+	public void capture(ByteBuffer base, ByteBuffer buf) {
+		List<CollisionObject> objects = world.getCollisionObjectArray();
+		int numObjects = objects.size();
+		int numConstraints = world.constraints.size();
+		BroadphaseInterface broadphase = world.getBroadphase();
+		int headerSize = HEADER_SIZE + broadphase.getSnapshotSize();
+		
+		if (base != null) {
+			checkHeader(base, false);
+		}
+		
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(base != null? FLAG_DELTA : 0);
+		buf.putInt(numObjects);
+		buf.putInt(numConstraints);
+		buf.putFloat(world.localTime);
+		buf.putLong(getSolverSeed());
+		broadphase.writeSnapshot(buf);
+		
+		// collision objects:
+		if (base != null) {
+			int maskPos = buf.position();
+			int numWords = (numObjects + 31) >>> 5;
+			for (int i=0; i<numWords; i++) {
+				buf.putInt(0);
+			}
+			
+			int basePos = base.position() + headerSize;
+			int mask = 0;
+			for (int i=0; i<numObjects; i++) {
+				CollisionObject colObj = objects.get(i);
+				int size = getRecordSize(colObj, broadphase);
+				int pos = buf.position();
+				writeRecord(colObj, broadphase, buf);
+				
+				if (equalRegions(buf, pos, base, basePos, size)) {
+					// unchanged, discard record:
+					buf.position(pos);
+				}
+				else {
+					mask |= 1 << (i & 31);
+				}
+				basePos += size;
+				
+				if ((i & 31) == 31 || i == numObjects-1) {
+					buf.putInt(maskPos + (i >>> 5) * 4, mask);
+					mask = 0;
+				}
+			}
+		}
+		else {
+			for (int i=0; i<numObjects; i++) {
+				writeRecord(objects.get(i), broadphase, buf);
+			}
+		}
+		
+		// constraints:
+		for (int i=0; i<numConstraints; i++) {
+			world.constraints.get(i).writeSnapshot(buf);
+		}
+		
+		// overlapping pairs:
+		assignObjectIndices(objects);
+		try {
+			OverlappingPairCache pairCache = getOverlappingPairCache();
+			int numPairs = pairCache.getCount();
+			buf.putInt(numPairs);
+			int lengthPos = buf.position();
+			buf.putInt(0);
+			int start = buf.position();
+			
+			for (int i=0; i<numPairs; i++) {
+				BroadphasePair pair = pairCache.getOverlappingPair(i);
+				buf.putInt(((CollisionObject)pair.pProxy0.clientObject).getCompanionId());
+				buf.putInt(((CollisionObject)pair.pProxy1.clientObject).getCompanionId());
+				if (pair.algorithm != null) {
+					int sizePos = buf.position();
+					buf.putInt(0);
+					pair.algorithm.writeSnapshot(buf);
+					buf.putInt(sizePos, buf.position() - sizePos - 4);
+					pair.algorithm.getAllContactManifolds(manifoldArray);
+				}
+				else {
+					buf.putInt(-1);
+				}
+			}
+			
+			buf.putInt(manifoldArray.size());
+			for (int i=0; i<manifoldArray.size(); i++) {
+				buf.putInt(manifoldArray.get(i).index1a);
+			}
+			buf.putInt(lengthPos, buf.position() - start);
+		}
+		finally {
+			manifoldArray.clear();
+			clearObjectIndices(objects);
+		}
+	}
+	
+	public void restore(ByteBuffer base, ByteBuffer buf) {
+		List<CollisionObject> objects = world.getCollisionObjectArray();
+		int numObjects = objects.size();
+		int numConstraints = world.constraints.size();
+		BroadphaseInterface broadphase = world.getBroadphase();
+		int headerSize = HEADER_SIZE + broadphase.getSnapshotSize();
+		
+		if (base != null) {
+			checkHeader(base, false);
+		}
+		checkHeader(buf, base != null);
+		
+		buf.position(buf.position() + 5*4);
+		world.localTime = buf.getFloat();
+		setSolverSeed(buf.getLong());
+		broadphase.readSnapshot(buf);
+		
+		// collision objects:
+		if (base != null) {
+			int maskPos = buf.position();
+			buf.position(maskPos + ((numObjects + 31) >>> 5) * 4);
+			
+			int origBasePos = base.position();
+			int basePos = origBasePos + headerSize;
+			try {
+				int mask = 0;
+				for (int i=0; i<numObjects; i++) {
+					if ((i & 31) == 0) {
+						mask = buf.getInt(maskPos + (i >>> 5) * 4);
+					}
+
+					CollisionObject colObj = objects.get(i);
+					int size = getRecordSize(colObj, broadphase);
+					if ((mask & (1 << (i & 31))) != 0) {
+						readRecord(colObj, broadphase, buf);
+					}
+					else {
+						base.position(basePos);
+						readRecord(colObj, broadphase, base);
+					}
+					basePos += size;
+				}
+			}
+			finally {
+				base.position(origBasePos);
+			}
+		}
+		else {
+			for (int i=0; i<numObjects; i++) {
+				readRecord(objects.get(i), broadphase, buf);
+			}
+		}
+		
+		// constraints:
+		for (int i=0; i<numConstraints; i++) {
+			world.constraints.get(i).readSnapshot(buf);
+		}
+		
+		// overlapping pairs:
+		Dispatcher dispatcher = world.getDispatcher();
+		OverlappingPairCache pairCache = broadphase.getOverlappingPairCache();
+		int numPairs = buf.getInt();
+		int length = buf.getInt();
+		int start = buf.position();
+		
+		// pairs that are not added back are removed after all pairs are restored,
+		// existing pairs keep their algorithms:
+		pairCache.removeAllOverlappingPairsDeferred();
+		
+		for (int i=0; i<numPairs; i++) {
+			CollisionObject body0 = objects.get(buf.getInt());
+			CollisionObject body1 = objects.get(buf.getInt());
+			int size = buf.getInt();
+			
+			BroadphaseProxy proxy0 = body0.getBroadphaseHandle();
+			BroadphaseProxy proxy1 = body1.getBroadphaseHandle();
+			BroadphasePair pair = pairCache.addOverlappingPair(proxy0, proxy1);
+			if (pair == null) {
+				// filtered out since capture
+				buf.position(buf.position() + Math.max(size, 0));
+				continue;
+			}
+			
+			if (pair.pProxy0 != proxy0) {
+				// algorithm depends on order of bodies:
+				pairCache.cleanOverlappingPair(pair, dispatcher);
+				pair.pProxy0 = proxy0;
+				pair.pProxy1 = proxy1;
+			}
+			
+			if (size < 0) {
+				pairCache.cleanOverlappingPair(pair, dispatcher);
+			}
+			else {
+				int pos = buf.position();
+				if (pair.algorithm == null) {
+					pair.algorithm = dispatcher.findAlgorithm(body0, body1);
+				}
+				pair.algorithm.readSnapshot(buf, body0, body1);
+				assert (buf.position() == pos + size);
+				
+				// algorithms of restored pairs are kept when other pairs are removed or sorted:
+				pair.algorithm.getAllContactManifolds(manifoldArray);
+			}
+		}
+		
+		pairCache.flushDeferredRemovals(dispatcher);
+		if (world.isDeterministic()) {
+			// pairs were sorted at capture time:
+			pairCache.sortOverlappingPairs(dispatcher);
+		}
+		
+		// manifolds are solved in order of dispatcher, put them back to the same positions:
+		int numManifolds = buf.getInt();
+		if (numManifolds == manifoldArray.size()) {
+			reorderManifolds(buf, dispatcher.getInternalManifoldPointer());
+		}
+		manifoldArray.clear();
+		
+		buf.position(start + length);
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private OverlappingPairCache getOverlappingPairCache() {
+		OverlappingPairCache pairCache = world.getBroadphase().getOverlappingPairCache();
+		if (pairCache.hasDeferredRemovals()) {
+			// removals are flushed in next dispatch anyway:
+			pairCache.flushDeferredRemovals(world.getDispatcher());
+		}
+		return pairCache;
+	}
+	
+	private static int getRecordSize(CollisionObject colObj, BroadphaseInterface broadphase) {
+		return colObj.getSnapshotSize() + broadphase.getProxySnapshotSize();
+	}
+	
+	private static void writeRecord(CollisionObject colObj, BroadphaseInterface broadphase, ByteBuffer buf) {
+		colObj.writeSnapshot(buf);
+		broadphase.writeProxySnapshot(colObj.getBroadphaseHandle(), buf);
+	}
+	
+	private static void readRecord(CollisionObject colObj, BroadphaseInterface broadphase, ByteBuffer buf) {
+		colObj.readSnapshot(buf);
+		broadphase.readProxySnapshot(colObj.getBroadphaseHandle(), buf);
+	}
+	
+	/**
+	 * Moves manifolds of restored pairs (in manifoldArray) to dispatcher indices
+	 * stored in buffer. Order is left unchanged when the indices don't cover all
+	 * manifolds in dispatcher.
+	 */
+	private void reorderManifolds(ByteBuffer buf, List<PersistentManifold> manifolds) {
+		int num = manifoldArray.size();
+		if (num != manifolds.size()) {
+			buf.position(buf.position() + num * 4);
+			return;
+		}
+		
+		if (sortedManifolds.length < num) {
+			sortedManifolds = new PersistentManifold[Math.max(num, sortedManifolds.length << 1)];
+		}
+		PersistentManifold[] sorted = sortedManifolds;
+		boolean valid = true;
+		for (int i=0; i<num; i++) {
+			int index = buf.getInt();
+			if (index < 0 || index >= num || sorted[index] != null) {
+				valid = false;
+				continue;
+			}
+			sorted[index] = manifoldArray.get(i);
+		}
+		
+		for (int i=0; i<num; i++) {
+			if (valid) {
+				manifolds.set(i, sorted[i]);
+				sorted[i].index1a = i;
+			}
+			sorted[i] = null;
+		}
+	}
+	
+	private void checkHeader(ByteBuffer buf, boolean delta) {
+		int pos = buf.position();
+		if (buf.getInt(pos) != MAGIC || buf.getInt(pos + 4) != VERSION) {
+			throw new IllegalArgumentException("not a world snapshot");
+		}
+		if (((buf.getInt(pos + 8) & FLAG_DELTA) != 0) != delta) {
+			throw new IllegalArgumentException(delta? "delta snapshot expected" : "full snapshot expected");
+		}
+		if (buf.getInt(pos + 12) != world.getCollisionObjectArray().size() || buf.getInt(pos + 16) != world.constraints.size()) {
+			throw new IllegalArgumentException("snapshot doesn't match world");
+		}
+	}
+	
+	private long getSolverSeed() {
+		if (world.constraintSolver instanceof SequentialImpulseConstraintSolver) {
+			return ((SequentialImpulseConstraintSolver)world.constraintSolver).getRandSeed();
+		}
+		return 0L;
+	}
+	
+	private void setSolverSeed(long seed) {
+		if (world.constraintSolver instanceof SequentialImpulseConstraintSolver) {
+			((SequentialImpulseConstraintSolver)world.constraintSolver).setRandSeed(seed);
+		}
+	}
+	
+	// JAVA NOTE: companion id is used as scratch for object indices, it's
+	// reassigned by SimulationIslandManager in every step before it's used
+	private static void assignObjectIndices(List<CollisionObject> objects) {
+		for (int i=0; i<objects.size(); i++) {
+			objects.get(i).setCompanionId(i);
+		}
+	}
+	
+	private static void clearObjectIndices(List<CollisionObject> objects) {
+		for (int i=0; i<objects.size(); i++) {
+			objects.get(i).setCompanionId(-1);
+		}
+	}
+	
+	private static boolean equalRegions(ByteBuffer buf1, int pos1, ByteBuffer buf2, int pos2, int size) {
+		int i = 0;
+		for (; i+8 <= size; i+=8) {
+			if (buf1.getLong(pos1 + i) != buf2.getLong(pos2 + i)) {
+				return false;
+			}
+		}
+		for (; i < size; i++) {
+			if (buf1.get(pos1 + i) != buf2.get(pos2 + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+}
@@ -25,7 +25,9 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.linearmath.QuaternionUtil;
 import javabullet.linearmath.ScalarUtil;
@@ -43,6 +45,7 @@ import javax.vecmath.Vector3f;
 public class ConeTwistConstraint extends TypedConstraint {
 
 	private JacobianEntry[] jac/*[3]*/ = new JacobianEntry[] { new JacobianEntry(), new JacobianEntry(), new JacobianEntry() }; //3 orthogonal linear constraints
+	private final Vector3f[] jacNormal/*[3]*/ = new Vector3f[] { new Vector3f(), new Vector3f(), new Vector3f() }; // scratch for buildJacobian
 
 	private final Transform rbAFrame = new Transform();
 	private final Transform rbBFrame = new Transform();
@@ -122,6 +125,8 @@ public class ConeTwistConstraint extends TypedConstraint {
 	
 	@Override
 	public void buildJacobian() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		stack.quats.push();
 		try {
@@ -149,8 +154,7 @@ public class ConeTwistConstraint extends TypedConstraint {
 				Vector3f relPos = stack.vectors.get();
 				relPos.sub(pivotBInW, pivotAInW);
 
-				// TODO: stack
-				Vector3f[] normal/*[3]*/ = new Vector3f[]{stack.vectors.get(), stack.vectors.get(), stack.vectors.get()};
+				Vector3f[] normal/*[3]*/ = jacNormal;
 				if (relPos.lengthSquared() > BulletGlobals.FLT_EPSILON) {
 					normal[0].normalize(relPos);
 				}
@@ -275,6 +279,8 @@ public class ConeTwistConstraint extends TypedConstraint {
 
 	@Override
 	public void solveConstraint(float timeStep) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -416,4 +422,23 @@ public class ConeTwistConstraint extends TypedConstraint {
 		return twistLimitSign;
 	}
 	
+	@Override
+	public int getSnapshotSize() {
+		return super.getSnapshotSize() + 2*4;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		buf.putFloat(accSwingLimitImpulse);
+		buf.putFloat(accTwistLimitImpulse);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		accSwingLimitImpulse = buf.getFloat();
+		accTwistLimitImpulse = buf.getFloat();
+	}
+	
 }
@@ -24,7 +24,6 @@
 package javabullet.dynamics.constraintsolver;
 
 import java.util.List;
-import javabullet.BulletStack;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.narrowphase.PersistentManifold;
@@ -36,8 +35,6 @@ import javabullet.linearmath.IDebugDraw;
  */
 public abstract class ConstraintSolver {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	public void prepareSolve (int numBodies, int numManifolds) {}
 
 	/**
@@ -70,7 +70,7 @@ public class ContactConstraint {
 		}
 
 		BulletStack stack = BulletStack.get();
-		ObjectPool<JacobianEntry> jacobiansPool = BulletPool.get(JacobianEntry.class);
+		ObjectPool<JacobianEntry> jacobiansPool = BulletPool.get(JacobianEntry.class, JacobianEntry.FACTORY);
 		
 		stack.pushCommonMath();
 		try {
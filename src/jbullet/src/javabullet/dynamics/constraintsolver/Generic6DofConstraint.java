@@ -30,9 +30,12 @@ http://gimpact.sf.net
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.linearmath.MatrixUtil;
+import javabullet.linearmath.ScalarUtil;
 import javabullet.linearmath.Transform;
 
 
@@ -129,14 +132,14 @@ public class Generic6DofConstraint extends TypedConstraint {
 
 		if (getMatrixElem(mat, 2) < 1.0f) {
 			if (getMatrixElem(mat, 2) > -1.0f) {
-				xyz.x = (float) Math.atan2(-getMatrixElem(mat, 5), getMatrixElem(mat, 8));
-				xyz.y = (float) Math.asin(getMatrixElem(mat, 2));
-				xyz.z = (float) Math.atan2(-getMatrixElem(mat, 1), getMatrixElem(mat, 0));
+				xyz.x = (float) ScalarUtil.atan2(-getMatrixElem(mat, 5), getMatrixElem(mat, 8));
+				xyz.y = (float) ScalarUtil.asin(getMatrixElem(mat, 2));
+				xyz.z = (float) ScalarUtil.atan2(-getMatrixElem(mat, 1), getMatrixElem(mat, 0));
 				return true;
 			}
 			else {
 				// WARNING.  Not unique.  XA - ZA = -atan2(r10,r11)
-				xyz.x = -(float) Math.atan2(getMatrixElem(mat, 3), getMatrixElem(mat, 4));
+				xyz.x = -(float) ScalarUtil.atan2(getMatrixElem(mat, 3), getMatrixElem(mat, 4));
 				xyz.y = -BulletGlobals.SIMD_HALF_PI;
 				xyz.z = 0.0f;
 				return false;
@@ -144,7 +147,7 @@ public class Generic6DofConstraint extends TypedConstraint {
 		}
 		else {
 			// WARNING.  Not unique.  XAngle + ZAngle = atan2(r10,r11)
-			xyz.x = (float) Math.atan2(getMatrixElem(mat, 3), getMatrixElem(mat, 4));
+			xyz.x = (float) ScalarUtil.atan2(getMatrixElem(mat, 3), getMatrixElem(mat, 4));
 			xyz.y = BulletGlobals.SIMD_HALF_PI;
 			xyz.z = 0.0f;
 		}
@@ -156,6 +159,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	 * Calcs the euler angles between the two bodies.
 	 */
 	protected void calculateAngleInfo() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Matrix3f mat = stack.matrices.get();
@@ -225,6 +230,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	}
 	
 	protected void buildLinearJacobian(/*JacobianEntry jacLinear*/int jacLinear_index, Vector3f normalWorld, Vector3f pivotAInW, Vector3f pivotBInW) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Matrix3f mat1 = stack.matrices.get(rbA.getCenterOfMassTransform().basis);
@@ -256,6 +263,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	}
 
 	protected void buildAngularJacobian(/*JacobianEntry jacAngular*/int jacAngular_index, Vector3f jointAxisW) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.matrices.push();
 		try {
 			Matrix3f mat1 = stack.matrices.get(rbA.getCenterOfMassTransform().basis);
@@ -290,6 +299,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	
 	@Override
 	public void buildJacobian() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			// calculates transform
@@ -340,6 +351,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 
 	@Override
 	public void solveConstraint(float timeStep) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			this.timeStep = timeStep;
@@ -502,4 +515,27 @@ public class Generic6DofConstraint extends TypedConstraint {
 		return angularLimits[limitIndex - 3].isLimited();
 	}
 	
+	@Override
+	public int getSnapshotSize() {
+		return super.getSnapshotSize() + 12 + 3*4;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		VectorUtil.put(buf, linearLimits.accumulatedImpulse);
+		for (int i=0; i<3; i++) {
+			buf.putFloat(angularLimits[i].accumulatedImpulse);
+		}
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		VectorUtil.get(buf, linearLimits.accumulatedImpulse);
+		for (int i=0; i<3; i++) {
+			angularLimits[i].accumulatedImpulse = buf.getFloat();
+		}
+	}
+	
 }
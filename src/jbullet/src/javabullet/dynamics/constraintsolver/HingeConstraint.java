@@ -25,7 +25,9 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.linearmath.QuaternionUtil;
 import javabullet.linearmath.ScalarUtil;
@@ -45,6 +47,7 @@ public class HingeConstraint extends TypedConstraint {
 
 	private JacobianEntry[] jac/*[3]*/ = new JacobianEntry[] { new JacobianEntry(), new JacobianEntry(), new JacobianEntry() }; // 3 orthogonal linear constraints
 	private JacobianEntry[] jacAng/*[3]*/ = new JacobianEntry[] { new JacobianEntry(), new JacobianEntry(), new JacobianEntry() }; // 2 orthogonal angular constraints+ 1 for limit/motor
+	private final Vector3f[] jacNormal/*[3]*/ = new Vector3f[] { new Vector3f(), new Vector3f(), new Vector3f() }; // scratch for buildJacobian
 
 	private final Transform rbAFrame = new Transform(); // constraint axii. Assumes z is hinge axis.
 	private final Transform rbBFrame = new Transform();
@@ -77,6 +80,8 @@ public class HingeConstraint extends TypedConstraint {
 
 	public HingeConstraint(RigidBody rbA, RigidBody rbB, Vector3f pivotInA, Vector3f pivotInB, Vector3f axisInA, Vector3f axisInB) {
 		super(TypedConstraintType.HINGE_CONSTRAINT_TYPE, rbA, rbB);
+		BulletStack stack = BulletStack.get();
+		
 		angularOnly = false;
 		enableAngularMotor = false;
 
@@ -131,6 +136,8 @@ public class HingeConstraint extends TypedConstraint {
 
 	public HingeConstraint(RigidBody rbA, Vector3f pivotInA, Vector3f axisInA) {
 		super(TypedConstraintType.HINGE_CONSTRAINT_TYPE, rbA);
+		BulletStack stack = BulletStack.get();
+		
 		angularOnly = false;
 		enableAngularMotor = false;
 
@@ -237,6 +244,8 @@ public class HingeConstraint extends TypedConstraint {
 	
 	@Override
 	public void buildJacobian() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -257,7 +266,7 @@ public class HingeConstraint extends TypedConstraint {
 				Vector3f relPos = stack.vectors.get();
 				relPos.sub(pivotBInW, pivotAInW);
 
-				Vector3f[] normal/*[3]*/ = new Vector3f[]{stack.vectors.get(), stack.vectors.get(), stack.vectors.get()};
+				Vector3f[] normal/*[3]*/ = jacNormal;
 				if (relPos.lengthSquared() > BulletGlobals.FLT_EPSILON) {
 					normal[0].set(relPos);
 					normal[0].normalize();
@@ -370,6 +379,8 @@ public class HingeConstraint extends TypedConstraint {
 
 	@Override
 	public void solveConstraint(float timeStep) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -548,6 +559,8 @@ public class HingeConstraint extends TypedConstraint {
 	}
 
 	public float getHingeAngle() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f refAxis0 = stack.vectors.get();
@@ -616,4 +629,21 @@ public class HingeConstraint extends TypedConstraint {
 		return limitSign;
 	}
 	
+	@Override
+	public int getSnapshotSize() {
+		return super.getSnapshotSize() + 4;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		buf.putFloat(accLimitImpulse);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		accLimitImpulse = buf.getFloat();
+	}
+	
 }
@@ -25,6 +25,7 @@ package javabullet.dynamics.constraintsolver;
 
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Matrix3f;
 import javax.vecmath.Vector3f;
@@ -43,7 +44,11 @@ import javax.vecmath.Vector3f;
  */
 public class JacobianEntry {
 	
-	protected final BulletStack stack = BulletStack.get();
+	public static final ObjectFactory<JacobianEntry> FACTORY = new ObjectFactory<JacobianEntry>() {
+		public JacobianEntry create() {
+			return new JacobianEntry();
+		}
+	};
 	
 	public final Vector3f linearJointAxis = new Vector3f();
 	public final Vector3f aJ = new Vector3f();
@@ -174,6 +179,8 @@ public class JacobianEntry {
 	 * For two constraints on sharing two same rigidbodies (for example two contact points between two rigidbodies).
 	 */
 	public float getNonDiagonal(JacobianEntry jacB, float massInvA, float massInvB) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			JacobianEntry jacA = this;
@@ -204,6 +211,8 @@ public class JacobianEntry {
 	}
 
 	public float getRelativeVelocity(Vector3f linvelA, Vector3f angvelA, Vector3f linvelB, Vector3f angvelB) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f linrel = stack.vectors.get();
@@ -25,8 +25,10 @@ package javabullet.dynamics.constraintsolver;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletGlobals;
 import javabullet.BulletPool;
+import javabullet.BulletStack;
 import javabullet.ContactDestroyedCallback;
 import javabullet.ObjectPool;
 import javabullet.collision.broadphase.Dispatcher;
@@ -55,21 +57,14 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	private static final int MAX_CONTACT_SOLVER_TYPES = ContactConstraintEnum.MAX_CONTACT_SOLVER_TYPES.ordinal();
 
 	private static final int SEQUENTIAL_IMPULSE_MAX_SOLVER_POINTS = 16384;
-	private static OrderIndex[] gOrder = new OrderIndex[SEQUENTIAL_IMPULSE_MAX_SOLVER_POINTS];
 	
-	private static int totalCpd = 0;
-	
-	static {
-		for (int i=0; i<gOrder.length; i++) {
-			gOrder[i] = new OrderIndex();
-		}
-	}
+	private static final AtomicInteger totalCpd = new AtomicInteger();
 	
 	////////////////////////////////////////////////////////////////////////////
 	
-	private final ObjectPool<SolverBody> bodiesPool = BulletPool.get(SolverBody.class);
-	private final ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class);
-	private final ObjectPool<JacobianEntry> jacobiansPool = BulletPool.get(JacobianEntry.class);
+	// JAVA NOTE: gOrder is static in Bullet, it's per instance here so that
+	// several solvers can run simultaneously on different threads
+	private final OrderIndex[] gOrder = new OrderIndex[SEQUENTIAL_IMPULSE_MAX_SOLVER_POINTS];
 	
 	private final List<SolverBody> tmpSolverBodyPool = new ArrayList<SolverBody>();
 	private final List<SolverConstraint> tmpSolverConstraintPool = new ArrayList<SolverConstraint>();
@@ -91,12 +86,16 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 				assert (userPersistentData != null);
 				ConstraintPersistentData cpd = (ConstraintPersistentData) userPersistentData;
 				//btAlignedFree(cpd);
-				totalCpd--;
+				totalCpd.decrementAndGet();
 				//printf("totalCpd = %i. DELETED Ptr %x\n",totalCpd,userPersistentData);
 				return true;
 			}
 		};
 
+		for (int i=0; i<gOrder.length; i++) {
+			gOrder[i] = new OrderIndex();
+		}
+
 		// initialize default friction/contact funcs
 		int i, j;
 		for (i = 0; i < MAX_CONTACT_SOLVER_TYPES; i++) {
@@ -176,6 +175,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 			SolverBody body2,
 			SolverConstraint contactConstraint,
 			ContactSolverInfo solverInfo) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			float normalImpulse;
@@ -234,6 +235,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 			SolverConstraint contactConstraint,
 			ContactSolverInfo solverInfo,
 			float appliedNormalImpulse) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			float combinedFriction = contactConstraint.friction;
@@ -301,6 +304,9 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 	
 	protected void addFrictionConstraint(Vector3f normalAxis, int solverBodyIdA, int solverBodyIdB, int frictionIndex, ManifoldPoint cp, Vector3f rel_pos1, Vector3f rel_pos2, CollisionObject colObj0, CollisionObject colObj1, float relaxation) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class, SolverConstraint.FACTORY);
+		
 		stack.vectors.push();
 		try {
 			RigidBody body0 = RigidBody.upcast(colObj0);
@@ -372,6 +378,10 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 	
 	public float solveGroupCacheFriendlySetup(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifoldPtr, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal, IDebugDraw debugDrawer/*,btStackAlloc* stackAlloc*/) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SolverBody> bodiesPool = BulletPool.get(SolverBody.class, SolverBody.FACTORY);
+		ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class, SolverConstraint.FACTORY);
+		
 		BulletGlobals.pushProfile("solveGroupCacheFriendlySetup");
 		stack.vectors.push();
 		try {
@@ -450,6 +460,9 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 				{
 					int i;
 
+					Vector3f rel_pos1 = stack.vectors.get();
+					Vector3f rel_pos2 = stack.vectors.get();
+
 					for (i = 0; i < numManifolds; i++) {
 						manifold = manifoldPtr.get(manifold_offset+i);
 						colObj0 = (CollisionObject) manifold.getBody0();
@@ -501,138 +514,141 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 							}
 						}
 
-						Vector3f rel_pos1 = stack.vectors.get();
-						Vector3f rel_pos2 = stack.vectors.get();
 						float relaxation;
 
 						for (int j = 0; j < manifold.getNumContacts(); j++) {
+							stack.vectors.push();
+							try {
+								ManifoldPoint cp = manifold.getContactPoint(j);
 
-							ManifoldPoint cp = manifold.getContactPoint(j);
-
-							if (debugDrawer != null) {
-								debugDrawer.drawContactPoint(cp.positionWorldOnB, cp.normalWorldOnB, cp.getDistance(), cp.getLifeTime(), color);
-							}
-
-							if (cp.getDistance() <= 0f) {
-								Vector3f pos1 = cp.getPositionWorldOnA();
-								Vector3f pos2 = cp.getPositionWorldOnB();
-
-								rel_pos1.sub(pos1, colObj0.getWorldTransform().origin);
-								rel_pos2.sub(pos2, colObj1.getWorldTransform().origin);
+								if (debugDrawer != null) {
+									debugDrawer.drawContactPoint(cp.positionWorldOnB, cp.normalWorldOnB, cp.getDistance(), cp.getLifeTime(), color);
+								}
 
-								relaxation = 1f;
-								float rel_vel;
-								Vector3f vel = stack.vectors.get();
+								if (cp.getDistance() <= 0f) {
+									Vector3f pos1 = cp.getPositionWorldOnA();
+									Vector3f pos2 = cp.getPositionWorldOnB();
 
-								int frictionIndex = tmpSolverConstraintPool.size();
+									rel_pos1.sub(pos1, colObj0.getWorldTransform().origin);
+									rel_pos2.sub(pos2, colObj1.getWorldTransform().origin);
 
-								{
-									SolverConstraint solverConstraint = constraintsPool.get();
-									tmpSolverConstraintPool.add(solverConstraint);
-									RigidBody rb0 = RigidBody.upcast(colObj0);
-									RigidBody rb1 = RigidBody.upcast(colObj1);
+									relaxation = 1f;
+									float rel_vel;
+									Vector3f vel = stack.vectors.get();
 
-									solverConstraint.solverBodyIdA = solverBodyIdA;
-									solverConstraint.solverBodyIdB = solverBodyIdB;
-									solverConstraint.constraintType = SolverConstraintType.SOLVER_CONTACT_1D;
+									int frictionIndex = tmpSolverConstraintPool.size();
 
-									Vector3f torqueAxis0 = stack.vectors.get();
-									torqueAxis0.cross(rel_pos1, cp.normalWorldOnB);
+									{
+										SolverConstraint solverConstraint = constraintsPool.get();
+										tmpSolverConstraintPool.add(solverConstraint);
+										RigidBody rb0 = RigidBody.upcast(colObj0);
+										RigidBody rb1 = RigidBody.upcast(colObj1);
 
-									if (rb0 != null) {
-										solverConstraint.angularComponentA.set(torqueAxis0);
-										rb0.getInvInertiaTensorWorld().transform(solverConstraint.angularComponentA);
-									}
-									else {
-										solverConstraint.angularComponentA.set(0f, 0f, 0f);
-									}
+										solverConstraint.solverBodyIdA = solverBodyIdA;
+										solverConstraint.solverBodyIdB = solverBodyIdB;
+										solverConstraint.constraintType = SolverConstraintType.SOLVER_CONTACT_1D;
 
-									Vector3f torqueAxis1 = stack.vectors.get();
-									torqueAxis1.cross(rel_pos2, cp.normalWorldOnB);
+										Vector3f torqueAxis0 = stack.vectors.get();
+										torqueAxis0.cross(rel_pos1, cp.normalWorldOnB);
 
-									if (rb1 != null) {
-										solverConstraint.angularComponentB.set(torqueAxis1);
-										rb1.getInvInertiaTensorWorld().transform(solverConstraint.angularComponentB);
-									}
-									else {
-										solverConstraint.angularComponentB.set(0f, 0f, 0f);
-									}
-
-									{
-										//#ifdef COMPUTE_IMPULSE_DENOM
-										//btScalar denom0 = rb0->computeImpulseDenominator(pos1,cp.m_normalWorldOnB);
-										//btScalar denom1 = rb1->computeImpulseDenominator(pos2,cp.m_normalWorldOnB);
-										//#else							
-										Vector3f vec = stack.vectors.get();
-										float denom0 = 0f;
-										float denom1 = 0f;
 										if (rb0 != null) {
-											vec.cross(solverConstraint.angularComponentA, rel_pos1);
-											denom0 = rb0.getInvMass() + cp.normalWorldOnB.dot(vec);
+											solverConstraint.angularComponentA.set(torqueAxis0);
+											rb0.getInvInertiaTensorWorld().transform(solverConstraint.angularComponentA);
 										}
-										if (rb1 != null) {
-											vec.cross(solverConstraint.angularComponentB, rel_pos2);
-											denom1 = rb1.getInvMass() + cp.normalWorldOnB.dot(vec);
+										else {
+											solverConstraint.angularComponentA.set(0f, 0f, 0f);
 										}
-										//#endif //COMPUTE_IMPULSE_DENOM		
 
-										float denom = relaxation / (denom0 + denom1);
-										solverConstraint.jacDiagABInv = denom;
-									}
+										Vector3f torqueAxis1 = stack.vectors.get();
+										torqueAxis1.cross(rel_pos2, cp.normalWorldOnB);
 
-									solverConstraint.contactNormal.set(cp.normalWorldOnB);
-									solverConstraint.relpos1CrossNormal.cross(rel_pos1, cp.normalWorldOnB);
-									solverConstraint.relpos2CrossNormal.cross(rel_pos2, cp.normalWorldOnB);
+										if (rb1 != null) {
+											solverConstraint.angularComponentB.set(torqueAxis1);
+											rb1.getInvInertiaTensorWorld().transform(solverConstraint.angularComponentB);
+										}
+										else {
+											solverConstraint.angularComponentB.set(0f, 0f, 0f);
+										}
 
-									Vector3f vel1 = rb0 != null ? stack.vectors.get(rb0.getVelocityInLocalPoint(rel_pos1)) : stack.vectors.get(0f, 0f, 0f);
-									Vector3f vel2 = rb1 != null ? stack.vectors.get(rb1.getVelocityInLocalPoint(rel_pos2)) : stack.vectors.get(0f, 0f, 0f);
+										{
+											//#ifdef COMPUTE_IMPULSE_DENOM
+											//btScalar denom0 = rb0->computeImpulseDenominator(pos1,cp.m_normalWorldOnB);
+											//btScalar denom1 = rb1->computeImpulseDenominator(pos2,cp.m_normalWorldOnB);
+											//#else							
+											Vector3f vec = stack.vectors.get();
+											float denom0 = 0f;
+											float denom1 = 0f;
+											if (rb0 != null) {
+												vec.cross(solverConstraint.angularComponentA, rel_pos1);
+												denom0 = rb0.getInvMass() + cp.normalWorldOnB.dot(vec);
+											}
+											if (rb1 != null) {
+												vec.cross(solverConstraint.angularComponentB, rel_pos2);
+												denom1 = rb1.getInvMass() + cp.normalWorldOnB.dot(vec);
+											}
+											//#endif //COMPUTE_IMPULSE_DENOM		
+
+											float denom = relaxation / (denom0 + denom1);
+											solverConstraint.jacDiagABInv = denom;
+										}
 
-									vel.sub(vel1, vel2);
+										solverConstraint.contactNormal.set(cp.normalWorldOnB);
+										solverConstraint.relpos1CrossNormal.cross(rel_pos1, cp.normalWorldOnB);
+										solverConstraint.relpos2CrossNormal.cross(rel_pos2, cp.normalWorldOnB);
 
-									rel_vel = cp.normalWorldOnB.dot(vel);
+										Vector3f vel1 = rb0 != null ? stack.vectors.get(rb0.getVelocityInLocalPoint(rel_pos1)) : stack.vectors.get(0f, 0f, 0f);
+										Vector3f vel2 = rb1 != null ? stack.vectors.get(rb1.getVelocityInLocalPoint(rel_pos2)) : stack.vectors.get(0f, 0f, 0f);
 
-									solverConstraint.penetration = cp.getDistance();///btScalar(infoGlobal.m_numIterations);
-									solverConstraint.friction = cp.combinedFriction;
-									solverConstraint.restitution = restitutionCurve(rel_vel, cp.combinedRestitution);
-									if (solverConstraint.restitution <= 0f) {
-										solverConstraint.restitution = 0f;
-									}
+										vel.sub(vel1, vel2);
 
-									float penVel = -solverConstraint.penetration / infoGlobal.timeStep;
-									solverConstraint.penetration *= -(infoGlobal.erp / infoGlobal.timeStep);
+										rel_vel = cp.normalWorldOnB.dot(vel);
 
-									if (solverConstraint.restitution > penVel) {
-										solverConstraint.penetration = 0f;
-									}
+										solverConstraint.penetration = cp.getDistance();///btScalar(infoGlobal.m_numIterations);
+										solverConstraint.friction = cp.combinedFriction;
+										solverConstraint.restitution = restitutionCurve(rel_vel, cp.combinedRestitution);
+										if (solverConstraint.restitution <= 0f) {
+											solverConstraint.restitution = 0f;
+										}
 
-									solverConstraint.appliedImpulse = 0f;
-									solverConstraint.appliedVelocityImpulse = 0f;
-								}
+										float penVel = -solverConstraint.penetration / infoGlobal.timeStep;
+										solverConstraint.penetration *= -(infoGlobal.erp / infoGlobal.timeStep);
 
-								{
-									Vector3f frictionDir1 = stack.vectors.get();
-									frictionDir1.scale(rel_vel, cp.normalWorldOnB);
-									frictionDir1.sub(vel, frictionDir1);
+										if (solverConstraint.restitution > penVel) {
+											solverConstraint.penetration = 0f;
+										}
 
-									float lat_rel_vel = frictionDir1.lengthSquared();
-									if (lat_rel_vel > BulletGlobals.FLT_EPSILON)//0.0f)
-									{
-										frictionDir1.scale(1f / (float) Math.sqrt(lat_rel_vel));
-										addFrictionConstraint(frictionDir1, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
-										Vector3f frictionDir2 = stack.vectors.get();
-										frictionDir2.cross(frictionDir1, cp.normalWorldOnB);
-										frictionDir2.normalize();//??
-										addFrictionConstraint(frictionDir2, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
+										solverConstraint.appliedImpulse = 0f;
+										solverConstraint.appliedVelocityImpulse = 0f;
 									}
-									else {
-										// re-calculate friction direction every frame, todo: check if this is really needed
-										Vector3f /*frictionDir1 = stack.vectors.get(),*/ frictionDir2 = stack.vectors.get();
-										TransformUtil.planeSpace1(cp.normalWorldOnB, frictionDir1, frictionDir2);
-										addFrictionConstraint(frictionDir1, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
-										addFrictionConstraint(frictionDir2, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
+
+									{
+										Vector3f frictionDir1 = stack.vectors.get();
+										frictionDir1.scale(rel_vel, cp.normalWorldOnB);
+										frictionDir1.sub(vel, frictionDir1);
+
+										float lat_rel_vel = frictionDir1.lengthSquared();
+										if (lat_rel_vel > BulletGlobals.FLT_EPSILON)//0.0f)
+										{
+											frictionDir1.scale(1f / (float) Math.sqrt(lat_rel_vel));
+											addFrictionConstraint(frictionDir1, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
+											Vector3f frictionDir2 = stack.vectors.get();
+											frictionDir2.cross(frictionDir1, cp.normalWorldOnB);
+											frictionDir2.normalize();//??
+											addFrictionConstraint(frictionDir2, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
+										}
+										else {
+											// re-calculate friction direction every frame, todo: check if this is really needed
+											Vector3f /*frictionDir1 = stack.vectors.get(),*/ frictionDir2 = stack.vectors.get();
+											TransformUtil.planeSpace1(cp.normalWorldOnB, frictionDir1, frictionDir2);
+											addFrictionConstraint(frictionDir1, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
+											addFrictionConstraint(frictionDir2, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, colObj0, colObj1, relaxation);
+										}
 									}
 								}
 							}
+							finally {
+								stack.vectors.pop();
+							}
 						}
 					}
 				}
@@ -773,6 +789,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 
 	public float solveGroupCacheFriendly(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifoldPtr, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal, IDebugDraw debugDrawer/*,btStackAlloc* stackAlloc*/) {
+		ObjectPool<SolverBody> bodiesPool = BulletPool.get(SolverBody.class, SolverBody.FACTORY);
+		ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class, SolverConstraint.FACTORY);
 		int i;
 
 		solveGroupCacheFriendlySetup(bodies, numBodies, manifoldPtr, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, infoGlobal, debugDrawer/*, stackAlloc*/);
@@ -899,6 +917,9 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 	
 	protected void prepareConstraints(PersistentManifold manifoldPtr, ContactSolverInfo info, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<JacobianEntry> jacobiansPool = BulletPool.get(JacobianEntry.class, JacobianEntry.FACTORY);
+		
 		stack.pushCommonMath();
 		try {
 			RigidBody body0 = (RigidBody) manifoldPtr.getBody0();
@@ -963,7 +984,7 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 							cpd = new ConstraintPersistentData();
 							//assert(cpd != null);
 
-							totalCpd++;
+							totalCpd.incrementAndGet();
 							//printf("totalCpd = %i Created Ptr %x\n",totalCpd,cpd);
 							cp.userPersistentData = cpd;
 							cpd.persistentLifeTime = cp.getLifeTime();
@@ -1105,6 +1126,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 
 	public float solveCombinedContactFriction(RigidBody body0, RigidBody body1, ManifoldPoint cp, ContactSolverInfo info, int iter, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			float maxImpulse = 0f;
@@ -1137,6 +1160,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 	
 	protected float solve(RigidBody body0, RigidBody body1, ManifoldPoint cp, ContactSolverInfo info, int iter, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			float maxImpulse = 0f;
@@ -1170,6 +1195,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 
 	protected float solveFriction(RigidBody body0, RigidBody body1, ManifoldPoint cp, ContactSolverInfo info, int iter, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f color = stack.vectors.get(0f, 1f, 0f);
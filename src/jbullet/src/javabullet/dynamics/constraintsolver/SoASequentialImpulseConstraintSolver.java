@@ -0,0 +1,973 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.dynamics.constraintsolver;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import javabullet.BulletGlobals;
+import javabullet.BulletStack;
+import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.narrowphase.ManifoldPoint;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.dynamics.RigidBody;
+import javabullet.linearmath.IDebugDraw;
+import javabullet.linearmath.TransformUtil;
+import javabullet.util.ParallelTasks;
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Variant of {@link SequentialImpulseConstraintSolver} that stores solver bodies
+ * and constraint rows in flat primitive arrays (structure of arrays) instead of
+ * {@link SolverBody} and {@link SolverConstraint} objects. The iterations then
+ * walk plain float arrays instead of chasing references across the heap, and
+ * the setup passes are simple indexed loops the JIT can vectorize.<p>
+ * 
+ * The solver produces the same results as the cache friendly mode of
+ * SequentialImpulseConstraintSolver (including the randomized order of rows).
+ * When {@link SolverMode#SOLVER_CACHE_FRIENDLY} is not set, solving is delegated
+ * to the superclass.<p>
+ * 
+ * With {@link SolverMode#SOLVER_GRAPH_COLORING} the joints, contact rows and
+ * friction rows are graph colored so that no two constraints of the same color
+ * touch the same body. The colors are solved one after another and constraints
+ * of one color can be solved in parallel using the executor set by
+ * {@link #setExecutor}. This allows to spread a single big island (such as
+ * a large pile of boxes) across multiple cores. Rows of one contact manifold are
+ * kept together and the coloring is reused in following frames as long as the
+ * constraint rows refer to the same bodies. The order of constraints differs
+ * from the sequential mode (and the random order is not used), but the results
+ * are the same regardless of the number of tasks.
+ * 
+ * @author jezek2
+ */
+public class SoASequentialImpulseConstraintSolver extends SequentialImpulseConstraintSolver {
+
+	// solver bodies:
+	private int numSolverBodies;
+	private RigidBody[] bodyOriginal = new RigidBody[0];
+	private float[] bodyInvMass = new float[0];
+	// angular factor is stored as zero for bodies with zero inverse mass, so applying impulses to them has no effect:
+	private float[] bodyAngularFactor = new float[0];
+	private float[] bodyLinVelX = new float[0];
+	private float[] bodyLinVelY = new float[0];
+	private float[] bodyLinVelZ = new float[0];
+	private float[] bodyAngVelX = new float[0];
+	private float[] bodyAngVelY = new float[0];
+	private float[] bodyAngVelZ = new float[0];
+	
+	private final SolverRows contactRows = new SolverRows();
+	private final SolverRows frictionRows = new SolverRows();
+	
+	private int[] orderContactRows = new int[0];
+	private int[] orderFrictionRows = new int[0];
+	
+	// graph coloring:
+	private static final int ROWS_JOINT = 0;
+	private static final int ROWS_CONTACT = 1;
+	private static final int ROWS_FRICTION = 2;
+	
+	private static final int MAX_COLORS = 64;
+	private static final int MIN_PARALLEL_BATCH_SIZE = 64;
+	
+	private Executor executor;
+	private int numTasks = 1;
+	
+	private long[] bodyColors = new long[0];
+	private int[] jointBodyA = new int[0];
+	private int[] jointBodyB = new int[0];
+	private final ColoredBatches jointBatches = new ColoredBatches();
+	private final ColoredBatches contactBatches = new ColoredBatches();
+	private final ColoredBatches frictionBatches = new ColoredBatches();
+	private final BatchTask batchTask = new BatchTask();
+	
+	// constraints being solved, used when solving joints in batches:
+	private List<TypedConstraint> solvedConstraints;
+	private int solvedConstraintsOffset;
+	private float solvedTimeStep;
+	
+	/**
+	 * Sets executor used for solving batches of constraints with the same color
+	 * in parallel, when {@link SolverMode#SOLVER_GRAPH_COLORING} is enabled.
+	 * Small batches are always solved on the calling thread.
+	 * 
+	 * @param executor executor, or null for solving on the calling thread only
+	 * @param numTasks maximum number of tasks (including the calling thread) per batch
+	 */
+	public void setExecutor(Executor executor, int numTasks) {
+		this.executor = executor;
+		this.numTasks = Math.max(1, numTasks);
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public int getNumTasks() {
+		return numTasks;
+	}
+
+	@Override
+	public float solveGroup(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifoldPtr, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal, IDebugDraw debugDrawer, Dispatcher dispatcher) {
+		if ((getSolverMode() & SolverMode.SOLVER_CACHE_FRIENDLY) == 0) {
+			return super.solveGroup(bodies, numBodies, manifoldPtr, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, infoGlobal, debugDrawer, dispatcher);
+		}
+		
+		BulletGlobals.pushProfile("solveGroup");
+		try {
+			// you need to provide at least some bodies
+			assert (bodies != null);
+			assert (numBodies != 0);
+			
+			if ((numConstraints + numManifolds) == 0) {
+				return 0f;
+			}
+			
+			setup(manifoldPtr, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, infoGlobal, debugDrawer);
+			iterate(constraints, constraints_offset, numConstraints, infoGlobal);
+
+			for (int i=0; i<numSolverBodies; i++) {
+				writebackVelocity(i);
+				bodyOriginal[i] = null;
+			}
+			numSolverBodies = 0;
+			contactRows.size = 0;
+			frictionRows.size = 0;
+			
+			return 0f;
+		}
+		finally {
+			BulletGlobals.popProfile();
+		}
+	}
+	
+	private void setup(List<PersistentManifold> manifoldPtr, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+		
+		BulletGlobals.pushProfile("solveGroupCacheFriendlySetup");
+		stack.vectors.push();
+		try {
+			Vector3f color = stack.vectors.get(0f, 1f, 0f);
+			Vector3f rel_pos1 = stack.vectors.get();
+			Vector3f rel_pos2 = stack.vectors.get();
+			Vector3f vel = stack.vectors.get();
+			Vector3f frictionDir1 = stack.vectors.get();
+			Vector3f frictionDir2 = stack.vectors.get();
+			
+			for (int i=0; i<numManifolds; i++) {
+				PersistentManifold manifold = manifoldPtr.get(manifold_offset+i);
+				CollisionObject colObj0 = (CollisionObject) manifold.getBody0();
+				CollisionObject colObj1 = (CollisionObject) manifold.getBody1();
+
+				int solverBodyIdA = -1;
+				int solverBodyIdB = -1;
+
+				if (manifold.getNumContacts() != 0) {
+					solverBodyIdA = getSolverBody(colObj0);
+					solverBodyIdB = getSolverBody(colObj1);
+				}
+				
+				RigidBody rb0 = RigidBody.upcast(colObj0);
+				RigidBody rb1 = RigidBody.upcast(colObj1);
+
+				for (int j=0; j<manifold.getNumContacts(); j++) {
+					ManifoldPoint cp = manifold.getContactPoint(j);
+
+					if (debugDrawer != null) {
+						debugDrawer.drawContactPoint(cp.positionWorldOnB, cp.normalWorldOnB, cp.getDistance(), cp.getLifeTime(), color);
+					}
+
+					if (cp.getDistance() <= 0f) {
+						rel_pos1.sub(cp.getPositionWorldOnA(), colObj0.getWorldTransform().origin);
+						rel_pos2.sub(cp.getPositionWorldOnB(), colObj1.getWorldTransform().origin);
+
+						int frictionIndex = contactRows.size;
+						int row = addRow(contactRows, cp.normalWorldOnB, solverBodyIdA, solverBodyIdB, rel_pos1, rel_pos2, rb0, rb1);
+						
+						Vector3f vel1 = rb0 != null ? stack.vectors.get(rb0.getVelocityInLocalPoint(rel_pos1)) : stack.vectors.get(0f, 0f, 0f);
+						Vector3f vel2 = rb1 != null ? stack.vectors.get(rb1.getVelocityInLocalPoint(rel_pos2)) : stack.vectors.get(0f, 0f, 0f);
+						vel.sub(vel1, vel2);
+
+						float rel_vel = cp.normalWorldOnB.dot(vel);
+
+						float penetration = cp.getDistance();
+						float restitution = cp.combinedRestitution * -rel_vel;
+						if (restitution <= 0f) {
+							restitution = 0f;
+						}
+
+						float penVel = -penetration / infoGlobal.timeStep;
+						penetration *= -(infoGlobal.erp / infoGlobal.timeStep);
+
+						if (restitution > penVel) {
+							penetration = 0f;
+						}
+						
+						contactRows.friction[row] = cp.combinedFriction;
+						contactRows.restitution[row] = restitution;
+						contactRows.penetration[row] = penetration;
+						
+						frictionDir1.scale(rel_vel, cp.normalWorldOnB);
+						frictionDir1.sub(vel, frictionDir1);
+
+						float lat_rel_vel = frictionDir1.lengthSquared();
+						if (lat_rel_vel > BulletGlobals.FLT_EPSILON) {
+							frictionDir1.scale(1f / (float) Math.sqrt(lat_rel_vel));
+							addFrictionRow(frictionDir1, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, rb0, rb1);
+							frictionDir2.cross(frictionDir1, cp.normalWorldOnB);
+							frictionDir2.normalize();
+							addFrictionRow(frictionDir2, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, rb0, rb1);
+						}
+						else {
+							// re-calculate friction direction every frame, todo: check if this is really needed
+							TransformUtil.planeSpace1(cp.normalWorldOnB, frictionDir1, frictionDir2);
+							addFrictionRow(frictionDir1, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, rb0, rb1);
+							addFrictionRow(frictionDir2, solverBodyIdA, solverBodyIdB, frictionIndex, cp, rel_pos1, rel_pos2, rb0, rb1);
+						}
+					}
+				}
+			}
+			
+			for (int j=0; j<numConstraints; j++) {
+				TypedConstraint constraint = constraints.get(constraints_offset+j);
+				constraint.buildJacobian();
+			}
+			
+			contactRows.computeJacobianDiagonals();
+			frictionRows.computeJacobianDiagonals();
+			
+			if ((solverMode & SolverMode.SOLVER_GRAPH_COLORING) != 0) {
+				colorConstraints(constraints, constraints_offset, numConstraints);
+			}
+			else {
+				orderContactRows = initOrder(orderContactRows, contactRows.size);
+				orderFrictionRows = initOrder(orderFrictionRows, frictionRows.size);
+			}
+		}
+		finally {
+			stack.vectors.pop();
+			BulletGlobals.popProfile();
+		}
+	}
+	
+	private void addFrictionRow(Vector3f normalAxis, int solverBodyIdA, int solverBodyIdB, int frictionIndex, ManifoldPoint cp, Vector3f rel_pos1, Vector3f rel_pos2, RigidBody rb0, RigidBody rb1) {
+		int row = addRow(frictionRows, normalAxis, solverBodyIdA, solverBodyIdB, rel_pos1, rel_pos2, rb0, rb1);
+		frictionRows.frictionIndex[row] = frictionIndex;
+		frictionRows.friction[row] = cp.combinedFriction;
+		frictionRows.restitution[row] = 0f;
+		frictionRows.penetration[row] = 0f;
+	}
+	
+	/**
+	 * Adds constraint row with the normal, body indices, relative positions and angular components filled in.
+	 * Linear components and jacobian diagonal are computed later by {@link SolverRows#computeJacobianDiagonals}.
+	 */
+	private int addRow(SolverRows rows, Vector3f normal, int solverBodyIdA, int solverBodyIdB, Vector3f rel_pos1, Vector3f rel_pos2, RigidBody rb0, RigidBody rb1) {
+		int i = rows.add();
+		rows.bodyA[i] = solverBodyIdA;
+		rows.bodyB[i] = solverBodyIdB;
+		rows.invMassA[i] = bodyInvMass[solverBodyIdA];
+		rows.invMassB[i] = bodyInvMass[solverBodyIdB];
+		rows.normalX[i] = normal.x;
+		rows.normalY[i] = normal.y;
+		rows.normalZ[i] = normal.z;
+		rows.relPos1X[i] = rel_pos1.x;
+		rows.relPos1Y[i] = rel_pos1.y;
+		rows.relPos1Z[i] = rel_pos1.z;
+		rows.relPos2X[i] = rel_pos2.x;
+		rows.relPos2Y[i] = rel_pos2.y;
+		rows.relPos2Z[i] = rel_pos2.z;
+		rows.appliedImpulse[i] = 0f;
+		rows.appliedVelocityImpulse[i] = 0f;
+		
+		// relpos cross normal:
+		float tx = rel_pos1.y*normal.z - rel_pos1.z*normal.y;
+		float ty = normal.x*rel_pos1.z - normal.z*rel_pos1.x;
+		float tz = rel_pos1.x*normal.y - rel_pos1.y*normal.x;
+		rows.relPos1CrossNormalX[i] = tx;
+		rows.relPos1CrossNormalY[i] = ty;
+		rows.relPos1CrossNormalZ[i] = tz;
+		if (rb0 != null) {
+			Matrix3f m = rb0.getInvInertiaTensorWorld();
+			rows.angularComponentAX[i] = m.m00 * tx + m.m01 * ty + m.m02 * tz;
+			rows.angularComponentAY[i] = m.m10 * tx + m.m11 * ty + m.m12 * tz;
+			rows.angularComponentAZ[i] = m.m20 * tx + m.m21 * ty + m.m22 * tz;
+		}
+		else {
+			rows.angularComponentAX[i] = 0f;
+			rows.angularComponentAY[i] = 0f;
+			rows.angularComponentAZ[i] = 0f;
+		}
+		
+		tx = rel_pos2.y*normal.z - rel_pos2.z*normal.y;
+		ty = normal.x*rel_pos2.z - normal.z*rel_pos2.x;
+		tz = rel_pos2.x*normal.y - rel_pos2.y*normal.x;
+		rows.relPos2CrossNormalX[i] = tx;
+		rows.relPos2CrossNormalY[i] = ty;
+		rows.relPos2CrossNormalZ[i] = tz;
+		if (rb1 != null) {
+			Matrix3f m = rb1.getInvInertiaTensorWorld();
+			rows.angularComponentBX[i] = m.m00 * tx + m.m01 * ty + m.m02 * tz;
+			rows.angularComponentBY[i] = m.m10 * tx + m.m11 * ty + m.m12 * tz;
+			rows.angularComponentBZ[i] = m.m20 * tx + m.m21 * ty + m.m22 * tz;
+		}
+		else {
+			rows.angularComponentBX[i] = 0f;
+			rows.angularComponentBY[i] = 0f;
+			rows.angularComponentBZ[i] = 0f;
+		}
+		return i;
+	}
+	
+	private static int[] initOrder(int[] order, int size) {
+		if (order.length < size) {
+			order = new int[size];
+		}
+		for (int i=0; i<size; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+	
+	private void shuffle(int[] order, int size) {
+		for (int j=0; j<size; ++j) {
+			int tmp = order[j];
+			int swapi = randInt2(j + 1);
+			order[j] = order[swapi];
+			order[swapi] = tmp;
+		}
+	}
+	
+	private void iterate(List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal) {
+		BulletGlobals.pushProfile("solveGroupCacheFriendlyIterations");
+		try {
+			if ((solverMode & SolverMode.SOLVER_GRAPH_COLORING) != 0) {
+				solvedConstraints = constraints;
+				solvedConstraintsOffset = constraints_offset;
+				solvedTimeStep = infoGlobal.timeStep;
+				try {
+					for (int iteration=0; iteration<infoGlobal.numIterations; iteration++) {
+						solveBatches(jointBatches, ROWS_JOINT);
+						solveBatches(contactBatches, ROWS_CONTACT);
+						solveBatches(frictionBatches, ROWS_FRICTION);
+					}
+				}
+				finally {
+					solvedConstraints = null;
+				}
+				return;
+			}
+			
+			for (int iteration=0; iteration<infoGlobal.numIterations; iteration++) {
+				if ((solverMode & SolverMode.SOLVER_RANDMIZE_ORDER) != 0) {
+					if ((iteration & 7) == 0) {
+						shuffle(orderContactRows, contactRows.size);
+						shuffle(orderFrictionRows, frictionRows.size);
+					}
+				}
+
+				for (int j=0; j<numConstraints; j++) {
+					solveJoint(constraints.get(constraints_offset+j), infoGlobal.timeStep);
+				}
+
+				resolveContacts(orderContactRows, 0, contactRows.size);
+				resolveFriction(orderFrictionRows, 0, frictionRows.size);
+			}
+		}
+		finally {
+			BulletGlobals.popProfile();
+		}
+	}
+	
+	private void solveJoint(TypedConstraint constraint, float timeStep) {
+		// todo: use solver bodies, so we don't need to copy from/to btRigidBody
+		RigidBody rbA = constraint.getRigidBodyA();
+		RigidBody rbB = constraint.getRigidBodyB();
+		if ((rbA.getIslandTag() >= 0) && (rbA.getCompanionId() >= 0)) {
+			writebackVelocity(rbA.getCompanionId());
+		}
+		if ((rbB.getIslandTag() >= 0) && (rbB.getCompanionId() >= 0)) {
+			writebackVelocity(rbB.getCompanionId());
+		}
+
+		constraint.solveConstraint(timeStep);
+
+		if ((rbA.getIslandTag() >= 0) && (rbA.getCompanionId() >= 0)) {
+			readVelocity(rbA.getCompanionId());
+		}
+		if ((rbB.getIslandTag() >= 0) && (rbB.getCompanionId() >= 0)) {
+			readVelocity(rbB.getCompanionId());
+		}
+	}
+	
+	private void solveJoints(int[] order, int from, int to) {
+		for (int j=from; j<to; j++) {
+			solveJoint(solvedConstraints.get(solvedConstraintsOffset+order[j]), solvedTimeStep);
+		}
+	}
+	
+	private void solveRows(int rowType, int[] order, int from, int to) {
+		switch (rowType) {
+			case ROWS_JOINT: solveJoints(order, from, to); break;
+			case ROWS_CONTACT: resolveContacts(order, from, to); break;
+			case ROWS_FRICTION: resolveFriction(order, from, to); break;
+			default: throw new IllegalArgumentException();
+		}
+	}
+	
+	private void solveBatches(ColoredBatches batches, int rowType) {
+		for (int b=0; b<batches.numBatches; b++) {
+			int firstUnit = batches.batchStart[b];
+			int lastUnit = batches.batchStart[b+1];
+			int from = batches.unitStart[firstUnit];
+			int to = batches.unitStart[lastUnit];
+			int tasks = Math.min(numTasks, lastUnit - firstUnit);
+			
+			if (executor == null || tasks <= 1 || (to - from) < MIN_PARALLEL_BATCH_SIZE || batches.isOverflowBatch(b)) {
+				solveRows(rowType, batches.rows, from, to);
+			}
+			else {
+				batchTask.rowType = rowType;
+				batchTask.batches = batches;
+				batchTask.firstUnit = firstUnit;
+				batchTask.numUnits = lastUnit - firstUnit;
+				batchTask.numTasks = tasks;
+				ParallelTasks.run(executor, tasks, batchTask);
+			}
+		}
+	}
+	
+	private void colorConstraints(List<TypedConstraint> constraints, int constraints_offset, int numConstraints) {
+		if (jointBodyA.length < numConstraints) {
+			jointBodyA = new int[numConstraints];
+			jointBodyB = new int[numConstraints];
+		}
+		for (int j=0; j<numConstraints; j++) {
+			TypedConstraint constraint = constraints.get(constraints_offset+j);
+			jointBodyA[j] = getJointSolverBody(constraint.getRigidBodyA());
+			jointBodyB[j] = getJointSolverBody(constraint.getRigidBodyB());
+		}
+		
+		if (bodyColors.length < numSolverBodies) {
+			bodyColors = new long[bodyInvMass.length];
+		}
+		jointBatches.build(jointBodyA, jointBodyB, numConstraints, bodyColors, numSolverBodies);
+		contactBatches.build(contactRows.bodyA, contactRows.bodyB, contactRows.size, bodyColors, numSolverBodies);
+		frictionBatches.build(frictionRows.bodyA, frictionRows.bodyB, frictionRows.size, bodyColors, numSolverBodies);
+	}
+	
+	/**
+	 * Returns solver body index used for detecting conflicts between joints,
+	 * -1 for bodies not modified by joints, or -2 when it can't be determined.
+	 */
+	private int getJointSolverBody(RigidBody rb) {
+		if (rb.getInvMass() == 0f) {
+			return -1;
+		}
+		if (rb.getIslandTag() < 0) {
+			return -2;
+		}
+		return getSolverBody(rb);
+	}
+	
+	/**
+	 * Velocity + penetration response between two bodies, same as
+	 * resolveSingleCollisionCombinedCacheFriendly in SequentialImpulseConstraintSolver.
+	 */
+	private void resolveContacts(int[] order, int from, int to) {
+		final SolverRows r = contactRows;
+		final float[] lvx = bodyLinVelX, lvy = bodyLinVelY, lvz = bodyLinVelZ;
+		final float[] avx = bodyAngVelX, avy = bodyAngVelY, avz = bodyAngVelZ;
+		final float[] af = bodyAngularFactor;
+		
+		for (int j=from; j<to; j++) {
+			int i = order[j];
+			int a = r.bodyA[i];
+			int b = r.bodyB[i];
+			
+			float vel1Dotn = (r.normalX[i]*lvx[a] + r.normalY[i]*lvy[a] + r.normalZ[i]*lvz[a]) + (r.relPos1CrossNormalX[i]*avx[a] + r.relPos1CrossNormalY[i]*avy[a] + r.relPos1CrossNormalZ[i]*avz[a]);
+			float vel2Dotn = (r.normalX[i]*lvx[b] + r.normalY[i]*lvy[b] + r.normalZ[i]*lvz[b]) + (r.relPos2CrossNormalX[i]*avx[b] + r.relPos2CrossNormalY[i]*avy[b] + r.relPos2CrossNormalZ[i]*avz[b]);
+			float rel_vel = vel1Dotn - vel2Dotn;
+			
+			float penetrationImpulse = r.penetration[i] * r.jacDiagABInv[i];
+			float velocityImpulse = (r.restitution[i] - rel_vel) * r.jacDiagABInv[i];
+			float normalImpulse = penetrationImpulse + velocityImpulse;
+			
+			// See Erin Catto's GDC 2006 paper: Clamp the accumulated impulse
+			float oldNormalImpulse = r.appliedImpulse[i];
+			float sum = oldNormalImpulse + normalImpulse;
+			r.appliedImpulse[i] = 0f > sum ? 0f : sum;
+
+			float velocitySum = r.appliedVelocityImpulse[i] + velocityImpulse;
+			r.appliedVelocityImpulse[i] = 0f > velocitySum ? 0f : velocitySum;
+			
+			normalImpulse = r.appliedImpulse[i] - oldNormalImpulse;
+			
+			float angA = normalImpulse * af[a];
+			lvx[a] = normalImpulse * r.linearComponentAX[i] + lvx[a];
+			lvy[a] = normalImpulse * r.linearComponentAY[i] + lvy[a];
+			lvz[a] = normalImpulse * r.linearComponentAZ[i] + lvz[a];
+			avx[a] = angA * r.angularComponentAX[i] + avx[a];
+			avy[a] = angA * r.angularComponentAY[i] + avy[a];
+			avz[a] = angA * r.angularComponentAZ[i] + avz[a];
+			
+			float angB = -normalImpulse * af[b];
+			lvx[b] = -normalImpulse * r.linearComponentBX[i] + lvx[b];
+			lvy[b] = -normalImpulse * r.linearComponentBY[i] + lvy[b];
+			lvz[b] = -normalImpulse * r.linearComponentBZ[i] + lvz[b];
+			avx[b] = angB * r.angularComponentBX[i] + avx[b];
+			avy[b] = angB * r.angularComponentBY[i] + avy[b];
+			avz[b] = angB * r.angularComponentBZ[i] + avz[b];
+		}
+	}
+	
+	/**
+	 * Friction response, same as resolveSingleFrictionCacheFriendly in SequentialImpulseConstraintSolver.
+	 */
+	private void resolveFriction(int[] order, int from, int to) {
+		final SolverRows r = frictionRows;
+		final float[] contactAppliedImpulse = contactRows.appliedImpulse;
+		final float[] lvx = bodyLinVelX, lvy = bodyLinVelY, lvz = bodyLinVelZ;
+		final float[] avx = bodyAngVelX, avy = bodyAngVelY, avz = bodyAngVelZ;
+		final float[] af = bodyAngularFactor;
+		
+		for (int j=from; j<to; j++) {
+			int i = order[j];
+			float appliedNormalImpulse = contactAppliedImpulse[r.frictionIndex[i]];
+			if (!(appliedNormalImpulse > 0f)) {
+				continue;
+			}
+			
+			int a = r.bodyA[i];
+			int b = r.bodyB[i];
+			float limit = appliedNormalImpulse * r.friction[i];
+			
+			float vel1Dotn = (r.normalX[i]*lvx[a] + r.normalY[i]*lvy[a] + r.normalZ[i]*lvz[a]) + (r.relPos1CrossNormalX[i]*avx[a] + r.relPos1CrossNormalY[i]*avy[a] + r.relPos1CrossNormalZ[i]*avz[a]);
+			float vel2Dotn = (r.normalX[i]*lvx[b] + r.normalY[i]*lvy[b] + r.normalZ[i]*lvz[b]) + (r.relPos2CrossNormalX[i]*avx[b] + r.relPos2CrossNormalY[i]*avy[b] + r.relPos2CrossNormalZ[i]*avz[b]);
+			float rel_vel = vel1Dotn - vel2Dotn;
+			
+			// calculate j that moves us to zero relative velocity
+			float j1 = -rel_vel * r.jacDiagABInv[i];
+			float oldTangentImpulse = r.appliedImpulse[i];
+			float tangentImpulse = oldTangentImpulse + j1;
+			if (limit < tangentImpulse) {
+				tangentImpulse = limit;
+			}
+			else if (tangentImpulse < -limit) {
+				tangentImpulse = -limit;
+			}
+			r.appliedImpulse[i] = tangentImpulse;
+			j1 = tangentImpulse - oldTangentImpulse;
+			
+			float angA = j1 * af[a];
+			lvx[a] = j1 * r.linearComponentAX[i] + lvx[a];
+			lvy[a] = j1 * r.linearComponentAY[i] + lvy[a];
+			lvz[a] = j1 * r.linearComponentAZ[i] + lvz[a];
+			avx[a] = angA * r.angularComponentAX[i] + avx[a];
+			avy[a] = angA * r.angularComponentAY[i] + avy[a];
+			avz[a] = angA * r.angularComponentAZ[i] + avz[a];
+			
+			float angB = -j1 * af[b];
+			lvx[b] = -j1 * r.linearComponentBX[i] + lvx[b];
+			lvy[b] = -j1 * r.linearComponentBY[i] + lvy[b];
+			lvz[b] = -j1 * r.linearComponentBZ[i] + lvz[b];
+			avx[b] = angB * r.angularComponentBX[i] + avx[b];
+			avy[b] = angB * r.angularComponentBY[i] + avy[b];
+			avz[b] = angB * r.angularComponentBZ[i] + avz[b];
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private int getSolverBody(CollisionObject collisionObject) {
+		if (collisionObject.getIslandTag() >= 0) {
+			if (collisionObject.getCompanionId() >= 0) {
+				// body has already been converted
+				return collisionObject.getCompanionId();
+			}
+			int id = addSolverBody(collisionObject);
+			collisionObject.setCompanionId(id);
+			return id;
+		}
+		// create a static body
+		return addSolverBody(collisionObject);
+	}
+	
+	private int addSolverBody(CollisionObject collisionObject) {
+		if (numSolverBodies == bodyInvMass.length) {
+			int newCapacity = Math.max(16, numSolverBodies << 1);
+			RigidBody[] newOriginal = new RigidBody[newCapacity];
+			System.arraycopy(bodyOriginal, 0, newOriginal, 0, numSolverBodies);
+			bodyOriginal = newOriginal;
+			bodyInvMass = grow(bodyInvMass, numSolverBodies, newCapacity);
+			bodyAngularFactor = grow(bodyAngularFactor, numSolverBodies, newCapacity);
+			bodyLinVelX = grow(bodyLinVelX, numSolverBodies, newCapacity);
+			bodyLinVelY = grow(bodyLinVelY, numSolverBodies, newCapacity);
+			bodyLinVelZ = grow(bodyLinVelZ, numSolverBodies, newCapacity);
+			bodyAngVelX = grow(bodyAngVelX, numSolverBodies, newCapacity);
+			bodyAngVelY = grow(bodyAngVelY, numSolverBodies, newCapacity);
+			bodyAngVelZ = grow(bodyAngVelZ, numSolverBodies, newCapacity);
+		}
+		
+		int id = numSolverBodies++;
+		RigidBody rb = RigidBody.upcast(collisionObject);
+		if (rb != null) {
+			bodyOriginal[id] = rb;
+			bodyInvMass[id] = rb.getInvMass();
+			bodyAngularFactor[id] = rb.getInvMass() != 0f? rb.getAngularFactor() : 0f;
+			readVelocity(id, rb);
+		}
+		else {
+			bodyOriginal[id] = null;
+			bodyInvMass[id] = 0f;
+			bodyAngularFactor[id] = 0f;
+			bodyLinVelX[id] = bodyLinVelY[id] = bodyLinVelZ[id] = 0f;
+			bodyAngVelX[id] = bodyAngVelY[id] = bodyAngVelZ[id] = 0f;
+		}
+		return id;
+	}
+	
+	private void readVelocity(int id, RigidBody rb) {
+		Vector3f linVel = rb.getLinearVelocity();
+		Vector3f angVel = rb.getAngularVelocity();
+		bodyLinVelX[id] = linVel.x;
+		bodyLinVelY[id] = linVel.y;
+		bodyLinVelZ[id] = linVel.z;
+		bodyAngVelX[id] = angVel.x;
+		bodyAngVelY[id] = angVel.y;
+		bodyAngVelZ[id] = angVel.z;
+	}
+	
+	private void readVelocity(int id) {
+		if (bodyInvMass[id] != 0f) {
+			readVelocity(id, bodyOriginal[id]);
+		}
+	}
+	
+	private void writebackVelocity(int id) {
+		if (bodyInvMass[id] != 0f) {
+			BulletStack stack = BulletStack.get();
+			
+			stack.vectors.push();
+			try {
+				RigidBody rb = bodyOriginal[id];
+				rb.setLinearVelocity(stack.vectors.get(bodyLinVelX[id], bodyLinVelY[id], bodyLinVelZ[id]));
+				rb.setAngularVelocity(stack.vectors.get(bodyAngVelX[id], bodyAngVelY[id], bodyAngVelZ[id]));
+			}
+			finally {
+				stack.vectors.pop();
+			}
+		}
+	}
+	
+	private static float[] grow(float[] array, int size, int newCapacity) {
+		float[] newArray = new float[newCapacity];
+		System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+	private static int[] grow(int[] array, int size, int newCapacity) {
+		int[] newArray = new int[newCapacity];
+		System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * 1D constraint rows along a normal axis between bodyA and bodyB, stored
+	 * as structure of arrays. See {@link SolverConstraint}.
+	 */
+	private static final class SolverRows {
+		public int size;
+		
+		public int[] bodyA = new int[0];
+		public int[] bodyB = new int[0];
+		public int[] frictionIndex = new int[0];
+		
+		public float[] invMassA = new float[0];
+		public float[] invMassB = new float[0];
+		public float[] normalX = new float[0];
+		public float[] normalY = new float[0];
+		public float[] normalZ = new float[0];
+		public float[] relPos1X = new float[0];
+		public float[] relPos1Y = new float[0];
+		public float[] relPos1Z = new float[0];
+		public float[] relPos2X = new float[0];
+		public float[] relPos2Y = new float[0];
+		public float[] relPos2Z = new float[0];
+		public float[] relPos1CrossNormalX = new float[0];
+		public float[] relPos1CrossNormalY = new float[0];
+		public float[] relPos1CrossNormalZ = new float[0];
+		public float[] relPos2CrossNormalX = new float[0];
+		public float[] relPos2CrossNormalY = new float[0];
+		public float[] relPos2CrossNormalZ = new float[0];
+		public float[] angularComponentAX = new float[0];
+		public float[] angularComponentAY = new float[0];
+		public float[] angularComponentAZ = new float[0];
+		public float[] angularComponentBX = new float[0];
+		public float[] angularComponentBY = new float[0];
+		public float[] angularComponentBZ = new float[0];
+		public float[] linearComponentAX = new float[0];
+		public float[] linearComponentAY = new float[0];
+		public float[] linearComponentAZ = new float[0];
+		public float[] linearComponentBX = new float[0];
+		public float[] linearComponentBY = new float[0];
+		public float[] linearComponentBZ = new float[0];
+		
+		public float[] jacDiagABInv = new float[0];
+		public float[] friction = new float[0];
+		public float[] restitution = new float[0];
+		public float[] penetration = new float[0];
+		public float[] appliedImpulse = new float[0];
+		public float[] appliedVelocityImpulse = new float[0];
+		
+		public int add() {
+			if (size == bodyA.length) {
+				expand(Math.max(16, size << 1));
+			}
+			return size++;
+		}
+		
+		/**
+		 * Computes linear components (inverse mass scaled normal) and jacobian
+		 * diagonal of all rows. Written as a straight loop over the arrays without
+		 * branches so that it can be vectorized.
+		 */
+		public void computeJacobianDiagonals() {
+			for (int i=0; i<size; i++) {
+				float nx = normalX[i], ny = normalY[i], nz = normalZ[i];
+				
+				linearComponentAX[i] = invMassA[i] * nx;
+				linearComponentAY[i] = invMassA[i] * ny;
+				linearComponentAZ[i] = invMassA[i] * nz;
+				linearComponentBX[i] = invMassB[i] * nx;
+				linearComponentBY[i] = invMassB[i] * ny;
+				linearComponentBZ[i] = invMassB[i] * nz;
+				
+				// angularComponentA cross relPos1:
+				float cx = angularComponentAY[i]*relPos1Z[i] - angularComponentAZ[i]*relPos1Y[i];
+				float cy = relPos1X[i]*angularComponentAZ[i] - relPos1Z[i]*angularComponentAX[i];
+				float cz = angularComponentAX[i]*relPos1Y[i] - angularComponentAY[i]*relPos1X[i];
+				float denom0 = invMassA[i] + (nx*cx + ny*cy + nz*cz);
+				
+				cx = angularComponentBY[i]*relPos2Z[i] - angularComponentBZ[i]*relPos2Y[i];
+				cy = relPos2X[i]*angularComponentBZ[i] - relPos2Z[i]*angularComponentBX[i];
+				cz = angularComponentBX[i]*relPos2Y[i] - angularComponentBY[i]*relPos2X[i];
+				float denom1 = invMassB[i] + (nx*cx + ny*cy + nz*cz);
+				
+				jacDiagABInv[i] = 1f / (denom0 + denom1);
+			}
+		}
+		
+		private void expand(int capacity) {
+			bodyA = grow(bodyA, size, capacity);
+			bodyB = grow(bodyB, size, capacity);
+			frictionIndex = grow(frictionIndex, size, capacity);
+			invMassA = grow(invMassA, size, capacity);
+			invMassB = grow(invMassB, size, capacity);
+			normalX = grow(normalX, size, capacity);
+			normalY = grow(normalY, size, capacity);
+			normalZ = grow(normalZ, size, capacity);
+			relPos1X = grow(relPos1X, size, capacity);
+			relPos1Y = grow(relPos1Y, size, capacity);
+			relPos1Z = grow(relPos1Z, size, capacity);
+			relPos2X = grow(relPos2X, size, capacity);
+			relPos2Y = grow(relPos2Y, size, capacity);
+			relPos2Z = grow(relPos2Z, size, capacity);
+			relPos1CrossNormalX = grow(relPos1CrossNormalX, size, capacity);
+			relPos1CrossNormalY = grow(relPos1CrossNormalY, size, capacity);
+			relPos1CrossNormalZ = grow(relPos1CrossNormalZ, size, capacity);
+			relPos2CrossNormalX = grow(relPos2CrossNormalX, size, capacity);
+			relPos2CrossNormalY = grow(relPos2CrossNormalY, size, capacity);
+			relPos2CrossNormalZ = grow(relPos2CrossNormalZ, size, capacity);
+			angularComponentAX = grow(angularComponentAX, size, capacity);
+			angularComponentAY = grow(angularComponentAY, size, capacity);
+			angularComponentAZ = grow(angularComponentAZ, size, capacity);
+			angularComponentBX = grow(angularComponentBX, size, capacity);
+			angularComponentBY = grow(angularComponentBY, size, capacity);
+			angularComponentBZ = grow(angularComponentBZ, size, capacity);
+			linearComponentAX = grow(linearComponentAX, size, capacity);
+			linearComponentAY = grow(linearComponentAY, size, capacity);
+			linearComponentAZ = grow(linearComponentAZ, size, capacity);
+			linearComponentBX = grow(linearComponentBX, size, capacity);
+			linearComponentBY = grow(linearComponentBY, size, capacity);
+			linearComponentBZ = grow(linearComponentBZ, size, capacity);
+			jacDiagABInv = grow(jacDiagABInv, size, capacity);
+			friction = grow(friction, size, capacity);
+			restitution = grow(restitution, size, capacity);
+			penetration = grow(penetration, size, capacity);
+			appliedImpulse = grow(appliedImpulse, size, capacity);
+			appliedVelocityImpulse = grow(appliedVelocityImpulse, size, capacity);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Constraints grouped into batches by color. Consecutive constraints between
+	 * the same pair of bodies (eg. contact points of one manifold) form a unit
+	 * that is always solved by one task. Units that can't be colored are put into
+	 * last (overflow) batch that is solved serially.
+	 */
+	private static final class ColoredBatches {
+		// constraint indices sorted by color:
+		public int[] rows = new int[0];
+		// start of each unit in rows, numUnits+1 entries:
+		public int[] unitStart = new int[1];
+		// first unit of each batch, numBatches+1 entries:
+		public int[] batchStart = new int[1];
+		public int numBatches;
+		public boolean overflow;
+		
+		// body indices of last colored constraints, used for reusing the coloring:
+		private int[] cachedBodyA = new int[0];
+		private int[] cachedBodyB = new int[0];
+		private int cachedSize = -1;
+		
+		private int[] unitFirstRow = new int[1];
+		private int[] unitColor = new int[0];
+		private int[] sortedUnits = new int[0];
+		private final int[] colorUnits = new int[MAX_COLORS + 2];
+		
+		public boolean isOverflowBatch(int batch) {
+			return overflow && batch == numBatches - 1;
+		}
+		
+		public void build(int[] bodyA, int[] bodyB, int size, long[] bodyColors, int numBodies) {
+			if (isCached(bodyA, bodyB, size)) {
+				return;
+			}
+			
+			if (cachedBodyA.length < size) {
+				cachedBodyA = new int[size];
+				cachedBodyB = new int[size];
+				rows = new int[size];
+				unitStart = new int[size + 1];
+				unitFirstRow = new int[size + 1];
+				unitColor = new int[size];
+				sortedUnits = new int[size];
+			}
+			System.arraycopy(bodyA, 0, cachedBodyA, 0, size);
+			System.arraycopy(bodyB, 0, cachedBodyB, 0, size);
+			cachedSize = size;
+			
+			Arrays.fill(bodyColors, 0, numBodies, 0L);
+			Arrays.fill(colorUnits, 0);
+			
+			// greedy coloring of units:
+			int numUnits = 0;
+			for (int i=0; i<size; i++) {
+				if (i > 0 && bodyA[i] == bodyA[i-1] && bodyB[i] == bodyB[i-1]) {
+					continue;
+				}
+				
+				int a = bodyA[i];
+				int b = bodyB[i];
+				int color = MAX_COLORS;
+				if (a != -2 && b != -2) {
+					long used = (a >= 0? bodyColors[a] : 0L) | (b >= 0? bodyColors[b] : 0L);
+					if (used != -1L) {
+						color = Long.numberOfTrailingZeros(~used);
+						long bit = 1L << color;
+						if (a >= 0) bodyColors[a] |= bit;
+						if (b >= 0) bodyColors[b] |= bit;
+					}
+				}
+				
+				unitFirstRow[numUnits] = i;
+				unitColor[numUnits] = color;
+				colorUnits[color + 1]++;
+				numUnits++;
+			}
+			unitFirstRow[numUnits] = size;
+			
+			// prefix sums, colorUnits[c] is now index of first unit with color c:
+			for (int c=0; c<=MAX_COLORS; c++) {
+				colorUnits[c + 1] += colorUnits[c];
+			}
+			
+			numBatches = 0;
+			for (int c=0; c<=MAX_COLORS; c++) {
+				if (colorUnits[c + 1] > colorUnits[c]) {
+					if (batchStart.length < numBatches + 2) {
+						int[] newBatchStart = new int[Math.max(8, batchStart.length << 1)];
+						System.arraycopy(batchStart, 0, newBatchStart, 0, numBatches + 1);
+						batchStart = newBatchStart;
+					}
+					batchStart[numBatches++] = colorUnits[c];
+				}
+			}
+			batchStart[numBatches] = numUnits;
+			overflow = colorUnits[MAX_COLORS + 1] > colorUnits[MAX_COLORS];
+			
+			// stable sort of units by color (colorUnits serve as insertion positions):
+			for (int u=0; u<numUnits; u++) {
+				sortedUnits[colorUnits[unitColor[u]]++] = u;
+			}
+			int pos = 0;
+			for (int k=0; k<numUnits; k++) {
+				int u = sortedUnits[k];
+				unitStart[k] = pos;
+				for (int i=unitFirstRow[u]; i<unitFirstRow[u + 1]; i++) {
+					rows[pos++] = i;
+				}
+			}
+			unitStart[numUnits] = pos;
+		}
+		
+		private boolean isCached(int[] bodyA, int[] bodyB, int size) {
+			if (size != cachedSize) {
+				return false;
+			}
+			for (int i=0; i<size; i++) {
+				if (bodyA[i] != cachedBodyA[i] || bodyB[i] != cachedBodyB[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Solves part of one batch, each task is given a range of units.
+	 */
+	private class BatchTask implements ParallelTasks.Task {
+		public int rowType;
+		public ColoredBatches batches;
+		public int firstUnit;
+		public int numUnits;
+		public int numTasks;
+		
+		public void run(int taskIndex) {
+			int u0 = firstUnit + (int)((long)numUnits * taskIndex / numTasks);
+			int u1 = firstUnit + (int)((long)numUnits * (taskIndex + 1) / numTasks);
+			solveRows(rowType, batches.rows, batches.unitStart[u0], batches.unitStart[u1]);
+		}
+	}
+
+}
@@ -24,6 +24,7 @@
 package javabullet.dynamics.constraintsolver;
 
 import javabullet.BulletStack;
+import javabullet.ObjectFactory;
 import javabullet.dynamics.RigidBody;
 import javax.vecmath.Vector3f;
 
@@ -34,8 +35,12 @@ import javax.vecmath.Vector3f;
  */
 public class SolverBody {
 	
-	protected final BulletStack stack = BulletStack.get();
-
+	public static final ObjectFactory<SolverBody> FACTORY = new ObjectFactory<SolverBody>() {
+		public SolverBody create() {
+			return new SolverBody();
+		}
+	};
+	
 	public final Vector3f angularVelocity = new Vector3f();
 	public float angularFactor;
 	public float invMass;
@@ -45,6 +50,8 @@ public class SolverBody {
 	public final Vector3f centerOfMassPosition = new Vector3f();
 
 	public void getVelocityInLocalPoint(Vector3f rel_pos, Vector3f velocity) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -23,6 +23,7 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import javabullet.ObjectFactory;
 import javax.vecmath.Vector3f;
 
 /**
@@ -32,6 +33,12 @@ import javax.vecmath.Vector3f;
  */
 public class SolverConstraint {
 
+	public static final ObjectFactory<SolverConstraint> FACTORY = new ObjectFactory<SolverConstraint>() {
+		public SolverConstraint create() {
+			return new SolverConstraint();
+		}
+	};
+	
 	public final Vector3f relpos1CrossNormal = new Vector3f();
 	public final Vector3f contactNormal = new Vector3f();
 
@@ -33,5 +33,6 @@ public class SolverMode {
 	public static final int SOLVER_FRICTION_SEPARATE = 2;
 	public static final int SOLVER_USE_WARMSTARTING  = 4;
 	public static final int SOLVER_CACHE_FRIENDLY    = 8;
+	public static final int SOLVER_GRAPH_COLORING    = 16; // supported by SoASequentialImpulseConstraintSolver only
 
 }
@@ -41,8 +41,6 @@ import javax.vecmath.Vector3f;
  */
 public class TranslationalLimitMotor {
 	
-	protected final BulletStack stack = BulletStack.get();
-	
 	public final Vector3f lowerLimit = new Vector3f(); //!< the constraint lower limits
 	public final Vector3f upperLimit = new Vector3f(); //!< the constraint upper limits
 	public final Vector3f accumulatedImpulse = new Vector3f();
@@ -83,6 +81,8 @@ public class TranslationalLimitMotor {
 	}
 
 	public float solveLinearAxis(float timeStep, float jacDiagABInv, RigidBody body1, Vector3f pointInA, RigidBody body2, Vector3f pointInB, int limit_index, Vector3f axis_normal_on_a) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
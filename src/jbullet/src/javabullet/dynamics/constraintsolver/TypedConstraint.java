@@ -23,8 +23,8 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
-import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 
 /**
@@ -34,8 +34,6 @@ import javabullet.dynamics.RigidBody;
  */
 public abstract class TypedConstraint {
 	
-	protected final BulletStack stack = BulletStack.get();
-	
 	private static final RigidBody s_fixed = new RigidBody(0, null, null);
 
 	private int userConstraintType = -1;
@@ -98,4 +96,28 @@ public abstract class TypedConstraint {
 		return constraintType;
 	}
 	
+	/**
+	 * Returns size in bytes of solver state written by {@link #writeSnapshot}.
+	 * Must not change during lifetime of constraint.
+	 */
+	public int getSnapshotSize() {
+		return 4;
+	}
+	
+	/**
+	 * Writes accumulated impulses into buffer. Subclasses with additional
+	 * solver state must extend it together with {@link #readSnapshot} and
+	 * {@link #getSnapshotSize}.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putFloat(appliedImpulse);
+	}
+	
+	/**
+	 * Reads accumulated impulses previously written by {@link #writeSnapshot}.
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		appliedImpulse = buf.getFloat();
+	}
+	
 }
@@ -25,6 +25,7 @@ package javabullet.dynamics.vehicle;
 
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.dynamics.constraintsolver.ContactConstraint;
 import javabullet.dynamics.constraintsolver.TypedConstraint;
@@ -119,6 +120,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateWheelTransform(int wheelIndex, boolean interpolatedTransform) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		stack.quats.push();
 		stack.matrices.push();
@@ -183,6 +186,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateWheelTransformsWS(WheelInfo wheel, boolean interpolatedTransform) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.transforms.push();
 		try {
 			wheel.raycastInfo.isInContact = false;
@@ -207,6 +212,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 
 	public float rayCast(WheelInfo wheel) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			updateWheelTransformsWS(wheel, false);
@@ -221,20 +228,61 @@ public class RaycastVehicle extends TypedConstraint {
 			wheel.raycastInfo.contactPointWS.add(source, rayvector);
 			Vector3f target = wheel.raycastInfo.contactPointWS;
 
-			float param = 0f;
-
 			VehicleRaycasterResult rayResults = new VehicleRaycasterResult();
 
 			assert (vehicleRaycaster != null);
 
 			Object object = vehicleRaycaster.castRay(source, target, rayResults);
 
-			wheel.raycastInfo.groundObject = null;
-
 			if (object != null) {
-				param = rayResults.distFraction;
 				depth = raylen * rayResults.distFraction;
-				wheel.raycastInfo.contactNormalWS.set(rayResults.hitNormalInWorld);
+			}
+			processRayResult(wheel, object != null, rayResults.hitPointInWorld, rayResults.hitNormalInWorld, rayResults.distFraction);
+
+			return depth;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	/**
+	 * Computes wheel ray for given wheel and stores start and end point at given
+	 * index (as x, y, z triple) of the arrays. Used for batched raycasts.
+	 */
+	void getWheelRay(WheelInfo wheel, float[] rayFrom, float[] rayTo, int index) {
+		updateWheelTransformsWS(wheel, false);
+
+		float raylen = wheel.getSuspensionRestLength() + wheel.wheelsRadius;
+
+		Vector3f source = wheel.raycastInfo.hardPointWS;
+		Vector3f target = wheel.raycastInfo.contactPointWS;
+		target.scale(raylen, wheel.raycastInfo.wheelDirectionWS);
+		target.add(source);
+
+		rayFrom[index*3+0] = source.x;
+		rayFrom[index*3+1] = source.y;
+		rayFrom[index*3+2] = source.z;
+		rayTo[index*3+0] = target.x;
+		rayTo[index*3+1] = target.y;
+		rayTo[index*3+2] = target.z;
+	}
+	
+	/**
+	 * Updates wheel contact and suspension from result of wheel ray.
+	 */
+	void processRayResult(WheelInfo wheel, boolean hit, Vector3f hitPointInWorld, Vector3f hitNormalInWorld, float distFraction) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		try {
+			float raylen = wheel.getSuspensionRestLength() + wheel.wheelsRadius;
+			
+			wheel.raycastInfo.groundObject = null;
+
+			if (hit) {
+				float param = distFraction;
+				wheel.raycastInfo.contactNormalWS.set(hitNormalInWorld);
 				wheel.raycastInfo.isInContact = true;
 
 				wheel.raycastInfo.groundObject = s_fixedObject; // todo for driving on dynamic/movable objects!;
@@ -253,7 +301,7 @@ public class RaycastVehicle extends TypedConstraint {
 					wheel.raycastInfo.suspensionLength = maxSuspensionLength;
 				}
 
-				wheel.raycastInfo.contactPointWS.set(rayResults.hitPointInWorld);
+				wheel.raycastInfo.contactPointWS.set(hitPointInWorld);
 
 				float denominator = wheel.raycastInfo.contactNormalWS.dot(wheel.raycastInfo.wheelDirectionWS);
 
@@ -283,8 +331,6 @@ public class RaycastVehicle extends TypedConstraint {
 				wheel.raycastInfo.contactNormalWS.negate(wheel.raycastInfo.wheelDirectionWS);
 				wheel.clippedInvContactDotSuspension = 1f;
 			}
-
-			return depth;
 		}
 		finally {
 			stack.vectors.pop();
@@ -305,6 +351,25 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateVehicle(float step) {
+		prepareUpdate();
+
+		//
+		// simulate suspension
+		//
+
+		for (int i = 0; i < wheelInfo.size(); i++) {
+			rayCast(wheelInfo.get(i));
+		}
+
+		updateForces(step);
+	}
+	
+	/**
+	 * First part of {@link #updateVehicle}, updates wheel transforms and speed.
+	 */
+	void prepareUpdate() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		stack.transforms.push();
 		try {
@@ -324,17 +389,24 @@ public class RaycastVehicle extends TypedConstraint {
 			if (forwardW.dot(getRigidBody().getLinearVelocity()) < 0f) {
 				currentVehicleSpeedKmHour *= -1f;
 			}
-
-			//
-			// simulate suspension
-			//
-
-			int i = 0;
-			for (i = 0; i < wheelInfo.size(); i++) {
-				float depth;
-				depth = rayCast(wheelInfo.get(i));
-			}
-
+		}
+		finally {
+			stack.vectors.pop();
+			stack.transforms.pop();
+		}
+	}
+	
+	/**
+	 * Last part of {@link #updateVehicle}, done after wheel raycasts. Applies
+	 * suspension and friction impulses to the chassis and rotates the wheels.
+	 */
+	void updateForces(float step) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors.push();
+		stack.transforms.push();
+		try {
+			int i;
 			updateSuspension(step);
 
 			for (i = 0; i < wheelInfo.size(); i++) {
@@ -468,29 +540,35 @@ public class RaycastVehicle extends TypedConstraint {
 		}
 	}
 	
-	private float calcRollingFriction(WheelContactPoint contactPoint) {
+	// JAVA NOTE: WheelContactPoint is inlined to avoid allocation for each wheel
+	private float calcRollingFriction(RigidBody body0, RigidBody body1, Vector3f frictionPosWorld, Vector3f frictionDirectionWorld, float maxImpulse) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
+			float denom0 = body0.computeImpulseDenominator(frictionPosWorld, frictionDirectionWorld);
+			float denom1 = body1.computeImpulseDenominator(frictionPosWorld, frictionDirectionWorld);
+			float relaxation = 1f;
+			float jacDiagABInv = relaxation / (denom0 + denom1);
+
 			float j1 = 0f;
 
-			Vector3f contactPosWorld = contactPoint.frictionPositionWorld;
+			Vector3f contactPosWorld = frictionPosWorld;
 
 			Vector3f rel_pos1 = stack.vectors.get();
-			rel_pos1.sub(contactPosWorld, contactPoint.body0.getCenterOfMassPosition());
+			rel_pos1.sub(contactPosWorld, body0.getCenterOfMassPosition());
 			Vector3f rel_pos2 = stack.vectors.get();
-			rel_pos2.sub(contactPosWorld, contactPoint.body1.getCenterOfMassPosition());
+			rel_pos2.sub(contactPosWorld, body1.getCenterOfMassPosition());
 
-			float maxImpulse = contactPoint.maxImpulse;
-
-			Vector3f vel1 = stack.vectors.get(contactPoint.body0.getVelocityInLocalPoint(rel_pos1));
-			Vector3f vel2 = stack.vectors.get(contactPoint.body1.getVelocityInLocalPoint(rel_pos2));
+			Vector3f vel1 = stack.vectors.get(body0.getVelocityInLocalPoint(rel_pos1));
+			Vector3f vel2 = stack.vectors.get(body1.getVelocityInLocalPoint(rel_pos2));
 			Vector3f vel = stack.vectors.get();
 			vel.sub(vel1, vel2);
 
-			float vrel = contactPoint.frictionDirectionWorld.dot(vel);
+			float vrel = frictionDirectionWorld.dot(vel);
 
 			// calculate j that moves us to zero relative velocity
-			j1 = -vrel * contactPoint.jacDiagABInv;
+			j1 = -vrel * jacDiagABInv;
 			j1 = Math.min(j1, maxImpulse);
 			j1 = Math.max(j1, -maxImpulse);
 
@@ -502,6 +580,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateFriction(float timeStep) {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		stack.matrices.push();
 		try {
@@ -511,10 +591,13 @@ public class RaycastVehicle extends TypedConstraint {
 				return;
 			}
 
-			MiscUtil.resize(forwardWS, numWheel, Vector3f.class);
-			MiscUtil.resize(axle, numWheel, Vector3f.class);
-			MiscUtil.resize(forwardImpulse, numWheel, 0f);
-			MiscUtil.resize(sideImpulse, numWheel, 0f);
+			// JAVA NOTE: resize only when number of wheels changes
+			if (forwardWS.size() != numWheel) {
+				MiscUtil.resize(forwardWS, numWheel, Vector3f.class);
+				MiscUtil.resize(axle, numWheel, Vector3f.class);
+				MiscUtil.resize(forwardImpulse, numWheel, 0f);
+				MiscUtil.resize(sideImpulse, numWheel, 0f);
+			}
 
 			Vector3f tmp = stack.vectors.get();
 
@@ -586,8 +669,7 @@ public class RaycastVehicle extends TypedConstraint {
 						else {
 							float defaultRollingFrictionImpulse = 0f;
 							float maxImpulse = wheel_info.brake != 0f ? wheel_info.brake : defaultRollingFrictionImpulse;
-							WheelContactPoint contactPt = new WheelContactPoint(chassisBody, groundObject, wheel_info.raycastInfo.contactPointWS, forwardWS.get(wheel), maxImpulse);
-							rollingFriction = calcRollingFriction(contactPt);
+							rollingFriction = calcRollingFriction(chassisBody, groundObject, wheel_info.raycastInfo.contactPointWS, forwardWS.get(wheel), maxImpulse);
 						}
 					}
 
@@ -693,6 +775,10 @@ public class RaycastVehicle extends TypedConstraint {
 		return chassisBody;
 	}
 
+	public VehicleRaycaster getVehicleRaycaster() {
+		return vehicleRaycaster;
+	}
+
 	public int getRightAxis() {
 		return indexRightAxis;
 	}
@@ -709,6 +795,8 @@ public class RaycastVehicle extends TypedConstraint {
 	 * Worldspace forward vector.
 	 */
 	public Vector3f getForwardVector() {
+		BulletStack stack = BulletStack.get();
+		
 		stack.vectors.push();
 		try {
 			Transform chassisTrans = getChassisWorldTransform();
@@ -737,29 +825,5 @@ public class RaycastVehicle extends TypedConstraint {
 		this.indexUpAxis = upIndex;
 		this.indexForwardAxis = forwardIndex;
 	}
-	
-	////////////////////////////////////////////////////////////////////////////
-	
-	private static class WheelContactPoint {
-		public RigidBody body0;
-		public RigidBody body1;
-		public final Vector3f frictionPositionWorld = new Vector3f();
-		public final Vector3f frictionDirectionWorld = new Vector3f();
-		public float jacDiagABInv;
-		public float maxImpulse;
-
-		public WheelContactPoint(RigidBody body0, RigidBody body1, Vector3f frictionPosWorld, Vector3f frictionDirectionWorld, float maxImpulse) {
-			this.body0 = body0;
-			this.body1 = body1;
-			this.frictionPositionWorld.set(frictionPosWorld);
-			this.frictionDirectionWorld.set(frictionDirectionWorld);
-			this.maxImpulse = maxImpulse;
-
-			float denom0 = body0.computeImpulseDenominator(frictionPosWorld, frictionDirectionWorld);
-			float denom1 = body1.computeImpulseDenominator(frictionPosWorld, frictionDirectionWorld);
-			float relaxation = 1f;
-			jacDiagABInv = relaxation / (denom0 + denom1);
-		}
-	}
 
 }
@@ -0,0 +1,226 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.dynamics.vehicle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import javabullet.BulletStack;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.CollisionWorld;
+import javabullet.collision.dispatch.CollisionWorld.RayBatchResult;
+import javabullet.dynamics.RigidBody;
+import javabullet.util.ParallelTasks;
+import javax.vecmath.Vector3f;
+
+/**
+ * VehicleManager updates all vehicles of the world at once. Wheel rays of
+ * vehicles using {@link DefaultVehicleRaycaster} are gathered into one batch
+ * and resolved by {@link CollisionWorld#rayTestBatch} (vehicles with other
+ * raycasters cast their rays as usual). Suspension and friction is then
+ * updated for each vehicle.<p>
+ * 
+ * With executor, the work is spread to multiple tasks. Vehicles are grouped
+ * by simulation island of their chassis, groups are processed in parallel.
+ * Results are identical to updating each vehicle by {@link RaycastVehicle#updateVehicle}.
+ * 
+ * @author jezek2
+ */
+public class VehicleManager {
+
+	private float[] rayFrom = new float[0];
+	private float[] rayTo = new float[0];
+	private RayBatchResult rayResults = new RayBatchResult(0);
+	
+	// first ray of each vehicle, or -1 for vehicles not in the batch:
+	private int[] rayOffsets = new int[0];
+	
+	// vehicle indices sorted by island and start of each group:
+	private int[] groupOrder = new int[0];
+	private int[] groupStarts = new int[0];
+	private long[] sortKeys = new long[0];
+	private int numGroups;
+	
+	/**
+	 * Updates vehicles. Executor can be null for serial processing.
+	 */
+	public void updateVehicles(final CollisionWorld world, final List<RaycastVehicle> vehicles, final float timeStep, Executor executor, int numTasks) {
+		final int numVehicles = vehicles.size();
+		if (numVehicles == 0) {
+			return;
+		}
+		
+		if (executor == null) {
+			numTasks = 1;
+		}
+		
+		// assign rays:
+		if (rayOffsets.length < numVehicles) {
+			rayOffsets = new int[numVehicles];
+		}
+		int numRays = 0;
+		for (int i=0; i<numVehicles; i++) {
+			RaycastVehicle vehicle = vehicles.get(i);
+			if (isBatched(world, vehicle)) {
+				rayOffsets[i] = numRays;
+				numRays += vehicle.getNumWheels();
+			}
+			else {
+				rayOffsets[i] = -1;
+			}
+		}
+		if (rayResults.capacity() < numRays) {
+			rayFrom = new float[numRays*3];
+			rayTo = new float[numRays*3];
+			rayResults = new RayBatchResult(numRays);
+		}
+		
+		// update wheel transforms and gather rays:
+		final AtomicInteger nextVehicle = new AtomicInteger();
+		ParallelTasks.run(executor, Math.min(numTasks, numVehicles), new ParallelTasks.Task() {
+			public void run(int taskIndex) {
+				int i;
+				while ((i = nextVehicle.getAndIncrement()) < numVehicles) {
+					prepareVehicle(vehicles.get(i), rayOffsets[i]);
+				}
+			}
+		});
+		
+		world.rayTestBatch(rayFrom, rayTo, numRays, rayResults, (short)-1, executor, numTasks);
+		
+		// apply ray results and forces:
+		if (numTasks <= 1) {
+			for (int i=0; i<numVehicles; i++) {
+				updateVehicle(vehicles.get(i), rayOffsets[i], timeStep);
+			}
+		}
+		else {
+			groupByIslands(vehicles);
+			
+			final AtomicInteger nextGroup = new AtomicInteger();
+			ParallelTasks.run(executor, Math.min(numTasks, numGroups), new ParallelTasks.Task() {
+				public void run(int taskIndex) {
+					int group;
+					while ((group = nextGroup.getAndIncrement()) < numGroups) {
+						for (int j=groupStarts[group]; j<groupStarts[group+1]; j++) {
+							int i = groupOrder[j];
+							updateVehicle(vehicles.get(i), rayOffsets[i], timeStep);
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	private static boolean isBatched(CollisionWorld world, RaycastVehicle vehicle) {
+		VehicleRaycaster raycaster = vehicle.getVehicleRaycaster();
+		// subclasses can have different behaviour:
+		return raycaster != null && raycaster.getClass() == DefaultVehicleRaycaster.class &&
+				((DefaultVehicleRaycaster)raycaster).dynamicsWorld == world;
+	}
+	
+	private void prepareVehicle(RaycastVehicle vehicle, int rayOffset) {
+		vehicle.prepareUpdate();
+		
+		if (rayOffset >= 0) {
+			for (int w=0; w<vehicle.getNumWheels(); w++) {
+				vehicle.getWheelRay(vehicle.getWheelInfo(w), rayFrom, rayTo, rayOffset + w);
+			}
+		}
+	}
+	
+	private void updateVehicle(RaycastVehicle vehicle, int rayOffset, float timeStep) {
+		BulletStack stack = BulletStack.get();
+		
+		if (rayOffset < 0) {
+			for (int w=0; w<vehicle.getNumWheels(); w++) {
+				vehicle.rayCast(vehicle.getWheelInfo(w));
+			}
+		}
+		else {
+			stack.vectors.push();
+			try {
+				Vector3f hitPoint = stack.vectors.get();
+				Vector3f hitNormal = stack.vectors.get();
+				
+				for (int w=0; w<vehicle.getNumWheels(); w++) {
+					int ray = rayOffset + w;
+					
+					// the same as in DefaultVehicleRaycaster:
+					CollisionObject hitObject = rayResults.collisionObject[ray];
+					boolean hit = hitObject != null && RigidBody.upcast(hitObject) != null;
+					if (hit) {
+						rayResults.getHitPointWorld(ray, hitPoint);
+						rayResults.getHitNormalWorld(ray, hitNormal);
+						hitNormal.normalize();
+					}
+					vehicle.processRayResult(vehicle.getWheelInfo(w), hit, hitPoint, hitNormal, rayResults.hitFraction[ray]);
+					
+					// don't hold references to objects:
+					rayResults.collisionObject[ray] = null;
+				}
+			}
+			finally {
+				stack.vectors.pop();
+			}
+		}
+		
+		vehicle.updateForces(timeStep);
+	}
+	
+	/**
+	 * Sorts vehicles by island tag of chassis, vehicles without island form
+	 * their own groups.
+	 */
+	private void groupByIslands(List<RaycastVehicle> vehicles) {
+		int numVehicles = vehicles.size();
+		if (sortKeys.length < numVehicles) {
+			sortKeys = new long[numVehicles];
+			groupOrder = new int[numVehicles];
+			groupStarts = new int[numVehicles + 1];
+		}
+		
+		for (int i=0; i<numVehicles; i++) {
+			int islandTag = vehicles.get(i).getRigidBody().getIslandTag();
+			// vehicles without island get unique key after all islands:
+			long key = (islandTag >= 0)? islandTag : (long)Integer.MAX_VALUE + i;
+			sortKeys[i] = (key << 32) | i;
+		}
+		Arrays.sort(sortKeys, 0, numVehicles);
+		
+		numGroups = 0;
+		long prevKey = -1;
+		for (int j=0; j<numVehicles; j++) {
+			long key = sortKeys[j] >>> 32;
+			groupOrder[j] = (int)sortKeys[j];
+			if (key != prevKey) {
+				groupStarts[numGroups++] = j;
+				prevKey = key;
+			}
+		}
+		groupStarts[numGroups] = numVehicles;
+	}
+	
+}
@@ -105,6 +105,62 @@ public class AabbUtil2 {
 		}
 	}
 	
+	/**
+	 * Slab test of ray segment against aabb. Ray is given by its start point and
+	 * precomputed inverse of direction (rayTo - rayFrom), so it can be reused for
+	 * many aabbs. Returns true when the ray hits the aabb within [0, lambdaMax].
+	 */
+	public static boolean rayAabb2(Vector3f rayFrom, Vector3f rayInvDirection, Vector3f aabbMin, Vector3f aabbMax, float lambdaMax) {
+		float tmin = 0f;
+		float tmax = lambdaMax;
+		for (int i=0; i<3; i++) {
+			float inv = VectorUtil.getCoord(rayInvDirection, i);
+			float from = VectorUtil.getCoord(rayFrom, i);
+			float t0 = (VectorUtil.getCoord(aabbMin, i) - from) * inv;
+			float t1 = (VectorUtil.getCoord(aabbMax, i) - from) * inv;
+			if (inv < 0f) {
+				float tmp = t0; t0 = t1; t1 = tmp;
+			}
+			// NaN (ray lies on the slab boundary) is treated as inside
+			if (t0 > tmin) tmin = t0;
+			if (t1 < tmax) tmax = t1;
+			if (tmin > tmax) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Slab test of aabb swept along ray segment against aabb. The swept aabb is
+	 * given relative to the ray point (ie. local aabb of cast shape), the test
+	 * is done against aabb enlarged by its extents. Null expansion is the same
+	 * as plain ray test.
+	 */
+	public static boolean rayAabb2(Vector3f rayFrom, Vector3f rayInvDirection, Vector3f aabbMin, Vector3f aabbMax, Vector3f expandMin, Vector3f expandMax, float lambdaMax) {
+		if (expandMin == null) {
+			return rayAabb2(rayFrom, rayInvDirection, aabbMin, aabbMax, lambdaMax);
+		}
+		
+		float tmin = 0f;
+		float tmax = lambdaMax;
+		for (int i=0; i<3; i++) {
+			float inv = VectorUtil.getCoord(rayInvDirection, i);
+			float from = VectorUtil.getCoord(rayFrom, i);
+			float t0 = (VectorUtil.getCoord(aabbMin, i) - VectorUtil.getCoord(expandMax, i) - from) * inv;
+			float t1 = (VectorUtil.getCoord(aabbMax, i) - VectorUtil.getCoord(expandMin, i) - from) * inv;
+			if (inv < 0f) {
+				float tmp = t0; t0 = t1; t1 = tmp;
+			}
+			if (t0 > tmin) tmin = t0;
+			if (t1 < tmax) tmax = t1;
+			if (tmin > tmax) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	/**
 	 * Conservative test for overlap between two aabbs.
 	 */
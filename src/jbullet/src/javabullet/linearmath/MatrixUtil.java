@@ -82,12 +82,12 @@ public class MatrixUtil {
 	 * about X then Y and then Z
 	 */
 	public static void setEulerZYX(Matrix3f mat, float eulerX, float eulerY, float eulerZ) {
-		float ci = (float) Math.cos(eulerX);
-		float cj = (float) Math.cos(eulerY);
-		float ch = (float) Math.cos(eulerZ);
-		float si = (float) Math.sin(eulerX);
-		float sj = (float) Math.sin(eulerY);
-		float sh = (float) Math.sin(eulerZ);
+		float ci = (float) ScalarUtil.cos(eulerX);
+		float cj = (float) ScalarUtil.cos(eulerY);
+		float ch = (float) ScalarUtil.cos(eulerZ);
+		float si = (float) ScalarUtil.sin(eulerX);
+		float sj = (float) ScalarUtil.sin(eulerY);
+		float sh = (float) ScalarUtil.sin(eulerZ);
 		float cc = ci * ch;
 		float cs = ci * sh;
 		float sc = si * ch;
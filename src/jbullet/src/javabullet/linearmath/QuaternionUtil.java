@@ -35,15 +35,15 @@ import javax.vecmath.Vector3f;
 public class QuaternionUtil {
 
 	public static float getAngle(Quat4f q) {
-		float s = 2f * (float) Math.acos(q.w);
+		float s = 2f * (float) ScalarUtil.acos(q.w);
 		return s;
 	}
 	
 	public static void setRotation(Quat4f q, Vector3f axis, float angle) {
 		float d = axis.length();
 		assert (d != 0f);
-		float s = (float)Math.sin(angle * 0.5f) / d;
-		q.set(axis.x * s, axis.y * s, axis.z * s, (float) Math.cos(angle * 0.5f));
+		float s = (float)ScalarUtil.sin(angle * 0.5f) / d;
+		q.set(axis.x * s, axis.y * s, axis.z * s, (float) ScalarUtil.cos(angle * 0.5f));
 	}
 	
 	// Game Programming Gems 2.10. make sure v0,v1 are normalized
@@ -39,6 +39,30 @@ public class ScalarUtil {
 		return Math.abs(x) < BulletGlobals.FLT_EPSILON;
 	}
 
+	// JAVA NOTE: Math may use platform specific intrinsics for these functions,
+	// StrictMath is used instead when BulletGlobals.gStrictMath is set.
+	// Math.sqrt is always correctly rounded, so it is used directly.
+	
+	public static double sin(double a) {
+		return BulletGlobals.gStrictMath? StrictMath.sin(a) : Math.sin(a);
+	}
+
+	public static double cos(double a) {
+		return BulletGlobals.gStrictMath? StrictMath.cos(a) : Math.cos(a);
+	}
+
+	public static double asin(double a) {
+		return BulletGlobals.gStrictMath? StrictMath.asin(a) : Math.asin(a);
+	}
+
+	public static double acos(double a) {
+		return BulletGlobals.gStrictMath? StrictMath.acos(a) : Math.acos(a);
+	}
+
+	public static double atan2(double y, double x) {
+		return BulletGlobals.gStrictMath? StrictMath.atan2(y, x) : Math.atan2(y, x);
+	}
+
 	public static float atan2Fast(float y, float x) {
 		float coeff_1 = BulletGlobals.SIMD_PI / 4.0f;
 		float coeff_2 = 3.0f * coeff_1;
@@ -0,0 +1,48 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+/**
+ * Per-step counters recorded by {@link StepProfiler}. Values reflect the last
+ * substep of the simulation step.
+ * 
+ * @author jezek2
+ */
+public enum StepCounter {
+	
+	/** Number of simulation substeps performed. */
+	SUBSTEPS,
+	/** Number of overlapping pairs found by the broadphase. */
+	OVERLAPPING_PAIRS,
+	/** Number of contact manifolds after the narrowphase. */
+	MANIFOLDS,
+	/** Number of contact points in all manifolds. */
+	CONTACTS,
+	/** Number of active simulation islands passed to the solver. */
+	ISLANDS,
+	/** Number of bodies whose motion was clamped by continuous collision detection. */
+	CCD_CLAMPS
+	
+}
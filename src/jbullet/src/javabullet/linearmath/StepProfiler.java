@@ -0,0 +1,233 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measures time of simulation step phases with nanosecond resolution and
+ * records per-step counters. Each world has its own profiler, disabled by
+ * default. It can be enabled at runtime either directly or through JMX
+ * (see {@link #registerMBean}).<p>
+ * 
+ * Recording is done only by the thread stepping the world, so it needs no
+ * synchronization and doesn't allocate any memory. Statistics of finished step
+ * are passed to listeners and published for JMX clients.<p>
+ * 
+ * The world calls {@link #beginStep} and {@link #endStep} around each
+ * step. When using collision world alone, call them around
+ * performDiscreteCollisionDetection to profile it.
+ * 
+ * @author jezek2
+ */
+public class StepProfiler implements StepProfilerMBean {
+	
+	private volatile boolean enabled = false;
+	private boolean recording = false;
+	
+	private final StepStatistics current = new StepStatistics();
+	private long stepNumber;
+	
+	// published statistics, guarded by this:
+	private final StepStatistics lastStep = new StepStatistics();
+	private final long[] totalPhaseTimes = new long[StepStatistics.PHASES.length];
+	private final long[] maxPhaseTimes = new long[StepStatistics.PHASES.length];
+	private long stepCount;
+	
+	private volatile StepProfileListener[] listeners = new StepProfileListener[0];
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables profiling. Takes effect at the beginning of next step.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Returns true when the current step is being recorded.
+	 */
+	public boolean isRecording() {
+		return recording;
+	}
+	
+	public synchronized void addListener(StepProfileListener listener) {
+		StepProfileListener[] list = new StepProfileListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, list, 0, listeners.length);
+		list[listeners.length] = listener;
+		listeners = list;
+	}
+	
+	public synchronized void removeListener(StepProfileListener listener) {
+		for (int i=0; i<listeners.length; i++) {
+			if (listeners[i] == listener) {
+				StepProfileListener[] list = new StepProfileListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, list, 0, i);
+				System.arraycopy(listeners, i+1, list, i, listeners.length - i - 1);
+				listeners = list;
+				return;
+			}
+		}
+	}
+	
+	public void beginStep() {
+		recording = enabled;
+		if (recording) {
+			current.clear();
+		}
+	}
+	
+	/**
+	 * Finishes the step, publishes its statistics and notifies listeners.
+	 */
+	public void endStep() {
+		if (!recording) {
+			return;
+		}
+		recording = false;
+		current.stepNumber = ++stepNumber;
+		
+		synchronized (this) {
+			lastStep.set(current);
+			for (int i=0; i<totalPhaseTimes.length; i++) {
+				long time = current.phaseTimes[i];
+				totalPhaseTimes[i] += time;
+				if (time > maxPhaseTimes[i]) {
+					maxPhaseTimes[i] = time;
+				}
+			}
+			stepCount++;
+		}
+		
+		StepProfileListener[] list = listeners;
+		for (int i=0; i<list.length; i++) {
+			list[i].stepProfiled(current);
+		}
+	}
+	
+	/**
+	 * Returns start time to be passed to {@link #endPhase}.
+	 */
+	public long startPhase() {
+		return recording? System.nanoTime() : 0L;
+	}
+	
+	public void endPhase(StepPhase phase, long startTime) {
+		if (recording) {
+			int idx = phase.ordinal();
+			current.phaseTimes[idx] += System.nanoTime() - startTime;
+			current.phaseCalls[idx]++;
+		}
+	}
+	
+	public void setCounter(StepCounter counter, long value) {
+		if (recording) {
+			current.counters[counter.ordinal()] = value;
+		}
+	}
+	
+	/**
+	 * Copies statistics of last finished step into given object.
+	 */
+	public synchronized void getLastStep(StepStatistics out) {
+		out.set(lastStep);
+	}
+	
+	/**
+	 * Registers this profiler as MBean in the platform MBean server.
+	 * 
+	 * @param name object name, eg. "javabullet:type=StepProfiler,name=world"
+	 */
+	public void registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, new ObjectName(name));
+	}
+	
+	public void unregisterMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.unregisterMBean(new ObjectName(name));
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// StepProfilerMBean:
+	
+	public synchronized long getStepCount() {
+		return stepCount;
+	}
+
+	public String[] getPhaseNames() {
+		String[] names = new String[StepStatistics.PHASES.length];
+		for (int i=0; i<names.length; i++) {
+			names[i] = StepStatistics.PHASES[i].name();
+		}
+		return names;
+	}
+
+	public synchronized long[] getLastPhaseTimes() {
+		return lastStep.phaseTimes.clone();
+	}
+
+	public synchronized long[] getAveragePhaseTimes() {
+		long[] times = new long[totalPhaseTimes.length];
+		if (stepCount > 0) {
+			for (int i=0; i<times.length; i++) {
+				times[i] = totalPhaseTimes[i] / stepCount;
+			}
+		}
+		return times;
+	}
+
+	public synchronized long[] getMaxPhaseTimes() {
+		return maxPhaseTimes.clone();
+	}
+
+	public String[] getCounterNames() {
+		String[] names = new String[StepStatistics.COUNTERS.length];
+		for (int i=0; i<names.length; i++) {
+			names[i] = StepStatistics.COUNTERS[i].name();
+		}
+		return names;
+	}
+
+	public synchronized long[] getLastCounters() {
+		return lastStep.counters.clone();
+	}
+
+	public synchronized void reset() {
+		lastStep.clear();
+		for (int i=0; i<totalPhaseTimes.length; i++) {
+			totalPhaseTimes[i] = 0L;
+			maxPhaseTimes[i] = 0L;
+		}
+		stepCount = 0;
+	}
+	
+}
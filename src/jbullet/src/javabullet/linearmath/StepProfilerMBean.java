@@ -0,0 +1,61 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+/**
+ * JMX management interface of {@link StepProfiler}. Phase times are in
+ * nanoseconds, arrays are indexed in the same order as names.
+ * 
+ * @author jezek2
+ */
+public interface StepProfilerMBean {
+
+	public boolean isEnabled();
+	
+	public void setEnabled(boolean enabled);
+	
+	/**
+	 * Returns number of profiled steps since creation or last reset.
+	 */
+	public long getStepCount();
+	
+	public String[] getPhaseNames();
+	
+	public long[] getLastPhaseTimes();
+	
+	public long[] getAveragePhaseTimes();
+	
+	public long[] getMaxPhaseTimes();
+	
+	public String[] getCounterNames();
+	
+	public long[] getLastCounters();
+	
+	/**
+	 * Clears accumulated statistics.
+	 */
+	public void reset();
+	
+}
@@ -0,0 +1,100 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+/**
+ * Timings and counters of one simulation step, see {@link StepProfiler}.
+ * 
+ * @author jezek2
+ */
+public class StepStatistics {
+	
+	static final StepPhase[] PHASES = StepPhase.values();
+	static final StepCounter[] COUNTERS = StepCounter.values();
+	
+	long stepNumber;
+	final long[] phaseTimes = new long[PHASES.length];
+	final int[] phaseCalls = new int[PHASES.length];
+	final long[] counters = new long[COUNTERS.length];
+	
+	/**
+	 * Returns sequence number of the step, starting at 1.
+	 */
+	public long getStepNumber() {
+		return stepNumber;
+	}
+	
+	/**
+	 * Returns total time spent in given phase during the step in nanoseconds.
+	 */
+	public long getPhaseTime(StepPhase phase) {
+		return phaseTimes[phase.ordinal()];
+	}
+	
+	/**
+	 * Returns how many times given phase was entered during the step.
+	 */
+	public int getPhaseCalls(StepPhase phase) {
+		return phaseCalls[phase.ordinal()];
+	}
+	
+	public long getCounter(StepCounter counter) {
+		return counters[counter.ordinal()];
+	}
+	
+	void clear() {
+		for (int i=0; i<phaseTimes.length; i++) {
+			phaseTimes[i] = 0L;
+			phaseCalls[i] = 0;
+		}
+		for (int i=0; i<counters.length; i++) {
+			counters[i] = 0L;
+		}
+	}
+	
+	void set(StepStatistics stats) {
+		stepNumber = stats.stepNumber;
+		System.arraycopy(stats.phaseTimes, 0, phaseTimes, 0, phaseTimes.length);
+		System.arraycopy(stats.phaseCalls, 0, phaseCalls, 0, phaseCalls.length);
+		System.arraycopy(stats.counters, 0, counters, 0, counters.length);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("step ").append(stepNumber).append('\n');
+		for (StepPhase phase : PHASES) {
+			for (int i=0; i<phase.getDepth(); i++) {
+				sb.append("  ");
+			}
+			sb.append(phase).append(" = ").append(getPhaseTime(phase) / 1000).append(" us\n");
+		}
+		for (StepCounter counter : COUNTERS) {
+			sb.append(counter).append(" = ").append(getCounter(counter)).append('\n');
+		}
+		return sb.toString();
+	}
+	
+}
@@ -23,6 +23,7 @@
 
 package javabullet.linearmath;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
 import javax.vecmath.Matrix3f;
@@ -89,9 +90,9 @@ public class TransformUtil {
 			}
 			else {
 				// sync(fAngle) = sin(c*fAngle)/t
-				axis.scale((float) Math.sin(0.5f * fAngle * timeStep) / fAngle, angvel);
+				axis.scale((float) ScalarUtil.sin(0.5f * fAngle * timeStep) / fAngle, angvel);
 			}
-			Quat4f dorn = stack.quats.get(axis.x, axis.y, axis.z, (float) Math.cos(fAngle * timeStep * 0.5f));
+			Quat4f dorn = stack.quats.get(axis.x, axis.y, axis.z, (float) ScalarUtil.cos(fAngle * timeStep * 0.5f));
 			Quat4f orn0 = stack.quats.get(curTrans.getRotation());
 
 			Quat4f predictedOrn = stack.quats.get();
@@ -115,9 +116,10 @@ public class TransformUtil {
 			linVel.scale(1f / timeStep);
 
 			Vector3f axis = stack.vectors.get();
-			float[] angle = new float[1];
+			float[] angle = stack.floatArrays.getFixed(1);
 			calculateDiffAxisAngle(transform0, transform1, axis, angle);
 			angVel.scale(angle[0] / timeStep, axis);
+			stack.floatArrays.release(angle);
 		}
 		finally {
 			stack.vectors.pop();
@@ -171,4 +173,27 @@ public class TransformUtil {
 		}
 	}
 	
+	/**
+	 * Writes transform into buffer as 12 floats (48 bytes), basis in row-major
+	 * order followed by origin.
+	 */
+	public static void put(ByteBuffer buf, Transform tr) {
+		Matrix3f m = tr.basis;
+		buf.putFloat(m.m00); buf.putFloat(m.m01); buf.putFloat(m.m02);
+		buf.putFloat(m.m10); buf.putFloat(m.m11); buf.putFloat(m.m12);
+		buf.putFloat(m.m20); buf.putFloat(m.m21); buf.putFloat(m.m22);
+		VectorUtil.put(buf, tr.origin);
+	}
+	
+	/**
+	 * Reads transform previously written by {@link #put}.
+	 */
+	public static void get(ByteBuffer buf, Transform out) {
+		Matrix3f m = out.basis;
+		m.m00 = buf.getFloat(); m.m01 = buf.getFloat(); m.m02 = buf.getFloat();
+		m.m10 = buf.getFloat(); m.m11 = buf.getFloat(); m.m12 = buf.getFloat();
+		m.m20 = buf.getFloat(); m.m21 = buf.getFloat(); m.m22 = buf.getFloat();
+		VectorUtil.get(buf, out.origin);
+	}
+	
 }
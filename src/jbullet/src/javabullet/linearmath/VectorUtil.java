@@ -23,6 +23,8 @@
 
 package javabullet.linearmath;
 
+import java.nio.ByteBuffer;
+import javabullet.BulletStack;
 import javax.vecmath.Vector3f;
 import javax.vecmath.Vector4f;
 
@@ -75,9 +77,17 @@ public class VectorUtil {
 	}
 
 	public static int closestAxis4(Vector4f vec) {
-		Vector4f tmp = new Vector4f(vec);
-		tmp.absolute();
-		return maxAxis4(tmp);
+		BulletStack stack = BulletStack.get();
+		
+		stack.vectors4.push();
+		try {
+			Vector4f tmp = stack.vectors4.get(vec);
+			tmp.absolute();
+			return maxAxis4(tmp);
+		}
+		finally {
+			stack.vectors4.pop();
+		}
 	}
 	
 	public static float getCoord(Vector3f vec, int num) {
@@ -186,4 +196,22 @@ public class VectorUtil {
         dest.y = y;
 	}
 	
+	/**
+	 * Writes vector into buffer as 3 floats (12 bytes).
+	 */
+	public static void put(ByteBuffer buf, Vector3f v) {
+		buf.putFloat(v.x);
+		buf.putFloat(v.y);
+		buf.putFloat(v.z);
+	}
+	
+	/**
+	 * Reads vector previously written by {@link #put}.
+	 */
+	public static void get(ByteBuffer buf, Vector3f out) {
+		out.x = buf.getFloat();
+		out.y = buf.getFloat();
+		out.z = buf.getFloat();
+	}
+	
 }
@@ -68,4 +68,8 @@ public class IntArrayList {
 		return size;
 	}
 
+	public void clear() {
+		size = 0;
+	}
+
 }
@@ -0,0 +1,112 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs several copies of a task in parallel and waits for all of them to
+ * finish. One copy is run on the calling thread, the rest are submitted to
+ * the executor. The first exception thrown by any copy is rethrown to the
+ * caller.
+ * 
+ * @author jezek2
+ */
+public class ParallelTasks {
+
+	private ParallelTasks() {}
+	
+	/**
+	 * Runs numTasks copies of task, each with different task index in range
+	 * 0 to numTasks-1. Index 0 is always run on the calling thread.
+	 */
+	public static void run(Executor executor, int numTasks, final Task task) {
+		if (executor == null || numTasks <= 1) {
+			task.run(0);
+			return;
+		}
+		
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final CountDownLatch finished = new CountDownLatch(numTasks - 1);
+		
+		for (int i=1; i<numTasks; i++) {
+			final int taskIndex = i;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						task.run(taskIndex);
+					}
+					catch (Throwable t) {
+						error.compareAndSet(null, t);
+					}
+					finally {
+						finished.countDown();
+					}
+				}
+			});
+		}
+		
+		try {
+			task.run(0);
+		}
+		catch (Throwable t) {
+			error.compareAndSet(null, t);
+		}
+		
+		boolean interrupted = false;
+		while (true) {
+			try {
+				finished.await();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		
+		Throwable t = error.get();
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException)t;
+		}
+		if (t instanceof Error) {
+			throw (Error)t;
+		}
+		if (t != null) {
+			throw new IllegalStateException(t);
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static interface Task {
+		public void run(int taskIndex);
+	}
+	
+}